@@ -11,6 +11,18 @@ public class Conv2DConnection extends ConnectionsImpl {
      * The list of filters to be used in the connection
      */
     protected float[] weights;
+
+    /**
+     * 16 bit weights (for inference). If they are set the float weights are
+     * discarded. Each row contains the weights of one output filter
+     */
+    protected HalfMatrix halfWeights;
+
+    /**
+     * 8 bit weights (for inference). If they are set the float weights are
+     * discarded. Each row contains the weights of one output filter
+     */
+    protected QuantizedMatrix quantizedWeights;
     protected int inputFeatureMapColumns;
     protected int inputFeatureMapRows;
     protected int inputFilters;
@@ -38,17 +50,68 @@ public class Conv2DConnection extends ConnectionsImpl {
      */
     public void updateDimensions() {
         int totalWeights = getKernelColumns() * getKernelRows() * outputFilters * inputFilters;
-        if (weights == null || weights.length != totalWeights) {
+        Matrix compact = halfWeights != null ? halfWeights : quantizedWeights;
+        if (compact != null && compact.getRows() * compact.getColumns() != totalWeights) {
+            throw new IllegalStateException("The dimensions of 16 bit/8 bit weights can't be changed");
+        }
+
+        if (compact == null && (weights == null || weights.length != totalWeights)) {
             weights = new float[totalWeights];
         }
     }
 
+    /**
+     * @return the weights. If the connection has 16 bit or 8 bit weights this
+     *         is a new float copy (changes are not stored)
+     */
     public float[] getWeights() {
+        if (halfWeights != null) {
+            float[] result = new float[halfWeights.getRows() * halfWeights.getColumns()];
+            halfWeights.copyTo(result);
+            return result;
+        }
+
+        if (quantizedWeights != null) {
+            float[] result = new float[quantizedWeights.getRows() * quantizedWeights.getColumns()];
+            quantizedWeights.copyTo(result);
+            return result;
+        }
+
         return weights;
     }
 
     public void setWeights(float[] weights) {
         this.weights = weights;
+        this.halfWeights = null;
+        this.quantizedWeights = null;
+    }
+
+    public HalfMatrix getHalfWeights() {
+        return halfWeights;
+    }
+
+    /**
+     * Replaces the float weights with 16 bit weights (the float weights are
+     * discarded)
+     */
+    public void setHalfWeights(HalfMatrix halfWeights) {
+        this.halfWeights = halfWeights;
+        this.quantizedWeights = null;
+        this.weights = null;
+    }
+
+    public QuantizedMatrix getQuantizedWeights() {
+        return quantizedWeights;
+    }
+
+    /**
+     * Replaces the float weights with 8 bit weights (the float weights are
+     * discarded)
+     */
+    public void setQuantizedWeights(QuantizedMatrix quantizedWeights) {
+        this.quantizedWeights = quantizedWeights;
+        this.halfWeights = null;
+        this.weights = null;
     }
 
     public int getKernelRows() {
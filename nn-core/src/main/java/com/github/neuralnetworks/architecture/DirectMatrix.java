@@ -0,0 +1,201 @@
+package com.github.neuralnetworks.architecture;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Matrix with off-heap storage (direct FloatBuffer). It is intended for large
+ * weight matrices (which otherwise end up in the old generation) and for
+ * exchanging values with NIO based code without copying. There is no heap
+ * array - getElements() is not supported and the values are accessed through
+ * getBuffer() (or get/set). The memory is released explicitly with release()
+ * (or close()). Calculators that can only work with arrays (the Aparapi
+ * kernels) use heap copies of the values (see stage/unstage and
+ * StagingBuffers)
+ */
+public class DirectMatrix extends Matrix implements AutoCloseable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * the owner of the off-heap memory
+     */
+    private transient ByteBuffer memory;
+    private transient FloatBuffer buffer;
+    private int rows;
+
+    public DirectMatrix(int rows, int columns) {
+        super();
+        setColumns(columns);
+        this.rows = rows;
+        allocate();
+    }
+
+    /**
+     * @return off-heap copy of the matrix
+     */
+    public static DirectMatrix copyOf(Matrix m) {
+        DirectMatrix result = new DirectMatrix(m.getRows(), m.getColumns());
+        if (m instanceof DirectMatrix) {
+            result.buffer.put(((DirectMatrix) m).getBuffer().duplicate());
+            result.buffer.clear();
+        } else {
+            result.copyFrom(m.getElements());
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the off-heap values. The position/limit of the returned buffer
+     *         should not be modified (use duplicate() for relative access)
+     */
+    public FloatBuffer getBuffer() {
+        if (buffer == null) {
+            throw new IllegalStateException("The matrix is released");
+        }
+
+        return buffer;
+    }
+
+    @Override
+    public float[] getElements() {
+        throw new UnsupportedOperationException("Direct matrix has no heap array - use getBuffer()");
+    }
+
+    @Override
+    public void setElements(float[] elements) {
+        throw new UnsupportedOperationException("Direct matrix has no heap array - use copyFrom()");
+    }
+
+    @Override
+    public int getRows() {
+        return rows;
+    }
+
+    @Override
+    public void set(int row, int column, float value) {
+        getBuffer().put(row * getColumns() + column, value);
+    }
+
+    @Override
+    public float get(int row, int column) {
+        return getBuffer().get(row * getColumns() + column);
+    }
+
+    public void copyFrom(float[] src) {
+        FloatBuffer b = getBuffer().duplicate();
+        b.put(src, 0, Math.min(src.length, b.capacity()));
+    }
+
+    public void copyTo(float[] dst) {
+        FloatBuffer b = getBuffer().duplicate();
+        b.get(dst, 0, Math.min(dst.length, b.capacity()));
+    }
+
+    public void fill(float value) {
+        FloatBuffer b = getBuffer();
+        for (int i = 0; i < b.capacity(); i++) {
+            b.put(i, value);
+        }
+    }
+
+    public boolean isReleased() {
+        return buffer == null;
+    }
+
+    /**
+     * Frees the off-heap memory immediately (instead of waiting for the
+     * garbage collector). The matrix can't be used afterwards
+     */
+    public void release() {
+        if (buffer != null) {
+            ByteBuffer m = memory;
+            buffer = null;
+            memory = null;
+            free(m);
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    /**
+     * @return heap copy of a direct matrix or the matrix itself if it's on
+     *         heap. For calculators that can only work with arrays. The copy
+     *         is allocated on each call - the calculators use StagingBuffers
+     *         to reuse it
+     */
+    public static Matrix stage(Matrix m) {
+        if (m instanceof DirectMatrix) {
+            Matrix result = new Matrix(m.getRows(), m.getColumns());
+            ((DirectMatrix) m).copyTo(result.getElements());
+            return result;
+        }
+
+        return m;
+    }
+
+    /**
+     * Copies the values of a staged matrix back to the original (if the
+     * original is direct)
+     */
+    public static void unstage(Matrix staged, Matrix m) {
+        if (m instanceof DirectMatrix && staged != m) {
+            ((DirectMatrix) m).copyFrom(staged.getElements());
+        }
+    }
+
+    private void allocate() {
+        memory = ByteBuffer.allocateDirect(rows * getColumns() * 4).order(ByteOrder.nativeOrder());
+        buffer = memory.asFloatBuffer();
+    }
+
+    /**
+     * Invokes the cleaner of the underlying direct byte buffer. Uses
+     * Unsafe.invokeCleaner on newer JDKs and DirectBuffer.cleaner() on the
+     * older ones. If neither is available the memory is left to the garbage
+     * collector
+     */
+    private static void free(ByteBuffer memory) {
+        try {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field f = unsafeClass.getDeclaredField("theUnsafe");
+                f.setAccessible(true);
+                unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(f.get(null), memory);
+            } catch (NoSuchMethodException e) {
+                Method cleanerMethod = memory.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(memory);
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // the memory will be freed by the garbage collector
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        FloatBuffer b = getBuffer();
+        for (int i = 0; i < b.capacity(); i++) {
+            out.writeFloat(b.get(i));
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        allocate();
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, in.readFloat());
+        }
+    }
+}
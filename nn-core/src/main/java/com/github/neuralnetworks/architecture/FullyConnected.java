@@ -10,7 +10,7 @@ public class FullyConnected extends ConnectionsImpl implements GraphConnections
     /**
      * Weight matrix for the weights of the links
      */
-    private final Matrix connectionGraph;
+    private Matrix connectionGraph;
 
     public FullyConnected(Layer inputLayer, Layer outputLayer, int inputUnitCount, int outputUnitCount) {
         super(inputLayer, outputLayer);
@@ -20,11 +20,34 @@ public class FullyConnected extends ConnectionsImpl implements GraphConnections
         connectionGraph = new Matrix(new float[inputUnitCount * outputUnitCount], inputUnitCount);
     }
 
+    /**
+     * @param connectionGraph
+     *            - custom weight matrix (for example off-heap DirectMatrix).
+     *            The columns correspond to the input units, the rows to the
+     *            output units
+     */
+    public FullyConnected(Layer inputLayer, Layer outputLayer, Matrix connectionGraph) {
+        super(inputLayer, outputLayer);
+        this.connectionGraph = connectionGraph;
+    }
+
     @Override
     public Matrix getConnectionGraph() {
         return connectionGraph;
     }
 
+    /**
+     * Replaces the weight matrix (for example with a 16 bit copy for
+     * inference). The dimensions must be the same
+     */
+    public void setConnectionGraph(Matrix connectionGraph) {
+        if (connectionGraph.getRows() != this.connectionGraph.getRows() || connectionGraph.getColumns() != this.connectionGraph.getColumns()) {
+            throw new IllegalArgumentException("Weight matrix dimensions don't match");
+        }
+
+        this.connectionGraph = connectionGraph;
+    }
+
     @Override
     public int getInputUnitCount() {
         return connectionGraph.getColumns();
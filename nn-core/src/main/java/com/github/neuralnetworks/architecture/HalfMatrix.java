@@ -0,0 +1,90 @@
+package com.github.neuralnetworks.architecture;
+
+import com.github.neuralnetworks.util.HalfFloat;
+
+/**
+ * Matrix with 16 bit values (bfloat16 or IEEE half precision). It is intended
+ * for the weights of trained networks (inference) - it halves the memory and
+ * the memory bandwidth of the weighted sum. There is no float array -
+ * getElements() is not supported. The pure java calculators (GEMM) widen the
+ * values to float while reading them. The values can't be trained (use float
+ * weights for training and convert them afterwards)
+ */
+public class HalfMatrix extends Matrix {
+
+    private static final long serialVersionUID = 1L;
+
+    private final HalfFloat format;
+    private final short[] values;
+    private final int rows;
+
+    public HalfMatrix(int rows, int columns, HalfFloat format) {
+        super();
+        setColumns(columns);
+        this.rows = rows;
+        this.format = format;
+        this.values = new short[rows * columns];
+    }
+
+    /**
+     * @return 16 bit copy of the matrix (rounded to the nearest value)
+     */
+    public static HalfMatrix copyOf(Matrix m, HalfFloat format) {
+        HalfMatrix result = new HalfMatrix(m.getRows(), m.getColumns(), format);
+        for (int i = 0, index = 0; i < m.getRows(); i++) {
+            for (int j = 0; j < m.getColumns(); j++) {
+                result.values[index++] = format.fromFloat(m.get(i, j));
+            }
+        }
+
+        return result;
+    }
+
+    public HalfFloat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the 16 bit values (row-major)
+     */
+    public short[] getValues() {
+        return values;
+    }
+
+    @Override
+    public float[] getElements() {
+        throw new UnsupportedOperationException("Half precision matrix has no float array - use get() or copyTo()");
+    }
+
+    @Override
+    public void setElements(float[] elements) {
+        throw new UnsupportedOperationException("Half precision matrix has no float array - use copyFrom()");
+    }
+
+    @Override
+    public int getRows() {
+        return rows;
+    }
+
+    @Override
+    public void set(int row, int column, float value) {
+        values[row * getColumns() + column] = format.fromFloat(value);
+    }
+
+    @Override
+    public float get(int row, int column) {
+        return format.toFloat(values[row * getColumns() + column]);
+    }
+
+    public void copyFrom(float[] src) {
+        for (int i = 0; i < Math.min(src.length, values.length); i++) {
+            values[i] = format.fromFloat(src[i]);
+        }
+    }
+
+    public void copyTo(float[] dst) {
+        for (int i = 0; i < Math.min(dst.length, values.length); i++) {
+            dst[i] = format.toFloat(values[i]);
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.github.neuralnetworks.architecture;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.github.neuralnetworks.util.UniqueList;
 import com.github.neuralnetworks.util.Util;
@@ -17,11 +19,23 @@ public class Layer implements Serializable {
 
     private static final long serialVersionUID = 1035633207383317489L;
 
+    /**
+     * Source of the topology versions. Each change of the topology (connections
+     * of a layer or layers of a network) gets a new value, which is larger than
+     * all the previous ones
+     */
+    private static final AtomicLong topologyVersions = new AtomicLong();
+
     /**
      * Set of links to other layers
      */
     private List<Connections> connections;
 
+    /**
+     * version of the last change of the connections of this layer
+     */
+    private transient volatile long topologyVersion;
+
     public Layer() {
         super();
         this.connections = new UniqueList<>();
@@ -42,12 +56,18 @@ public class Layer implements Serializable {
         return result;
     }
 
+    /**
+     * @return the connections of the layer. The list should be changed only
+     *         with addConnection/removeConnection/replaceConnection (otherwise
+     *         topologyChanged() must be called)
+     */
     public List<Connections> getConnections() {
         return connections;
     }
 
     public void setConnections(List<Connections> connections) {
         this.connections = connections;
+        topologyChanged();
     }
 
     public void addConnection(Connections connection) {
@@ -56,5 +76,86 @@ public class Layer implements Serializable {
         }
 
         connections.add(connection);
+        topologyChanged();
+    }
+
+    /**
+     * @return whether the connection was removed
+     */
+    public boolean removeConnection(Connections connection) {
+        boolean result = connections != null && connections.remove(connection);
+        if (result) {
+            topologyChanged();
+        }
+
+        return result;
+    }
+
+    /**
+     * Replaces the connection with another one at the same position
+     *
+     * @return whether the connection was replaced
+     */
+    public boolean replaceConnection(Connections connection, Connections replacement) {
+        if (connections == null || !connections.contains(connection)) {
+            return false;
+        }
+
+        if (replacement != connection) {
+            connections.remove(replacement);
+        }
+
+        connections.set(connections.indexOf(connection), replacement);
+        topologyChanged();
+
+        return true;
+    }
+
+    /**
+     * @return the version of the last change of the connections of this layer
+     */
+    public long getTopologyVersion() {
+        return topologyVersion;
+    }
+
+    /**
+     * Invalidates the cached calculation plans of the networks that contain
+     * the layer
+     */
+    public void topologyChanged() {
+        topologyVersion = nextTopologyVersion();
+    }
+
+    /**
+     * @return new topology version (larger than all the previous ones)
+     */
+    public static long nextTopologyVersion() {
+        return topologyVersions.incrementAndGet();
+    }
+
+    /**
+     * @return the version of the topology of the network - it changes only
+     *         with the changes of the network and its layers
+     */
+    public static long getTopologyVersion(NeuralNetwork network) {
+        if (network instanceof NeuralNetworkImpl) {
+            return ((NeuralNetworkImpl) network).getTopologyVersion();
+        }
+
+        return getTopologyVersion(network.getLayers());
+    }
+
+    /**
+     * @return the latest version of the layers
+     */
+    public static long getTopologyVersion(Collection<Layer> layers) {
+        long result = 0;
+        if (layers != null) {
+            for (Layer l : layers) {
+                result = Math.max(result, l.topologyVersion);
+            }
+        }
+
+        return result;
     }
 }
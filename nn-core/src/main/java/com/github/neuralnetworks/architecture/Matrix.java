@@ -6,6 +6,11 @@ import java.io.Serializable;
  * Simple matrix representation with one-dimensional array. This is required,
  * because Aparapi supports only one-dim arrays (otherwise the execution is
  * transferred to the cpu)
+ *
+ * A matrix can also be a view over a part of a shared array - the element
+ * (row, column) is located at offset + row * stride + column. This way
+ * several matrices (for example the weights of the connections of a layer)
+ * can share one buffer without copying
  */
 public class Matrix implements Serializable {
 
@@ -14,13 +19,21 @@ public class Matrix implements Serializable {
     private float[] elements;
     private int columns;
 
+    /**
+     * view properties - the position of the first element, the distance
+     * between the rows and the number of rows (0 if the matrix is not a view)
+     */
+    private int offset;
+    private int stride;
+    private int rows;
+
     public Matrix() {
         super();
     }
 
     public Matrix(Matrix copy) {
         super();
-        this.elements = new float[copy.elements.length];
+        this.elements = new float[copy.getRows() * copy.getColumns()];
         this.columns = copy.columns;
     }
 
@@ -36,6 +49,33 @@ public class Matrix implements Serializable {
         this.columns = columns;
     }
 
+    /**
+     * View over a shared array
+     */
+    public Matrix(float[] elements, int offset, int rows, int columns, int stride) {
+        super();
+        if (offset < 0 || columns > stride || (rows > 0 && offset + (rows - 1) * stride + columns > elements.length)) {
+            throw new IllegalArgumentException("The view exceeds the shared array");
+        }
+
+        this.elements = elements;
+        this.offset = offset;
+        this.rows = rows;
+        this.columns = columns;
+        this.stride = stride;
+    }
+
+    /**
+     * @return view over a part of this matrix (sharing the same array)
+     */
+    public Matrix view(int rowOffset, int columnOffset, int rows, int columns) {
+        if (rowOffset < 0 || columnOffset < 0 || rowOffset + rows > getRows() || columnOffset + columns > getColumns()) {
+            throw new IllegalArgumentException("The view exceeds the matrix");
+        }
+
+        return new Matrix(elements, getOffset() + rowOffset * getStride() + columnOffset, rows, columns, getStride());
+    }
+
     public float[] getElements() {
         return elements;
     }
@@ -53,15 +93,52 @@ public class Matrix implements Serializable {
     }
 
     public int getRows() {
-        return this.elements.length / this.columns;
+        return isView() ? rows : this.elements.length / this.columns;
+    }
+
+    /**
+     * @return the index of the first element in the elements array
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the distance between the starts of two consecutive rows in the
+     *         elements array
+     */
+    public int getStride() {
+        return isView() ? stride : columns;
+    }
+
+    public boolean isView() {
+        return stride != 0;
+    }
+
+    /**
+     * @return whether the elements array contains exactly the values of the
+     *         matrix (and nothing else)
+     */
+    public boolean isDense() {
+        return !isView() || (offset == 0 && stride == columns && rows * columns == elements.length);
+    }
+
+    /**
+     * @return whether the values are stored consecutively at the start of the
+     *         elements array. Unlike isDense() the array can be larger (for
+     *         example the values of a partial mini batch in a buffer with
+     *         larger capacity)
+     */
+    public boolean isContiguous() {
+        return offset == 0 && getStride() == columns;
     }
 
     public void set(int row, int column, float value) {
-        elements[row * columns + column] = value;
+        elements[offset + row * getStride() + column] = value;
     }
 
     public float get(int row, int column) {
-        return elements[row * columns + column];
+        return elements[offset + row * getStride() + column];
     }
 
     public int getColumn(int index) {
@@ -0,0 +1,314 @@
+package com.github.neuralnetworks.architecture;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.neuralnetworks.util.Util;
+
+/**
+ * Immutable indexed snapshot of the topology of a network. Each layer gets an
+ * id (its position in the layers of the network) and each connection within
+ * the network gets an id (in the order of NeuralNetwork.getConnections()). The
+ * adjacency is stored as arrays of connection ids by layer id and the
+ * bias/convolutional/subsampling flags and the input/output layers are
+ * computed once. NeuralNetworkImpl builds a new snapshot only after the
+ * topology of the network changes (see NeuralNetworkImpl.getTopologyVersion())
+ */
+public class NetworkTopology implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long version;
+
+    /**
+     * layers by id
+     */
+    private final Layer[] layers;
+
+    /**
+     * layer id by layer
+     */
+    private final Map<Layer, Integer> ids;
+
+    /**
+     * connections within the network by id
+     */
+    private final Connections[] connections;
+
+    /**
+     * input and output layer id of each connection
+     */
+    private final int[] inputLayers;
+    private final int[] outputLayers;
+
+    /**
+     * connection ids of each layer (in the order of Layer.getConnections())
+     */
+    private final int[][] layerConnections;
+
+    /**
+     * inbound connection ids of each layer (with the layer as output)
+     */
+    private final int[][] inbound;
+
+    /**
+     * outbound connection ids of each layer (with the layer as input)
+     */
+    private final int[][] outbound;
+
+    private final boolean[] bias;
+    private final boolean[] convolutional;
+    private final boolean[] subsampling;
+
+    private final Layer inputLayer;
+    private final Layer outputLayer;
+
+    public NetworkTopology(Set<Layer> networkLayers) {
+        this(networkLayers, Layer.getTopologyVersion(networkLayers));
+    }
+
+    /**
+     * @param version
+     *            - the topology version of the network
+     */
+    public NetworkTopology(Set<Layer> networkLayers, long version) {
+        super();
+        this.version = version;
+
+        this.layers = networkLayers != null ? networkLayers.toArray(new Layer[networkLayers.size()]) : new Layer[0];
+        this.ids = new IdentityHashMap<>();
+        for (int i = 0; i < layers.length; i++) {
+            ids.put(layers[i], i);
+        }
+
+        this.layerConnections = new int[layers.length][];
+        this.inbound = new int[layers.length][];
+        this.outbound = new int[layers.length][];
+        this.bias = new boolean[layers.length];
+        this.convolutional = new boolean[layers.length];
+        this.subsampling = new boolean[layers.length];
+
+        Map<Connections, Integer> connectionIds = new IdentityHashMap<>();
+        List<Connections> cs = new ArrayList<>();
+        int[] lc = new int[16];
+        int[] in = new int[16];
+        int[] out = new int[16];
+        for (int i = 0; i < layers.length; i++) {
+            Layer l = layers[i];
+            List<Connections> all = l.getConnections();
+            if (all.size() > lc.length) {
+                lc = new int[all.size()];
+                in = new int[all.size()];
+                out = new int[all.size()];
+            }
+
+            int lcCount = 0, inCount = 0, outCount = 0;
+            for (int j = 0; j < all.size(); j++) {
+                Connections c = all.get(j);
+                if (!ids.containsKey(Util.getOppositeLayer(c, l))) {
+                    continue;
+                }
+
+                Integer id = connectionIds.get(c);
+                if (id == null) {
+                    id = cs.size();
+                    connectionIds.put(c, id);
+                    cs.add(c);
+                }
+
+                lc[lcCount++] = id;
+                if (c.getOutputLayer() == l) {
+                    in[inCount++] = id;
+                }
+
+                if (c.getInputLayer() == l) {
+                    out[outCount++] = id;
+                }
+            }
+
+            layerConnections[i] = Arrays.copyOf(lc, lcCount);
+            inbound[i] = Arrays.copyOf(in, inCount);
+            outbound[i] = Arrays.copyOf(out, outCount);
+            bias[i] = Util.isBias(l);
+            convolutional[i] = Util.isConvolutional(l);
+            subsampling[i] = Util.isSubsampling(l);
+        }
+
+        this.connections = cs.toArray(new Connections[cs.size()]);
+        this.inputLayers = new int[connections.length];
+        this.outputLayers = new int[connections.length];
+        for (int i = 0; i < connections.length; i++) {
+            inputLayers[i] = ids.get(connections[i].getInputLayer());
+            outputLayers[i] = ids.get(connections[i].getOutputLayer());
+        }
+
+        // the input layer is the first layer without inbound connections (except from bias layers)
+        Layer input = null;
+        notInput: for (int i = 0; i < layers.length; i++) {
+            for (int c : inbound[i]) {
+                if (!bias[inputLayers[c]]) {
+                    continue notInput;
+                }
+            }
+
+            input = layers[i];
+            break;
+        }
+
+        this.inputLayer = input;
+
+        // the output layer is the first layer without outbound connections
+        Layer output = null;
+        for (int i = 0; i < layers.length; i++) {
+            if (outbound[i].length == 0) {
+                output = layers[i];
+                break;
+            }
+        }
+
+        this.outputLayer = output;
+    }
+
+    /**
+     * @return the topology version at the time of the snapshot
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getLayerCount() {
+        return layers.length;
+    }
+
+    public int getConnectionCount() {
+        return connections.length;
+    }
+
+    /**
+     * @return the id of the layer or -1 if the layer is not part of the network
+     */
+    public int getId(Layer layer) {
+        Integer result = ids.get(layer);
+        return result != null ? result : -1;
+    }
+
+    public Layer getLayer(int id) {
+        return layers[id];
+    }
+
+    public Connections getConnection(int id) {
+        return connections[id];
+    }
+
+    /**
+     * @return the id of the input layer of the connection with id "connection"
+     */
+    public int getInputLayerId(int connection) {
+        return inputLayers[connection];
+    }
+
+    /**
+     * @return the id of the output layer of the connection with id "connection"
+     */
+    public int getOutputLayerId(int connection) {
+        return outputLayers[connection];
+    }
+
+    /**
+     * @return the ids of the connections of the layer within the network (the
+     *         array must not be modified)
+     */
+    public int[] getConnectionIds(int layer) {
+        return layerConnections[layer];
+    }
+
+    /**
+     * @return the ids of the connections with the layer as output (the array
+     *         must not be modified)
+     */
+    public int[] getInboundConnectionIds(int layer) {
+        return inbound[layer];
+    }
+
+    /**
+     * @return the ids of the connections with the layer as input (the array
+     *         must not be modified)
+     */
+    public int[] getOutboundConnectionIds(int layer) {
+        return outbound[layer];
+    }
+
+    public boolean isBias(int layer) {
+        return bias[layer];
+    }
+
+    public boolean isConvolutional(int layer) {
+        return convolutional[layer];
+    }
+
+    public boolean isSubsampling(int layer) {
+        return subsampling[layer];
+    }
+
+    public Layer getInputLayer() {
+        return inputLayer;
+    }
+
+    public Layer getOutputLayer() {
+        return outputLayer;
+    }
+
+    /**
+     * @return all the connections within the network
+     */
+    public List<Connections> getConnections() {
+        return Collections.unmodifiableList(Arrays.asList(connections));
+    }
+
+    /**
+     * @return the connections of the layer within the network (same as
+     *         Layer.getConnections(NeuralNetwork))
+     */
+    public List<Connections> getConnections(Layer layer) {
+        int id = getId(layer);
+        List<Connections> result = new ArrayList<>();
+        if (id != -1) {
+            for (int c : layerConnections[id]) {
+                result.add(connections[c]);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return connection between the two layers (in any direction) or null
+     */
+    public Connections getConnection(Layer inputLayer, Layer outputLayer) {
+        int in = getId(inputLayer);
+        int out = getId(outputLayer);
+        if (in != -1 && out != -1) {
+            // the connection can be missing in the connections of one of the layers
+            Connections result = getConnection(layerConnections[in], in, out);
+            return result != null ? result : getConnection(layerConnections[out], in, out);
+        }
+
+        return null;
+    }
+
+    private Connections getConnection(int[] ids, int in, int out) {
+        for (int c : ids) {
+            if ((inputLayers[c] == in && outputLayers[c] == out) || (inputLayers[c] == out && outputLayers[c] == in)) {
+                return connections[c];
+            }
+        }
+
+        return null;
+    }
+}
@@ -7,7 +7,6 @@ import java.util.Set;
 
 import com.github.neuralnetworks.calculation.LayerCalculator;
 import com.github.neuralnetworks.util.UniqueList;
-import com.github.neuralnetworks.util.Util;
 
 /**
  * Base class for all types of neural networks. A neural network is defined only
@@ -21,6 +20,17 @@ public class NeuralNetworkImpl implements NeuralNetwork {
     private Set<Layer> layers;
     private LayerCalculator layerCalculator;
 
+    /**
+     * indexed snapshot of the topology (rebuilt after each change)
+     */
+    private transient volatile NetworkTopology topology;
+
+    /**
+     * version of the last change of the layers of the network (see
+     * Layer.nextTopologyVersion())
+     */
+    private transient volatile long layersVersion;
+
     public NeuralNetworkImpl() {
         super();
         this.layers = new UniqueList<Layer>();
@@ -47,6 +57,33 @@ public class NeuralNetworkImpl implements NeuralNetwork {
 
     public void setLayers(Set<Layer> layers) {
         this.layers = layers;
+        layersChanged();
+    }
+
+    /**
+     * @return indexed snapshot of the current topology of the network
+     */
+    public NetworkTopology getTopology() {
+        NetworkTopology result = topology;
+        long version = getTopologyVersion();
+        if (result == null || result.getVersion() != version || result.getLayerCount() != (layers != null ? layers.size() : 0)) {
+            topology = result = new NetworkTopology(layers, version);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the version of the topology of the network - the latest version
+     *         of the layers of the network and their connections. The changes
+     *         of other networks don't affect it
+     */
+    public long getTopologyVersion() {
+        return Math.max(layersVersion, Layer.getTopologyVersion(layers));
+    }
+
+    private void layersChanged() {
+        layersVersion = Layer.nextTopologyVersion();
     }
 
     /*
@@ -58,17 +95,7 @@ public class NeuralNetworkImpl implements NeuralNetwork {
      */
     @Override
     public Layer getInputLayer() {
-        notInput: for (Layer l : layers) {
-            for (Connections c : l.getConnections(this)) {
-                if (l == c.getOutputLayer() && !Util.isBias(c.getInputLayer())) {
-                    continue notInput;
-                }
-            }
-
-            return l;
-        }
-
-        return null;
+        return getTopology().getInputLayer();
     }
 
     @Override
@@ -77,17 +104,7 @@ public class NeuralNetworkImpl implements NeuralNetwork {
     }
 
     protected Layer getNoOutboundConnectionsLayer() {
-        hasOutboundConnections: for (Layer l : layers) {
-            for (Connections c : l.getConnections(this)) {
-                if (l == c.getInputLayer()) {
-                    continue hasOutboundConnections;
-                }
-            }
-
-            return l;
-        }
-
-        return null;
+        return getTopology().getOutputLayer();
     }
 
     /*
@@ -101,14 +118,7 @@ public class NeuralNetworkImpl implements NeuralNetwork {
      */
     @Override
     public List<Connections> getConnections() {
-        List<Connections> result = new UniqueList<>();
-        if (layers != null) {
-            for (Layer l : layers) {
-                result.addAll(l.getConnections(this));
-            }
-        }
-
-        return result;
+        return new UniqueList<>(getTopology().getConnections());
     }
 
     /**
@@ -117,13 +127,7 @@ public class NeuralNetworkImpl implements NeuralNetwork {
      * @return Connection between the two layers if it exists
      */
     public Connections getConnection(Layer inputLayer, Layer outputLayer) {
-        for (Connections c : getConnections()) {
-            if ((c.getInputLayer() == inputLayer && c.getOutputLayer() == outputLayer) || (c.getInputLayer() == outputLayer && c.getOutputLayer() == inputLayer)) {
-                return c;
-            }
-        }
-
-        return null;
+        return getTopology().getConnection(inputLayer, outputLayer);
     }
 
     /**
@@ -140,6 +144,7 @@ public class NeuralNetworkImpl implements NeuralNetwork {
 
             if (!layers.contains(layer)) {
                 layers.add(layer);
+                layersChanged();
                 return true;
             }
         }
@@ -161,14 +166,17 @@ public class NeuralNetworkImpl implements NeuralNetwork {
                 // remove layer and bias layers
                 Set<Layer> toRemove = new HashSet<>();
                 toRemove.add(layer);
-                for (Connections c : layer.getConnections(this)) {
-                    if (Util.isBias(c.getInputLayer())) {
+                NetworkTopology t = getTopology();
+                for (Connections c : t.getConnections(layer)) {
+                    int id = t.getId(c.getInputLayer());
+                    if (id != -1 && t.isBias(id)) {
                         toRemove.add(c.getInputLayer());
                     }
                 }
 
                 if (toRemove.size() > 0) {
                     layers.removeAll(toRemove);
+                    layersChanged();
                     result = true;
                 }
             }
@@ -193,6 +201,8 @@ public class NeuralNetworkImpl implements NeuralNetwork {
                     layers.add(layer);
                 }
             }
+
+            layersChanged();
         }
     }
 
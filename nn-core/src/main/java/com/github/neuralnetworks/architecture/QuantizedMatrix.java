@@ -0,0 +1,128 @@
+package com.github.neuralnetworks.architecture;
+
+/**
+ * Matrix with 8 bit integer values (post training quantization). Each row has
+ * its own scale and zero point: value = (q - zeroPoint[row]) * scale[row]. It
+ * is intended for the weights of trained networks (inference) - the pure java
+ * calculators multiply the 8 bit values directly (Int8GEMM) and accumulate in
+ * int. The input values of the connection are quantized to 8 bit
+ * (symmetrically) during the calculation - either with the calibrated input
+ * range or with the range of the current values. There is no float array -
+ * getElements() is not supported
+ */
+public class QuantizedMatrix extends Matrix {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] values;
+    private final float[] scales;
+    private final int[] zeroPoints;
+    private final int rows;
+
+    /**
+     * calibrated maximum absolute value of the input values (0 if the range is
+     * determined for each calculation)
+     */
+    private float inputRange;
+
+    public QuantizedMatrix(int rows, int columns) {
+        super();
+        setColumns(columns);
+        this.rows = rows;
+        this.values = new byte[rows * columns];
+        this.scales = new float[rows];
+        this.zeroPoints = new int[rows];
+    }
+
+    /**
+     * @return 8 bit copy of the matrix. The range of each row (extended to
+     *         include 0) is mapped to [-128, 127]
+     */
+    public static QuantizedMatrix quantize(Matrix m) {
+        QuantizedMatrix result = new QuantizedMatrix(m.getRows(), m.getColumns());
+        for (int i = 0; i < m.getRows(); i++) {
+            float min = 0, max = 0;
+            for (int j = 0; j < m.getColumns(); j++) {
+                min = Math.min(min, m.get(i, j));
+                max = Math.max(max, m.get(i, j));
+            }
+
+            float scale = (max - min) / 255;
+            if (scale == 0) {
+                scale = 1;
+            }
+
+            result.scales[i] = scale;
+            result.zeroPoints[i] = clamp(Math.round(-128 - min / scale));
+
+            for (int j = 0; j < m.getColumns(); j++) {
+                result.set(i, j, m.get(i, j));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the 8 bit values (row-major)
+     */
+    public byte[] getValues() {
+        return values;
+    }
+
+    public float[] getScales() {
+        return scales;
+    }
+
+    public int[] getZeroPoints() {
+        return zeroPoints;
+    }
+
+    public float getInputRange() {
+        return inputRange;
+    }
+
+    public void setInputRange(float inputRange) {
+        this.inputRange = inputRange;
+    }
+
+    @Override
+    public float[] getElements() {
+        throw new UnsupportedOperationException("Quantized matrix has no float array - use get() or copyTo()");
+    }
+
+    @Override
+    public void setElements(float[] elements) {
+        throw new UnsupportedOperationException("Quantized matrix has no float array - use set()");
+    }
+
+    @Override
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * The value is quantized with the scale and zero point of the row (values
+     * outside of the range of the row are clamped)
+     */
+    @Override
+    public void set(int row, int column, float value) {
+        values[row * getColumns() + column] = (byte) clamp(Math.round(value / scales[row]) + zeroPoints[row]);
+    }
+
+    @Override
+    public float get(int row, int column) {
+        return (values[row * getColumns() + column] - zeroPoints[row]) * scales[row];
+    }
+
+    public void copyTo(float[] dst) {
+        for (int i = 0; i < Math.min(dst.length, values.length); i++) {
+            int row = i / getColumns();
+            dst[i] = (values[i] - zeroPoints[row]) * scales[row];
+        }
+    }
+
+    private static int clamp(int q) {
+        return Math.min(127, Math.max(-128, q));
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.neuralnetworks.architecture;
+
+/**
+ * Layer values stored sample-major - the values of one sample (column) are
+ * consecutive: the value of the unit "row" for the sample "column" is
+ * values[column * rows + row]. The default Matrix layout is unit-major (the
+ * values of one unit for all the samples of the mini batch are consecutive).
+ * Reading a single sample from a unit-major matrix hops miniBatchSize values
+ * at a time, while here it is a sequential read. The fully connected
+ * calculators (AparapiWeightedSum, GEMMWeightedSum and their transfer
+ * functions) read and write both layouts in place. There is no unit-major
+ * array - getElements() is not supported. Calculators that only support the
+ * unit-major layout can use stage()/unstage()
+ */
+public class SampleMajorMatrix extends Matrix {
+
+    private static final long serialVersionUID = 1L;
+
+    private final float[] values;
+    private final int rows;
+
+    public SampleMajorMatrix(int rows, int columns) {
+        super();
+        setColumns(columns);
+        this.rows = rows;
+        this.values = new float[rows * columns];
+    }
+
+    /**
+     * @return sample-major copy of the matrix
+     */
+    public static SampleMajorMatrix copyOf(Matrix m) {
+        SampleMajorMatrix result = new SampleMajorMatrix(m.getRows(), m.getColumns());
+        result.copyFrom(m);
+        return result;
+    }
+
+    /**
+     * @return the values (sample-major)
+     */
+    public float[] getValues() {
+        return values;
+    }
+
+    @Override
+    public float[] getElements() {
+        throw new UnsupportedOperationException("Sample-major matrix has no unit-major array - use getValues()");
+    }
+
+    @Override
+    public void setElements(float[] elements) {
+        throw new UnsupportedOperationException("Sample-major matrix has no unit-major array - use getValues()");
+    }
+
+    @Override
+    public int getRows() {
+        return rows;
+    }
+
+    @Override
+    public void set(int row, int column, float value) {
+        values[column * rows + row] = value;
+    }
+
+    @Override
+    public float get(int row, int column) {
+        return values[column * rows + row];
+    }
+
+    /**
+     * Copies (transposes) the values of a unit-major matrix
+     */
+    public void copyFrom(Matrix m) {
+        if (m instanceof SampleMajorMatrix) {
+            System.arraycopy(((SampleMajorMatrix) m).values, 0, values, 0, values.length);
+        } else {
+            float[] src = m.getElements();
+            for (int r = 0, columns = getColumns(); r < rows; r++) {
+                for (int c = 0, si = m.getOffset() + r * m.getStride(); c < columns; c++) {
+                    values[c * rows + r] = src[si + c];
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies (transposes) the values to a unit-major matrix
+     */
+    public void copyTo(Matrix m) {
+        float[] dst = m.getElements();
+        for (int r = 0, columns = getColumns(); r < rows; r++) {
+            for (int c = 0, di = m.getOffset() + r * m.getStride(); c < columns; c++) {
+                dst[di + c] = values[c * rows + r];
+            }
+        }
+    }
+
+    /**
+     * @return unit-major copy of a sample-major matrix or the matrix itself.
+     *         For calculators that can only work with the unit-major layout
+     */
+    public static Matrix stage(Matrix m) {
+        if (m instanceof SampleMajorMatrix) {
+            Matrix result = new Matrix(m.getRows(), m.getColumns());
+            ((SampleMajorMatrix) m).copyTo(result);
+            return result;
+        }
+
+        return m;
+    }
+
+    /**
+     * Copies the values of a staged matrix back to the original (if the
+     * original is sample-major)
+     */
+    public static void unstage(Matrix staged, Matrix m) {
+        if (m instanceof SampleMajorMatrix && staged != m) {
+            ((SampleMajorMatrix) m).copyFrom(staged);
+        }
+    }
+}
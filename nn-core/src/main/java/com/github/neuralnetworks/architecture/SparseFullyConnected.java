@@ -0,0 +1,29 @@
+package com.github.neuralnetworks.architecture;
+
+/**
+ * Fully connected layers with a sparse (CSR) weight matrix - the weights that
+ * are not stored are 0 and are skipped by the calculations. Usually created
+ * by pruning a trained FullyConnected connection (see Util.prune)
+ */
+public class SparseFullyConnected extends FullyConnected {
+
+    private static final long serialVersionUID = 1L;
+
+    public SparseFullyConnected(Layer inputLayer, Layer outputLayer, SparseMatrix connectionGraph) {
+        super(inputLayer, outputLayer, connectionGraph);
+    }
+
+    @Override
+    public SparseMatrix getConnectionGraph() {
+        return (SparseMatrix) super.getConnectionGraph();
+    }
+
+    @Override
+    public void setConnectionGraph(Matrix connectionGraph) {
+        if (!(connectionGraph instanceof SparseMatrix)) {
+            throw new IllegalArgumentException("The weight matrix must be sparse");
+        }
+
+        super.setConnectionGraph(connectionGraph);
+    }
+}
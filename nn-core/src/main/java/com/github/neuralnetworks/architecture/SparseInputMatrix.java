@@ -0,0 +1,252 @@
+package com.github.neuralnetworks.architecture;
+
+import java.util.Arrays;
+
+/**
+ * Sparse input values (for example bag-of-words or one-hot vectors). Each
+ * column (input sample) is a list of the indices of the non-zero units and
+ * their values. Training input providers can emit it instead of a dense
+ * Matrix - the calculations of the first layer (forward weighted sum and the
+ * weight gradient of the backpropagation) then only touch the non-zero
+ * values. The calculators get the values in compressed form (both by column
+ * and by row), the compressed arrays are created when they are requested and
+ * are reused until the values change. There is no dense array -
+ * getElements() is not supported
+ */
+public class SparseInputMatrix extends Matrix {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int rows;
+    private final int[][] indices;
+    private final float[][] values;
+
+    /**
+     * by column - the values of column c are columnValues[columnPointers[c]]
+     * ... columnValues[columnPointers[c + 1] - 1] and their rows are in
+     * rowIndices
+     */
+    private transient int[] columnPointers;
+    private transient int[] rowIndices;
+    private transient float[] columnValues;
+
+    /**
+     * by row - the values of row r are rowValues[rowPointers[r]] ...
+     * rowValues[rowPointers[r + 1] - 1] and their columns are in
+     * columnIndices
+     */
+    private transient int[] rowPointers;
+    private transient int[] columnIndices;
+    private transient float[] rowValues;
+
+    public SparseInputMatrix(int rows, int columns) {
+        super();
+        setColumns(columns);
+        this.rows = rows;
+        this.indices = new int[columns][];
+        this.values = new float[columns][];
+        for (int i = 0; i < columns; i++) {
+            indices[i] = new int[0];
+            values[i] = new float[0];
+        }
+    }
+
+    /**
+     * @return sparse copy of the non-zero values of the matrix
+     */
+    public static SparseInputMatrix copyOf(Matrix m) {
+        SparseInputMatrix result = new SparseInputMatrix(m.getRows(), m.getColumns());
+        for (int j = 0; j < m.getColumns(); j++) {
+            int count = 0;
+            for (int i = 0; i < m.getRows(); i++) {
+                if (m.get(i, j) != 0) {
+                    count++;
+                }
+            }
+
+            int[] idx = new int[count];
+            float[] v = new float[count];
+            for (int i = 0, index = 0; i < m.getRows(); i++) {
+                if (m.get(i, j) != 0) {
+                    idx[index] = i;
+                    v[index++] = m.get(i, j);
+                }
+            }
+
+            result.setColumn(j, idx, v);
+        }
+
+        return result;
+    }
+
+    /**
+     * Replaces the values of a column (input sample)
+     *
+     * @param indices
+     *            - the units with non-zero values (sorted)
+     * @param values
+     *            - the values of the units
+     */
+    public void setColumn(int column, int[] indices, float[] values) {
+        if (indices.length != values.length) {
+            throw new IllegalArgumentException("Indices and values don't match");
+        }
+
+        this.indices[column] = indices;
+        this.values[column] = values;
+        invalidate();
+    }
+
+    public int[] getIndices(int column) {
+        return indices[column];
+    }
+
+    public float[] getValues(int column) {
+        return values[column];
+    }
+
+    public int getNonZeroCount() {
+        int result = 0;
+        for (int[] i : indices) {
+            result += i.length;
+        }
+
+        return result;
+    }
+
+    public int[] getColumnPointers() {
+        compressColumns();
+        return columnPointers;
+    }
+
+    public int[] getRowIndices() {
+        compressColumns();
+        return rowIndices;
+    }
+
+    public float[] getColumnValues() {
+        compressColumns();
+        return columnValues;
+    }
+
+    public int[] getRowPointers() {
+        compressRows();
+        return rowPointers;
+    }
+
+    public int[] getColumnIndices() {
+        compressRows();
+        return columnIndices;
+    }
+
+    public float[] getRowValues() {
+        compressRows();
+        return rowValues;
+    }
+
+    @Override
+    public float[] getElements() {
+        throw new UnsupportedOperationException("Sparse input has no dense array - use getIndices()/getValues()");
+    }
+
+    @Override
+    public void setElements(float[] elements) {
+        throw new UnsupportedOperationException("Sparse input has no dense array - use setColumn()");
+    }
+
+    @Override
+    public int getRows() {
+        return rows;
+    }
+
+    @Override
+    public float get(int row, int column) {
+        int index = Arrays.binarySearch(indices[column], row);
+        return index >= 0 ? values[column][index] : 0;
+    }
+
+    /**
+     * Changes a single value (the column arrays are copied if a value is added
+     * or removed - use setColumn() for bulk changes)
+     */
+    @Override
+    public void set(int row, int column, float value) {
+        int[] idx = indices[column];
+        float[] v = values[column];
+        int index = Arrays.binarySearch(idx, row);
+        if (index >= 0 && value != 0) {
+            v[index] = value;
+            invalidate();
+        } else if (index >= 0) {
+            int[] newIdx = new int[idx.length - 1];
+            float[] newV = new float[v.length - 1];
+            System.arraycopy(idx, 0, newIdx, 0, index);
+            System.arraycopy(idx, index + 1, newIdx, index, idx.length - index - 1);
+            System.arraycopy(v, 0, newV, 0, index);
+            System.arraycopy(v, index + 1, newV, index, v.length - index - 1);
+            setColumn(column, newIdx, newV);
+        } else if (value != 0) {
+            index = -index - 1;
+            int[] newIdx = new int[idx.length + 1];
+            float[] newV = new float[v.length + 1];
+            System.arraycopy(idx, 0, newIdx, 0, index);
+            System.arraycopy(idx, index, newIdx, index + 1, idx.length - index);
+            System.arraycopy(v, 0, newV, 0, index);
+            System.arraycopy(v, index, newV, index + 1, v.length - index);
+            newIdx[index] = row;
+            newV[index] = value;
+            setColumn(column, newIdx, newV);
+        }
+    }
+
+    private void invalidate() {
+        columnPointers = null;
+        rowPointers = null;
+    }
+
+    private void compressColumns() {
+        if (columnPointers == null) {
+            int nnz = getNonZeroCount();
+            int[] pointers = new int[getColumns() + 1];
+            rowIndices = new int[Math.max(1, nnz)];
+            columnValues = new float[Math.max(1, nnz)];
+            for (int j = 0; j < getColumns(); j++) {
+                System.arraycopy(indices[j], 0, rowIndices, pointers[j], indices[j].length);
+                System.arraycopy(values[j], 0, columnValues, pointers[j], values[j].length);
+                pointers[j + 1] = pointers[j] + indices[j].length;
+            }
+
+            columnPointers = pointers;
+        }
+    }
+
+    private void compressRows() {
+        if (rowPointers == null) {
+            int nnz = getNonZeroCount();
+            int[] pointers = new int[rows + 1];
+            for (int[] idx : indices) {
+                for (int i : idx) {
+                    pointers[i + 1]++;
+                }
+            }
+
+            for (int i = 0; i < rows; i++) {
+                pointers[i + 1] += pointers[i];
+            }
+
+            // the columns are added in order, so they are sorted within each row
+            int[] next = Arrays.copyOf(pointers, rows);
+            columnIndices = new int[Math.max(1, nnz)];
+            rowValues = new float[Math.max(1, nnz)];
+            for (int j = 0; j < getColumns(); j++) {
+                for (int k = 0; k < indices[j].length; k++) {
+                    int p = next[indices[j][k]]++;
+                    columnIndices[p] = j;
+                    rowValues[p] = values[j][k];
+                }
+            }
+
+            rowPointers = pointers;
+        }
+    }
+}
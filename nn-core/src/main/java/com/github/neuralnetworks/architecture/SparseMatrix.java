@@ -0,0 +1,139 @@
+package com.github.neuralnetworks.architecture;
+
+import java.util.Arrays;
+
+/**
+ * Sparse matrix in compressed sparse row (CSR) format. The non-zero values of
+ * row r are values[rowPointers[r]] ... values[rowPointers[r + 1] - 1] and
+ * their columns are stored in columnIndices (sorted within the row). The
+ * structure is fixed - only the existing (non-zero) values can be changed.
+ * It is intended for pruned weight matrices - the pure java calculators
+ * (GEMMWeightedSum and GEMMBackpropagationFullyConnected) only touch the
+ * stored values. There is no dense array - getElements() is not supported
+ */
+public class SparseMatrix extends Matrix {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] rowPointers;
+    private final int[] columnIndices;
+    private final float[] values;
+    private final int rows;
+
+    public SparseMatrix(int rows, int columns, int[] rowPointers, int[] columnIndices, float[] values) {
+        super();
+        setColumns(columns);
+        this.rows = rows;
+        this.rowPointers = rowPointers;
+        this.columnIndices = columnIndices;
+        this.values = values;
+    }
+
+    /**
+     * @return sparse copy of the matrix with the values whose magnitude is
+     *         larger than threshold
+     */
+    public static SparseMatrix prune(Matrix m, float threshold) {
+        int[] rowPointers = new int[m.getRows() + 1];
+        for (int i = 0; i < m.getRows(); i++) {
+            rowPointers[i + 1] = rowPointers[i];
+            for (int j = 0; j < m.getColumns(); j++) {
+                if (Math.abs(m.get(i, j)) > threshold) {
+                    rowPointers[i + 1]++;
+                }
+            }
+        }
+
+        int[] columnIndices = new int[rowPointers[m.getRows()]];
+        float[] values = new float[columnIndices.length];
+        for (int i = 0, index = 0; i < m.getRows(); i++) {
+            for (int j = 0; j < m.getColumns(); j++) {
+                if (Math.abs(m.get(i, j)) > threshold) {
+                    columnIndices[index] = j;
+                    values[index++] = m.get(i, j);
+                }
+            }
+        }
+
+        return new SparseMatrix(m.getRows(), m.getColumns(), rowPointers, columnIndices, values);
+    }
+
+    /**
+     * @return the magnitude threshold that prunes (at least) the sparsity
+     *         fraction of the values of the matrix
+     */
+    public static float threshold(Matrix m, float sparsity) {
+        float[] magnitudes = new float[m.getRows() * m.getColumns()];
+        for (int i = 0, index = 0; i < m.getRows(); i++) {
+            for (int j = 0; j < m.getColumns(); j++) {
+                magnitudes[index++] = Math.abs(m.get(i, j));
+            }
+        }
+
+        int pruned = Math.round(sparsity * magnitudes.length);
+        if (pruned <= 0) {
+            return -1;
+        }
+
+        Arrays.sort(magnitudes);
+        return magnitudes[Math.min(pruned, magnitudes.length) - 1];
+    }
+
+    public int[] getRowPointers() {
+        return rowPointers;
+    }
+
+    public int[] getColumnIndices() {
+        return columnIndices;
+    }
+
+    /**
+     * @return the stored values (in the order of the rows)
+     */
+    public float[] getValues() {
+        return values;
+    }
+
+    public int getNonZeroCount() {
+        return values.length;
+    }
+
+    @Override
+    public float[] getElements() {
+        throw new UnsupportedOperationException("Sparse matrix has no dense array - use getValues()");
+    }
+
+    @Override
+    public void setElements(float[] elements) {
+        throw new UnsupportedOperationException("Sparse matrix has no dense array - use getValues()");
+    }
+
+    @Override
+    public int getRows() {
+        return rows;
+    }
+
+    @Override
+    public void set(int row, int column, float value) {
+        int index = indexOf(row, column);
+        if (index >= 0) {
+            values[index] = value;
+        } else if (value != 0) {
+            throw new IllegalArgumentException("The value at " + row + ", " + column + " is pruned");
+        }
+    }
+
+    @Override
+    public float get(int row, int column) {
+        int index = indexOf(row, column);
+        return index >= 0 ? values[index] : 0;
+    }
+
+    /**
+     * @return the index of the value in the values array (or a negative value
+     *         if the value is not stored)
+     */
+    private int indexOf(int row, int column) {
+        return Arrays.binarySearch(columnIndices, rowPointers[row], rowPointers[row + 1], column);
+    }
+}
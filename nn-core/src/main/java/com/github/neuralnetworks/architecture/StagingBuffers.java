@@ -0,0 +1,57 @@
+package com.github.neuralnetworks.architecture;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reusable heap copies of off-heap matrices (see DirectMatrix.stage) for
+ * calculators that can only work with arrays. Each calculator keeps its own
+ * instance: reset() is called at the start of the calculation and the
+ * matrices that are staged after it are copied into the same heap buffers as
+ * in the previous calculation (in the same order), so the steady state
+ * doesn't allocate. Not thread safe. The calculators that still stage the
+ * off-heap values are the GEMM weighted sum and backpropagation (the input
+ * and output values - off-heap weights are read in place) and the Aparapi
+ * convolution and subsampling kernels (the kernels work only with arrays)
+ */
+public class StagingBuffers {
+
+    private final List<Matrix> buffers = new ArrayList<>();
+
+    /**
+     * index of the next buffer
+     */
+    private int next;
+
+    /**
+     * Starts a new calculation - the buffers can be reused
+     */
+    public void reset() {
+        next = 0;
+    }
+
+    /**
+     * @return heap copy of a direct matrix (in a reused buffer) or the matrix
+     *         itself if it's on heap
+     */
+    public Matrix stage(Matrix m) {
+        if (!(m instanceof DirectMatrix)) {
+            return m;
+        }
+
+        Matrix result = next < buffers.size() ? buffers.get(next) : null;
+        if (result == null || result.getRows() != m.getRows() || result.getColumns() != m.getColumns()) {
+            result = new Matrix(m.getRows(), m.getColumns());
+            if (next < buffers.size()) {
+                buffers.set(next, result);
+            } else {
+                buffers.add(result);
+            }
+        }
+
+        next++;
+        ((DirectMatrix) m).copyTo(result.getElements());
+
+        return result;
+    }
+}
@@ -147,6 +147,53 @@ public class NNFactory {
         return result;
     }
 
+    /**
+     * Multi column perceptron - "columns" independent fully connected columns
+     * with the same input layer and the same output layer
+     * 
+     * @param layers
+     *            - neuron count for the input layer and for each layer of a
+     *            column
+     * @param columns
+     *            - number of columns
+     * @param outputUnitCount
+     *            - neuron count of the output layer
+     * @param addBias
+     * @return
+     */
+    public static NeuralNetworkImpl multiColumnMlp(int[] layers, int columns, int outputUnitCount, boolean addBias) {
+        if (layers.length <= 1 || columns < 1) {
+            throw new IllegalArgumentException("more than one layer and at least one column are required");
+        }
+
+        NeuralNetworkImpl result = new NeuralNetworkImpl();
+        Layer input = new Layer();
+        Layer output = new Layer();
+        result.addLayer(input);
+        result.addLayer(output);
+
+        for (int c = 0; c < columns; c++) {
+            Layer prev = input;
+            for (int i = 1; i < layers.length; i++) {
+                Layer layer = new Layer();
+                result.addConnection(new FullyConnected(prev, layer, layers[i - 1], layers[i]));
+                if (addBias) {
+                    result.addConnection(new FullyConnected(new Layer(), layer, 1, layers[i]));
+                }
+
+                prev = layer;
+            }
+
+            result.addConnection(new FullyConnected(prev, output, layers[layers.length - 1], outputUnitCount));
+        }
+
+        if (addBias) {
+            result.addConnection(new FullyConnected(new Layer(), output, 1, outputUnitCount));
+        }
+
+        return result;
+    }
+
     /**
      * Add fully connected layer to the output layer of the network
      * 
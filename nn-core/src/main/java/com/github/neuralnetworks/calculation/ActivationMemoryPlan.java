@@ -0,0 +1,264 @@
+package com.github.neuralnetworks.calculation;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.NeuralNetwork;
+import com.github.neuralnetworks.calculation.LayerOrderStrategy.ConnectionCandidate;
+import com.github.neuralnetworks.util.Util;
+
+/**
+ * Memory plan for the activations of a forward pass (inference). The
+ * ValuesProvider keeps the values of every layer alive, although most of them
+ * are not needed after the next layer is calculated. The plan follows the
+ * calculation order of TargetLayerOrderStrategy - each calculated layer is
+ * live from the step that calculates it until the last step that uses it.
+ * Layers with disjoint live ranges share the same buffer (like registers):
+ * when a layer is calculated it gets the smallest free buffer that is large
+ * enough (or the largest free buffer, which is grown, or a new buffer) and
+ * its buffer is freed after its last use. The target layer is never freed.
+ * The input layers and the bias layers keep their own values.
+ *
+ * apply(...) adds the views of the shared buffers to a ValuesProvider - the
+ * values of the recycled layers are overwritten during the calculation, so
+ * the plan is only valid for inference (not for training or event listeners
+ * that read the values of earlier layers). LayerCalculatorImpl applies the
+ * plans of its calculations when setRecycleActivations(true) is set
+ */
+public class ActivationMemoryPlan implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * unit count of each calculated layer (in the calculation order)
+     */
+    private final Map<Layer, Integer> units = new LinkedHashMap<>();
+
+    /**
+     * unit count of the layers that are not planned (inputs and bias layers)
+     */
+    private final Map<Layer, Integer> fixedUnits = new LinkedHashMap<>();
+
+    /**
+     * buffer index of each calculated layer
+     */
+    private final Map<Layer, Integer> assignments = new LinkedHashMap<>();
+
+    /**
+     * capacity of the buffers (in units)
+     */
+    private final List<Integer> buffers = new ArrayList<>();
+
+    /**
+     * values providers with applied plan and their mini batch size
+     */
+    private transient Map<ValuesProvider, Integer> applied;
+
+    public ActivationMemoryPlan(NeuralNetwork neuralNetwork, Layer targetLayer, Set<Layer> calculatedLayers) {
+        super();
+
+        // the order strategy modifies the calculated layers
+        List<ConnectionCandidate> order = new TargetLayerOrderStrategy(neuralNetwork, targetLayer, new HashSet<>(calculatedLayers)).order();
+
+        // steps (chunks of candidates with the same target, as in LayerCalculatorBase)
+        List<Layer> targets = new ArrayList<>();
+        List<List<Connections>> connections = new ArrayList<>();
+        for (int i = 0; i < order.size(); i++) {
+            ConnectionCandidate c = order.get(i);
+            if (i == 0 || order.get(i - 1).target != c.target) {
+                targets.add(c.target);
+                connections.add(new ArrayList<Connections>());
+            }
+
+            connections.get(connections.size() - 1).add(c.connection);
+        }
+
+        plan(targets, connections, targetLayer);
+    }
+
+    /**
+     * Plan for the steps of a compiled calculation
+     */
+    public ActivationMemoryPlan(CalculationPlan calculationPlan) {
+        super();
+
+        List<Layer> targets = new ArrayList<>();
+        List<List<Connections>> connections = new ArrayList<>();
+        for (int i = 0; i < calculationPlan.getStepCount(); i++) {
+            targets.add(calculationPlan.getTarget(i));
+            connections.add(calculationPlan.getConnections(i));
+        }
+
+        plan(targets, connections, calculationPlan.getTargetLayer());
+    }
+
+    /**
+     * Assigns the buffers to the target layers of the steps
+     */
+    private void plan(List<Layer> steps, List<List<Connections>> stepConnections, Layer targetLayer) {
+        // first and last use of each layer
+        Map<Layer, Integer> lastUse = new LinkedHashMap<>();
+        for (int step = 0; step < steps.size(); step++) {
+            Layer target = steps.get(step);
+            for (Connections c : stepConnections.get(step)) {
+                Layer opposite = Util.getOppositeLayer(c, target);
+                if (!units.containsKey(target)) {
+                    units.put(target, unitCount(target, c));
+                }
+
+                if (!units.containsKey(opposite) && !fixedUnits.containsKey(opposite)) {
+                    fixedUnits.put(opposite, unitCount(opposite, c));
+                }
+
+                lastUse.put(target, step);
+                lastUse.put(opposite, step);
+            }
+        }
+
+        lastUse.put(targetLayer, Integer.MAX_VALUE);
+
+        // linear scan over the steps
+        List<Integer> free = new ArrayList<>();
+        Map<Layer, Integer> live = new LinkedHashMap<>();
+        for (int step = 0; step < steps.size(); step++) {
+            Layer l = steps.get(step);
+            if (assignments.containsKey(l)) {
+                continue;
+            }
+
+            // release the buffers of the layers that are not used anymore
+            for (Map.Entry<Layer, Integer> e : new ArrayList<>(live.entrySet())) {
+                if (lastUse.get(e.getKey()) < step) {
+                    free.add(e.getValue());
+                    live.remove(e.getKey());
+                }
+            }
+
+            int size = units.get(l);
+            int buffer = -1;
+            for (Integer b : free) {
+                if (buffers.get(b) >= size && (buffer == -1 || buffers.get(b) < buffers.get(buffer))) {
+                    buffer = b;
+                }
+            }
+
+            if (buffer == -1) {
+                for (Integer b : free) {
+                    if (buffer == -1 || buffers.get(b) > buffers.get(buffer)) {
+                        buffer = b;
+                    }
+                }
+            }
+
+            if (buffer == -1) {
+                buffer = buffers.size();
+                buffers.add(size);
+            } else {
+                free.remove(Integer.valueOf(buffer));
+                buffers.set(buffer, Math.max(size, buffers.get(buffer)));
+            }
+
+            assignments.put(l, buffer);
+            live.put(l, buffer);
+        }
+    }
+
+    private static int unitCount(Layer layer, Connections c) {
+        return c.getInputLayer() == layer ? c.getInputUnitCount() : c.getOutputUnitCount();
+    }
+
+    /**
+     * Allocates the shared buffers for the mini batch size and adds the views
+     * for the calculated layers to the values provider
+     */
+    public synchronized void apply(ValuesProvider valuesProvider, int miniBatchSize) {
+        List<float[]> arrays = new ArrayList<>();
+        for (Integer b : buffers) {
+            arrays.add(new float[b * miniBatchSize]);
+        }
+
+        for (Map.Entry<Layer, Integer> e : assignments.entrySet()) {
+            int rows = units.get(e.getKey());
+            valuesProvider.addValues(e.getKey(), new Matrix(arrays.get(e.getValue()), 0, rows, miniBatchSize, miniBatchSize));
+        }
+
+        if (applied == null) {
+            applied = new WeakHashMap<>();
+        }
+
+        applied.put(valuesProvider, miniBatchSize);
+    }
+
+    /**
+     * Applies the plan to the values provider, unless it is already applied
+     * for the mini batch size (the values providers are not retained)
+     */
+    public synchronized void prepare(ValuesProvider valuesProvider, int miniBatchSize) {
+        Integer columns = applied != null ? applied.get(valuesProvider) : null;
+        if (columns == null || columns != miniBatchSize) {
+            apply(valuesProvider, miniBatchSize);
+        }
+    }
+
+    /**
+     * @return the buffer index of the layer or -1 if the layer is not planned
+     */
+    public int getBuffer(Layer layer) {
+        Integer result = assignments.get(layer);
+        return result != null ? result : -1;
+    }
+
+    public int getBufferCount() {
+        return buffers.size();
+    }
+
+    public int getPlannedLayerCount() {
+        return assignments.size();
+    }
+
+    /**
+     * @return peak activation memory (bytes) of the forward pass without the
+     *         plan - the values of all the layers are alive
+     */
+    public long getPeakBytesWithoutPlan(int miniBatchSize) {
+        return bytes(units.values(), miniBatchSize) + bytes(fixedUnits.values(), miniBatchSize);
+    }
+
+    /**
+     * @return peak activation memory (bytes) of the forward pass with the plan
+     *         - the shared buffers and the values of the layers that are not
+     *         planned
+     */
+    public long getPeakBytes(int miniBatchSize) {
+        return bytes(buffers, miniBatchSize) + bytes(fixedUnits.values(), miniBatchSize);
+    }
+
+    private static long bytes(Iterable<Integer> units, int miniBatchSize) {
+        long result = 0;
+        for (Integer u : units) {
+            result += u;
+        }
+
+        return result * miniBatchSize * 4;
+    }
+
+    /**
+     * @return human readable report of the peak activation memory before and
+     *         after the planning
+     */
+    public String report(int miniBatchSize) {
+        long before = getPeakBytesWithoutPlan(miniBatchSize);
+        long after = getPeakBytes(miniBatchSize);
+        return String.format("peak activation memory (mini batch %d): %d bytes without plan, %d bytes with plan (%d layers in %d buffers, %.1f%%)", miniBatchSize, before, after,
+                assignments.size(), buffers.size(), before > 0 ? 100f * after / before : 100f);
+    }
+}
@@ -0,0 +1,303 @@
+package com.github.neuralnetworks.calculation;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.NeuralNetwork;
+import com.github.neuralnetworks.calculation.LayerOrderStrategy.ConnectionCandidate;
+import com.github.neuralnetworks.events.PropagationEvent;
+import com.github.neuralnetworks.util.Util;
+
+/**
+ * Compiled calculation of a target layer - the result of
+ * TargetLayerOrderStrategy grouped in steps (the connections of one target
+ * layer, as in LayerCalculatorBase) with the connection calculator and the
+ * unit count of each step. The order strategy walks the whole graph, so
+ * LayerCalculatorImpl compiles the plan once and reuses it for each mini batch
+ * (see LayerCalculatorImpl.getPlan(...)). The plan is valid until the
+ * topology of the network changes (see Layer.getTopologyVersion(NeuralNetwork))
+ * 
+ * The plan is also a DAG - each step depends on the previous steps that
+ * calculate the layers it reads (the opposite layers of its connections),
+ * that calculate its target layer or that read its target layer. A step also
+ * depends on the previous step with the same connection calculator instance,
+ * because the calculators keep the state of the calculation (kernels,
+ * buffers). Steps without a path between them can be calculated in parallel
+ * (see DataflowScheduler)
+ */
+public class CalculationPlan implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final NeuralNetwork neuralNetwork;
+    private final Layer targetLayer;
+
+    /**
+     * target layer of each step
+     */
+    private final Layer[] targets;
+
+    /**
+     * connections of each step
+     */
+    private final List<List<Connections>> connections;
+
+    /**
+     * connection calculator of each step (can be null)
+     */
+    private final ConnectionCalculator[] calculators;
+
+    /**
+     * unit count of the target layer of each step (only the steps with
+     * calculator)
+     */
+    private final int[] units;
+
+    /**
+     * layers that are added to the calculated layers by the calculation
+     */
+    private final Set<Layer> calculated;
+    private final Layer[] calculatedArray;
+
+    /**
+     * the last propagation event of each step (the event is the same for the
+     * same values provider)
+     */
+    private transient PropagationEvent[] events;
+
+    /**
+     * activation memory plan of the steps (created on demand)
+     */
+    private transient ActivationMemoryPlan activationMemoryPlan;
+
+    /**
+     * previous steps each step depends on
+     */
+    private final int[][] dependencies;
+
+    /**
+     * whether each step depends on the previous step (there is nothing to
+     * calculate in parallel)
+     */
+    private final boolean sequential;
+
+    private final long topologyVersion;
+    private final int layerCount;
+
+    public CalculationPlan(LayerCalculatorBase layerCalculator, NeuralNetwork neuralNetwork, Layer targetLayer, Set<Layer> calculatedLayers) {
+        this(layerCalculator, neuralNetwork, targetLayer, calculatedLayers, new HashSet<>(calculatedLayers));
+    }
+
+    /**
+     * Plan for an existing order of the connections (for example
+     * BreadthFirstOrderStrategy)
+     */
+    public CalculationPlan(LayerCalculatorBase layerCalculator, NeuralNetwork neuralNetwork, List<ConnectionCandidate> order) {
+        this(layerCalculator, neuralNetwork, null, order, Collections.<Layer> emptySet());
+    }
+
+    private CalculationPlan(LayerCalculatorBase layerCalculator, NeuralNetwork neuralNetwork, Layer targetLayer, Set<Layer> calculatedLayers, Set<Layer> layers) {
+        // the order strategy adds the calculated layers to "layers" before the difference is evaluated
+        this(layerCalculator, neuralNetwork, targetLayer, new TargetLayerOrderStrategy(neuralNetwork, targetLayer, layers).order(), difference(layers, calculatedLayers));
+    }
+
+    private CalculationPlan(LayerCalculatorBase layerCalculator, NeuralNetwork neuralNetwork, Layer targetLayer, List<ConnectionCandidate> order, Set<Layer> calculated) {
+        super();
+        this.neuralNetwork = neuralNetwork;
+        this.targetLayer = targetLayer;
+        this.topologyVersion = Layer.getTopologyVersion(neuralNetwork);
+        this.layerCount = neuralNetwork.getLayers().size();
+        this.calculated = Collections.unmodifiableSet(calculated);
+        this.calculatedArray = calculated.toArray(new Layer[calculated.size()]);
+
+        List<Layer> t = new ArrayList<>();
+        this.connections = new ArrayList<>();
+        List<Connections> chunk = new ArrayList<>();
+        for (int i = 0; i < order.size(); i++) {
+            ConnectionCandidate c = order.get(i);
+            chunk.add(c.connection);
+
+            if (i == order.size() - 1 || order.get(i + 1).target != c.target) {
+                t.add(c.target);
+                connections.add(Collections.unmodifiableList(chunk));
+                chunk = new ArrayList<>();
+            }
+        }
+
+        this.targets = t.toArray(new Layer[t.size()]);
+        this.calculators = new ConnectionCalculator[targets.length];
+        this.units = new int[targets.length];
+        ValuesProvider vp = new ValuesProvider();
+        for (int i = 0; i < targets.length; i++) {
+            calculators[i] = layerCalculator.getConnectionCalculator(targets[i]);
+            if (calculators[i] != null) {
+                units[i] = vp.getUnitCount(targets[i], connections.get(i));
+            }
+        }
+
+        // dependencies - read after write, write after write and write after read
+        this.dependencies = new int[targets.length][];
+        Map<Layer, Integer> writers = new HashMap<>();
+        Map<Layer, List<Integer>> readers = new HashMap<>();
+        Map<ConnectionCalculator, Integer> users = new IdentityHashMap<>();
+        boolean seq = true;
+        for (int i = 0; i < targets.length; i++) {
+            Set<Integer> d = new HashSet<>();
+            for (Connections c : connections.get(i)) {
+                Layer opposite = Util.getOppositeLayer(c, targets[i]);
+                if (writers.containsKey(opposite)) {
+                    d.add(writers.get(opposite));
+                }
+
+                List<Integer> r = readers.get(opposite);
+                if (r == null) {
+                    readers.put(opposite, r = new ArrayList<>());
+                }
+
+                r.add(i);
+            }
+
+            if (writers.containsKey(targets[i])) {
+                d.add(writers.get(targets[i]));
+            }
+
+            List<Integer> r = readers.remove(targets[i]);
+            if (r != null) {
+                d.addAll(r);
+            }
+
+            // the calculator instance is used by one step at a time
+            if (calculators[i] != null) {
+                Integer previous = users.put(calculators[i], i);
+                if (previous != null) {
+                    d.add(previous);
+                }
+            }
+
+            d.remove(i);
+            writers.put(targets[i], i);
+
+            dependencies[i] = new int[d.size()];
+            int j = 0;
+            for (Integer step : d) {
+                dependencies[i][j++] = step;
+            }
+
+            seq &= i == 0 || d.contains(i - 1);
+        }
+
+        this.sequential = seq;
+    }
+
+    private static Set<Layer> difference(Set<Layer> a, Set<Layer> b) {
+        Set<Layer> result = new HashSet<>(a);
+        result.removeAll(b);
+        return result;
+    }
+
+    /**
+     * @return whether the topology is the same as when the plan was compiled
+     */
+    public boolean isValid() {
+        return topologyVersion == Layer.getTopologyVersion(neuralNetwork) && layerCount == neuralNetwork.getLayers().size();
+    }
+
+    public NeuralNetwork getNeuralNetwork() {
+        return neuralNetwork;
+    }
+
+    public Layer getTargetLayer() {
+        return targetLayer;
+    }
+
+    public int getStepCount() {
+        return targets.length;
+    }
+
+    public Layer getTarget(int step) {
+        return targets[step];
+    }
+
+    public List<Connections> getConnections(int step) {
+        return connections.get(step);
+    }
+
+    public ConnectionCalculator getCalculator(int step) {
+        return calculators[step];
+    }
+
+    public int getUnitCount(int step) {
+        return units[step];
+    }
+
+    /**
+     * @return the previous steps the step depends on (the array must not be
+     *         modified)
+     */
+    public int[] getDependencies(int step) {
+        return dependencies[step];
+    }
+
+    /**
+     * @return whether each step depends on the previous step
+     */
+    public boolean isSequential() {
+        return sequential;
+    }
+
+    /**
+     * @return the layers that the calculation adds to the calculated layers
+     */
+    public Set<Layer> getCalculatedLayers() {
+        return calculated;
+    }
+
+    /**
+     * Adds the layers of getCalculatedLayers() to the set (without an
+     * iterator)
+     */
+    public void addCalculatedLayers(Set<Layer> calculatedLayers) {
+        for (int i = 0; i < calculatedArray.length; i++) {
+            calculatedLayers.add(calculatedArray[i]);
+        }
+    }
+
+    /**
+     * @return the activation memory plan of the steps (for inference)
+     */
+    public synchronized ActivationMemoryPlan getActivationMemoryPlan() {
+        if (activationMemoryPlan == null) {
+            activationMemoryPlan = new ActivationMemoryPlan(this);
+        }
+
+        return activationMemoryPlan;
+    }
+
+    /**
+     * @return the propagation event of the step - the event is reused while
+     *         the step is calculated with the same values provider, so the
+     *         listeners must not change it
+     */
+    public PropagationEvent getEvent(int step, ValuesProvider valuesProvider) {
+        PropagationEvent[] e = events;
+        if (e == null) {
+            events = e = new PropagationEvent[targets.length];
+        }
+
+        PropagationEvent result = e[step];
+        if (result == null || result.getResults() != valuesProvider) {
+            e[step] = result = new PropagationEvent(targets[step], connections.get(step), neuralNetwork, valuesProvider);
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,165 @@
+package com.github.neuralnetworks.calculation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.NeuralNetwork;
+import com.github.neuralnetworks.util.Util;
+
+/**
+ * Dependency aware execution of a CalculationPlan. The steps of the plan form
+ * a DAG (see CalculationPlan.getDependencies(int)) - a step is submitted to
+ * the executor as soon as all the steps it depends on are calculated, so the
+ * independent branches of the network (committee of machines, multi column
+ * networks) are calculated in parallel. The propagation event of a step is
+ * triggered by the thread that calculated the step, before the dependent steps
+ * are submitted and never concurrently with another event - the listeners
+ * receive the events in a valid topological order.
+ *
+ * The values of the layers of all the steps (the targets and the opposite
+ * layers of their connections, for example the bias layers) are created
+ * before the execution, because the ValuesProvider is not thread safe - the
+ * calculators only read the existing values. Steps that share a connection
+ * calculator instance are never calculated concurrently (the plan makes them
+ * dependent)
+ */
+public class DataflowScheduler {
+
+    private final ExecutorService executor;
+
+    private final Object eventLock = new Object();
+
+    /**
+     * Scheduler with a fixed number of daemon threads
+     */
+    public DataflowScheduler(int threads) {
+        this(Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread result = new Thread(r, "dataflow-" + count.incrementAndGet());
+                result.setDaemon(true);
+                return result;
+            }
+        }));
+    }
+
+    public DataflowScheduler(ExecutorService executor) {
+        super();
+        this.executor = executor;
+    }
+
+    /**
+     * Calculates the plan and waits for all the steps to finish
+     */
+    public void calculate(final LayerCalculatorBase layerCalculator, final CalculationPlan plan, final ValuesProvider valuesProvider, final NeuralNetwork nn) {
+        final int steps = plan.getStepCount();
+        if (steps == 0) {
+            return;
+        }
+
+        // successors and number of pending dependencies of each step
+        final List<List<Integer>> successors = new ArrayList<>();
+        final AtomicIntegerArray pending = new AtomicIntegerArray(steps);
+        for (int i = 0; i < steps; i++) {
+            successors.add(new ArrayList<Integer>());
+            pending.set(i, plan.getDependencies(i).length);
+        }
+
+        for (int i = 0; i < steps; i++) {
+            for (int d : plan.getDependencies(i)) {
+                successors.get(d).add(i);
+            }
+        }
+
+        // the values are created by this thread
+        valuesProvider.getColumns();
+        for (int i = 0; i < steps; i++) {
+            if (plan.getCalculator(i) != null) {
+                Layer target = plan.getTarget(i);
+                valuesProvider.getValues(target, plan.getUnitCount(i));
+                for (Connections c : plan.getConnections(i)) {
+                    valuesProvider.getValues(Util.getOppositeLayer(c, target), c);
+                }
+            }
+        }
+
+        final CountDownLatch done = new CountDownLatch(steps);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        class Step implements Runnable {
+
+            private final int step;
+
+            private Step(int step) {
+                this.step = step;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    if (error.get() == null) {
+                        layerCalculator.calculate(valuesProvider, plan, step);
+                        synchronized (eventLock) {
+                            layerCalculator.triggerEvent(plan.getEvent(step, valuesProvider));
+                        }
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                } finally {
+                    for (Integer s : successors.get(step)) {
+                        if (pending.decrementAndGet(s) == 0) {
+                            executor.execute(new Step(s));
+                        }
+                    }
+
+                    done.countDown();
+                }
+            }
+        }
+
+        // not the pending counts - they change as soon as the first step is submitted
+        for (int i = 0; i < steps; i++) {
+            if (plan.getDependencies(i).length == 0) {
+                executor.execute(new Step(i));
+            }
+        }
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the calculation", e);
+        }
+
+        Throwable t = error.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Stops the threads of the executor
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
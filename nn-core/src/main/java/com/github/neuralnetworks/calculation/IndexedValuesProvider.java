@@ -0,0 +1,283 @@
+package com.github.neuralnetworks.calculation;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.NeuralNetwork;
+import com.github.neuralnetworks.util.UniqueList;
+import com.github.neuralnetworks.util.Util;
+
+/**
+ * ValuesProvider with values that are allocated in advance from the layers of
+ * a calculation plan (see LayerCalculatorImpl.createValuesProvider(...)) or of
+ * a whole network. Each layer gets a dense index and each distinct unit
+ * count of the connections of the layer gets a slot with an array for
+ * maxColumns samples. The values for the current number of columns are
+ * contiguous views of the slot arrays (created once for each number of
+ * columns), so after the first mini batch of each size the lookups don't
+ * allocate - the layer index is resolved with an identity map and the rest
+ * is array indexing (getValues(int, int) skips the map). The values added
+ * with addValues (for example the input) replace the views of their slot.
+ * Only the unit-major layout is supported. Layers that are not part of the
+ * plan are handled by the ValuesProvider implementation
+ */
+public class IndexedValuesProvider extends ValuesProvider {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * layer index by layer
+     */
+    private final Map<Layer, Integer> indexes;
+
+    /**
+     * layers by index
+     */
+    private final Layer[] layers;
+
+    /**
+     * unit count of each slot by layer index
+     */
+    private final int[][] rows;
+
+    /**
+     * arrays with maxColumns capacity by layer index and slot
+     */
+    private final float[][][] buffers;
+
+    /**
+     * views by layer index, slot and number of columns (created when needed)
+     */
+    private final Matrix[][][] views;
+
+    /**
+     * values added with addValues by layer index and slot
+     */
+    private final Matrix[][] added;
+
+    /**
+     * Values of all the layers of the network
+     */
+    public IndexedValuesProvider(NeuralNetwork nn, int maxColumns) {
+        this(layerConnections(nn), maxColumns);
+    }
+
+    /**
+     * Values of the layers that are calculated or read by the plan
+     */
+    public IndexedValuesProvider(CalculationPlan plan, int maxColumns) {
+        this(layerConnections(plan), maxColumns);
+    }
+
+    /**
+     * @param layerConnections
+     *            - the layers and the connections of each layer that
+     *            determine its unit counts
+     */
+    private IndexedValuesProvider(Map<Layer, List<Connections>> layerConnections, int maxColumns) {
+        super();
+        if (maxColumns < 1) {
+            throw new IllegalArgumentException("The maximum number of columns must be positive");
+        }
+
+        super.setMaxColumns(maxColumns);
+        this.indexes = new IdentityHashMap<>();
+        this.layers = layerConnections.keySet().toArray(new Layer[layerConnections.size()]);
+        this.rows = new int[layers.length][];
+        this.buffers = new float[layers.length][][];
+        this.views = new Matrix[layers.length][][];
+        this.added = new Matrix[layers.length][];
+
+        for (int i = 0; i < layers.length; i++) {
+            indexes.put(layers[i], i);
+
+            // distinct unit counts of the connections
+            List<Connections> connections = layerConnections.get(layers[i]);
+            int[] r = new int[connections.size()];
+            int slots = 0;
+            for (Connections c : connections) {
+                int units = super.getUnitCount(layers[i], c);
+                boolean exists = false;
+                for (int j = 0; j < slots; j++) {
+                    exists |= r[j] == units;
+                }
+
+                if (!exists) {
+                    r[slots++] = units;
+                }
+            }
+
+            rows[i] = new int[slots];
+            System.arraycopy(r, 0, rows[i], 0, slots);
+            buffers[i] = new float[slots][];
+            views[i] = new Matrix[slots][maxColumns + 1];
+            added[i] = new Matrix[slots];
+            for (int j = 0; j < slots; j++) {
+                buffers[i][j] = new float[rows[i][j] * maxColumns];
+            }
+        }
+
+        setColumns(maxColumns);
+    }
+
+    private static Map<Layer, List<Connections>> layerConnections(NeuralNetwork nn) {
+        Map<Layer, List<Connections>> result = new LinkedHashMap<>();
+        for (Layer l : nn.getLayers()) {
+            result.put(l, l.getConnections(nn));
+        }
+
+        return result;
+    }
+
+    private static Map<Layer, List<Connections>> layerConnections(CalculationPlan plan) {
+        Map<Layer, List<Connections>> result = new LinkedHashMap<>();
+        for (int i = 0; i < plan.getStepCount(); i++) {
+            Layer target = plan.getTarget(i);
+            for (Connections c : plan.getConnections(i)) {
+                for (Layer l : new Layer[] { target, Util.getOppositeLayer(c, target) }) {
+                    List<Connections> connections = result.get(l);
+                    if (connections == null) {
+                        result.put(l, connections = new UniqueList<>());
+                    }
+
+                    connections.add(c);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the index of the layer or -1 if it's not part of the plan
+     */
+    public int getIndex(Layer layer) {
+        Integer result = indexes.get(layer);
+        return result != null ? result : -1;
+    }
+
+    public Layer getLayer(int index) {
+        return layers[index];
+    }
+
+    public int getLayerCount() {
+        return layers.length;
+    }
+
+    /**
+     * @return the values of the layer with index "index" and the unit count
+     *         "rows" for the current number of columns
+     */
+    public Matrix getValues(int index, int rows) {
+        int[] r = this.rows[index];
+        for (int slot = 0; slot < r.length; slot++) {
+            if (r[slot] == rows) {
+                Matrix a = added[index][slot];
+                if (a != null && a.getColumns() == getColumns()) {
+                    return a;
+                }
+
+                Matrix result = views[index][slot][getColumns()];
+                if (result == null) {
+                    result = views[index][slot][getColumns()] = new Matrix(buffers[index][slot], 0, rows, getColumns(), getColumns());
+                }
+
+                return result;
+            }
+        }
+
+        return super.getValues(layers[index], rows);
+    }
+
+    @Override
+    public Matrix getValues(Layer targetLayer, int rows) {
+        int index = getIndex(targetLayer);
+        return index != -1 ? getValues(index, rows) : super.getValues(targetLayer, rows);
+    }
+
+    @Override
+    public Matrix getValues(Layer targetLayer, Collection<Connections> connections) {
+        return getValues(targetLayer, getUnitCount(targetLayer, connections));
+    }
+
+    /**
+     * Same as ValuesProvider.getUnitCount(...), but without an iterator for
+     * lists
+     */
+    @Override
+    public int getUnitCount(Layer targetLayer, Collection<Connections> connections) {
+        if (!(connections instanceof List && connections instanceof RandomAccess)) {
+            return super.getUnitCount(targetLayer, connections);
+        }
+
+        List<Connections> list = (List<Connections>) connections;
+        int result = 0;
+        for (int i = 0; i < list.size(); i++) {
+            int units = getUnitCount(targetLayer, list.get(i));
+            if (result == 0) {
+                result = units;
+            }
+
+            if (result != units) {
+                throw new IllegalArgumentException("Some connections require different unit count");
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public void addValues(Layer l, Matrix m) {
+        int index = getIndex(l);
+        int slot = -1;
+        if (index != -1) {
+            for (int i = 0; i < rows[index].length; i++) {
+                if (rows[index][i] == m.getRows()) {
+                    slot = i;
+                }
+            }
+        }
+
+        if (slot != -1) {
+            added[index][slot] = m;
+            setColumns(m.getColumns());
+        } else {
+            super.addValues(l, m);
+        }
+    }
+
+    /**
+     * The number of columns can't exceed the maximum number of columns
+     */
+    @Override
+    public void setColumns(int columns) {
+        if (columns > getMaxColumns()) {
+            throw new IllegalArgumentException("The number of columns exceeds the maximum number of columns " + getMaxColumns());
+        }
+
+        super.setColumns(columns);
+    }
+
+    /**
+     * The values are allocated with the maximum number of columns in the
+     * constructor, so it can't be changed - setting the same value does
+     * nothing
+     *
+     * @throws IllegalArgumentException
+     *             if the value is different from the maximum number of
+     *             columns of the constructor
+     */
+    @Override
+    public void setMaxColumns(int maxColumns) {
+        if (maxColumns != getMaxColumns()) {
+            throw new IllegalArgumentException("The values are allocated for " + getMaxColumns() + " columns");
+        }
+    }
+}
@@ -6,7 +6,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import com.github.neuralnetworks.architecture.Connections;
 import com.github.neuralnetworks.architecture.Layer;
 import com.github.neuralnetworks.architecture.NeuralNetwork;
 import com.github.neuralnetworks.calculation.LayerOrderStrategy.ConnectionCandidate;
@@ -24,31 +23,63 @@ public class LayerCalculatorBase implements Serializable {
     protected List<PropagationEventListener> listeners;
     protected Map<Layer, ConnectionCalculator> calculators = new HashMap<>();
 
+    /**
+     * if set the independent steps are calculated in parallel
+     */
+    private transient DataflowScheduler scheduler;
+
+    /**
+     * the connection calculators that are event listeners (created when
+     * needed)
+     */
+    private transient List<PropagationEventListener> calculatorListeners;
+
     protected void calculate(ValuesProvider valuesProvider, List<ConnectionCandidate> connections, NeuralNetwork nn) {
         if (connections.size() > 0) {
-            List<Connections> chunk = new ArrayList<>();
+            calculate(valuesProvider, new CalculationPlan(this, nn, connections), nn);
+        }
+    }
 
-            for (int i = 0; i < connections.size(); i++) {
-                ConnectionCandidate c = connections.get(i);
-                chunk.add(c.connection);
+    /**
+     * Calculates the steps of a compiled plan (see CalculationPlan) - one step
+     * for each group of consecutive connections with the same target layer.
+     * The steps are calculated by the scheduler (if there is one and the plan
+     * has independent steps) or one after another
+     */
+    protected void calculate(ValuesProvider valuesProvider, CalculationPlan plan, NeuralNetwork nn) {
+        if (scheduler != null && !plan.isSequential()) {
+            scheduler.calculate(this, plan, valuesProvider, nn);
+        } else {
+            for (int i = 0; i < plan.getStepCount(); i++) {
+                calculate(valuesProvider, plan, i);
+                triggerEvent(plan.getEvent(i, valuesProvider));
+            }
+        }
+    }
 
-                if (i == connections.size() - 1 || connections.get(i + 1).target != c.target) {
-                    ConnectionCalculator cc = getConnectionCalculator(c.target);
-                    if (cc != null) {
-                        Util.fillArray(valuesProvider.getValues(c.target, chunk).getElements(), 0);
-                        cc.calculate(chunk, valuesProvider, c.target);
-                    }
+    /**
+     * Calculates a single step of the plan (without the event)
+     */
+    protected void calculate(ValuesProvider valuesProvider, CalculationPlan plan, int step) {
+        ConnectionCalculator cc = plan.getCalculator(step);
+        if (cc != null) {
+            Layer target = plan.getTarget(step);
+            Util.fillArray(valuesProvider.getValues(target, plan.getUnitCount(step)), 0);
+            cc.calculate(plan.getConnections(step), valuesProvider, target);
+        }
+    }
 
-                    chunk.clear();
+    public DataflowScheduler getScheduler() {
+        return scheduler;
+    }
 
-                    triggerEvent(new PropagationEvent(c.target, chunk, nn, valuesProvider));
-                }
-            }
-        }
+    public void setScheduler(DataflowScheduler scheduler) {
+        this.scheduler = scheduler;
     }
 
     public void addConnectionCalculator(Layer layer, ConnectionCalculator calculator) {
         calculators.put(layer, calculator);
+        calculatorListeners = null;
     }
 
     public ConnectionCalculator getConnectionCalculator(Layer layer) {
@@ -57,6 +88,7 @@ public class LayerCalculatorBase implements Serializable {
 
     public void removeConnectionCalculator(Layer layer) {
         calculators.remove(layer);
+        calculatorListeners = null;
     }
 
     public void addEventListener(PropagationEventListener listener) {
@@ -74,18 +106,29 @@ public class LayerCalculatorBase implements Serializable {
     }
 
     protected void triggerEvent(PropagationEvent event) {
+        // indexed loops - the events are triggered for each step
         if (listeners != null) {
-            for (PropagationEventListener l : listeners) {
-                l.handleEvent(event);
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).handleEvent(event);
             }
         }
 
-        if (calculators != null) {
+        List<PropagationEventListener> cl = calculatorListeners;
+        if (cl == null && calculators != null) {
+            cl = new ArrayList<>();
             for (ConnectionCalculator cc : calculators.values()) {
                 if (cc instanceof PropagationEventListener) {
-                    ((PropagationEventListener) cc).handleEvent(event);
+                    cl.add((PropagationEventListener) cc);
                 }
             }
+
+            calculatorListeners = cl;
+        }
+
+        if (cl != null) {
+            for (int i = 0; i < cl.size(); i++) {
+                cl.get(i).handleEvent(event);
+            }
         }
     }
 }
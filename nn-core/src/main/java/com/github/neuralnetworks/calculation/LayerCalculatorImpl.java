@@ -1,26 +1,214 @@
 package com.github.neuralnetworks.calculation;
 
 import java.io.Serializable;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Set;
 
 import com.github.neuralnetworks.architecture.Layer;
 import com.github.neuralnetworks.architecture.NeuralNetwork;
-import com.github.neuralnetworks.calculation.LayerOrderStrategy.ConnectionCandidate;
 
 /**
  * Implementation of the LayerCalculator interface for calculating single target
  * layer It takes advantage of the fact that the neural network is a graph with
  * layers as nodes and connections between layers as links of the graph The
  * results are propagated within the graph
+ * 
+ * The calculation order is compiled once for each network, target layer and
+ * set of calculated layers (see CalculationPlan) and the plans are cached. The
+ * cache is cleared when the connection calculators change and a plan is
+ * compiled again when the topology changes
+ * 
+ * With setRecycleActivations(true) the values of the calculated layers share
+ * buffers according to the ActivationMemoryPlan of each plan. This is only
+ * valid for inference (the values of the hidden layers are overwritten)
  */
 public class LayerCalculatorImpl extends LayerCalculatorBase implements LayerCalculator, Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * maximum number of cached plans
+     */
+    private static final int PLAN_CACHE_SIZE = 16;
+
+    private transient Map<PlanKey, CalculationPlan> plans;
+
+    /**
+     * key for the lookups (reused, so that the lookup doesn't allocate)
+     */
+    private transient PlanKey lookupKey;
+
+    /**
+     * whether the values of the calculated layers share buffers (see
+     * ActivationMemoryPlan)
+     */
+    private boolean recycleActivations;
+
     @Override
     public void calculate(NeuralNetwork neuralNetwork, Layer layer, Set<Layer> calculatedLayers, ValuesProvider results) {
-        List<ConnectionCandidate> ccc = new TargetLayerOrderStrategy(neuralNetwork, layer, calculatedLayers).order();
-        calculate(results, ccc, neuralNetwork);
+        CalculationPlan plan = getPlan(neuralNetwork, layer, calculatedLayers);
+        if (recycleActivations && results.getColumns() > 0) {
+            plan.getActivationMemoryPlan().prepare(results, results.getColumns());
+        }
+
+        plan.addCalculatedLayers(calculatedLayers);
+        calculate(results, plan, neuralNetwork);
+    }
+
+    /**
+     * @return the cached plan for the calculation of the layer or a new plan
+     */
+    public CalculationPlan getPlan(NeuralNetwork neuralNetwork, Layer layer, Set<Layer> calculatedLayers) {
+        synchronized (this) {
+            if (plans == null) {
+                plans = new LinkedHashMap<PlanKey, CalculationPlan>(PLAN_CACHE_SIZE, 0.75f, true) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<PlanKey, CalculationPlan> eldest) {
+                        return size() > PLAN_CACHE_SIZE;
+                    }
+                };
+            }
+
+            if (lookupKey == null) {
+                lookupKey = new PlanKey();
+            }
+
+            CalculationPlan result = plans.get(lookupKey.set(neuralNetwork, layer, calculatedLayers));
+            lookupKey.set(null, null, null);
+            if (result == null || !result.isValid()) {
+                result = new CalculationPlan(this, neuralNetwork, layer, calculatedLayers);
+                plans.put(new PlanKey(neuralNetwork, layer, new HashSet<>(calculatedLayers)), result);
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * @return values for the calculation of the layer, which are allocated in
+     *         advance for mini batches of up to maxColumns samples (see
+     *         IndexedValuesProvider)
+     */
+    public IndexedValuesProvider createValuesProvider(NeuralNetwork neuralNetwork, Layer layer, Set<Layer> calculatedLayers, int maxColumns) {
+        return new IndexedValuesProvider(getPlan(neuralNetwork, layer, calculatedLayers), maxColumns);
+    }
+
+    public boolean isRecycleActivations() {
+        return recycleActivations;
+    }
+
+    /**
+     * Enables the shared buffers of the ActivationMemoryPlan for the values
+     * of the calculated layers. The plan is applied to each values provider
+     * once for each mini batch size. Only for inference - the values of the
+     * hidden layers are not available after the calculation (for example for
+     * the backpropagation or for the event listeners)
+     */
+    public void setRecycleActivations(boolean recycleActivations) {
+        this.recycleActivations = recycleActivations;
+    }
+
+    /**
+     * Removes the cached plans
+     */
+    public synchronized void clearPlans() {
+        if (plans != null) {
+            plans.clear();
+        }
+    }
+
+    @Override
+    public void addConnectionCalculator(Layer layer, ConnectionCalculator calculator) {
+        super.addConnectionCalculator(layer, calculator);
+        clearPlans();
+    }
+
+    @Override
+    public void removeConnectionCalculator(Layer layer) {
+        super.removeConnectionCalculator(layer);
+        clearPlans();
+    }
+
+    /**
+     * Cache key - the network and the target layer are compared by identity.
+     * The calculated layers are compared as a set regardless of the type of
+     * the set (the callers often use UniqueList, which has the equals and
+     * hashCode of a list). The stored keys have their own hash sets, the
+     * lookup key refers to the set of the caller (without a copy and, for
+     * lists, without an iterator)
+     */
+    private static class PlanKey {
+
+        private NeuralNetwork neuralNetwork;
+        private Layer layer;
+        private Set<Layer> calculatedLayers;
+        private int hash;
+
+        private PlanKey() {
+            super();
+        }
+
+        private PlanKey(NeuralNetwork neuralNetwork, Layer layer, Set<Layer> calculatedLayers) {
+            super();
+            set(neuralNetwork, layer, calculatedLayers);
+        }
+
+        private PlanKey set(NeuralNetwork neuralNetwork, Layer layer, Set<Layer> calculatedLayers) {
+            this.neuralNetwork = neuralNetwork;
+            this.layer = layer;
+            this.calculatedLayers = calculatedLayers;
+
+            int h = 0;
+            if (calculatedLayers instanceof List && calculatedLayers instanceof RandomAccess) {
+                List<?> list = (List<?>) calculatedLayers;
+                for (int i = 0; i < list.size(); i++) {
+                    h += list.get(i).hashCode();
+                }
+            } else if (calculatedLayers != null) {
+                for (Layer l : calculatedLayers) {
+                    h += l.hashCode();
+                }
+            }
+
+            this.hash = 31 * (31 * System.identityHashCode(neuralNetwork) + System.identityHashCode(layer)) + h;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PlanKey)) {
+                return false;
+            }
+
+            PlanKey other = (PlanKey) obj;
+            if (hash != other.hash || neuralNetwork != other.neuralNetwork || layer != other.layer || calculatedLayers.size() != other.calculatedLayers.size()) {
+                return false;
+            }
+
+            // other is the stored key with a hash set
+            if (calculatedLayers instanceof List && calculatedLayers instanceof RandomAccess) {
+                List<?> list = (List<?>) calculatedLayers;
+                for (int i = 0; i < list.size(); i++) {
+                    if (!other.calculatedLayers.contains(list.get(i))) {
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+
+            return other.calculatedLayers.containsAll(calculatedLayers);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
     }
 }
@@ -0,0 +1,457 @@
+package com.github.neuralnetworks.calculation;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.NeuralNetwork;
+
+/**
+ * Pipeline parallel inference for a stream of mini batches. The steps of the
+ * calculation plan of the output layer are split in contiguous groups
+ * (stages) with similar cost (number of weights) and each stage has its own
+ * thread. The mini batches are passed between the stages through bounded
+ * queues, so that mini batch n + 1 is calculated by the first stages while
+ * mini batch n is calculated by the next stages. Each mini batch in flight
+ * has its own ValuesProvider - the providers are pooled and reused (a full
+ * pool blocks submit(...), which limits the number of mini batches in the
+ * pipeline).
+ *
+ * The layer calculator of the network must be a LayerCalculatorBase (the
+ * connection calculators of a layer are only used by the thread of its
+ * stage). The propagation events are triggered by the stage threads, one at a
+ * time. The input matrix must not be changed until the result is available.
+ * After shutdown() the mini batches in the pipeline are cancelled and new mini
+ * batches are rejected
+ */
+public class PipelineInference {
+
+    /**
+     * how often (milliseconds) a blocked submit(...) checks for shutdown
+     */
+    private static final long POLL_INTERVAL = 100;
+
+    private final NeuralNetwork neuralNetwork;
+    private final LayerCalculatorBase layerCalculator;
+    private final CalculationPlan plan;
+
+    /**
+     * first step of each stage (and the step count at the end)
+     */
+    private final int[] stageSteps;
+
+    /**
+     * input queue of each stage
+     */
+    private final List<BlockingQueue<Batch>> queues = new ArrayList<>();
+
+    /**
+     * ValuesProviders for the mini batches
+     */
+    private final BlockingQueue<ValuesProvider> valuesProviders;
+
+    private final List<Thread> threads = new ArrayList<>();
+    private final StageStatistics[] statistics;
+    private final Object eventLock = new Object();
+
+    /**
+     * the submitted mini batches without result (guarded by this)
+     */
+    private final Set<Batch> inFlight = new HashSet<>();
+    private volatile boolean shutdown;
+
+    /**
+     * sum of the latencies of all mini batches (nanoseconds)
+     */
+    private long latency;
+    private long batches;
+    private long started;
+
+    /**
+     * @param stages
+     *            - number of stages (threads), at most the number of steps
+     * @param queueCapacity
+     *            - capacity of the queue between two stages
+     */
+    public PipelineInference(NeuralNetwork neuralNetwork, int stages, int queueCapacity) {
+        super();
+        if (stages < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("The number of stages and the queue capacity must be positive");
+        }
+
+        if (!(neuralNetwork.getLayerCalculator() instanceof LayerCalculatorBase)) {
+            throw new IllegalArgumentException("The layer calculator must be LayerCalculatorBase");
+        }
+
+        this.neuralNetwork = neuralNetwork;
+        this.layerCalculator = (LayerCalculatorBase) neuralNetwork.getLayerCalculator();
+
+        Set<Layer> calculatedLayers = new HashSet<>();
+        calculatedLayers.add(neuralNetwork.getInputLayer());
+        if (layerCalculator instanceof LayerCalculatorImpl) {
+            this.plan = ((LayerCalculatorImpl) layerCalculator).getPlan(neuralNetwork, neuralNetwork.getOutputLayer(), calculatedLayers);
+        } else {
+            this.plan = new CalculationPlan(layerCalculator, neuralNetwork, neuralNetwork.getOutputLayer(), calculatedLayers);
+        }
+
+        this.stageSteps = partition(plan, Math.max(1, Math.min(stages, plan.getStepCount())));
+        int count = stageSteps.length - 1;
+
+        // each stage can hold one mini batch and each queue "queueCapacity" mini batches
+        this.valuesProviders = new ArrayBlockingQueue<>(count * (queueCapacity + 1));
+        while (valuesProviders.remainingCapacity() > 0) {
+            valuesProviders.add(new ValuesProvider());
+        }
+
+        this.statistics = new StageStatistics[count];
+        for (int i = 0; i < count; i++) {
+            queues.add(new ArrayBlockingQueue<Batch>(queueCapacity));
+            statistics[i] = new StageStatistics(stageSteps[i + 1] - stageSteps[i]);
+
+            Thread t = new Thread(new Stage(i), "pipeline-stage-" + i);
+            t.setDaemon(true);
+            threads.add(t);
+        }
+
+        for (Thread t : threads) {
+            t.start();
+        }
+    }
+
+    /**
+     * Splits the steps in contiguous groups with similar number of weights
+     *
+     * @return the first step of each group and the step count
+     */
+    private static int[] partition(CalculationPlan plan, int stages) {
+        long[] cost = new long[plan.getStepCount()];
+        long total = 0;
+        for (int i = 0; i < cost.length; i++) {
+            for (Connections c : plan.getConnections(i)) {
+                cost[i] += (long) c.getInputUnitCount() * c.getOutputUnitCount();
+            }
+
+            total += cost[i];
+        }
+
+        int[] result = new int[stages + 1];
+        result[stages] = cost.length;
+        long sum = 0;
+        for (int i = 0, stage = 1; i < cost.length && stage < stages; i++) {
+            sum += cost[i];
+
+            // each remaining stage must get at least one step
+            if (sum * stages >= total * stage || cost.length - i - 1 == stages - stage) {
+                result[stage++] = i + 1;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds a mini batch to the pipeline. Blocks if the pipeline is full
+     *
+     * @return the values of the output layer (a copy). The future is cancelled
+     *         if the pipeline is shut down before the result is available
+     * @throws RejectedExecutionException
+     *             if the pipeline is shut down
+     */
+    public Future<Matrix> submit(Matrix input) throws InterruptedException {
+        if (!plan.isValid()) {
+            throw new IllegalStateException("The topology of the network has changed");
+        }
+
+        ValuesProvider vp = null;
+        while (vp == null) {
+            checkShutdown();
+            vp = valuesProviders.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+
+        vp.addValues(neuralNetwork.getInputLayer(), input);
+
+        Batch batch = new Batch(vp);
+        synchronized (this) {
+            checkShutdown();
+            if (started == 0) {
+                started = System.nanoTime();
+            }
+
+            inFlight.add(batch);
+        }
+
+        // the batch is cancelled by shutdown() if it happens meanwhile
+        boolean queued = false;
+        while (!queued && !shutdown) {
+            queued = queues.get(0).offer(batch, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+
+        return batch.result;
+    }
+
+    private void checkShutdown() {
+        if (shutdown) {
+            throw new RejectedExecutionException("The pipeline is shut down");
+        }
+    }
+
+    /**
+     * Stops the threads. The mini batches in the pipeline are not calculated -
+     * they are removed from the queues and their futures are cancelled. New
+     * mini batches are rejected
+     */
+    public void shutdown() {
+        List<Batch> pending;
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+
+            shutdown = true;
+            pending = new ArrayList<>(inFlight);
+            inFlight.clear();
+        }
+
+        for (Thread t : threads) {
+            t.interrupt();
+        }
+
+        for (BlockingQueue<Batch> q : queues) {
+            q.clear();
+        }
+
+        for (Batch b : pending) {
+            b.result.cancel(false);
+        }
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public int getStageCount() {
+        return statistics.length;
+    }
+
+    /**
+     * @return the layers calculated by the stage
+     */
+    public List<Layer> getLayers(int stage) {
+        List<Layer> result = new ArrayList<>();
+        for (int i = stageSteps[stage]; i < stageSteps[stage + 1]; i++) {
+            result.add(plan.getTarget(i));
+        }
+
+        return result;
+    }
+
+    public StageStatistics getStatistics(int stage) {
+        return statistics[stage];
+    }
+
+    /**
+     * @return average time (nanoseconds) from the submission to the result of
+     *         a mini batch
+     */
+    public synchronized long getAverageLatency() {
+        return batches > 0 ? latency / batches : 0;
+    }
+
+    /**
+     * @return mini batches per second since the first submission
+     */
+    public synchronized double getThroughput() {
+        return batches > 0 ? batches / ((System.nanoTime() - started) / 1000000000d) : 0;
+    }
+
+    /**
+     * @return human readable report - throughput, latency and one line per
+     *         stage
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("pipeline %d stages: %.1f mini batches/s, latency %.3f ms%n", getStageCount(), getThroughput(), getAverageLatency() / 1000000d));
+        for (int i = 0; i < statistics.length; i++) {
+            StageStatistics s = statistics[i];
+            sb.append(String.format("  stage %d (%d layers): %d mini batches, %.1f mini batches/s, calculation %.3f ms, wait %.3f ms%n", i, s.getStepCount(), s.getBatches(),
+                    s.getThroughput(), s.getAverageCalculationTime() / 1000000d, s.getAverageWaitTime() / 1000000d));
+        }
+
+        return sb.toString();
+    }
+
+    private synchronized void completed(Batch batch) {
+        latency += System.nanoTime() - batch.submitted;
+        batches++;
+        inFlight.remove(batch);
+    }
+
+    /**
+     * Mini batch in the pipeline
+     */
+    private class Batch {
+
+        private final ValuesProvider valuesProvider;
+        private final long submitted = System.nanoTime();
+
+        /**
+         * time when the mini batch was added to the queue of the current stage
+         */
+        private long queued = submitted;
+
+        private Matrix output;
+        private Exception error;
+
+        private final FutureTask<Matrix> result = new FutureTask<>(new Callable<Matrix>() {
+            @Override
+            public Matrix call() throws Exception {
+                if (error != null) {
+                    throw error;
+                }
+
+                return output;
+            }
+        });
+
+        private Batch(ValuesProvider valuesProvider) {
+            this.valuesProvider = valuesProvider;
+        }
+    }
+
+    /**
+     * Calculates the steps of one stage for each mini batch of its queue
+     */
+    private class Stage implements Runnable {
+
+        private final int stage;
+
+        private Stage(int stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public void run() {
+            BlockingQueue<Batch> in = queues.get(stage);
+            BlockingQueue<Batch> out = stage < queues.size() - 1 ? queues.get(stage + 1) : null;
+            StageStatistics s = statistics[stage];
+
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Batch batch = in.take();
+                    long start = System.nanoTime();
+
+                    if (batch.error == null) {
+                        try {
+                            for (int i = stageSteps[stage]; i < stageSteps[stage + 1]; i++) {
+                                layerCalculator.calculate(batch.valuesProvider, plan, i);
+                                synchronized (eventLock) {
+                                    layerCalculator.triggerEvent(plan.getEvent(i, batch.valuesProvider));
+                                }
+                            }
+
+                            if (out == null) {
+                                Matrix o = batch.valuesProvider.getValues(neuralNetwork.getOutputLayer());
+                                batch.output = new Matrix(o.getRows(), o.getColumns());
+                                for (int i = 0; i < o.getRows(); i++) {
+                                    for (int j = 0; j < o.getColumns(); j++) {
+                                        batch.output.set(i, j, o.get(i, j));
+                                    }
+                                }
+                            }
+                        } catch (Exception e) {
+                            batch.error = e;
+                        }
+                    }
+
+                    long end = System.nanoTime();
+                    s.add(start - batch.queued, end - start);
+
+                    if (out != null && batch.error == null) {
+                        batch.queued = end;
+                        out.put(batch);
+                    } else {
+                        completed(batch);
+                        valuesProviders.put(batch.valuesProvider);
+                        batch.result.run();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Statistics of a stage
+     */
+    public static class StageStatistics {
+
+        private final int stepCount;
+        private long batches;
+        private long waitTime;
+        private long calculationTime;
+        private long first;
+        private long last;
+
+        private StageStatistics(int stepCount) {
+            this.stepCount = stepCount;
+        }
+
+        private synchronized void add(long wait, long calculation) {
+            long now = System.nanoTime();
+            if (batches == 0) {
+                first = now - calculation;
+            }
+
+            last = now;
+            batches++;
+            waitTime += wait;
+            calculationTime += calculation;
+        }
+
+        /**
+         * @return the number of steps (layers) of the stage
+         */
+        public int getStepCount() {
+            return stepCount;
+        }
+
+        public synchronized long getBatches() {
+            return batches;
+        }
+
+        /**
+         * @return average calculation time (nanoseconds) of a mini batch
+         */
+        public synchronized long getAverageCalculationTime() {
+            return batches > 0 ? calculationTime / batches : 0;
+        }
+
+        /**
+         * @return average time (nanoseconds) a mini batch waits in the queue
+         *         of the stage
+         */
+        public synchronized long getAverageWaitTime() {
+            return batches > 0 ? waitTime / batches : 0;
+        }
+
+        /**
+         * @return mini batches per second between the first and the last mini
+         *         batch of the stage
+         */
+        public synchronized double getThroughput() {
+            return batches > 0 && last > first ? batches / ((last - first) / 1000000000d) : 0;
+        }
+    }
+}
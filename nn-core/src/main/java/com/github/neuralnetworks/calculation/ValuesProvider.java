@@ -1,7 +1,6 @@
 package com.github.neuralnetworks.calculation;
 
 import java.io.Serializable;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -11,21 +10,59 @@ import java.util.Set;
 import com.github.neuralnetworks.architecture.Connections;
 import com.github.neuralnetworks.architecture.Layer;
 import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.SampleMajorMatrix;
 
 /**
  * Provides Matrix instances for the layers of the network. It ensures that the
- * instances are reused.
+ * instances are reused. The values are created unit-major by default (Matrix),
+ * the layout can be changed for all the layers or for single layers (see
+ * Layout). If the maximum number of columns is set (setMaxColumns(...)) the
+ * unit-major values are allocated once with the maximum capacity and the
+ * values for smaller mini batches are contiguous views of the same array (see
+ * Matrix.isContiguous()) - a variable mini batch size doesn't allocate new
+ * values
  */
 public class ValuesProvider implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Memory layout of the created values
+     */
+    public static enum Layout {
+        /**
+         * the values of one unit for all the samples are consecutive (Matrix)
+         */
+        UNIT_MAJOR,
+        /**
+         * the values of all the units for one sample are consecutive
+         * (SampleMajorMatrix). Only supported by the fully connected
+         * calculators (forward phase)
+         */
+        SAMPLE_MAJOR
+    }
+
     private int columns;
     private Map<Layer, Set<Matrix>> values;
+    private Layout layout;
+    private Map<Layer, Layout> layerLayouts;
+
+    /**
+     * capacity (in columns) of the shared arrays, 0 if disabled
+     */
+    private int maxColumns;
+
+    /**
+     * shared arrays with maxColumns capacity by layer and rows
+     */
+    private Map<Layer, Map<Integer, float[]>> buffers;
 
     public ValuesProvider() {
         super();
         values = new HashMap<>();
+        layout = Layout.UNIT_MAJOR;
+        layerLayouts = new HashMap<>();
+        buffers = new HashMap<>();
     }
 
     /**
@@ -41,7 +78,7 @@ public class ValuesProvider implements Serializable {
      *         and they must have the same dimensions.
      */
     public Matrix getValues(Layer targetLayer, Connections c) {
-        return getValues(targetLayer, Arrays.asList(new Connections[] { c }));
+        return getValues(targetLayer, getUnitCount(targetLayer, c));
     }
 
     /**
@@ -74,12 +111,62 @@ public class ValuesProvider implements Serializable {
         }
 
         if (result == null) {
-            set.add(result = new Matrix(rows, getColumns()));
+            if (getLayout(targetLayer) == Layout.SAMPLE_MAJOR) {
+                result = new SampleMajorMatrix(rows, getColumns());
+            } else if (maxColumns > 0 && getColumns() <= maxColumns) {
+                result = new Matrix(getBuffer(targetLayer, rows), 0, rows, getColumns(), getColumns());
+            } else {
+                result = new Matrix(rows, getColumns());
+            }
+
+            set.add(result);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the shared array with maxColumns capacity for the layer and rows
+     */
+    private float[] getBuffer(Layer targetLayer, int rows) {
+        Map<Integer, float[]> layerBuffers = buffers.get(targetLayer);
+        if (layerBuffers == null) {
+            buffers.put(targetLayer, layerBuffers = new HashMap<>());
+        }
+
+        float[] result = layerBuffers.get(rows);
+        if (result == null) {
+            layerBuffers.put(rows, result = new float[rows * maxColumns]);
         }
 
         return result;
     }
 
+    /**
+     * @return the layout of the values of the layer
+     */
+    public Layout getLayout(Layer layer) {
+        Layout result = layerLayouts.get(layer);
+        return result != null ? result : layout;
+    }
+
+    /**
+     * Changes the layout of the values of all the layers (except the ones
+     * with their own layout). Only the values that are created afterwards
+     * are affected (the existing values and the values added with addValues
+     * keep their layout)
+     */
+    public void setLayout(Layout layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Changes the layout of the values of a single layer
+     */
+    public void setLayout(Layer layer, Layout layout) {
+        layerLayouts.put(layer, layout);
+    }
+
     public int getUnitCount(Layer targetLayer, Collection<Connections> connections) {
         int result = 0;
         for (Connections c : connections) {
@@ -108,9 +195,13 @@ public class ValuesProvider implements Serializable {
     }
 
     public int getUnitCount(Layer targetLayer, Connections c) {
-        Set<Connections> cs = new HashSet<>();
-        cs.add(c);
-        return getUnitCount(targetLayer, cs);
+        if (c.getInputLayer() == targetLayer) {
+            return c.getInputUnitCount();
+        } else if (c.getOutputLayer() == targetLayer) {
+            return c.getOutputUnitCount();
+        }
+
+        throw new IllegalArgumentException("A connection doesn't have the targetLayer as either input or output");
     }
 
     public void addValues(Layer l, Matrix m) {
@@ -152,4 +243,23 @@ public class ValuesProvider implements Serializable {
     public void setColumns(int columns) {
         this.columns = columns;
     }
+
+    public int getMaxColumns() {
+        return maxColumns;
+    }
+
+    /**
+     * Enables the shared arrays for mini batches of up to maxColumns samples
+     * (0 disables them). The views are supported by the feedforward
+     * calculators (fully connected, convolutional and pooling) - the values
+     * of the training phases must be dense. Only the values that are created
+     * afterwards are affected
+     */
+    public void setMaxColumns(int maxColumns) {
+        if (maxColumns != this.maxColumns) {
+            buffers.clear();
+        }
+
+        this.maxColumns = maxColumns;
+    }
 }
@@ -7,6 +7,8 @@ import com.github.neuralnetworks.architecture.Layer;
 import com.github.neuralnetworks.architecture.Subsampling2DConnection;
 import com.github.neuralnetworks.calculation.ConnectionCalculator;
 import com.github.neuralnetworks.calculation.ValuesProvider;
+import com.github.neuralnetworks.util.Environment;
+import com.github.neuralnetworks.util.KernelPool;
 
 /**
  * Average pooling
@@ -20,8 +22,13 @@ public class AparapiAveragePooling2D implements ConnectionCalculator {
 
     @Override
     public void calculate(List<Connections> connections, ValuesProvider valuesProvider, Layer targetLayer) {
-        if (cc == null || cc.getMiniBatchSize() != valuesProvider.getColumns()) {
-            cc = new AparapiAveragePooling2DCC((Subsampling2DConnection) connections.get(0), valuesProvider.getColumns());
+        if (cc == null) {
+            KernelPool pool = Environment.getInstance().getKernelPool();
+            cc = pool.get(getClass(), targetLayer, connections, 0);
+            if (cc == null) {
+                cc = new AparapiAveragePooling2DCC((Subsampling2DConnection) connections.get(0), valuesProvider.getColumns());
+                pool.put(getClass(), targetLayer, connections, 0, cc);
+            }
         }
 
         cc.calculate(connections, valuesProvider, targetLayer);
@@ -51,4 +58,4 @@ public class AparapiAveragePooling2D implements ConnectionCalculator {
             }
         }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -4,8 +4,11 @@ import java.io.Serializable;
 
 import com.amd.aparapi.Kernel;
 import com.github.neuralnetworks.architecture.Conv2DConnection;
+import com.github.neuralnetworks.architecture.DirectMatrix;
 import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.StagingBuffers;
 import com.github.neuralnetworks.util.Environment;
+import com.github.neuralnetworks.util.KernelWork;
 
 /**
  * Base class for convolutional operations (2d) This connection accept as input
@@ -15,7 +18,7 @@ import com.github.neuralnetworks.util.Environment;
  * !!! IMPORTANT !!! Aparapi only works one-dimensional arrays of primitive data
  * types can only call member methods of the Kernel class itself.
  */
-public abstract class AparapiConv2D extends Kernel implements Serializable {
+public abstract class AparapiConv2D extends Kernel implements Serializable, KernelWork {
 
     private static final long serialVersionUID = 1L;
 
@@ -30,9 +33,10 @@ public abstract class AparapiConv2D extends Kernel implements Serializable {
     protected final int outputColumns;
 
     /**
-     * number of samples per calculation (for example number of images)
+     * number of samples of the current calculation (for example number of
+     * images) - updated in init(...)
      */
-    protected final int miniBatchSize;
+    protected int miniBatchSize;
 
     /**
      * output columns * output rows
@@ -67,21 +71,35 @@ public abstract class AparapiConv2D extends Kernel implements Serializable {
     protected float[] output;
 
     /**
-     * combined feature weights of all feature maps
+     * combined feature weights of all feature maps (if the connection has 16
+     * bit weights this is a float copy - the kernel can only work with float
+     * arrays). Taken from the connection in init(...), so that the kernel
+     * follows the changes of the weights (setWeights(...), setHalfWeights(...))
      */
     // @Local TODO
-    protected final float[] weights;
+    protected float[] weights;
+
+    /**
+     * the weights of the connection (float array, 16 bit or 8 bit matrix) the
+     * current weights are taken from
+     */
+    private transient Object weightsSource;
+
+    /**
+     * heap copies of the off-heap values (created when needed)
+     */
+    private transient StagingBuffers staging;
 
     public AparapiConv2D(Conv2DConnection c, int miniBatchSize) {
         super();
 
-        this.weights = c.getWeights();
+        initWeights(c);
         this.miniBatchSize = miniBatchSize;
         this.inputColumns = c.getInputFeatureMapColumns();
         this.outputColumns = c.getOutputFeatureMapColumns();
         this.outputFeatureMapLength = c.getOutputFeatureMapLength();
         this.stride = c.getStride();
-        this.featureMapWeights = c.getWeights().length / c.getOutputFilters();
+        this.featureMapWeights = c.getKernelRows() * c.getKernelColumns() * c.getInputFilters();
         this.featureMapOffsets = new int[featureMapWeights];
 
         for (int i = 0, offset = 0; i < c.getInputFilters(); i++) {
@@ -95,20 +113,56 @@ public abstract class AparapiConv2D extends Kernel implements Serializable {
 
     public void calculate(Conv2DConnection c, Matrix input, Matrix output) {
         if (c != null) {
-            init(c, input, output);
-            Environment.getInstance().getExecutionStrategy().execute(this, output.getRows());
+            // off-heap values are staged, because the kernel works only with arrays
+            StagingBuffers staging = staging();
+            Matrix in = staging.stage(input);
+            Matrix out = staging.stage(output);
+
+            init(c, in, out);
+            Environment.getInstance().getExecutionStrategy().execute(this, out.getRows());
+
+            DirectMatrix.unstage(in, input);
+            DirectMatrix.unstage(out, output);
         }
     }
 
+    /**
+     * @return the staging buffers of this calculator after reset()
+     */
+    protected StagingBuffers staging() {
+        if (staging == null) {
+            staging = new StagingBuffers();
+        }
+
+        staging.reset();
+        return staging;
+    }
+
     /**
      * Converts connection, input and output data to one dimensional arrays
      * (because of the Aparapi limitations)
      */
     protected void init(Conv2DConnection c, Matrix input, Matrix output) {
+        initWeights(c);
+        this.miniBatchSize = output.getColumns();
         this.input = input.getElements();
         this.output = output.getElements();
     }
 
+    /**
+     * Takes the current weights of the connection. The 16 bit weights are
+     * converted only when they are replaced
+     */
+    protected void initWeights(Conv2DConnection c) {
+        Object source = c.getQuantizedWeights() != null ? c.getQuantizedWeights() : c.getHalfWeights() != null ? c.getHalfWeights() : c.getWeights();
+        if (source != weightsSource || weights == null) {
+            weightsSource = source;
+
+            // 8 bit weights are not used by the kernel (Aparapi doesn't accept null arrays)
+            weights = c.getQuantizedWeights() != null ? new float[1] : c.getWeights();
+        }
+    }
+
     @Override
     public void run() {
         int id = getGlobalId();
@@ -124,4 +178,20 @@ public abstract class AparapiConv2D extends Kernel implements Serializable {
      */
     protected void conv(int weightsStartId, int inputStartId) {
     }
+
+    /**
+     * @return feature map weights
+     */
+    @Override
+    public int getItemWork() {
+        return featureMapWeights;
+    }
+
+    /**
+     * @return mini batch size
+     */
+    @Override
+    public int getItemSamples() {
+        return miniBatchSize;
+    }
 }
@@ -1,9 +1,16 @@
 package com.github.neuralnetworks.calculation.neuronfunctions;
 
 import com.github.neuralnetworks.architecture.Conv2DConnection;
+import com.github.neuralnetworks.architecture.DirectMatrix;
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.QuantizedMatrix;
+import com.github.neuralnetworks.architecture.StagingBuffers;
+import com.github.neuralnetworks.util.Int8GEMM;
 
 /**
- * Base class for all feedforward convolutional functions
+ * Base class for all feedforward convolutional functions. If the connection
+ * has 8 bit weights the convolution is calculated in java with integer
+ * arithmetic (the input is quantized to 8 bit) instead of the kernel
  */
 public class AparapiConv2DFF extends AparapiConv2D {
 
@@ -13,6 +20,63 @@ public class AparapiConv2DFF extends AparapiConv2D {
         super(c, miniBatchSize);
     }
 
+    /**
+     * quantized input values (8 bit weights only)
+     */
+    private transient byte[] quantizedInput;
+
+    @Override
+    public void calculate(Conv2DConnection c, Matrix input, Matrix output) {
+        if (c != null && c.getQuantizedWeights() != null) {
+            StagingBuffers staging = staging();
+            Matrix in = staging.stage(input);
+            Matrix out = staging.stage(output);
+
+            miniBatchSize = out.getColumns();
+            calculateQuantized(c.getQuantizedWeights(), in.getElements(), in.getRows() * in.getColumns(), out.getElements(), out.getRows());
+
+            DirectMatrix.unstage(out, output);
+        } else {
+            super.calculate(c, input, output);
+        }
+    }
+
+    /**
+     * Same as conv(...) for all output units, but with 8 bit weights and input
+     * values and int accumulation (only the first inputLength input values and
+     * units * miniBatchSize output values are used)
+     */
+    protected void calculateQuantized(QuantizedMatrix w, float[] input, int inputLength, float[] output, int units) {
+        if (quantizedInput == null || quantizedInput.length < inputLength) {
+            quantizedInput = new byte[inputLength];
+        }
+
+        float range = w.getInputRange() > 0 ? w.getInputRange() : Int8GEMM.maxAbs(input, 0, inputLength, 1, inputLength);
+        float inputScale = Int8GEMM.inputScale(range);
+        Int8GEMM.quantize(input, 0, quantizedInput, 0, inputLength, inputScale);
+
+        byte[] qw = w.getValues();
+        byte[] qi = quantizedInput;
+        for (int id = 0; id < units; id++) {
+            int filter = id / outputFeatureMapLength;
+            int weightsStartId = featureMapWeights * filter;
+            int inputStartId = ((id % outputFeatureMapLength) / outputColumns) * inputColumns * stride + (id % outputColumns) * stride;
+            float scale = w.getScales()[filter] * inputScale;
+            int zp = w.getZeroPoints()[filter];
+
+            for (int p = 0; p < miniBatchSize; p++) {
+                int acc = 0, inputSum = 0;
+                for (int i = 0; i < featureMapWeights; i++) {
+                    int q = qi[(inputStartId + featureMapOffsets[i]) * miniBatchSize + p];
+                    acc += qw[weightsStartId + i] * q;
+                    inputSum += q;
+                }
+
+                output[id * miniBatchSize + p] = activationFunction(output[id * miniBatchSize + p] + scale * (acc - zp * inputSum));
+            }
+        }
+    }
+
     @Override
     protected void conv(int weightsStartId, int inputStartId) {
         int id = getGlobalId();
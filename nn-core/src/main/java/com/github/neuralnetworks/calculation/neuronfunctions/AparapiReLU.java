@@ -6,6 +6,7 @@ import com.github.neuralnetworks.architecture.GraphConnections;
 import com.github.neuralnetworks.architecture.Layer;
 import com.github.neuralnetworks.calculation.ConnectionCalculator;
 import com.github.neuralnetworks.calculation.ValuesProvider;
+import com.github.neuralnetworks.util.VectorMath;
 
 /**
  * Rectified linear unit
@@ -19,6 +20,11 @@ public class AparapiReLU extends ConnectionCalculatorFullyConnected {
         return new AparapiReLUFunction(inputConnections, valuesProvider.getColumns(), targetLayer);
     }
 
+    @Override
+    protected GEMMWeightedSum createGEMMInputFunction(SortedMap<GraphConnections, Integer> inputConnections, ValuesProvider valuesProvider, Layer targetLayer) {
+        return new GEMMReLUFunction(inputConnections, valuesProvider.getColumns(), targetLayer);
+    }
+
     public static class AparapiReLUFunction extends AparapiWeightedSum {
 
         public AparapiReLUFunction(SortedMap<GraphConnections, Integer> inputConnections, int miniBatchSize, Layer targetLayer) {
@@ -29,12 +35,26 @@ public class AparapiReLU extends ConnectionCalculatorFullyConnected {
 
         @Override
         protected void after() {
-            int mb = miniBatchSize;
-            int outputId = getGlobalId() * mb;
+            int mb = miniBatchSize, step = outputSampleStride;
+            int outputId = getGlobalId() * outputUnitStride;
 
             for (int i = 0; i < mb; i++) {
-                output[outputId + i] = max(0, output[outputId + i]);
+                output[outputId + i * step] = max(0, output[outputId + i * step]);
             }
         }
     }
+
+    public static class GEMMReLUFunction extends GEMMWeightedSum {
+
+        private static final long serialVersionUID = 1L;
+
+        public GEMMReLUFunction(SortedMap<GraphConnections, Integer> inputConnections, int miniBatchSize, Layer targetLayer) {
+            super(inputConnections, miniBatchSize, targetLayer);
+        }
+
+        @Override
+        protected void after(float[] output, int from, int to) {
+            VectorMath.relu(output, from, to);
+        }
+    }
 }
@@ -6,6 +6,7 @@ import com.github.neuralnetworks.architecture.GraphConnections;
 import com.github.neuralnetworks.architecture.Layer;
 import com.github.neuralnetworks.calculation.ConnectionCalculator;
 import com.github.neuralnetworks.calculation.ValuesProvider;
+import com.github.neuralnetworks.util.VectorMath;
 
 /**
  * Soft Rectified linear unit
@@ -19,6 +20,11 @@ public class AparapiSoftReLU extends ConnectionCalculatorFullyConnected {
         return new AparapiSoftReLUFunction(inputConnections, valuesProvider.getColumns(), targetLayer);
     }
 
+    @Override
+    protected GEMMWeightedSum createGEMMInputFunction(SortedMap<GraphConnections, Integer> inputConnections, ValuesProvider valuesProvider, Layer targetLayer) {
+        return new GEMMSoftReLUFunction(inputConnections, valuesProvider.getColumns(), targetLayer);
+    }
+
     public static class AparapiSoftReLUFunction extends AparapiWeightedSum {
 
         private static final long serialVersionUID = 2572354641295173835L;
@@ -29,12 +35,26 @@ public class AparapiSoftReLU extends ConnectionCalculatorFullyConnected {
 
         @Override
         protected void after() {
-            int mb = miniBatchSize;
-            int outputId = getGlobalId() * mb;
+            int mb = miniBatchSize, step = outputSampleStride;
+            int outputId = getGlobalId() * outputUnitStride;
 
             for (int i = 0; i < mb; i++) {
-                output[outputId + i] = log(1 + exp(output[outputId + i]));
+                output[outputId + i * step] = log(1 + exp(output[outputId + i * step]));
             }
         }
     }
+
+    public static class GEMMSoftReLUFunction extends GEMMWeightedSum {
+
+        private static final long serialVersionUID = 1L;
+
+        public GEMMSoftReLUFunction(SortedMap<GraphConnections, Integer> inputConnections, int miniBatchSize, Layer targetLayer) {
+            super(inputConnections, miniBatchSize, targetLayer);
+        }
+
+        @Override
+        protected void after(float[] output, int from, int to) {
+            VectorMath.softRelu(output, from, to);
+        }
+    }
 }
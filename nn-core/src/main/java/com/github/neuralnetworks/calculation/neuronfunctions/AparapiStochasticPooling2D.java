@@ -7,6 +7,8 @@ import com.github.neuralnetworks.architecture.Layer;
 import com.github.neuralnetworks.architecture.Subsampling2DConnection;
 import com.github.neuralnetworks.calculation.ConnectionCalculator;
 import com.github.neuralnetworks.calculation.ValuesProvider;
+import com.github.neuralnetworks.util.Environment;
+import com.github.neuralnetworks.util.KernelPool;
 
 /**
  * Stochastic pooling
@@ -19,8 +21,13 @@ public class AparapiStochasticPooling2D implements ConnectionCalculator {
 
     @Override
     public void calculate(List<Connections> connections, ValuesProvider valuesProvider, Layer targetLayer) {
-        if (cc == null || cc.getMiniBatchSize() != valuesProvider.getColumns()) {
-            cc = new AparapiStochasticPooling2DCC((Subsampling2DConnection) connections.get(0), valuesProvider.getColumns());
+        if (cc == null) {
+            KernelPool pool = Environment.getInstance().getKernelPool();
+            cc = pool.get(getClass(), targetLayer, connections, 0);
+            if (cc == null) {
+                cc = new AparapiStochasticPooling2DCC((Subsampling2DConnection) connections.get(0), valuesProvider.getColumns());
+                pool.put(getClass(), targetLayer, connections, 0, cc);
+            }
         }
 
         cc.calculate(connections, valuesProvider, targetLayer);
@@ -62,4 +69,4 @@ public class AparapiStochasticPooling2D implements ConnectionCalculator {
             }
         }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -4,12 +4,15 @@ import java.util.List;
 
 import com.amd.aparapi.Kernel;
 import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.DirectMatrix;
 import com.github.neuralnetworks.architecture.Layer;
 import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.StagingBuffers;
 import com.github.neuralnetworks.architecture.Subsampling2DConnection;
 import com.github.neuralnetworks.calculation.ConnectionCalculator;
 import com.github.neuralnetworks.calculation.ValuesProvider;
 import com.github.neuralnetworks.util.Environment;
+import com.github.neuralnetworks.util.KernelWork;
 import com.github.neuralnetworks.util.Util;
 
 /**
@@ -18,7 +21,7 @@ import com.github.neuralnetworks.util.Util;
  * !!! IMPORTANT !!! Aparapi only works one-dimensional arrays of primitive data
  * types can only call member methods of the Kernel class itself.
  */
-public abstract class AparapiSubsampling2D extends Kernel implements ConnectionCalculator {
+public abstract class AparapiSubsampling2D extends Kernel implements ConnectionCalculator, KernelWork {
 
     private static final long serialVersionUID = 8931101094464503687L;
 
@@ -43,9 +46,9 @@ public abstract class AparapiSubsampling2D extends Kernel implements ConnectionC
     protected final int outputFeatureMapLength;
 
     /**
-     * input samples count
+     * input samples count of the current calculation - updated in init(...)
      */
-    protected final int miniBatchSize;
+    protected int miniBatchSize;
 
     /**
      * subsampling region rows
@@ -90,6 +93,11 @@ public abstract class AparapiSubsampling2D extends Kernel implements ConnectionC
      */
     protected float[] output;
 
+    /**
+     * heap copies of the off-heap values (created when needed)
+     */
+    private transient StagingBuffers staging;
+
     public AparapiSubsampling2D(Subsampling2DConnection c, int miniBatchSize) {
         this.miniBatchSize = miniBatchSize;
         this.inputFeatureMapColumns = c.getInputFeatureMapColumns();
@@ -114,15 +122,33 @@ public abstract class AparapiSubsampling2D extends Kernel implements ConnectionC
     public void calculate(List<Connections> connections, ValuesProvider valuesProvider, Layer targetLayer) {
         if (connections.size() > 0) {
             Subsampling2DConnection c = (Subsampling2DConnection) connections.get(0);
-            if (targetLayer == c.getOutputLayer()) {
-                init(c, valuesProvider.getValues(Util.getOppositeLayer(c, targetLayer), c), valuesProvider.getValues(targetLayer, c));
-                Environment.getInstance().getExecutionStrategy().execute(this, valuesProvider.getUnitCount(targetLayer, c));
-            } else {
-                init(c, valuesProvider.getValues(targetLayer, c), valuesProvider.getValues(Util.getOppositeLayer(c, targetLayer), c));
-                Environment.getInstance().getExecutionStrategy().execute(this, valuesProvider.getUnitCount(Util.getOppositeLayer(c, targetLayer), c));
-            }
+            Matrix input = valuesProvider.getValues(c.getInputLayer(), c);
+            Matrix output = valuesProvider.getValues(c.getOutputLayer(), c);
+
+            // off-heap values are staged, because the kernel works only with arrays
+            StagingBuffers staging = staging();
+            Matrix in = staging.stage(input);
+            Matrix out = staging.stage(output);
+
+            init(c, in, out);
+            Environment.getInstance().getExecutionStrategy().execute(this, valuesProvider.getUnitCount(c.getOutputLayer(), c));
 
+            DirectMatrix.unstage(in, input);
+            DirectMatrix.unstage(out, output);
+
+        }
+    }
+
+    /**
+     * @return the staging buffers of this calculator after reset()
+     */
+    protected StagingBuffers staging() {
+        if (staging == null) {
+            staging = new StagingBuffers();
         }
+
+        staging.reset();
+        return staging;
     }
 
     /**
@@ -133,6 +159,7 @@ public abstract class AparapiSubsampling2D extends Kernel implements ConnectionC
      * @param output
      */
     protected void init(Subsampling2DConnection c, Matrix input, Matrix output) {
+        this.miniBatchSize = input.getColumns();
         this.input = input.getElements();
         this.output = output.getElements();
     }
@@ -160,6 +187,22 @@ public abstract class AparapiSubsampling2D extends Kernel implements ConnectionC
     protected void pool(int inputStartIndex) {
     }
 
+    /**
+     * @return region length
+     */
+    @Override
+    public int getItemWork() {
+        return regionLength;
+    }
+
+    /**
+     * @return mini batch size
+     */
+    @Override
+    public int getItemSamples() {
+        return miniBatchSize;
+    }
+
     public int getMiniBatchSize() {
         return miniBatchSize;
     }
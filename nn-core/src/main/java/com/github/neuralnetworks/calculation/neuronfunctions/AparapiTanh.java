@@ -19,6 +19,11 @@ public class AparapiTanh extends ConnectionCalculatorFullyConnected {
         return new AparapiTanhFunction(inputConnections, valuesProvider.getColumns(), targetLayer);
     }
 
+    @Override
+    protected GEMMWeightedSum createGEMMInputFunction(SortedMap<GraphConnections, Integer> inputConnections, ValuesProvider valuesProvider, Layer targetLayer) {
+        return new GEMMTanhFunction(inputConnections, valuesProvider.getColumns(), targetLayer);
+    }
+
     public static class AparapiTanhFunction extends AparapiWeightedSum {
 
         private static final long serialVersionUID = -3409078521599849086L;
@@ -29,11 +34,27 @@ public class AparapiTanh extends ConnectionCalculatorFullyConnected {
 
         @Override
         protected void after() {
-            int mb = miniBatchSize;
-            int outputId = getGlobalId() * mb;
+            int mb = miniBatchSize, step = outputSampleStride;
+            int outputId = getGlobalId() * outputUnitStride;
 
             for (int i = 0; i < mb; i++) {
-                output[outputId + i] = tan(output[outputId + i]);
+                output[outputId + i * step] = tan(output[outputId + i * step]);
+            }
+        }
+    }
+
+    public static class GEMMTanhFunction extends GEMMWeightedSum {
+
+        private static final long serialVersionUID = 1L;
+
+        public GEMMTanhFunction(SortedMap<GraphConnections, Integer> inputConnections, int miniBatchSize, Layer targetLayer) {
+            super(inputConnections, miniBatchSize, targetLayer);
+        }
+
+        @Override
+        protected void after(float[] output, int from, int to) {
+            for (int i = from; i < to; i++) {
+                output[i] = (float) Math.tan(output[i]);
             }
         }
     }
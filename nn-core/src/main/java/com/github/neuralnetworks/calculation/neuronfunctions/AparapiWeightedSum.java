@@ -8,95 +8,152 @@ import com.github.neuralnetworks.architecture.Connections;
 import com.github.neuralnetworks.architecture.GraphConnections;
 import com.github.neuralnetworks.architecture.Layer;
 import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.SampleMajorMatrix;
+import com.github.neuralnetworks.architecture.SparseInputMatrix;
 import com.github.neuralnetworks.calculation.ConnectionCalculator;
 import com.github.neuralnetworks.calculation.ValuesProvider;
 import com.github.neuralnetworks.util.Environment;
+import com.github.neuralnetworks.util.KernelWork;
 import com.github.neuralnetworks.util.Util;
 
 /**
  * Base Aparapi connection calculator for weighted sum functions (matrix
- * multiplication). If there are multiple inbound connections they are combined
- * in a "single" connection and are calculated simultaneously
+ * multiplication). If there are multiple inbound connections the kernel is
+ * executed once for each of them and the results are accumulated in the
+ * output. The weights and the input values of each connection are read in
+ * place (they can also be views over shared arrays) - nothing is copied. The
+ * bias connection (if it's passed) is added in the same pass as the first
+ * connection and the transfer function (after()) is applied in the pass of
+ * the last connection. If the input values are sparse (SparseInputMatrix)
+ * only the non-zero input values are multiplied. The input and the output
+ * values can be unit-major (Matrix) or sample-major (SampleMajorMatrix) - the
+ * layout is represented by the strides between the units and the samples
  * 
  * !!! IMPORTANT !!! Aparapi only works one-dimensional arrays of primitive data
  * types can only call member methods of the Kernel class itself.
  * 
- * Because of this limitations all the data that is contained in the input
- * connections, weight matrices, input values etc is converted into
- * one-dimensional member arrays of this class
+ * Because of this limitations the current connection is represented by
+ * one-dimensional arrays and offsets/steps within these arrays
  */
-public class AparapiWeightedSum extends Kernel implements ConnectionCalculator {
+public class AparapiWeightedSum extends Kernel implements ConnectionCalculator, KernelWork {
 
     private static final long serialVersionUID = -8435155322138790083L;
 
     /**
-     * Number of input samples that will be calculated simultaneously
+     * Number of input samples of the current calculation. The kernel is not
+     * bound to a mini batch size - it's updated in init() from the output
+     * values
      */
-    protected final int miniBatchSize;
+    protected int miniBatchSize;
 
     /**
-     * Number of input connections that will be "combined" for simultaneous
-     * calculation
+     * Number of input connections
      */
     protected final int series;
 
     /**
-     * input values
+     * input values of the current connection
      */
     protected float[] input;
 
     /**
-     * this is the weight matrix
+     * position of the first input value
      */
-    protected final float[] weights;
+    protected int inputOffset;
 
     /**
-     * output values
+     * distance between the values of two consecutive input units
      */
-    protected float[] output;
+    protected int inputStride;
+
+    /**
+     * distance between the values of two consecutive input samples (1 if the
+     * input is unit-major)
+     */
+    protected int inputSampleStride;
 
     /**
-     * This is combined with the "weights" to represent the weight matrix (the
-     * Matrix class itself cannot be used because of the Aparapi limitations).
-     * It is an array, because of the combined connections
+     * 1 if the input values are sparse. Then the non-zero input values of the
+     * sample i are input[inputPointers[i]] ... input[inputPointers[i + 1] - 1]
+     * and their units are in inputIndices
      */
-    // @Local TODO
-    @Constant
-    protected final int[] weightsDimension;
+    protected int sparseInput;
+
+    protected int[] inputPointers;
+
+    protected int[] inputIndices;
+
+    /**
+     * the weight matrix of the current connection
+     */
+    protected float[] weights;
+
+    /**
+     * Combined with the "weights" to represent the weight matrix of the
+     * current connection (the Matrix class itself cannot be used because of
+     * the Aparapi limitations). The weight between the output unit "id" and
+     * the input unit "j" is weights[weightsOffset + id * weightsInitialStep + j
+     * * weightsStep]
+     */
+    protected int weightsOffset;
 
     /**
      * For optimization reasons
      */
-    // @Local TODO
-    @Constant
-    protected final int[] weightsInitialStep;
+    protected int weightsInitialStep;
 
     /**
      * For optimization reasons
      */
-    // @Local TODO
-    @Constant
-    protected final int[] weightsStep;
+    protected int weightsStep;
+
+    /**
+     * number of input units of the current connection
+     */
+    protected int weightsDimension;
+
+    /**
+     * output values. The value of the output unit "id" for the sample "i" is
+     * output[id * outputUnitStride + i * outputSampleStride]
+     */
+    protected float[] output;
+
+    protected int outputUnitStride;
+
+    protected int outputSampleStride;
+
+    /**
+     * bias weights (of the bias connection). The bias of the output unit "id"
+     * is biasWeights[biasOffset + id * biasStride]
+     */
+    protected float[] biasWeights;
+
+    protected int biasOffset;
+
+    protected int biasStride;
+
+    /**
+     * 1 if there is a bias connection
+     */
+    protected int hasBias;
+
+    /**
+     * 1 if the current connection is the first one (the bias is added only
+     * once)
+     */
+    protected int firstConnection;
 
     /**
-     * This is combined with the other properties to represent the
-     * FullyConnected connection (the FullyConnected class itself cannot be used
-     * because of the Aparapi limitations) It is an array, because of the
-     * combined connections
+     * 1 if the current connection is the last one (the after() method is
+     * called only once)
      */
-    // @Local TODO
-    @Constant
-    protected final int[] inputStartPositions;
+    protected int lastConnection;
 
     /**
-     * This is combined with the other properties to represent the
-     * FullyConnected connection (the FullyConnected class itself cannot be used
-     * because of the Aparapi limitations) It is an array, because of the
-     * combined connections
+     * 1 if the output values of the current connection are not needed (only
+     * afterConnection() and after() are called)
      */
-    // @Local TODO
-    @Constant
-    protected final int[] weightStartPositions;
+    protected int skipWeightedSum;
 
     /**
      * Will determine whether initialization is needed
@@ -109,106 +166,185 @@ public class AparapiWeightedSum extends Kernel implements ConnectionCalculator {
         this.currentLayer = targetLayer;
         this.miniBatchSize = miniBatchSize;
         this.series = inputConnections.size();
-        this.weightsDimension = new int[series];
-        this.inputStartPositions = new int[series];
-        this.weightStartPositions = new int[series];
-        this.weightsInitialStep = new int[series];
-        this.weightsStep = new int[series];
-
-        int totalInputSize = 0, totalWeightSize = 0, i = 0;
-        for (java.util.Map.Entry<GraphConnections, Integer> e : inputConnections.entrySet()) {
-            Matrix cg = e.getKey().getConnectionGraph();
-
-            inputStartPositions[i] = totalInputSize;
-            totalInputSize += e.getValue();
-            weightStartPositions[i] = totalWeightSize;
-            totalWeightSize += e.getKey().getConnectionGraph().getElements().length;
-
-            // depending on the direction of the calculation
-            if (e.getKey().getOutputLayer() == targetLayer) {
-                weightsDimension[i] = cg.getColumns();
-                weightsInitialStep[i] = cg.getColumns();
-                weightsStep[i] = 1;
-            } else {
-                weightsDimension[i] = cg.getRows();
-                weightsInitialStep[i] = 1;
-                weightsStep[i] = cg.getColumns();
-            }
+    }
 
-            i++;
+    @Override
+    public void calculate(List<Connections> connections, ValuesProvider valuesProvider, Layer targetLayer) {
+        if (connections.size() > 0) {
+            Connections bias = Util.getBias(connections, targetLayer);
+            initBias(bias);
+
+            int count = bias != null ? connections.size() - 1 : connections.size(), i = 0;
+            for (Connections c : connections) {
+                if (c != bias) {
+                    init(c, valuesProvider, targetLayer);
+                    firstConnection = i == 0 ? 1 : 0;
+                    lastConnection = ++i == count ? 1 : 0;
+                    Environment.getInstance().getExecutionStrategy().execute(this, valuesProvider.getUnitCount(targetLayer, connections));
+                    connectionCalculated(c);
+                }
+            }
         }
+    }
 
-        if (inputConnections.size() == 1) {
-            java.util.Map.Entry<GraphConnections, Integer> e = inputConnections.entrySet().iterator().next();
-            this.weights = e.getKey().getConnectionGraph().getElements();
+    /**
+     * The bias weights are read in place
+     */
+    protected void initBias(Connections bias) {
+        if (bias != null) {
+            Matrix cg = ((GraphConnections) bias).getConnectionGraph();
+            biasWeights = cg.getElements();
+            biasOffset = cg.getOffset();
+            biasStride = cg.getStride();
+            hasBias = 1;
         } else {
-            weights = new float[totalWeightSize];
-            this.input = new float[totalInputSize];
+            hasBias = 0;
 
-            i = 0;
-            for (java.util.Map.Entry<GraphConnections, Integer> e : inputConnections.entrySet()) {
-                System.arraycopy(e.getKey().getConnectionGraph().getElements(), 0, weights, weightStartPositions[i], e.getKey().getConnectionGraph().getElements().length);
-                i++;
+            // Aparapi doesn't accept null arrays
+            if (biasWeights == null) {
+                biasWeights = new float[1];
             }
         }
     }
 
-    @Override
-    public void calculate(List<Connections> connections, ValuesProvider valuesProvider, Layer targetLayer) {
-        if (connections.size() > 0) {
-            init(connections, valuesProvider, targetLayer);
-            Environment.getInstance().getExecutionStrategy().execute(this, valuesProvider.getUnitCount(targetLayer, connections));
-        }
+    /**
+     * Called after the kernel is executed for the connection
+     */
+    protected void connectionCalculated(Connections connection) {
     }
 
     /**
-     * Combines all the inputConnections and initializes all the arrays based on
-     * the connections
+     * Initializes the arrays and the steps for the connection (the values are
+     * not copied)
      */
-    protected void init(List<Connections> inputConnections, ValuesProvider valuesProvider, Layer targetLayer) {
-        this.output = valuesProvider.getValues(targetLayer, inputConnections).getElements();
+    protected void init(Connections connection, ValuesProvider valuesProvider, Layer targetLayer) {
+        Matrix out = valuesProvider.getValues(targetLayer, connection);
+        if (!out.isContiguous()) {
+            throw new IllegalArgumentException("The output values must be contiguous");
+        }
+
+        this.miniBatchSize = out.getColumns();
 
-        if (inputConnections.size() == 1) {
-            this.input = valuesProvider.getValues(Util.getOppositeLayer(inputConnections.get(0), targetLayer), inputConnections).getElements();
+        if (out instanceof SampleMajorMatrix) {
+            this.output = ((SampleMajorMatrix) out).getValues();
+            this.outputUnitStride = 1;
+            this.outputSampleStride = out.getRows();
         } else {
-            int offset = 0;
-            for (Connections c : inputConnections) {
-                float[] a = valuesProvider.getValues(Util.getOppositeLayer(c, targetLayer), c).getElements();
-                System.arraycopy(a, 0, input, offset, a.length);
-                offset += a.length;
+            this.output = out.getElements();
+            this.outputUnitStride = miniBatchSize;
+            this.outputSampleStride = 1;
+        }
+
+        Matrix in = valuesProvider.getValues(Util.getOppositeLayer(connection, targetLayer), connection);
+        if (in instanceof SparseInputMatrix) {
+            SparseInputMatrix sparse = (SparseInputMatrix) in;
+            this.input = sparse.getColumnValues();
+            this.inputPointers = sparse.getColumnPointers();
+            this.inputIndices = sparse.getRowIndices();
+            this.inputOffset = 0;
+            this.inputStride = 0;
+            this.inputSampleStride = 0;
+            this.sparseInput = 1;
+        } else if (in instanceof SampleMajorMatrix) {
+            this.input = ((SampleMajorMatrix) in).getValues();
+            this.inputOffset = 0;
+            this.inputStride = 1;
+            this.inputSampleStride = in.getRows();
+            this.sparseInput = 0;
+        } else {
+            this.input = in.getElements();
+            this.inputOffset = in.getOffset();
+            this.inputStride = in.getStride();
+            this.inputSampleStride = 1;
+            this.sparseInput = 0;
+
+            // Aparapi doesn't accept null arrays
+            if (inputPointers == null) {
+                inputPointers = new int[1];
+                inputIndices = new int[1];
             }
         }
-    };
+
+        Matrix cg = ((GraphConnections) connection).getConnectionGraph();
+        this.weights = cg.getElements();
+        this.weightsOffset = cg.getOffset();
+
+        // depending on the direction of the calculation
+        if (connection.getOutputLayer() == targetLayer) {
+            weightsDimension = cg.getColumns();
+            weightsInitialStep = cg.getStride();
+            weightsStep = 1;
+        } else {
+            weightsDimension = cg.getRows();
+            weightsInitialStep = 1;
+            weightsStep = cg.getStride();
+        }
+    }
 
     @Override
     public void run() {
         int id = getGlobalId();
 
-        int inputStartPosition = 0, initialWeightIndex = 0, weightStep = 0, dim = 0;
-        float value = 0;
+        int initialWeightIndex = weightsOffset + weightsInitialStep * id, weightStep = weightsStep, dim = weightsDimension, stride = inputStride, sampleStride = inputSampleStride;
+        int outputIndex = id * outputUnitStride, outputStep = outputSampleStride;
+        float value = 0, bias = 0;
+
+        if (firstConnection == 1 && hasBias == 1) {
+            bias = biasWeights[biasOffset + id * biasStride];
+        }
 
         // each input example
-        for (int i = 0; i < miniBatchSize; i++) {
-            // each connection (of the combined connections)
-            value = output[id * miniBatchSize + i];
-            for (int k = 0; k < series; k++) {
-                // each element in the row/column
-                inputStartPosition = inputStartPositions[k];
-                initialWeightIndex = weightStartPositions[k] + weightsInitialStep[k] * id;
-                weightStep = weightsStep[k];
-                dim = weightsDimension[k];
+        for (int i = 0; i < miniBatchSize && skipWeightedSum == 0; i++) {
+            value = output[outputIndex + i * outputStep] + bias;
 
+            if (sparseInput == 1) {
+                // only the non-zero input values
+                for (int p = inputPointers[i], end = inputPointers[i + 1]; p < end; p++) {
+                    value += input[p] * weights[initialWeightIndex + inputIndices[p] * weightStep];
+                }
+            } else {
+                // each element in the row/column
                 for (int j = 0; j < dim; j++) {
-                    value += input[inputStartPosition + j * miniBatchSize + i] * weights[initialWeightIndex + j * weightStep];
+                    value += input[inputOffset + j * stride + i * sampleStride] * weights[initialWeightIndex + j * weightStep];
                 }
             }
 
-            output[id * miniBatchSize + i] = value;
+            output[outputIndex + i * outputStep] = value;
+        }
+
+        afterConnection();
+
+        if (lastConnection == 1) {
+            after();
         }
+    }
 
-        after();
+    /**
+     * called after the weighted sum of each connection
+     */
+    protected void afterConnection() {
     }
 
+    /**
+     * called after the weighted sum of the last connection (for activation
+     * functions)
+     */
     protected void after() {
     }
+
+    /**
+     * @return weights
+     */
+    @Override
+    public int getItemWork() {
+        return weightsDimension;
+    }
+
+    /**
+     * @return mini batch size
+     */
+    @Override
+    public int getItemSamples() {
+        return miniBatchSize;
+    }
 }
@@ -1,11 +1,9 @@
 package com.github.neuralnetworks.calculation.neuronfunctions;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import com.github.neuralnetworks.architecture.Matrix;
 import com.github.neuralnetworks.training.random.XORShiftKernel;
 import com.github.neuralnetworks.util.Environment;
+import com.github.neuralnetworks.util.KernelPool;
 
 /**
  * Bernoulli distribution
@@ -14,13 +12,24 @@ public class BernoulliDistribution implements MatrixFunction {
 
     private static final long serialVersionUID = 1L;
 
-    protected Map<Integer, BernoulliKernel> kernels = new HashMap<>();
+    /**
+     * the kernel of the last calculation (the pool keeps only weak references)
+     */
+    private transient BernoulliKernel kernel;
+    private transient int kernelSize;
 
+    /**
+     * The kernels are pooled by the size of the values (there is no layer)
+     */
     @Override
     public void value(Matrix inputOutput) {
-        BernoulliKernel kernel = kernels.get(inputOutput.getElements().length);
-        if (kernel == null) {
-            kernels.put(inputOutput.getElements().length, kernel = new BernoulliKernel(inputOutput.getElements().length));
+        if (kernel == null || kernelSize != inputOutput.getElements().length) {
+            kernelSize = inputOutput.getElements().length;
+            KernelPool pool = Environment.getInstance().getKernelPool();
+            kernel = pool.get(getClass(), null, null, inputOutput.getElements().length);
+            if (kernel == null) {
+                pool.put(getClass(), null, null, inputOutput.getElements().length, kernel = new BernoulliKernel(inputOutput.getElements().length));
+            }
         }
 
         kernel.values = inputOutput.getElements();
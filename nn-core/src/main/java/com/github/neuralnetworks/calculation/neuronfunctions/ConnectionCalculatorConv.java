@@ -1,12 +1,18 @@
 package com.github.neuralnetworks.calculation.neuronfunctions;
 
+import java.nio.FloatBuffer;
+import java.util.Collections;
 import java.util.List;
 
 import com.github.neuralnetworks.architecture.Connections;
 import com.github.neuralnetworks.architecture.Conv2DConnection;
+import com.github.neuralnetworks.architecture.DirectMatrix;
 import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.Matrix;
 import com.github.neuralnetworks.calculation.ConnectionCalculator;
 import com.github.neuralnetworks.calculation.ValuesProvider;
+import com.github.neuralnetworks.util.Environment;
+import com.github.neuralnetworks.util.KernelPool;
 import com.github.neuralnetworks.util.Util;
 
 /**
@@ -37,10 +43,16 @@ public class ConnectionCalculatorConv implements ConnectionCalculator {
         }
 
         if (c != null) {
-            // currently works only as a feedforward (including bp)
-            if (inputFunction == null || miniBatchSize != valuesProvider.getColumns()) {
-                miniBatchSize = valuesProvider.getColumns();
-                inputFunction = createInputFunction(c, miniBatchSize);
+            // currently works only as a feedforward (including bp). The kernel doesn't depend on the mini batch size
+            miniBatchSize = valuesProvider.getColumns();
+            if (inputFunction == null || targetLayer != currentLayer) {
+                currentLayer = targetLayer;
+                KernelPool pool = Environment.getInstance().getKernelPool();
+                inputFunction = pool.get(getClass(), targetLayer, Collections.singletonList(c), 0);
+                if (inputFunction == null) {
+                    inputFunction = createInputFunction(c, miniBatchSize);
+                    pool.put(getClass(), targetLayer, Collections.singletonList(c), 0, inputFunction);
+                }
             }
 
             calculateBias(bias, valuesProvider);
@@ -64,10 +76,20 @@ public class ConnectionCalculatorConv implements ConnectionCalculator {
                 Util.fillArray(biasValue, 1);
             }
 
-            float[] a = vp.getValues(bias.getOutputLayer(), bias).getElements();
-            int fm = a.length / bias.getWeights().length;
-            for (int i = 0; i < a.length; i++) {
-                a[i] += bias.getWeights()[i / fm];
+            Matrix values = vp.getValues(bias.getOutputLayer(), bias);
+            if (values instanceof DirectMatrix) {
+                FloatBuffer a = ((DirectMatrix) values).getBuffer();
+                int fm = a.capacity() / bias.getWeights().length;
+                for (int i = 0; i < a.capacity(); i++) {
+                    a.put(i, a.get(i) + bias.getWeights()[i / fm]);
+                }
+            } else {
+                float[] a = values.getElements();
+                int length = values.getRows() * values.getColumns();
+                int fm = length / bias.getWeights().length;
+                for (int i = 0; i < length; i++) {
+                    a[i] += bias.getWeights()[i / fm];
+                }
             }
         }
     }
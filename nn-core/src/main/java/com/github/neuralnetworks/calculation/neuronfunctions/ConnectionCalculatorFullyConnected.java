@@ -1,24 +1,31 @@
 package com.github.neuralnetworks.calculation.neuronfunctions;
 
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
 import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.DirectMatrix;
 import com.github.neuralnetworks.architecture.GraphConnections;
 import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.Matrix;
 import com.github.neuralnetworks.calculation.ConnectionCalculator;
 import com.github.neuralnetworks.calculation.ValuesProvider;
 import com.github.neuralnetworks.events.PropagationEvent;
 import com.github.neuralnetworks.events.PropagationEventListener;
+import com.github.neuralnetworks.util.Environment;
+import com.github.neuralnetworks.util.KernelPool;
 import com.github.neuralnetworks.util.UniqueList;
 import com.github.neuralnetworks.util.Util;
 
 /**
  * Default implementation of Connection calculator for fully connected layers
  * Biases are also added After all the input functions are calculated there is a
- * list of activation functions that can be applied to the result This class
+ * list of activation functions that can be applied to the result. The built-in
+ * input functions (AparapiWeightedSum and GEMMWeightedSum) add the bias and
+ * apply the transfer function in the same pass as the weighted sum This class
  * differs from LayerCalculatorImpl in the fact that LayerCalculatorImpl
  * traverses the graph of layers, where ConnectionCalculatorImpl only deals with
  * the connections passed as parameter
@@ -48,6 +55,21 @@ public class ConnectionCalculatorFullyConnected implements ConnectionCalculator,
      */
     protected List<MatrixFunction> activationFunctions;
 
+    /**
+     * The connections of the last calculation and their routing - the
+     * connections without the bias, the bias and whether the weights can be
+     * calculated only by GEMMWeightedSum. The layer calculators pass the same
+     * list for each mini batch (see CalculationPlan), so the routing is
+     * calculated again only for other connections, other weight matrices (for
+     * example after quantization) or a new topology version
+     */
+    protected transient List<Connections> routedConnections;
+    protected transient List<Connections> notBias;
+    protected transient Connections bias;
+    protected transient Matrix[] routedWeights;
+    protected transient boolean gemmWeights;
+    protected transient long routedTopologyVersion;
+
     public ConnectionCalculatorFullyConnected() {
         super();
     }
@@ -55,65 +77,141 @@ public class ConnectionCalculatorFullyConnected implements ConnectionCalculator,
     @Override
     public void calculate(List<Connections> connections, ValuesProvider valuesProvider, Layer targetLayer) {
         if (connections.size() > 0) {
-            List<Connections> notBias = new ArrayList<>();
-            Connections bias = null;
-
-            for (Connections c : connections) {
-                // bias layer scenarios
-                if (Util.isBias(c.getInputLayer())) {
-                    bias = c;
-                } else {
-                    notBias.add(c);
-                }
-            }
+            boolean rerouted = route(connections);
 
             if (notBias.size() > 0) {
                 if (preTransferFunctions != null && preTransferFunctions.size() > 0) {
-                    for (MatrixFunction f : preTransferFunctions) {
-                        for (Connections c : connections) {
-                            if (!Util.isBias(c.getInputLayer())) {
-                                f.value(valuesProvider.getValues(Util.getOppositeLayer(c, targetLayer), c));
-                            }
+                    for (int i = 0; i < preTransferFunctions.size(); i++) {
+                        for (int j = 0; j < notBias.size(); j++) {
+                            Connections c = notBias.get(j);
+                            preTransferFunctions.get(i).value(valuesProvider.getValues(Util.getOppositeLayer(c, targetLayer), c));
                         }
                     }
                 }
 
-                calculateBias(bias, valuesProvider);
-
-                // new input function is required
-                if (inputFunction == null || targetLayer != currentLayer || miniBatchSize != valuesProvider.getColumns()) {
-                    miniBatchSize = valuesProvider.getColumns();
+                // the input function depends on the layer and the connections (pooled), but not on the mini batch size
+                boolean useGEMM = gemmWeights || Environment.getInstance().isUseGEMM() || hasDirectValues(notBias, valuesProvider, targetLayer);
+                miniBatchSize = valuesProvider.getColumns();
+                if (inputFunction == null || rerouted || targetLayer != currentLayer || useGEMM != (inputFunction instanceof GEMMWeightedSum)) {
                     currentLayer = targetLayer;
-                    SortedMap<GraphConnections, Integer> map = new TreeMap<>();
-                    for (Connections c : notBias) {
-                        map.put((GraphConnections) c, valuesProvider.getValues(Util.getOppositeLayer(c, targetLayer), c).getElements().length);
-                    }
+                    KernelPool pool = Environment.getInstance().getKernelPool();
+                    inputFunction = pool.get(getClass(), targetLayer, notBias, 0);
 
-                    inputFunction = createInputFunction(map, valuesProvider, targetLayer);
+                    if (inputFunction == null || useGEMM != (inputFunction instanceof GEMMWeightedSum)) {
+                        SortedMap<GraphConnections, Integer> map = new TreeMap<>();
+                        for (Connections c : notBias) {
+                            Matrix input = valuesProvider.getValues(Util.getOppositeLayer(c, targetLayer), c);
+                            map.put((GraphConnections) c, input.getRows() * input.getColumns());
+                        }
+
+                        inputFunction = useGEMM ? createGEMMInputFunction(map, valuesProvider, targetLayer) : createInputFunction(map, valuesProvider, targetLayer);
+                        pool.put(getClass(), targetLayer, notBias, 0, inputFunction);
+                    }
                 }
 
-                inputFunction.calculate(notBias, valuesProvider, targetLayer);
+                if (inputFunction instanceof AparapiWeightedSum || inputFunction instanceof GEMMWeightedSum) {
+                    // the bias is added by the input function
+                    initBias(bias, valuesProvider);
+                    inputFunction.calculate(connections, valuesProvider, targetLayer);
+                } else {
+                    calculateBias(bias, valuesProvider);
+                    inputFunction.calculate(notBias, valuesProvider, targetLayer);
+                }
 
                 if (activationFunctions != null) {
-                    for (MatrixFunction f : activationFunctions) {
-                        f.value(valuesProvider.getValues(targetLayer, notBias));
+                    for (int i = 0; i < activationFunctions.size(); i++) {
+                        activationFunctions.get(i).value(valuesProvider.getValues(targetLayer, notBias));
                     }
                 }
             }
         }
     }
 
-    protected void calculateBias(Connections bias, ValuesProvider valuesProvider) {
+    /**
+     * Updates the routing of the connections if they have changed
+     *
+     * @return whether the routing has changed
+     */
+    protected boolean route(List<Connections> connections) {
+        long version = topologyVersion(connections);
+        if (connections == routedConnections && routedTopologyVersion == version && routedWeights.length == connections.size()) {
+            boolean same = true;
+            for (int i = 0; i < routedWeights.length && same; i++) {
+                Connections c = connections.get(i);
+                same = !(c instanceof GraphConnections) || ((GraphConnections) c).getConnectionGraph() == routedWeights[i];
+            }
+
+            if (same) {
+                return false;
+            }
+        }
+
+        routedConnections = connections;
+        routedTopologyVersion = version;
+        routedWeights = new Matrix[connections.size()];
+        notBias = new ArrayList<>();
+        bias = null;
+        for (int i = 0; i < connections.size(); i++) {
+            Connections c = connections.get(i);
+            if (c instanceof GraphConnections) {
+                routedWeights[i] = ((GraphConnections) c).getConnectionGraph();
+            }
+
+            // bias layer scenarios
+            if (Util.isBias(c.getInputLayer())) {
+                bias = c;
+            } else {
+                notBias.add(c);
+            }
+        }
+
+        gemmWeights = Util.hasDirectWeights(connections) || Util.hasHalfWeights(connections) || Util.hasQuantizedWeights(connections) || Util.hasSparseWeights(connections);
+
+        return true;
+    }
+
+    /**
+     * @return the latest topology version of the layers of the connections
+     *         (the bias routing depends on them)
+     */
+    private static long topologyVersion(List<Connections> connections) {
+        long result = 0;
+        for (int i = 0; i < connections.size(); i++) {
+            Connections c = connections.get(i);
+            result = Math.max(result, Math.max(c.getInputLayer().getTopologyVersion(), c.getOutputLayer().getTopologyVersion()));
+        }
+
+        return result;
+    }
+
+    /**
+     * the values of the bias layer are always 1
+     */
+    protected void initBias(Connections bias, ValuesProvider valuesProvider) {
         if (bias != null) {
             float[] biasValue = valuesProvider.getValues(bias.getInputLayer(), bias).getElements();
             if (biasValue[0] == 0) {
                 Util.fillArray(biasValue, 1);
             }
+        }
+    }
 
-            float[] out = valuesProvider.getValues(bias.getOutputLayer(), bias).getElements();
-            for (int i = 0; i < out.length; i++) {
-                GraphConnections gc = (GraphConnections) bias;
-                out[i] += gc.getConnectionGraph().getElements()[i / valuesProvider.getColumns()];
+    protected void calculateBias(Connections bias, ValuesProvider valuesProvider) {
+        if (bias != null) {
+            initBias(bias, valuesProvider);
+
+            Matrix outValues = valuesProvider.getValues(bias.getOutputLayer(), bias);
+            Matrix weights = ((GraphConnections) bias).getConnectionGraph();
+            if (outValues instanceof DirectMatrix) {
+                FloatBuffer out = ((DirectMatrix) outValues).getBuffer();
+                for (int i = 0; i < out.capacity(); i++) {
+                    out.put(i, out.get(i) + weights.get(i / valuesProvider.getColumns(), 0));
+                }
+            } else {
+                float[] out = outValues.getElements();
+                for (int i = 0, length = outValues.getRows() * outValues.getColumns(); i < length; i++) {
+                    out[i] += weights.getElements()[i / valuesProvider.getColumns()];
+                }
             }
         }
     }
@@ -137,10 +235,59 @@ public class ConnectionCalculatorFullyConnected implements ConnectionCalculator,
         }
     }
 
+    /**
+     * @return whether the calculator can read and write sample-major values
+     *         (SampleMajorMatrix). The built-in input functions support both
+     *         layouts, the pre-transfer functions and the activation
+     *         functions (except softmax) only support unit-major values
+     */
+    public boolean supportsSampleMajor() {
+        if (preTransferFunctions != null && preTransferFunctions.size() > 0) {
+            return false;
+        }
+
+        if (activationFunctions != null) {
+            for (MatrixFunction f : activationFunctions) {
+                if (!(f instanceof SoftmaxFunction)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Off-heap values can't be used by the Aparapi kernels
+     */
+    protected boolean hasDirectValues(List<Connections> connections, ValuesProvider valuesProvider, Layer targetLayer) {
+        if (valuesProvider.getValues(targetLayer, connections) instanceof DirectMatrix) {
+            return true;
+        }
+
+        for (int i = 0; i < connections.size(); i++) {
+            Connections c = connections.get(i);
+            if (valuesProvider.getValues(Util.getOppositeLayer(c, targetLayer), c) instanceof DirectMatrix) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     protected ConnectionCalculator createInputFunction(SortedMap<GraphConnections, Integer> inputConnections, ValuesProvider valuesProvider, Layer targetLayer) {
         return new AparapiWeightedSum(inputConnections, valuesProvider.getColumns(), targetLayer);
     }
 
+    /**
+     * Pure java alternative of createInputFunction (used when
+     * Environment.isUseGEMM() is true or there are off-heap matrices).
+     * Subclasses with transfer functions must override both methods
+     */
+    protected GEMMWeightedSum createGEMMInputFunction(SortedMap<GraphConnections, Integer> inputConnections, ValuesProvider valuesProvider, Layer targetLayer) {
+        return new GEMMWeightedSum(inputConnections, valuesProvider.getColumns(), targetLayer);
+    }
+
     public void addPreTransferFunction(MatrixFunction function) {
         if (preTransferFunctions == null) {
             preTransferFunctions = new UniqueList<>();
@@ -0,0 +1,434 @@
+package com.github.neuralnetworks.calculation.neuronfunctions;
+
+import java.util.List;
+import java.util.SortedMap;
+
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.DirectMatrix;
+import com.github.neuralnetworks.architecture.GraphConnections;
+import com.github.neuralnetworks.architecture.HalfMatrix;
+import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.QuantizedMatrix;
+import com.github.neuralnetworks.architecture.SampleMajorMatrix;
+import com.github.neuralnetworks.architecture.SparseInputMatrix;
+import com.github.neuralnetworks.architecture.SparseMatrix;
+import com.github.neuralnetworks.architecture.StagingBuffers;
+import com.github.neuralnetworks.calculation.ConnectionCalculator;
+import com.github.neuralnetworks.calculation.ValuesProvider;
+import com.github.neuralnetworks.util.GEMM;
+import com.github.neuralnetworks.util.Int8GEMM;
+import com.github.neuralnetworks.util.Util;
+
+/**
+ * Pure java weighted sum based on the cache blocked GEMM engine. It is an
+ * alternative to AparapiWeightedSum for cpu-only execution. Each connection is
+ * multiplied in place (there is no need to combine the connections, because
+ * the results are accumulated in the output). Works in both directions - if
+ * the target layer is the input layer of the connection the transposed weight
+ * matrix is used. Supports off-heap matrices (DirectMatrix) - the weights are
+ * read in place, the values are staged on heap (in buffers that are reused
+ * between the calculations, see StagingBuffers). 16 bit weights (HalfMatrix)
+ * are widened to float while they are read, 8 bit weights (QuantizedMatrix)
+ * are multiplied with integer arithmetic (Int8GEMM, forward direction only).
+ * Sparse weights (SparseMatrix) are multiplied only at the stored values. Sparse input values
+ * (SparseInputMatrix) are multiplied only at the non-zero values. Matrix views (weights and
+ * input values) are read in place using their offset and stride. Sample-major
+ * values (SampleMajorMatrix) are multiplied in place with dense float weights
+ * (the layout only changes the transpose flags of the GEMM), with the other
+ * weight formats they are staged to unit-major. The bias
+ * connection (if it's passed) and the transfer function are applied in the
+ * write-back of the GEMM: they are applied to each block of the output as soon
+ * as the last connection is accumulated into it (GEMM.Epilogue), while the
+ * block is still in the cache. The sparse, 8 bit and staged sample-major paths
+ * apply them in a separate pass over the output after the last connection
+ * (finish(...)). The output is still cleared by the layer calculator before
+ * the calculation
+ */
+public class GEMMWeightedSum implements ConnectionCalculator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * number of output values in a tile of the bias/transfer function pass
+     */
+    public static final int TILE_SIZE = 1024;
+
+    /**
+     * Number of input samples of the current calculation (updated in
+     * calculate(...) from the output values - the instance is not bound to a
+     * mini batch size)
+     */
+    protected int miniBatchSize;
+
+    /**
+     * Will determine whether initialization is needed
+     */
+    protected Layer currentLayer;
+
+    /**
+     * the matrix multiplication engine
+     */
+    protected final GEMM gemm;
+
+    /**
+     * the engine for 8 bit weights (created when needed)
+     */
+    protected Int8GEMM int8Gemm;
+
+    /**
+     * bias and transfer function in the GEMM write-back for unit-major and
+     * sample-major output (created when needed)
+     */
+    private transient BiasEpilogue unitMajorEpilogue;
+    private transient BiasEpilogue sampleMajorEpilogue;
+
+    /**
+     * heap copies of the off-heap values (created when needed)
+     */
+    private transient StagingBuffers staging;
+
+    public GEMMWeightedSum(SortedMap<GraphConnections, Integer> inputConnections, int miniBatchSize, Layer targetLayer) {
+        super();
+        this.currentLayer = targetLayer;
+        this.miniBatchSize = miniBatchSize;
+        this.gemm = new GEMM();
+    }
+
+    @Override
+    public void calculate(List<Connections> connections, ValuesProvider valuesProvider, Layer targetLayer) {
+        if (connections.size() > 0) {
+            Matrix target = valuesProvider.getValues(targetLayer, connections);
+            if (!target.isContiguous()) {
+                throw new IllegalArgumentException("The output values must be contiguous");
+            }
+
+            miniBatchSize = target.getColumns();
+
+            StagingBuffers staging = staging();
+            Matrix output = staging.stage(target);
+            Connections bias = Util.getBias(connections, targetLayer);
+            Matrix biasWeights = bias != null ? ((GraphConnections) bias).getConnectionGraph() : null;
+
+            // the bias and the transfer function are fused with the last multiplication
+            int last = -1;
+            for (int i = 0; i < connections.size(); i++) {
+                if (connections.get(i) != bias) {
+                    last = i;
+                }
+            }
+
+            if (unitMajorEpilogue == null) {
+                unitMajorEpilogue = new BiasEpilogue(false);
+                sampleMajorEpilogue = new BiasEpilogue(true);
+            }
+
+            unitMajorEpilogue.biasWeights = sampleMajorEpilogue.biasWeights = biasWeights;
+
+            boolean fused = false;
+            try {
+                for (int i = 0; i <= last; i++) {
+                    Connections c = connections.get(i);
+                    if (c == bias) {
+                        continue;
+                    }
+
+                    Matrix cg = ((GraphConnections) c).getConnectionGraph();
+                    Matrix input = staging.stage(valuesProvider.getValues(Util.getOppositeLayer(c, targetLayer), c));
+
+                    // depending on the direction of the calculation
+                    if (c.getOutputLayer() == targetLayer) {
+                        fused = multiply(false, cg.getRows(), cg.getColumns(), cg, input, output, i == last);
+                    } else {
+                        fused = multiply(true, cg.getColumns(), cg.getRows(), cg, input, output, i == last);
+                    }
+                }
+            } finally {
+                unitMajorEpilogue.biasWeights = sampleMajorEpilogue.biasWeights = null;
+            }
+
+            if (!fused) {
+                if (output instanceof SampleMajorMatrix) {
+                    finishSampleMajor(((SampleMajorMatrix) output).getValues(), output.getRows(), biasWeights);
+                } else {
+                    finish(output.getElements(), output.getRows(), biasWeights);
+                }
+            }
+
+            DirectMatrix.unstage(output, target);
+        }
+    }
+
+    /**
+     * @return the staging buffers of this calculator after reset()
+     */
+    protected StagingBuffers staging() {
+        if (staging == null) {
+            staging = new StagingBuffers();
+        }
+
+        staging.reset();
+        return staging;
+    }
+
+    /**
+     * output[m x miniBatchSize] += op(weights)[m x k] * input[k x miniBatchSize].
+     * Off-heap weights and views are read in place
+     */
+    protected void multiply(boolean transposed, int m, int k, Matrix weights, Matrix input, Matrix output) {
+        multiply(transposed, m, k, weights, input, output, false);
+    }
+
+    /**
+     * Same as multiply(...). If fuse is true and the multiplication is done by
+     * the GEMM engine the bias and the transfer function are applied in its
+     * write-back
+     *
+     * @return whether the bias and the transfer function are applied
+     */
+    protected boolean multiply(boolean transposed, int m, int k, Matrix weights, Matrix input, Matrix output, boolean fuse) {
+        if (input instanceof SampleMajorMatrix || output instanceof SampleMajorMatrix) {
+            if (weights instanceof SparseMatrix || weights instanceof QuantizedMatrix || weights instanceof HalfMatrix || weights instanceof DirectMatrix) {
+                Matrix out = SampleMajorMatrix.stage(output);
+                boolean fused = multiply(transposed, m, k, weights, SampleMajorMatrix.stage(input), out, fuse);
+                SampleMajorMatrix.unstage(out, output);
+                return fused;
+            }
+
+            multiplySampleMajor(transposed, m, k, weights, input, output, fuse);
+            return fuse;
+        } else if (input instanceof SparseInputMatrix) {
+            multiplySparseInput(transposed, m, weights, (SparseInputMatrix) input, output);
+        } else if (weights instanceof SparseMatrix) {
+            multiplySparse(transposed, (SparseMatrix) weights, input, output);
+        } else if (weights instanceof QuantizedMatrix) {
+            if (transposed) {
+                throw new UnsupportedOperationException("Quantized weights can only be used in the forward direction");
+            }
+
+            if (int8Gemm == null) {
+                int8Gemm = new Int8GEMM();
+            }
+
+            int8Gemm.multiply(m, miniBatchSize, k, (QuantizedMatrix) weights, input.getElements(), input.getOffset(), input.getStride(), output.getElements(), output.getOffset(), output.getStride());
+        } else if (weights instanceof HalfMatrix) {
+            HalfMatrix half = (HalfMatrix) weights;
+            gemm.multiply(transposed, false, m, miniBatchSize, k, half.getValues(), half.getFormat(), 0, weights.getColumns(), input.getElements(), input.getOffset(), input.getStride(), output.getElements(), output.getOffset(), output.getStride(), epilogue(fuse, false));
+            return fuse;
+        } else if (weights instanceof DirectMatrix) {
+            gemm.multiply(transposed, false, m, miniBatchSize, k, ((DirectMatrix) weights).getBuffer(), 0, weights.getColumns(), input.getElements(), input.getOffset(), input.getStride(), output.getElements(), output.getOffset(), output.getStride(), epilogue(fuse, false));
+            return fuse;
+        } else {
+            gemm.multiply(transposed, false, m, miniBatchSize, k, weights.getElements(), weights.getOffset(), weights.getStride(), input.getElements(), input.getOffset(), input.getStride(), output.getElements(), output.getOffset(), output.getStride(), epilogue(fuse, false));
+            return fuse;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the epilogue for the output layout or null if the bias and the
+     *         transfer function are not fused
+     */
+    private GEMM.Epilogue epilogue(boolean fuse, boolean sampleMajor) {
+        return !fuse ? null : sampleMajor ? sampleMajorEpilogue : unitMajorEpilogue;
+    }
+
+    /**
+     * output += op(weights) * input where the input and/or the output are
+     * sample-major (dense float weights). A sample-major matrix is the
+     * transposed unit-major one, so for sample-major output the product is
+     * calculated as output^T[miniBatchSize x m] += input^T * op(weights)^T
+     */
+    protected void multiplySampleMajor(boolean transposed, int m, int k, Matrix weights, Matrix input, Matrix output, boolean fuse) {
+        float[] w = weights.getElements();
+        if (output instanceof SampleMajorMatrix) {
+            float[] out = ((SampleMajorMatrix) output).getValues();
+            if (input instanceof SampleMajorMatrix) {
+                gemm.multiply(false, !transposed, miniBatchSize, m, k, ((SampleMajorMatrix) input).getValues(), 0, k, w, weights.getOffset(), weights.getStride(), out, 0, m, epilogue(fuse, true));
+            } else {
+                gemm.multiply(true, !transposed, miniBatchSize, m, k, input.getElements(), input.getOffset(), input.getStride(), w, weights.getOffset(), weights.getStride(), out, 0, m, epilogue(fuse, true));
+            }
+        } else {
+            gemm.multiply(transposed, true, m, miniBatchSize, k, w, weights.getOffset(), weights.getStride(), ((SampleMajorMatrix) input).getValues(), 0, k, output.getElements(), output.getOffset(), output.getStride(), epilogue(fuse, false));
+        }
+    }
+
+    /**
+     * output += op(weights) * input for CSR weights. Each stored weight is
+     * multiplied with one row of the input (all the samples)
+     */
+    protected void multiplySparse(boolean transposed, SparseMatrix weights, Matrix input, Matrix output) {
+        int[] rowPointers = weights.getRowPointers();
+        int[] columnIndices = weights.getColumnIndices();
+        float[] values = weights.getValues();
+        float[] in = input.getElements();
+        float[] out = output.getElements();
+        int inOffset = input.getOffset(), inStride = input.getStride(), outOffset = output.getOffset(), outStride = output.getStride();
+        int n = miniBatchSize;
+
+        // single sample - sparse dot product for each output unit
+        if (n == 1 && !transposed) {
+            for (int r = 0; r < weights.getRows(); r++) {
+                float sum = 0;
+                for (int p = rowPointers[r], end = rowPointers[r + 1]; p < end; p++) {
+                    sum += values[p] * in[inOffset + columnIndices[p] * inStride];
+                }
+
+                out[outOffset + r * outStride] += sum;
+            }
+
+            return;
+        }
+
+        for (int r = 0; r < weights.getRows(); r++) {
+            for (int p = rowPointers[r], end = rowPointers[r + 1]; p < end; p++) {
+                float w = values[p];
+                int o = transposed ? outOffset + columnIndices[p] * outStride : outOffset + r * outStride;
+                int i = transposed ? inOffset + r * inStride : inOffset + columnIndices[p] * inStride;
+                for (int s = 0; s < n; s++) {
+                    out[o + s] += w * in[i + s];
+                }
+            }
+        }
+    }
+
+    /**
+     * output += op(weights) * input for sparse input values. For each sample
+     * only the weights of the non-zero input units are read. Dense on heap
+     * weights are read in place, the other formats with get()
+     */
+    protected void multiplySparseInput(boolean transposed, int m, Matrix weights, SparseInputMatrix input, Matrix output) {
+        int[] pointers = input.getColumnPointers();
+        int[] indices = input.getRowIndices();
+        float[] values = input.getColumnValues();
+        float[] out = output.getElements();
+        int outOffset = output.getOffset(), outStride = output.getStride();
+        boolean dense = !(weights instanceof SparseMatrix || weights instanceof QuantizedMatrix || weights instanceof HalfMatrix || weights instanceof DirectMatrix);
+        float[] w = dense ? weights.getElements() : null;
+        int wOffset = weights.getOffset(), wStride = weights.getStride();
+
+        for (int s = 0; s < miniBatchSize; s++) {
+            int start = pointers[s], end = pointers[s + 1];
+            if (!transposed) {
+                // sparse dot product for each output unit
+                for (int r = 0; r < m; r++) {
+                    float sum = 0;
+                    for (int p = start, wr = wOffset + r * wStride; p < end; p++) {
+                        sum += values[p] * (dense ? w[wr + indices[p]] : weights.get(r, indices[p]));
+                    }
+
+                    out[outOffset + r * outStride + s] += sum;
+                }
+            } else {
+                // each non-zero input value is multiplied with one row of the weights
+                for (int p = start; p < end; p++) {
+                    float v = values[p];
+                    for (int r = 0, wr = wOffset + indices[p] * wStride; r < m; r++) {
+                        out[outOffset + r * outStride + s] += v * (dense ? w[wr + r] : weights.get(indices[p], r));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the bias and applies the transfer function tile by tile, when they
+     * are not fused with the multiplication (a separate pass over the output)
+     */
+    protected void finish(float[] output, int rows, Matrix biasWeights) {
+        int tileRows = Math.max(1, TILE_SIZE / miniBatchSize);
+
+        for (int row = 0; row < rows; row += tileRows) {
+            int endRow = Math.min(rows, row + tileRows);
+
+            if (biasWeights != null) {
+                for (int r = row; r < endRow; r++) {
+                    float bias = biasWeights.get(r, 0);
+                    for (int i = r * miniBatchSize, end = i + miniBatchSize; i < end; i++) {
+                        output[i] += bias;
+                    }
+                }
+            }
+
+            after(output, row * miniBatchSize, endRow * miniBatchSize);
+        }
+    }
+
+    /**
+     * Same as finish(...) for sample-major output - the tiles consist of whole
+     * samples
+     */
+    protected void finishSampleMajor(float[] output, int units, Matrix biasWeights) {
+        int tileSamples = Math.max(1, TILE_SIZE / units);
+
+        for (int sample = 0; sample < miniBatchSize; sample += tileSamples) {
+            int endSample = Math.min(miniBatchSize, sample + tileSamples);
+
+            if (biasWeights != null) {
+                for (int s = sample; s < endSample; s++) {
+                    for (int r = 0, i = s * units; r < units; r++, i++) {
+                        output[i] += biasWeights.get(r, 0);
+                    }
+                }
+            }
+
+            after(output, sample * units, endSample * units);
+        }
+    }
+
+    /**
+     * called for each tile of the output [from, to) after the weighted sum is
+     * calculated (for activation functions)
+     */
+    protected void after(float[] output, int from, int to) {
+    }
+
+    /**
+     * Adds the bias and applies the transfer function to a block of the output
+     * in the GEMM write-back. Unit-major output has a row for each unit,
+     * sample-major output has a row for each sample
+     */
+    private class BiasEpilogue implements GEMM.Epilogue {
+
+        private final boolean sampleMajor;
+
+        private Matrix biasWeights;
+
+        private BiasEpilogue(boolean sampleMajor) {
+            this.sampleMajor = sampleMajor;
+        }
+
+        @Override
+        public void apply(float[] c, int cOffset, int ldc, int row, int rows, int column, int columns) {
+            for (int r = row, end = row + rows; r < end; r++) {
+                int start = cOffset + r * ldc + column;
+                if (biasWeights != null) {
+                    if (sampleMajor) {
+                        for (int j = 0; j < columns; j++) {
+                            c[start + j] += biasWeights.get(column + j, 0);
+                        }
+                    } else {
+                        float bias = biasWeights.get(r, 0);
+                        for (int i = start, to = start + columns; i < to; i++) {
+                            c[i] += bias;
+                        }
+                    }
+                }
+
+                // whole rows are contiguous
+                if (columns != ldc) {
+                    after(c, start, start + columns);
+                }
+            }
+
+            if (columns == ldc) {
+                after(c, cOffset + row * ldc, cOffset + (row + rows) * ldc);
+            }
+        }
+    }
+
+    public int getMiniBatchSize() {
+        return miniBatchSize;
+    }
+}
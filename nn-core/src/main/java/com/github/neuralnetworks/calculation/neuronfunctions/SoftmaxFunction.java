@@ -2,10 +2,11 @@ package com.github.neuralnetworks.calculation.neuronfunctions;
 
 import com.amd.aparapi.Kernel;
 import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.SampleMajorMatrix;
 import com.github.neuralnetworks.util.Environment;
 
 /**
- * Softmax activation function
+ * Softmax activation function (supports unit-major and sample-major values)
  */
 public class SoftmaxFunction extends Kernel implements MatrixFunction {
 
@@ -15,11 +16,25 @@ public class SoftmaxFunction extends Kernel implements MatrixFunction {
     private int rows;
     private int columns;
 
+    /**
+     * distance between the values of two consecutive units/samples
+     */
+    private int unitStride;
+    private int sampleStride;
+
     @Override
     public void value(Matrix inputOutput) {
-        this.values = inputOutput.getElements();
         this.rows = inputOutput.getRows();
         this.columns = inputOutput.getColumns();
+        if (inputOutput instanceof SampleMajorMatrix) {
+            this.values = ((SampleMajorMatrix) inputOutput).getValues();
+            this.unitStride = 1;
+            this.sampleStride = rows;
+        } else {
+            this.values = inputOutput.getElements();
+            this.unitStride = columns;
+            this.sampleStride = 1;
+        }
 
         Environment.getInstance().getExecutionStrategy().execute(this, columns);
     }
@@ -28,15 +43,15 @@ public class SoftmaxFunction extends Kernel implements MatrixFunction {
     public void run() {
         float sum = 0;
         int r = rows;
-        int c = columns;
-        int id = getGlobalId();
+        int step = unitStride;
+        int start = getGlobalId() * sampleStride;
 
         for (int i = 0; i < r; i++) {
-            sum += values[i * c + id];
+            sum += values[start + i * step];
         }
 
         for (int i = 0; i < r; i++) {
-            values[i * c + id] /= sum;
+            values[start + i * step] /= sum;
         }
     }
 }
@@ -1,5 +1,6 @@
 package com.github.neuralnetworks.training;
 
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -33,6 +34,8 @@ import com.github.neuralnetworks.calculation.neuronfunctions.AparapiTanh;
 import com.github.neuralnetworks.calculation.neuronfunctions.BernoulliDistribution;
 import com.github.neuralnetworks.calculation.neuronfunctions.ConnectionCalculatorConv;
 import com.github.neuralnetworks.calculation.neuronfunctions.ConnectionCalculatorFullyConnected;
+import com.github.neuralnetworks.training.allreduce.AllReduceBackPropagationTrainer;
+import com.github.neuralnetworks.training.allreduce.RingAllReduce;
 import com.github.neuralnetworks.training.backpropagation.BackPropagationAutoencoder;
 import com.github.neuralnetworks.training.backpropagation.BackPropagationConv2D;
 import com.github.neuralnetworks.training.backpropagation.BackPropagationConv2DReLU;
@@ -47,7 +50,10 @@ import com.github.neuralnetworks.training.backpropagation.BackPropagationTanh;
 import com.github.neuralnetworks.training.backpropagation.BackPropagationTrainer;
 import com.github.neuralnetworks.training.backpropagation.BackpropagationAveragePooling2D;
 import com.github.neuralnetworks.training.backpropagation.BackpropagationMaxPooling2D;
+import com.github.neuralnetworks.training.backpropagation.DataParallelBackPropagationTrainer;
+import com.github.neuralnetworks.training.backpropagation.HogwildBackPropagationTrainer;
 import com.github.neuralnetworks.training.backpropagation.MSEDerivative;
+import com.github.neuralnetworks.training.parameterserver.ParameterServerWorkerTrainer;
 import com.github.neuralnetworks.training.random.NNRandomInitializer;
 import com.github.neuralnetworks.training.rbm.AparapiCDTrainer;
 import com.github.neuralnetworks.training.rbm.DBNTrainer;
@@ -84,6 +90,84 @@ public class TrainerFactory {
         return t;
     }
 
+    /**
+     * Synchronous data parallel backpropagation trainer (see
+     * DataParallelBackPropagationTrainer). Each mini batch is split between
+     * the network and the replicas
+     * 
+     * @param replicas
+     *            - networks with the same structure and the same type of
+     *            layer calculators as nn (they use the weights of nn)
+     */
+    public static DataParallelBackPropagationTrainer<?> dataParallelBackPropagation(NeuralNetworkImpl nn, List<NeuralNetworkImpl> replicas, TrainingInputProvider trainingSet,
+            TrainingInputProvider testingSet, OutputError error, NNRandomInitializer rand, float learningRate, float momentum, float l1weightDecay, float l2weightDecay) {
+        Properties p = backpropProperties(nn, trainingSet, testingSet, error, rand, learningRate, momentum, l1weightDecay, l2weightDecay);
+        p.setParameter(Constants.BACKPROPAGATION, bplc(nn, p));
+
+        return new DataParallelBackPropagationTrainer<NeuralNetwork>(p, replicas, bplc(replicas, p));
+    }
+
+    /**
+     * Lock free asynchronous backpropagation trainer (see
+     * HogwildBackPropagationTrainer). The network and each replica train with
+     * their own thread
+     * 
+     * @param replicas
+     *            - networks with the same structure and the same type of
+     *            layer calculators as nn (they use the weights of nn)
+     */
+    public static HogwildBackPropagationTrainer<?> hogwildBackPropagation(NeuralNetworkImpl nn, List<NeuralNetworkImpl> replicas, TrainingInputProvider trainingSet,
+            TrainingInputProvider testingSet, OutputError error, NNRandomInitializer rand, float learningRate, float momentum, float l1weightDecay, float l2weightDecay) {
+        Properties p = backpropProperties(nn, trainingSet, testingSet, error, rand, learningRate, momentum, l1weightDecay, l2weightDecay);
+        p.setParameter(Constants.BACKPROPAGATION, bplc(nn, p));
+
+        return new HogwildBackPropagationTrainer<NeuralNetwork>(p, replicas, bplc(replicas, p));
+    }
+
+    /**
+     * Data parallel training between processes with ring all-reduce of the
+     * gradients (see AllReduceBackPropagationTrainer). Each rank creates its
+     * own trainer - the weights of rank 0 are used by all ranks
+     * 
+     * @param trainingSet
+     *            - the shard of the training data of the rank
+     */
+    public static AllReduceBackPropagationTrainer<?> allReduceBackPropagation(NeuralNetworkImpl nn, RingAllReduce ring, TrainingInputProvider trainingSet,
+            TrainingInputProvider testingSet, OutputError error, NNRandomInitializer rand, float learningRate, float momentum, float l1weightDecay, float l2weightDecay) {
+        Properties p = backpropProperties(nn, trainingSet, testingSet, error, rand, learningRate, momentum, l1weightDecay, l2weightDecay);
+        p.setParameter(Constants.BACKPROPAGATION, bplc(nn, p));
+
+        return new AllReduceBackPropagationTrainer<NeuralNetwork>(p, ring);
+    }
+
+    /**
+     * Worker of a parameter server (see ParameterServerWorkerTrainer). The
+     * learning rate, momentum and weight decay are the parameters of the
+     * server and the weights are pulled from the server
+     * 
+     * @param trainingSet
+     *            - the shard of the training data of the worker
+     * @param replicas
+     *            - networks with the same structure and the same type of
+     *            layer calculators as nn (they use the weights of nn)
+     */
+    public static ParameterServerWorkerTrainer<?> parameterServerWorker(NeuralNetworkImpl nn, List<NeuralNetworkImpl> replicas, TrainingInputProvider trainingSet,
+            TrainingInputProvider testingSet, OutputError error, InetSocketAddress server) {
+        Properties p = backpropProperties(nn, trainingSet, testingSet, error, null, 0f, 0f, 0f, 0f);
+        p.setParameter(Constants.BACKPROPAGATION, bplc(nn, p));
+
+        return new ParameterServerWorkerTrainer<NeuralNetwork>(p, replicas, bplc(replicas, p), server);
+    }
+
+    private static List<BackPropagationLayerCalculatorImpl> bplc(List<NeuralNetworkImpl> replicas, Properties p) {
+        List<BackPropagationLayerCalculatorImpl> result = new ArrayList<>();
+        for (NeuralNetworkImpl r : replicas) {
+            result.add(bplc(r, p));
+        }
+
+        return result;
+    }
+
     private static BackPropagationLayerCalculatorImpl bplc(NeuralNetworkImpl nn, Properties p) {
         BackPropagationLayerCalculatorImpl blc = new BackPropagationLayerCalculatorImpl();
         LayerCalculatorImpl lc = (LayerCalculatorImpl) nn.getLayerCalculator();
@@ -6,7 +6,9 @@ import com.github.neuralnetworks.architecture.Matrix;
 
 /**
  * Training input data with target value Batch Input and target are provided as
- * matrices (each column/row is one training example)
+ * matrices (each column/row is one training example). High dimensional sparse
+ * input (for example bag-of-words) can be provided as SparseInputMatrix - the
+ * fully connected layers only use the non-zero values
  */
 public interface TrainingInputData extends Serializable {
     public Matrix getInput();
@@ -0,0 +1,285 @@
+package com.github.neuralnetworks.training.allreduce;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.NeuralNetwork;
+import com.github.neuralnetworks.events.PropagationEvent;
+import com.github.neuralnetworks.events.PropagationEventListener;
+import com.github.neuralnetworks.training.TrainingInputData;
+import com.github.neuralnetworks.training.backpropagation.BackPropagationLayerCalculatorImpl;
+import com.github.neuralnetworks.training.backpropagation.DataParallelBackPropagationTrainer;
+import com.github.neuralnetworks.training.backpropagation.Gradients;
+import com.github.neuralnetworks.training.parameterserver.ParameterEncoding;
+import com.github.neuralnetworks.util.Properties;
+
+/**
+ * Data parallel backpropagation between processes without a central server.
+ * Each process (rank of the RingAllReduce) trains a copy of the network on
+ * its own shard of the training data and the gradients of each mini batch are
+ * summed by all-reduce, so that all the copies make the same weight update
+ * (the update of the combined mini batch of all the ranks) and keep the same
+ * weights. The weights of rank 0 are sent to the other ranks at the start of
+ * each training (after the random initialization).
+ *
+ * The all-reduce of a connection starts as soon as the backpropagation has
+ * calculated its gradients (after the layer step of the connection, see
+ * PropagationEvent) and runs in a separate thread while the backpropagation
+ * of the earlier layers continues. The weights are updated when all the
+ * all-reduces are finished. All ranks must have the same network structure
+ * and the same number of mini batches
+ */
+public class AllReduceBackPropagationTrainer<N extends NeuralNetwork> extends DataParallelBackPropagationTrainer<N> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient RingAllReduce ring;
+    private transient ExecutorService communication;
+    private final transient List<Future<Void>> pending = new ArrayList<>();
+
+    /**
+     * the connections with started all-reduce in the current mini batch
+     */
+    private final boolean[] started;
+
+    /**
+     * statistics since the start of the last training - the time (nanoseconds)
+     * and the bytes sent by the all-reduce of each connection
+     */
+    private final long[] connectionTime;
+    private final long[] connectionBytes;
+    private long steps;
+    private long stepTime;
+    private long waitTime;
+    private long stepStart;
+
+    public AllReduceBackPropagationTrainer(Properties properties, RingAllReduce ring) {
+        super(properties, Collections.<NeuralNetwork> emptyList(), Collections.<BackPropagationLayerCalculatorImpl> emptyList());
+        this.ring = ring;
+
+        int count = getNeuralNetwork().getConnections().size();
+        this.started = new boolean[count];
+        this.connectionTime = new long[count];
+        this.connectionBytes = new long[count];
+
+        final BackPropagationLayerCalculatorImpl bplc = (BackPropagationLayerCalculatorImpl) getBPLayerCalculator();
+        bplc.addEventListener(new PropagationEventListener() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void handleEvent(PropagationEvent event) {
+                Gradients gradients = bplc.getGradients();
+                if (gradients != null) {
+                    for (Connections c : event.getConnections()) {
+                        startAllReduce(gradients, gradients.indexOf(c));
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void train() {
+        Arrays.fill(connectionTime, 0);
+        Arrays.fill(connectionBytes, 0);
+        steps = stepTime = waitTime = 0;
+
+        super.train();
+    }
+
+    @Override
+    protected void learnInput(TrainingInputData data, int batch) {
+        if (batch == 0) {
+            broadcastWeights();
+        }
+
+        stepStart = System.nanoTime();
+        Arrays.fill(started, false);
+        pending.clear();
+
+        super.learnInput(data, batch);
+    }
+
+    /**
+     * Waits for the all-reduce of the gradients (the connections without
+     * propagation events are reduced here) and updates the weights
+     */
+    @Override
+    protected void updateWeights(Gradients gradients) {
+        for (int i = 0; i < gradients.size(); i++) {
+            startAllReduce(gradients, i);
+        }
+
+        long wait = System.nanoTime();
+        try {
+            for (Future<Void> f : pending) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the all-reduce", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+
+        long end = System.nanoTime();
+        waitTime += end - wait;
+
+        super.updateWeights(gradients);
+
+        steps++;
+        stepTime += end - stepStart;
+    }
+
+    /**
+     * Replaces the weights with the weights of rank 0 (after the random
+     * initialization of the training)
+     */
+    protected void broadcastWeights() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(ParameterEncoding.size(getNeuralNetwork().getConnections()));
+        if (ring.getRank() == 0) {
+            ParameterEncoding.writeWeights(getNeuralNetwork().getConnections(), buffer);
+        } else {
+            buffer.position(buffer.capacity() - ParameterEncoding.HEADER_SIZE);
+        }
+
+        buffer.flip();
+        ring.broadcast(buffer);
+        ParameterEncoding.readWeights(buffer, getNeuralNetwork().getConnections());
+    }
+
+    /**
+     * Starts the all-reduce of the connection with index "index" (once per
+     * mini batch). The all-reduces are calculated one after another in the
+     * order they are started - the same order in all ranks
+     */
+    private void startAllReduce(Gradients gradients, final int index) {
+        if (index < 0 || started[index] || gradients.get(index) == null) {
+            return;
+        }
+
+        started[index] = true;
+        final float[] buffer = gradients.get(index);
+        pending.add(getCommunication().submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                long start = System.nanoTime();
+                long bytes = ring.allReduce(buffer);
+                synchronized (AllReduceBackPropagationTrainer.this) {
+                    connectionTime[index] += System.nanoTime() - start;
+                    connectionBytes[index] += bytes;
+                }
+
+                return null;
+            }
+        }));
+    }
+
+    private synchronized ExecutorService getCommunication() {
+        if (communication == null) {
+            communication = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread result = new Thread(r, "all-reduce-" + ring.getRank());
+                    result.setDaemon(true);
+                    return result;
+                }
+            });
+        }
+
+        return communication;
+    }
+
+    /**
+     * Stops the communication thread (the ring is not closed)
+     */
+    @Override
+    public synchronized void shutdown() {
+        super.shutdown();
+        if (communication != null) {
+            communication.shutdown();
+            communication = null;
+        }
+    }
+
+    public RingAllReduce getRing() {
+        return ring;
+    }
+
+    /**
+     * @return the number of mini batches of the last training
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return average time (nanoseconds) of a mini batch from the start of the
+     *         forward pass to the end of the all-reduce
+     */
+    public long getAverageStepTime() {
+        return steps > 0 ? stepTime / steps : 0;
+    }
+
+    /**
+     * @return average time (nanoseconds) per mini batch spent waiting for the
+     *         all-reduce after the backpropagation (the communication that
+     *         is not overlapped)
+     */
+    public long getAverageWaitTime() {
+        return steps > 0 ? waitTime / steps : 0;
+    }
+
+    /**
+     * @return average all-reduce time (nanoseconds) per mini batch of the
+     *         connection with index "index" (in the connections of the
+     *         network)
+     */
+    public synchronized long getAverageTime(int index) {
+        return steps > 0 ? connectionTime[index] / steps : 0;
+    }
+
+    /**
+     * @return bytes per mini batch sent by the all-reduce of the connection
+     *         with index "index"
+     */
+    public synchronized long getBytes(int index) {
+        return steps > 0 ? connectionBytes[index] / steps : 0;
+    }
+
+    /**
+     * @return human readable report - step time and one line per connection
+     *         with weights
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("all-reduce rank %d/%d: %d mini batches, step %.3f ms, not overlapped communication %.3f ms%n", ring.getRank(), ring.getSize(), getSteps(),
+                getAverageStepTime() / 1000000d, getAverageWaitTime() / 1000000d));
+
+        List<Connections> connections = getNeuralNetwork().getConnections();
+        for (int i = 0; i < connections.size(); i++) {
+            Connections c = connections.get(i);
+            if (getBytes(i) > 0) {
+                sb.append(String.format("  connection %d (%d -> %d units): all-reduce %.3f ms, %d bytes sent%n", i, c.getInputUnitCount(), c.getOutputUnitCount(),
+                        getAverageTime(i) / 1000000d, getBytes(i)));
+            }
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,266 @@
+package com.github.neuralnetworks.training.allreduce;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Ring all-reduce between processes (or threads) over TCP. The participants
+ * (ranks) form a ring - each rank sends to the next rank and receives from
+ * the previous one. An array is split in "size" chunks and summed in two
+ * phases of size - 1 steps each: in the reduce-scatter phase each rank adds
+ * the received chunk to its own and sends the sum on, so that each rank ends
+ * with one fully reduced chunk; in the all-gather phase the reduced chunks
+ * are passed around the ring. Each rank sends 2 * (size - 1) / size of the
+ * array, regardless of the number of ranks, and all ranks get the same
+ * result.
+ *
+ * In each step the chunk is sent by a separate thread while the next chunk is
+ * received, so that the ring doesn't block on full socket buffers. The calls
+ * must be made in the same order (with arrays of the same length) by all
+ * ranks
+ */
+public class RingAllReduce implements Closeable {
+
+    /**
+     * how long (milliseconds) to wait for the next rank to start listening
+     */
+    private static final long CONNECT_TIMEOUT = 30000;
+
+    private final int rank;
+    private final int size;
+    private SocketChannel next;
+    private SocketChannel previous;
+    private ExecutorService sender;
+
+    private ByteBuffer sendBuffer;
+    private ByteBuffer receiveBuffer;
+
+    /**
+     * @param rank
+     *            - the index of this participant
+     * @param addresses
+     *            - the addresses of all the participants (each rank listens on
+     *            its own address)
+     */
+    public RingAllReduce(int rank, List<InetSocketAddress> addresses) {
+        super();
+        if (rank < 0 || rank >= addresses.size()) {
+            throw new IllegalArgumentException("Invalid rank " + rank);
+        }
+
+        this.rank = rank;
+        this.size = addresses.size();
+        if (size == 1) {
+            return;
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            server.bind(addresses.get(rank));
+
+            long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+            while (next == null) {
+                try {
+                    next = SocketChannel.open(addresses.get((rank + 1) % size));
+                } catch (ConnectException e) {
+                    if (System.currentTimeMillis() > deadline) {
+                        throw e;
+                    }
+
+                    Thread.sleep(20);
+                }
+            }
+
+            previous = server.accept();
+            next.socket().setTcpNoDelay(true);
+        } catch (IOException e) {
+            close();
+            throw new IllegalStateException("Can't connect rank " + rank + " to the ring", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException("Interrupted while connecting to the ring", e);
+        }
+
+        sender = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread result = new Thread(r, "ring-send-" + RingAllReduce.this.rank);
+                result.setDaemon(true);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Replaces the values of the array with the sum of the arrays of all the
+     * ranks
+     *
+     * @return the number of bytes sent by this rank
+     */
+    public long allReduce(float[] data) {
+        if (size == 1) {
+            return 0;
+        }
+
+        int capacity = 4 * ((data.length + size - 1) / size);
+        if (sendBuffer == null || sendBuffer.capacity() < capacity) {
+            sendBuffer = ByteBuffer.allocateDirect(capacity);
+            receiveBuffer = ByteBuffer.allocateDirect(capacity);
+        }
+
+        long bytes = 0;
+
+        // reduce-scatter - after the last step the rank has the sum of chunk rank + 1
+        for (int step = 0; step < size - 1; step++) {
+            bytes += exchange(data, rank - step, rank - step - 1, true);
+        }
+
+        // all-gather
+        for (int step = 0; step < size - 1; step++) {
+            bytes += exchange(data, rank + 1 - step, rank - step, false);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Sends the buffer of rank 0 to all the other ranks (the buffers of the
+     * other ranks must have the same number of remaining bytes). The position
+     * of the buffer is not changed
+     */
+    public void broadcast(ByteBuffer buffer) {
+        if (size == 1) {
+            return;
+        }
+
+        ByteBuffer b = buffer.duplicate();
+        try {
+            if (rank > 0) {
+                read(previous, b);
+                b.position(buffer.position());
+            }
+
+            if (rank < size - 1) {
+                while (b.hasRemaining()) {
+                    next.write(b);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Broadcast failed", e);
+        }
+    }
+
+    /**
+     * Sends one chunk to the next rank and receives one chunk from the
+     * previous rank
+     *
+     * @return the number of bytes sent
+     */
+    private long exchange(float[] data, int sendChunk, int receiveChunk, boolean add) {
+        sendChunk = (sendChunk % size + size) % size;
+        receiveChunk = (receiveChunk % size + size) % size;
+        int sendFrom = from(data, sendChunk), sendLength = from(data, sendChunk + 1) - sendFrom;
+        int receiveFrom = from(data, receiveChunk), receiveLength = from(data, receiveChunk + 1) - receiveFrom;
+
+        sendBuffer.clear();
+        sendBuffer.asFloatBuffer().put(data, sendFrom, sendLength);
+        sendBuffer.limit(4 * sendLength);
+        Future<Void> sent = sender.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                while (sendBuffer.hasRemaining()) {
+                    next.write(sendBuffer);
+                }
+
+                return null;
+            }
+        });
+
+        try {
+            receiveBuffer.clear();
+            receiveBuffer.limit(4 * receiveLength);
+            read(previous, receiveBuffer);
+            receiveBuffer.flip();
+
+            FloatBuffer received = receiveBuffer.asFloatBuffer();
+            if (add) {
+                for (int i = 0; i < receiveLength; i++) {
+                    data[receiveFrom + i] += received.get(i);
+                }
+            } else {
+                received.get(data, receiveFrom, receiveLength);
+            }
+
+            sent.get();
+        } catch (IOException e) {
+            throw new IllegalStateException("All-reduce failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during all-reduce", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("All-reduce failed", e.getCause());
+        }
+
+        return 4L * sendLength;
+    }
+
+    /**
+     * @return the index of the first element of the chunk (0 - size)
+     */
+    private int from(float[] data, int chunk) {
+        return (int) ((long) data.length * chunk / size);
+    }
+
+    private static void read(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("The previous rank has closed the connection");
+            }
+        }
+    }
+
+    public int getRank() {
+        return rank;
+    }
+
+    /**
+     * @return the number of ranks
+     */
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public void close() {
+        if (sender != null) {
+            sender.shutdown();
+        }
+
+        try {
+            if (next != null) {
+                next.close();
+            }
+
+            if (previous != null) {
+                previous.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -41,6 +41,12 @@ public class AparapiBackpropagationConv2D extends AparapiConv2D implements BackP
      */
     protected ValuesProvider activations;
 
+    /**
+     * gradient buffers - if set the gradients are added to the buffers
+     * instead of updating the weights
+     */
+    protected Gradients gradients;
+
     public AparapiBackpropagationConv2D(Conv2DConnection c, int miniBatchSize) {
         super(c, miniBatchSize);
         this.weightUpdates = new float[c.getWeights().length];
@@ -65,7 +71,14 @@ public class AparapiBackpropagationConv2D extends AparapiConv2D implements BackP
                 super.calculate(c, valuesProvider.getValues(targetLayer, c), valuesProvider.getValues(Util.getOppositeLayer(c, targetLayer), c));
             }
 
-            updateWeights();
+            float[] buffer = gradients != null ? gradients.get(c) : null;
+            if (buffer != null) {
+                for (int i = 0; i < buffer.length; i++) {
+                    buffer[i] += weightUpdates[i];
+                }
+            } else {
+                updateWeights();
+            }
         }
     }
 
@@ -172,4 +185,14 @@ public class AparapiBackpropagationConv2D extends AparapiConv2D implements BackP
     public void setActivations(ValuesProvider activations) {
         this.activations = activations;
     }
+
+    @Override
+    public Gradients getGradients() {
+        return gradients;
+    }
+
+    @Override
+    public void setGradients(Gradients gradients) {
+        this.gradients = gradients;
+    }
 }
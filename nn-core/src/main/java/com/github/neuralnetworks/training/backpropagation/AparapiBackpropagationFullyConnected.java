@@ -1,18 +1,34 @@
 package com.github.neuralnetworks.training.backpropagation;
 
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.SortedMap;
 
 import com.github.neuralnetworks.architecture.Connections;
 import com.github.neuralnetworks.architecture.GraphConnections;
 import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.SparseInputMatrix;
 import com.github.neuralnetworks.calculation.ValuesProvider;
 import com.github.neuralnetworks.calculation.neuronfunctions.AparapiWeightedSum;
 import com.github.neuralnetworks.util.Util;
 
 /**
  * Aparapi Backpropagation base weighted sum Supports learning rate, momentum
- * and weight decay
+ * and weight decay. If the feedforward activations of the target layer are
+ * sparse (SparseInputMatrix - the input layer) only the non-zero activations
+ * are used for the weight gradient, the weights of the units without any
+ * non-zero activation in the mini batch are not updated (there is no
+ * momentum/weight decay step for them) and the error of the target layer is
+ * not calculated (it is never needed for the input layer). The weighted sum of
+ * the backpropagation is calculated in the backward direction (the target
+ * layer is the input layer of the connection), where the weights of one unit
+ * are a column of the weight matrix. Because of this the weights are
+ * transposed (blocked) before the calculation and the kernel reads and
+ * updates contiguous rows of the transposed panel. The updated weights are
+ * transposed back after the calculation. If there are gradient buffers (see
+ * Gradients) the weight gradients are added to them instead of the weight
+ * updates
  */
 public class AparapiBackpropagationFullyConnected extends AparapiWeightedSum implements BackPropagationConnectionCalculator {
 
@@ -24,10 +40,74 @@ public class AparapiBackpropagationFullyConnected extends AparapiWeightedSum imp
     protected float[] ffActivation;
 
     /**
-     * Weight updates array
+     * 1 if the feedforward activations are sparse. Then the non-zero
+     * activations of the unit "id" are ffActivation[activationPointers[id]]
+     * ... ffActivation[activationPointers[id + 1] - 1] and their samples are
+     * in activationIndices
+     */
+    protected int sparseActivation;
+
+    protected int[] activationPointers;
+
+    protected int[] activationIndices;
+
+    /**
+     * Weight updates array (combined for all connections)
      */
     protected final float[] weightUpdates;
 
+    /**
+     * position of the weight updates of the current connection within the
+     * weightUpdates array. The update for the weight between output unit "id"
+     * and input unit "j" is weightUpdates[weightUpdatesOffset + id *
+     * weightUpdatesInitialStep + j * weightUpdatesStep]
+     */
+    protected int weightUpdatesOffset;
+
+    /**
+     * For optimization reasons
+     */
+    protected int weightUpdatesInitialStep;
+
+    /**
+     * For optimization reasons
+     */
+    protected int weightUpdatesStep;
+
+    /**
+     * weightUpdates offset for each of the connections
+     */
+    private final Map<GraphConnections, Integer> weightUpdatesOffsets;
+
+    /**
+     * Transposed weights of the connections that are calculated in the
+     * backward direction (same offsets as weightUpdates)
+     */
+    protected final float[] transposedWeights;
+
+    /**
+     * the weights of the current connection if they are transposed
+     */
+    private Matrix transposedGraph;
+
+    /**
+     * 1 if the weight gradients are added to the gradients array (the weights
+     * are not updated). The gradient between output unit "id" and input unit
+     * "j" is gradients[id * gradientsInitialStep + j * gradientsStep]
+     */
+    protected int gradientMode;
+
+    protected float[] gradients;
+
+    protected int gradientsInitialStep;
+
+    protected int gradientsStep;
+
+    /**
+     * gradient buffers of the connections
+     */
+    private Gradients gradientBuffers;
+
     protected float learningRate;
     protected final float momentum;
     protected final float l1weightDecay;
@@ -45,61 +125,144 @@ public class AparapiBackpropagationFullyConnected extends AparapiWeightedSum imp
         this.momentum = momentum;
         this.l1weightDecay = l1weightDecay;
         this.l2weightDecay = l2weightDecay;
-        this.weightUpdates = new float[weights.length];
+        this.weightUpdatesOffsets = new HashMap<>();
+
+        int totalWeightSize = 0;
+        for (GraphConnections c : inputConnections.keySet()) {
+            weightUpdatesOffsets.put(c, totalWeightSize);
+            totalWeightSize += c.getConnectionGraph().getRows() * c.getConnectionGraph().getColumns();
+        }
+
+        this.weightUpdates = new float[totalWeightSize];
+        this.transposedWeights = new float[totalWeightSize];
     }
 
     @Override
-    public void calculate(List<Connections> inputConnections, ValuesProvider valuesProvider, Layer targetLayer) {
-        super.calculate(inputConnections, valuesProvider, targetLayer);
+    protected void init(Connections connection, ValuesProvider valuesProvider, Layer targetLayer) {
+        super.init(connection, valuesProvider, targetLayer);
+
+        Matrix activation = activations.getValues(targetLayer, connection);
+        if (activation instanceof SparseInputMatrix) {
+            SparseInputMatrix sparse = (SparseInputMatrix) activation;
+            ffActivation = sparse.getRowValues();
+            activationPointers = sparse.getRowPointers();
+            activationIndices = sparse.getColumnIndices();
+            sparseActivation = 1;
+        } else {
+            ffActivation = activation.getElements();
+            sparseActivation = 0;
+
+            // Aparapi doesn't accept null arrays
+            if (activationPointers == null) {
+                activationPointers = new int[1];
+                activationIndices = new int[1];
+            }
+        }
+
+        skipWeightedSum = sparseActivation;
+
+        Matrix cg = ((GraphConnections) connection).getConnectionGraph();
+        weightUpdatesOffset = weightUpdatesOffsets.get(connection);
+        if (connection.getOutputLayer() == targetLayer) {
+            weightUpdatesInitialStep = cg.getColumns();
+            weightUpdatesStep = 1;
+            transposedGraph = null;
+        } else {
+            // the weights of unit "id" are row "id" of the transposed panel
+            Util.transpose(cg.getElements(), cg.getOffset(), cg.getStride(), cg.getRows(), cg.getColumns(), transposedWeights, weightUpdatesOffset, cg.getRows());
+            weights = transposedWeights;
+            weightsOffset = weightUpdatesOffset;
+            weightsInitialStep = cg.getRows();
+            weightsStep = 1;
+            weightUpdatesInitialStep = cg.getRows();
+            weightUpdatesStep = 1;
+            transposedGraph = cg;
+        }
+
+        float[] g = gradientBuffers != null ? gradientBuffers.get(connection) : null;
+        if (g != null) {
+            gradients = g;
+            gradientMode = 1;
+            gradientsInitialStep = connection.getOutputLayer() == targetLayer ? cg.getColumns() : 1;
+            gradientsStep = connection.getOutputLayer() == targetLayer ? 1 : cg.getColumns();
+        } else {
+            gradientMode = 0;
 
-        if (inputConnections.size() > 2 || (inputConnections.size() > 1 && !Util.hasBias(inputConnections))) {
-            int i = 0;
-            for (Connections c : inputConnections) {
-                float[] a = valuesProvider.getValues(Util.getOppositeLayer(c, targetLayer), c).getElements();
-                System.arraycopy(a, inputStartPositions[i], input, 0, a.length);
-                float[] cg = ((GraphConnections) c).getConnectionGraph().getElements();
-                System.arraycopy(cg, weightStartPositions[i], weights, 0, cg.length);
-                i++;
+            // Aparapi doesn't accept null arrays
+            if (gradients == null) {
+                gradients = new float[1];
             }
         }
     }
 
+    /**
+     * the updated weights are transposed back
+     */
     @Override
-    protected void init(List<Connections> inputConnections, ValuesProvider valuesProvider, Layer targetLayer) {
-        super.init(inputConnections, valuesProvider, targetLayer);
-        if (ffActivation != activations.getValues(targetLayer, inputConnections).getElements()) {
-            ffActivation = activations.getValues(targetLayer, inputConnections).getElements();
+    protected void connectionCalculated(Connections connection) {
+        if (transposedGraph != null) {
+            // the weights are not changed in gradient mode
+            if (gradientMode == 0) {
+                Matrix cg = transposedGraph;
+                Util.transpose(transposedWeights, weightUpdatesOffset, cg.getRows(), cg.getColumns(), cg.getRows(), cg.getElements(), cg.getOffset(), cg.getStride());
+            }
+
+            transposedGraph = null;
         }
     }
 
+    /**
+     * weight updates (or gradients) of the current connection
+     */
     @Override
-    protected void after() {
-        final int row = getGlobalId() * miniBatchSize;
+    protected void afterConnection() {
+        final int id = getGlobalId();
+        final int row = id * miniBatchSize;
         float lr = learningRate;
         float weight = 0, weightUpdate = 0;
-        int inputStartPosition = 0, initialWeightIndex = 0, weightStep = 0, dim = 0, weightIndex = 0;
+        int initialWeightIndex = weightsOffset + weightsInitialStep * id, initialUpdateIndex = weightUpdatesOffset + weightUpdatesInitialStep * id, weightIndex = 0, updateIndex = 0;
+        int start = 0, end = 0, dim = weightsDimension;
+
+        if (sparseActivation == 1) {
+            start = activationPointers[id];
+            end = activationPointers[id + 1];
 
-        for (int i = 0; i < series; i++) {
-            inputStartPosition = inputStartPositions[i];
-            initialWeightIndex = weightStartPositions[i] + weightsInitialStep[i] * getGlobalId();
-            weightStep = weightsStep[i];
-            dim = weightsDimension[i];
+            // no non-zero activations - the gradient is 0
+            if (start == end) {
+                dim = 0;
+            }
+        }
 
-            for (int j = 0; j < dim; j++) {
-                weightUpdate = 0;
+        for (int j = 0; j < dim; j++) {
+            weightUpdate = 0;
+            if (sparseActivation == 1) {
+                for (int p = start; p < end; p++) {
+                    weightUpdate += input[inputOffset + j * inputStride + activationIndices[p]] * ffActivation[p];
+                }
+            } else {
                 for (int column = 0; column < miniBatchSize; column++) {
-                    weightUpdate += input[inputStartPosition + j * miniBatchSize + column] * ffActivation[row + column];
+                    weightUpdate += input[inputOffset + j * inputStride + column] * ffActivation[row + column];
                 }
+            }
 
-                weightIndex = initialWeightIndex + j * weightStep;
+            if (gradientMode == 1) {
+                gradients[id * gradientsInitialStep + j * gradientsStep] += weightUpdate;
+            } else {
+                weightIndex = initialWeightIndex + j * weightsStep;
+                updateIndex = initialUpdateIndex + j * weightUpdatesStep;
                 weight = weights[weightIndex];
-                weightUpdate = lr * weightUpdate + momentum * weightUpdates[weightIndex] - l1weightDecay * abs(weight) - l2weightDecay * weight * weight / 2;
+                weightUpdate = lr * weightUpdate + momentum * weightUpdates[updateIndex] - l1weightDecay * abs(weight) - l2weightDecay * weight * weight / 2;
                 weights[weightIndex] += weightUpdate;
-                weightUpdates[weightIndex] = weightUpdate;
+                weightUpdates[updateIndex] = weightUpdate;
             }
         }
+    }
 
-        calcDerivative();
+    @Override
+    protected void after() {
+        if (sparseActivation == 0) {
+            calcDerivative();
+        }
     }
 
     /**
@@ -154,4 +317,14 @@ public class AparapiBackpropagationFullyConnected extends AparapiWeightedSum imp
     public void setActivations(ValuesProvider activations) {
         this.activations = activations;
     }
+
+    @Override
+    public Gradients getGradients() {
+        return gradientBuffers;
+    }
+
+    @Override
+    public void setGradients(Gradients gradients) {
+        this.gradientBuffers = gradients;
+    }
 }
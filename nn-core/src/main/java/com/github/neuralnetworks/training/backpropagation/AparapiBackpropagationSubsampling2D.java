@@ -86,4 +86,15 @@ public class AparapiBackpropagationSubsampling2D extends AparapiSubsampling2D im
     public void setL2weightDecay(float l2weightDecay) {
         // UNUSED
     }
+
+    @Override
+    public Gradients getGradients() {
+        // UNUSED
+        return null;
+    }
+
+    @Override
+    public void setGradients(Gradients gradients) {
+        // UNUSED
+    }
 }
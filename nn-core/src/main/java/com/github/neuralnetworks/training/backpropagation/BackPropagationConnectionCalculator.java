@@ -24,4 +24,13 @@ public interface BackPropagationConnectionCalculator extends ConnectionCalculato
     public ValuesProvider getActivations();
 
     public void setActivations(ValuesProvider activations);
+
+    /**
+     * @return buffers for the weight gradients or null. If set, the gradients
+     *         of the mini batch are added to the buffers and the weights are
+     *         not updated
+     */
+    public Gradients getGradients();
+
+    public void setGradients(Gradients gradients);
 }
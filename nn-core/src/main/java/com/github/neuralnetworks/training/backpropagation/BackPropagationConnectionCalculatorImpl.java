@@ -13,6 +13,7 @@ import com.github.neuralnetworks.architecture.Connections;
 import com.github.neuralnetworks.architecture.Layer;
 import com.github.neuralnetworks.calculation.ValuesProvider;
 import com.github.neuralnetworks.util.Constants;
+import com.github.neuralnetworks.util.Environment;
 import com.github.neuralnetworks.util.Properties;
 import com.github.neuralnetworks.util.Util;
 
@@ -30,9 +31,15 @@ public abstract class BackPropagationConnectionCalculatorImpl implements BackPro
     protected Map<Connections, BackPropagationConnectionCalculator> connectionCalculators;
     protected Set<BackPropagationConnectionCalculator> calculators;
     protected ValuesProvider activations;
+    protected Gradients gradients;
     protected Layer currentLayer;
     protected int miniBatchSize;
 
+    /**
+     * whether the current calculators are based on the GEMM engine
+     */
+    protected boolean useGEMM;
+
     public BackPropagationConnectionCalculatorImpl(Properties properties) {
         this.properties = properties;
         this.connectionCalculators = new HashMap<>();
@@ -41,17 +48,26 @@ public abstract class BackPropagationConnectionCalculatorImpl implements BackPro
 
     @Override
     public void calculate(List<Connections> connections, ValuesProvider valuesProvider, Layer targetLayer) {
+        if (useGEMM != Environment.getInstance().isUseGEMM()) {
+            useGEMM = Environment.getInstance().isUseGEMM();
+            connectionCalculators.clear();
+            calculators.clear();
+        }
+
+        miniBatchSize = valuesProvider.getColumns();
         SortedMap<Connections, Integer> chunk = new TreeMap<>();
         for (Connections c : connections) {
-            if (!connectionCalculators.containsKey(c) || targetLayer != currentLayer || miniBatchSize != valuesProvider.getColumns()) {
+            if (!connectionCalculators.containsKey(c) || targetLayer != currentLayer) {
                 chunk.put(c, valuesProvider.getColumns() * valuesProvider.getUnitCount(Util.getOppositeLayer(c, targetLayer), c));
             }
         }
 
+        // the calculators depend on the layer and the connections, but not on the mini batch size
+        // they are not pooled, because they keep the weight updates of the momentum
         if (chunk.size() > 0) {
-            miniBatchSize = valuesProvider.getColumns();
             currentLayer = targetLayer;
             addBackpropFunction(chunk, connectionCalculators, targetLayer);
+            calculators.clear();
             calculators.addAll(connectionCalculators.values());
         }
 
@@ -74,6 +90,7 @@ public abstract class BackPropagationConnectionCalculatorImpl implements BackPro
                 bc.setMomentum(getMomentum());
                 bc.setL1weightDecay(getL1weightDecay());
                 bc.setActivations(getActivations());
+                bc.setGradients(getGradients());
                 bc.calculate(chunkCalc, valuesProvider, target);
             }
         }
@@ -135,4 +152,14 @@ public abstract class BackPropagationConnectionCalculatorImpl implements BackPro
     public void setActivations(ValuesProvider activations) {
         this.activations = activations;
     }
+
+    @Override
+    public Gradients getGradients() {
+        return gradients;
+    }
+
+    @Override
+    public void setGradients(Gradients gradients) {
+        this.gradients = gradients;
+    }
 }
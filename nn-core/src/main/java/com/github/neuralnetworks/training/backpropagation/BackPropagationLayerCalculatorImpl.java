@@ -20,6 +20,12 @@ public class BackPropagationLayerCalculatorImpl extends LayerCalculatorBase impl
 
     private ValuesProvider activations;
 
+    /**
+     * weight gradient buffers for the connection calculators (if null the
+     * weights are updated)
+     */
+    private Gradients gradients;
+
     public BackPropagationLayerCalculatorImpl() {
         super();
     }
@@ -38,8 +44,17 @@ public class BackPropagationLayerCalculatorImpl extends LayerCalculatorBase impl
         ConnectionCalculator cc = super.getConnectionCalculator(layer);
         if (cc instanceof BackPropagationConnectionCalculator) {
             ((BackPropagationConnectionCalculator) cc).setActivations(activations);
+            ((BackPropagationConnectionCalculator) cc).setGradients(gradients);
         }
 
         return cc;
     }
-}
\ No newline at end of file
+
+    public Gradients getGradients() {
+        return gradients;
+    }
+
+    public void setGradients(Gradients gradients) {
+        this.gradients = gradients;
+    }
+}
\ No newline at end of file
@@ -8,8 +8,10 @@ import java.util.TreeMap;
 import com.github.neuralnetworks.architecture.Connections;
 import com.github.neuralnetworks.architecture.GraphConnections;
 import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.util.Environment;
 import com.github.neuralnetworks.util.Properties;
 import com.github.neuralnetworks.util.Util;
+import com.github.neuralnetworks.util.VectorMath;
 
 /**
  * Backpropagation connection calculator for relu units
@@ -29,16 +31,22 @@ public class BackPropagationReLU extends BackPropagationConnectionCalculatorImpl
             SortedMap<GraphConnections, Integer> m = new TreeMap<>();
             if (Util.isBias(e.getKey().getInputLayer()) && targetLayer != e.getKey().getInputLayer()) {
                 m.put((GraphConnections) e.getKey(), miniBatchSize);
-                connectionCalculators.put(e.getKey(), new AparapiBackpropReLU(m, miniBatchSize, getLearningRate(), getMomentum(), getL1weightDecay(), getL2weightDecay(), e
-                        .getKey().getInputLayer()));
+                connectionCalculators.put(e.getKey(), createBackpropFunction(m, e.getKey().getInputLayer()));
             } else {
                 m.put((GraphConnections) e.getKey(), e.getValue());
-                connectionCalculators.put(e.getKey(), new AparapiBackpropReLU(m, miniBatchSize, getLearningRate(), getMomentum(), getL1weightDecay(), getL2weightDecay(),
-                        targetLayer));
+                connectionCalculators.put(e.getKey(), createBackpropFunction(m, targetLayer));
             }
         }
     }
 
+    protected BackPropagationConnectionCalculator createBackpropFunction(SortedMap<GraphConnections, Integer> inputConnections, Layer targetLayer) {
+        if (Environment.getInstance().isUseGEMM() || Util.hasDirectWeights(inputConnections.keySet()) || Util.hasSparseWeights(inputConnections.keySet())) {
+            return new GEMMBackpropReLU(inputConnections, miniBatchSize, getLearningRate(), getMomentum(), getL1weightDecay(), getL2weightDecay(), targetLayer);
+        }
+
+        return new AparapiBackpropReLU(inputConnections, miniBatchSize, getLearningRate(), getMomentum(), getL1weightDecay(), getL2weightDecay(), targetLayer);
+    }
+
     public static class AparapiBackpropReLU extends AparapiBackpropagationFullyConnected {
 
         private static final long serialVersionUID = -3580345016542506932L;
@@ -57,4 +65,19 @@ public class BackPropagationReLU extends BackPropagationConnectionCalculatorImpl
             }
         }
     }
+
+    public static class GEMMBackpropReLU extends GEMMBackpropagationFullyConnected {
+
+        private static final long serialVersionUID = 1L;
+
+        public GEMMBackpropReLU(SortedMap<GraphConnections, Integer> inputConnections, int miniBatchSize, float learningRate, float momentum, float l1weightDecay,
+                float l2weightDecay, Layer targetLayer) {
+            super(inputConnections, miniBatchSize, learningRate, momentum, l1weightDecay, l2weightDecay, targetLayer);
+        }
+
+        @Override
+        protected void calcDerivative(float[] output, float[] ffActivation) {
+            VectorMath.reluDerivative(output, ffActivation, 0, output.length);
+        }
+    }
 }
@@ -8,8 +8,10 @@ import java.util.TreeMap;
 import com.github.neuralnetworks.architecture.Connections;
 import com.github.neuralnetworks.architecture.GraphConnections;
 import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.util.Environment;
 import com.github.neuralnetworks.util.Properties;
 import com.github.neuralnetworks.util.Util;
+import com.github.neuralnetworks.util.VectorMath;
 
 /**
  * Backpropagation connection calculator for sigmoid layers
@@ -29,16 +31,22 @@ public class BackPropagationSigmoid extends BackPropagationConnectionCalculatorI
             SortedMap<GraphConnections, Integer> m = new TreeMap<>();
             if (Util.isBias(e.getKey().getInputLayer()) && targetLayer != e.getKey().getInputLayer()) {
                 m.put((GraphConnections) e.getKey(), miniBatchSize);
-                connectionCalculators.put(e.getKey(), new AparapiBackpropSigmoid(m, miniBatchSize, getLearningRate(), getMomentum(), getL1weightDecay(), getL2weightDecay(), e
-                        .getKey().getInputLayer()));
+                connectionCalculators.put(e.getKey(), createBackpropFunction(m, e.getKey().getInputLayer()));
             } else {
                 m.put((GraphConnections) e.getKey(), e.getValue());
-                connectionCalculators.put(e.getKey(), new AparapiBackpropSigmoid(m, miniBatchSize, getLearningRate(), getMomentum(), getL1weightDecay(), getL2weightDecay(),
-                        targetLayer));
+                connectionCalculators.put(e.getKey(), createBackpropFunction(m, targetLayer));
             }
         }
     }
 
+    protected BackPropagationConnectionCalculator createBackpropFunction(SortedMap<GraphConnections, Integer> inputConnections, Layer targetLayer) {
+        if (Environment.getInstance().isUseGEMM() || Util.hasDirectWeights(inputConnections.keySet()) || Util.hasSparseWeights(inputConnections.keySet())) {
+            return new GEMMBackpropSigmoid(inputConnections, miniBatchSize, getLearningRate(), getMomentum(), getL1weightDecay(), getL2weightDecay(), targetLayer);
+        }
+
+        return new AparapiBackpropSigmoid(inputConnections, miniBatchSize, getLearningRate(), getMomentum(), getL1weightDecay(), getL2weightDecay(), targetLayer);
+    }
+
     public static class AparapiBackpropSigmoid extends AparapiBackpropagationFullyConnected {
 
         public AparapiBackpropSigmoid(SortedMap<GraphConnections, Integer> inputConnections, int miniBatchSize, float learningRate, float momentum, float l1weightDecay,
@@ -57,4 +65,19 @@ public class BackPropagationSigmoid extends BackPropagationConnectionCalculatorI
             }
         }
     }
+
+    public static class GEMMBackpropSigmoid extends GEMMBackpropagationFullyConnected {
+
+        private static final long serialVersionUID = 1L;
+
+        public GEMMBackpropSigmoid(SortedMap<GraphConnections, Integer> inputConnections, int miniBatchSize, float learningRate, float momentum, float l1weightDecay,
+                float l2weightDecay, Layer targetLayer) {
+            super(inputConnections, miniBatchSize, learningRate, momentum, l1weightDecay, l2weightDecay, targetLayer);
+        }
+
+        @Override
+        protected void calcDerivative(float[] output, float[] ffActivation) {
+            VectorMath.sigmoidDerivative(output, ffActivation, 0, output.length);
+        }
+    }
 }
@@ -8,8 +8,10 @@ import java.util.TreeMap;
 import com.github.neuralnetworks.architecture.Connections;
 import com.github.neuralnetworks.architecture.GraphConnections;
 import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.util.Environment;
 import com.github.neuralnetworks.util.Properties;
 import com.github.neuralnetworks.util.Util;
+import com.github.neuralnetworks.util.VectorMath;
 
 /**
  * Backpropagation connection calculator for softplus layers
@@ -29,16 +31,22 @@ public class BackPropagationSoftReLU extends BackPropagationConnectionCalculator
             SortedMap<GraphConnections, Integer> m = new TreeMap<>();
             if (Util.isBias(e.getKey().getInputLayer()) && targetLayer != e.getKey().getInputLayer()) {
                 m.put((GraphConnections) e.getKey(), miniBatchSize);
-                connectionCalculators.put(e.getKey(), new AparapiBackpropSoftReLU(m, miniBatchSize, getLearningRate(), getMomentum(), getL1weightDecay(), getL2weightDecay(), e
-                        .getKey().getInputLayer()));
+                connectionCalculators.put(e.getKey(), createBackpropFunction(m, e.getKey().getInputLayer()));
             } else {
                 m.put((GraphConnections) e.getKey(), e.getValue());
-                connectionCalculators.put(e.getKey(), new AparapiBackpropSoftReLU(m, miniBatchSize, getLearningRate(), getMomentum(), getL1weightDecay(), getL2weightDecay(),
-                        targetLayer));
+                connectionCalculators.put(e.getKey(), createBackpropFunction(m, targetLayer));
             }
         }
     }
 
+    protected BackPropagationConnectionCalculator createBackpropFunction(SortedMap<GraphConnections, Integer> inputConnections, Layer targetLayer) {
+        if (Environment.getInstance().isUseGEMM() || Util.hasDirectWeights(inputConnections.keySet()) || Util.hasSparseWeights(inputConnections.keySet())) {
+            return new GEMMBackpropSoftReLU(inputConnections, miniBatchSize, getLearningRate(), getMomentum(), getL1weightDecay(), getL2weightDecay(), targetLayer);
+        }
+
+        return new AparapiBackpropSoftReLU(inputConnections, miniBatchSize, getLearningRate(), getMomentum(), getL1weightDecay(), getL2weightDecay(), targetLayer);
+    }
+
     public static class AparapiBackpropSoftReLU extends AparapiBackpropagationFullyConnected {
 
         private static final long serialVersionUID = -3580345016542506932L;
@@ -55,4 +63,19 @@ public class BackPropagationSoftReLU extends BackPropagationConnectionCalculator
             }
         }
     }
+
+    public static class GEMMBackpropSoftReLU extends GEMMBackpropagationFullyConnected {
+
+        private static final long serialVersionUID = 1L;
+
+        public GEMMBackpropSoftReLU(SortedMap<GraphConnections, Integer> inputConnections, int miniBatchSize, float learningRate, float momentum, float l1weightDecay,
+                float l2weightDecay, Layer targetLayer) {
+            super(inputConnections, miniBatchSize, learningRate, momentum, l1weightDecay, l2weightDecay, targetLayer);
+        }
+
+        @Override
+        protected void calcDerivative(float[] output, float[] ffActivation) {
+            VectorMath.softReluDerivative(output, ffActivation, 0, output.length);
+        }
+    }
 }
@@ -8,6 +8,7 @@ import java.util.TreeMap;
 import com.github.neuralnetworks.architecture.Connections;
 import com.github.neuralnetworks.architecture.GraphConnections;
 import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.util.Environment;
 import com.github.neuralnetworks.util.Properties;
 import com.github.neuralnetworks.util.Util;
 
@@ -29,16 +30,22 @@ public class BackPropagationTanh extends BackPropagationConnectionCalculatorImpl
             SortedMap<GraphConnections, Integer> m = new TreeMap<>();
             if (Util.isBias(e.getKey().getInputLayer()) && targetLayer != e.getKey().getInputLayer()) {
                 m.put((GraphConnections) e.getKey(), miniBatchSize);
-                connectionCalculators.put(e.getKey(), new AparapiBackpropTanh(m, miniBatchSize, getLearningRate(), getMomentum(), getL1weightDecay(), getL2weightDecay(), e
-                        .getKey().getInputLayer()));
+                connectionCalculators.put(e.getKey(), createBackpropFunction(m, e.getKey().getInputLayer()));
             } else {
                 m.put((GraphConnections) e.getKey(), e.getValue());
-                connectionCalculators.put(e.getKey(), new AparapiBackpropTanh(m, miniBatchSize, getLearningRate(), getMomentum(), getL1weightDecay(), getL2weightDecay(),
-                        targetLayer));
+                connectionCalculators.put(e.getKey(), createBackpropFunction(m, targetLayer));
             }
         }
     }
 
+    protected BackPropagationConnectionCalculator createBackpropFunction(SortedMap<GraphConnections, Integer> inputConnections, Layer targetLayer) {
+        if (Environment.getInstance().isUseGEMM() || Util.hasDirectWeights(inputConnections.keySet()) || Util.hasSparseWeights(inputConnections.keySet())) {
+            return new GEMMBackpropTanh(inputConnections, miniBatchSize, getLearningRate(), getMomentum(), getL1weightDecay(), getL2weightDecay(), targetLayer);
+        }
+
+        return new AparapiBackpropTanh(inputConnections, miniBatchSize, getLearningRate(), getMomentum(), getL1weightDecay(), getL2weightDecay(), targetLayer);
+    }
+
     public static class AparapiBackpropTanh extends AparapiBackpropagationFullyConnected {
 
         private static final long serialVersionUID = -3580345016542506932L;
@@ -59,4 +66,24 @@ public class BackPropagationTanh extends BackPropagationConnectionCalculatorImpl
             }
         }
     }
+
+    public static class GEMMBackpropTanh extends GEMMBackpropagationFullyConnected {
+
+        private static final long serialVersionUID = 1L;
+
+        public GEMMBackpropTanh(SortedMap<GraphConnections, Integer> inputConnections, int miniBatchSize, float learningRate, float momentum, float l1weightDecay,
+                float l2weightDecay, Layer targetLayer) {
+            super(inputConnections, miniBatchSize, learningRate, momentum, l1weightDecay, l2weightDecay, targetLayer);
+        }
+
+        @Override
+        protected void calcDerivative(float[] output, float[] ffActivation) {
+            float error = 0, activation = 0;
+            for (int i = 0; i < output.length; i++) {
+                error = output[i];
+                activation = ffActivation[i];
+                output[i] = error * -error * activation * activation;
+            }
+        }
+    }
 }
@@ -6,6 +6,8 @@ import com.github.neuralnetworks.architecture.Connections;
 import com.github.neuralnetworks.architecture.Layer;
 import com.github.neuralnetworks.architecture.Subsampling2DConnection;
 import com.github.neuralnetworks.calculation.ValuesProvider;
+import com.github.neuralnetworks.util.Environment;
+import com.github.neuralnetworks.util.KernelPool;
 
 /**
  * Backpropagation for average pooling layers
@@ -14,16 +16,22 @@ public class BackpropagationAveragePooling2D implements BackPropagationConnectio
 
     private static final long serialVersionUID = 8165829315701496713L;
 
-    private BackPropagationConnectionCalculator cc;
+    private AparapiBackpropagationSubsampling2D cc;
     protected ValuesProvider activations;
 
     @Override
     public void calculate(List<Connections> connections, ValuesProvider valuesProvider, Layer targetLayer) {
         if (cc == null) {
-            cc = new BackpropagationAveragePooling2DCC((Subsampling2DConnection) connections.get(0), valuesProvider.getColumns());
-            cc.setActivations(activations);
+            KernelPool pool = Environment.getInstance().getKernelPool();
+            cc = pool.get(getClass(), targetLayer, connections, 0);
+            if (cc == null) {
+                cc = new BackpropagationAveragePooling2DCC((Subsampling2DConnection) connections.get(0), valuesProvider.getColumns());
+                pool.put(getClass(), targetLayer, connections, 0, cc);
+            }
         }
 
+        // the kernel is pooled - the activations of this calculator are set before each calculation
+        cc.setActivations(activations);
         cc.calculate(connections, valuesProvider, targetLayer);
     }
 
@@ -80,6 +88,17 @@ public class BackpropagationAveragePooling2D implements BackPropagationConnectio
         }
     }
 
+    @Override
+    public Gradients getGradients() {
+        // UNUSED - no weights
+        return null;
+    }
+
+    @Override
+    public void setGradients(Gradients gradients) {
+        // UNUSED - no weights
+    }
+
     public class BackpropagationAveragePooling2DCC extends AparapiBackpropagationSubsampling2D {
 
         private static final long serialVersionUID = -8888670594631428090L;
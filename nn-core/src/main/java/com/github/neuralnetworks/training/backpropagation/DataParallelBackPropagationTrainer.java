@@ -0,0 +1,417 @@
+package com.github.neuralnetworks.training.backpropagation;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.Conv2DConnection;
+import com.github.neuralnetworks.architecture.FullyConnected;
+import com.github.neuralnetworks.architecture.GraphConnections;
+import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.NeuralNetwork;
+import com.github.neuralnetworks.architecture.SparseMatrix;
+import com.github.neuralnetworks.calculation.ValuesProvider;
+import com.github.neuralnetworks.training.TrainingInputData;
+import com.github.neuralnetworks.training.TrainingInputDataImpl;
+import com.github.neuralnetworks.util.Constants;
+import com.github.neuralnetworks.util.Properties;
+import com.github.neuralnetworks.util.UniqueList;
+
+/**
+ * Synchronous data parallel backpropagation. Each mini batch is split in equal
+ * parts (by columns) between the workers - the trained network and its
+ * replicas (networks with the same structure and their own layer calculators,
+ * for example created with the same NNFactory method). The workers calculate
+ * the weight gradients of their part of the mini batch in parallel into
+ * private buffers (see Gradients), the buffers are summed with a tree
+ * reduction (log2(workers) parallel steps) and the weights are updated once.
+ *
+ * The replicas share the weights of the trained network (their connection
+ * graphs and convolutional weights are replaced in the constructor), so only
+ * fully connected layers with dense weights and convolutional layers with
+ * float weights are supported. The gradients of the calculators are sums over the
+ * samples (the learning rate is applied to the sum), so the reduced gradient
+ * is the same as the gradient of the whole mini batch and the weight update
+ * is the same as the update of BackPropagationTrainer (including momentum
+ * and weight decay)
+ */
+public class DataParallelBackPropagationTrainer<N extends NeuralNetwork> extends BackPropagationTrainer<N> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * the trained network (worker 0) and the replicas
+     */
+    private final List<Worker> workers = new ArrayList<>();
+
+    private transient ExecutorService executor;
+
+    /**
+     * time (nanoseconds) spent in each phase since the start of the training
+     */
+    private long gradientTime;
+    private long reductionTime;
+    private long updateTime;
+
+    /**
+     * @param replicas
+     *            - networks with the same structure as the trained network
+     * @param replicaCalculators
+     *            - backpropagation calculators of the replicas
+     */
+    public DataParallelBackPropagationTrainer(Properties properties, List<? extends NeuralNetwork> replicas, List<BackPropagationLayerCalculatorImpl> replicaCalculators) {
+        super(properties);
+
+        if (replicas.size() != replicaCalculators.size()) {
+            throw new IllegalArgumentException("Each replica must have a backpropagation calculator");
+        }
+
+        if (!(getBPLayerCalculator() instanceof BackPropagationLayerCalculatorImpl)) {
+            throw new IllegalArgumentException("The backpropagation calculator must be BackPropagationLayerCalculatorImpl");
+        }
+
+        List<Connections> connections = getNeuralNetwork().getConnections();
+        for (Connections c : connections) {
+            if (c instanceof GraphConnections && (!(c instanceof FullyConnected) || ((GraphConnections) c).getConnectionGraph() instanceof SparseMatrix)) {
+                throw new IllegalArgumentException("Only fully connected layers with dense weights are supported");
+            }
+
+            if (c instanceof Conv2DConnection && (((Conv2DConnection) c).getHalfWeights() != null || ((Conv2DConnection) c).getQuantizedWeights() != null)) {
+                throw new IllegalArgumentException("Only convolutional layers with float weights are supported");
+            }
+        }
+
+        workers.add(new Worker(getNeuralNetwork(), (BackPropagationLayerCalculatorImpl) getBPLayerCalculator()));
+        for (int i = 0; i < replicas.size(); i++) {
+            NeuralNetwork replica = replicas.get(i);
+            List<Connections> replicaConnections = replica.getConnections();
+            if (replicaConnections.size() != connections.size()) {
+                throw new IllegalArgumentException("The replica doesn't have the same structure");
+            }
+
+            // the replica uses the weights of the trained network
+            for (int j = 0; j < connections.size(); j++) {
+                Connections c = connections.get(j), r = replicaConnections.get(j);
+                if (c instanceof GraphConnections) {
+                    Matrix cg = ((GraphConnections) c).getConnectionGraph();
+                    if (!(r instanceof FullyConnected) || ((FullyConnected) r).getConnectionGraph().getRows() != cg.getRows()
+                            || ((FullyConnected) r).getConnectionGraph().getColumns() != cg.getColumns()) {
+                        throw new IllegalArgumentException("The replica doesn't have the same structure");
+                    }
+
+                    ((FullyConnected) r).setConnectionGraph(cg);
+                } else if (c instanceof Conv2DConnection) {
+                    float[] weights = ((Conv2DConnection) c).getWeights();
+                    if (!(r instanceof Conv2DConnection) || ((Conv2DConnection) r).getWeights().length != weights.length) {
+                        throw new IllegalArgumentException("The replica doesn't have the same structure");
+                    }
+
+                    ((Conv2DConnection) r).setWeights(weights);
+                }
+            }
+
+            workers.add(new Worker(replica, replicaCalculators.get(i)));
+        }
+    }
+
+    @Override
+    public void train() {
+        gradientTime = reductionTime = updateTime = 0;
+        super.train();
+    }
+
+    /**
+     * The mini batch is split between the workers, the gradients are reduced
+     * and the weights are updated
+     */
+    @Override
+    protected void learnInput(TrainingInputData data, int batch) {
+        Matrix input = data.getInput();
+        Matrix target = data.getTarget();
+        int count = Math.min(workers.size(), input.getColumns());
+
+        long start = System.nanoTime();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final Worker w = workers.get(i);
+            w.setInput(input, target, i * input.getColumns() / count, (i + 1) * input.getColumns() / count);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    w.calculateGradients();
+                    return null;
+                }
+            });
+        }
+
+        invokeAll(tasks);
+        long reduction = System.nanoTime();
+        gradientTime += reduction - start;
+
+        // tree reduction - the sum is in the buffers of worker 0
+        for (int step = 1; step < count; step *= 2) {
+            tasks.clear();
+            for (int i = 0; i + step < count; i += 2 * step) {
+                final Gradients g = workers.get(i).gradients, other = workers.get(i + step).gradients;
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        g.add(other);
+                        return null;
+                    }
+                });
+            }
+
+            invokeAll(tasks);
+        }
+
+        long update = System.nanoTime();
+        reductionTime += update - reduction;
+
+        updateWeights(workers.get(0).gradients);
+        updateTime += System.nanoTime() - update;
+    }
+
+    /**
+     * Updates the weights with the reduced gradients of the mini batch (the
+     * momentum uses the weight updates of worker 0). Subclasses override it to
+     * exchange the gradients (all-reduce, parameter server)
+     */
+    protected void updateWeights(Gradients gradients) {
+        workers.get(0).updateWeights(gradients, false);
+    }
+
+    /**
+     * @return the columns from (inclusive) - to (exclusive) of the matrix in
+     *         "result" (if it has the right size)
+     */
+    private static Matrix columns(Matrix m, int from, int to, Matrix result) {
+        if (result == null || result.getRows() != m.getRows() || result.getColumns() != to - from) {
+            result = new Matrix(m.getRows(), to - from);
+        }
+
+        for (int i = 0; i < m.getRows(); i++) {
+            for (int j = from; j < to; j++) {
+                result.set(i, j - from, m.get(i, j));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Calls the tasks in parallel and waits for all of them to finish
+     */
+    protected void invokeAll(List<Callable<Void>> tasks) {
+        if (tasks.size() == 1) {
+            try {
+                tasks.get(0).call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+
+            return;
+        }
+
+        try {
+            for (Future<Void> f : getExecutor().invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the workers", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(workers.size(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread result = new Thread(r, "data-parallel-" + count.incrementAndGet());
+                    result.setDaemon(true);
+                    return result;
+                }
+            });
+        }
+
+        return executor;
+    }
+
+    /**
+     * Stops the threads of the workers (they are started again if needed)
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * @return the number of workers (the trained network and the replicas)
+     */
+    public int getWorkerCount() {
+        return workers.size();
+    }
+
+    protected List<Worker> getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return time (nanoseconds) spent in the gradient calculation during the
+     *         last training
+     */
+    public long getGradientTime() {
+        return gradientTime;
+    }
+
+    /**
+     * @return time (nanoseconds) spent in the reduction of the gradients
+     *         during the last training
+     */
+    public long getReductionTime() {
+        return reductionTime;
+    }
+
+    /**
+     * @return time (nanoseconds) spent in the weight updates during the last
+     *         training
+     */
+    public long getUpdateTime() {
+        return updateTime;
+    }
+
+    /**
+     * The network, the calculators and the buffers of one worker
+     */
+    protected class Worker implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final NeuralNetwork neuralNetwork;
+        private final BackPropagationLayerCalculatorImpl bplc;
+        private final ValuesProvider activations = new ValuesProvider();
+        private final ValuesProvider backpropagation = new ValuesProvider();
+        private final Gradients gradients;
+
+        /**
+         * weight updates of the previous mini batch (for the momentum) for
+         * each connection
+         */
+        private final float[][] weightUpdates;
+
+        private Matrix input;
+        private Matrix target;
+        private Matrix outputErrorDerivative;
+
+        private Worker(NeuralNetwork neuralNetwork, BackPropagationLayerCalculatorImpl bplc) {
+            this.neuralNetwork = neuralNetwork;
+            this.bplc = bplc;
+            this.gradients = new Gradients(neuralNetwork.getConnections());
+            this.weightUpdates = new float[gradients.size()][];
+            for (int i = 0; i < gradients.size(); i++) {
+                weightUpdates[i] = gradients.get(i) != null ? new float[gradients.get(i).length] : null;
+            }
+        }
+
+        /**
+         * Copies the columns from (inclusive) - to (exclusive) of the input
+         * and the target
+         */
+        protected void setInput(Matrix input, Matrix target, int from, int to) {
+            this.input = columns(input, from, to, this.input);
+            this.target = columns(target, from, to, this.target);
+        }
+
+        /**
+         * @return the current input and target of the worker (changed by the
+         *         next setInput)
+         */
+        protected TrainingInputData getInput() {
+            return new TrainingInputDataImpl(input, target);
+        }
+
+        /**
+         * Calculates the weight gradients of the current input
+         */
+        protected void calculateGradients() {
+            gradients.clear();
+
+            Set<Layer> calculatedLayers = new UniqueList<Layer>();
+            calculatedLayers.add(neuralNetwork.getInputLayer());
+            activations.addValues(neuralNetwork.getInputLayer(), input);
+            neuralNetwork.getLayerCalculator().calculate(neuralNetwork, neuralNetwork.getOutputLayer(), calculatedLayers, activations);
+
+            // the derivative can reuse its result matrix
+            OutputErrorDerivative d = getProperties().getParameter(Constants.OUTPUT_ERROR_DERIVATIVE);
+            synchronized (d) {
+                Matrix m = d.getOutputErrorDerivative(activations.getValues(neuralNetwork.getOutputLayer()), target);
+                if (outputErrorDerivative == null || outputErrorDerivative.getElements().length != m.getElements().length) {
+                    outputErrorDerivative = new Matrix(m.getRows(), m.getColumns());
+                }
+
+                System.arraycopy(m.getElements(), 0, outputErrorDerivative.getElements(), 0, m.getElements().length);
+            }
+
+            backpropagation.addValues(neuralNetwork.getOutputLayer(), outputErrorDerivative);
+            calculatedLayers.clear();
+            calculatedLayers.add(neuralNetwork.getOutputLayer());
+            bplc.setGradients(gradients);
+            try {
+                bplc.backpropagate(neuralNetwork, calculatedLayers, activations, backpropagation);
+            } finally {
+                bplc.setGradients(null);
+            }
+        }
+
+        /**
+         * Updates the weights with the gradients of the worker - the same
+         * update as the backpropagation connection calculators. The shared
+         * weights are not locked
+         * 
+         * @param sparse
+         *            - if true the weights with 0 gradient are not changed
+         *            (there is no momentum/weight decay step for them)
+         */
+        protected void updateWeights(boolean sparse) {
+            updateWeights(gradients, sparse);
+        }
+
+        /**
+         * Same as updateWeights(sparse) with other gradients (for example the
+         * reduced gradients of all the workers) and the weight updates of this
+         * worker
+         */
+        protected void updateWeights(Gradients gradients, boolean sparse) {
+            float learningRate = getProperties().getParameter(Constants.LEARNING_RATE);
+            float momentum = getProperties().getParameter(Constants.MOMENTUM);
+            float l1weightDecay = getProperties().getParameter(Constants.L1_WEIGHT_DECAY);
+            float l2weightDecay = getProperties().getParameter(Constants.L2_WEIGHT_DECAY);
+            gradients.updateWeights(weightUpdates, learningRate, momentum, l1weightDecay, l2weightDecay, sparse);
+        }
+    }
+}
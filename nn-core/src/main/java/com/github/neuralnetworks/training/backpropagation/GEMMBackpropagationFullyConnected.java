@@ -0,0 +1,325 @@
+package com.github.neuralnetworks.training.backpropagation;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.DirectMatrix;
+import com.github.neuralnetworks.architecture.GraphConnections;
+import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.SparseInputMatrix;
+import com.github.neuralnetworks.architecture.SparseMatrix;
+import com.github.neuralnetworks.architecture.StagingBuffers;
+import com.github.neuralnetworks.calculation.ValuesProvider;
+import com.github.neuralnetworks.calculation.neuronfunctions.GEMMWeightedSum;
+import com.github.neuralnetworks.util.Util;
+import com.github.neuralnetworks.util.VectorMath;
+
+/**
+ * Pure java backpropagation for fully connected layers based on the GEMM
+ * engine (the counterpart of AparapiBackpropagationFullyConnected). The error
+ * is propagated with the transposed weight matrix, the weight gradient is
+ * calculated as a single matrix multiplication of the error and the
+ * feedforward activations. Supports learning rate, momentum and weight decay.
+ * For sparse weights (SparseMatrix) only the gradient of the stored weights
+ * is calculated (the pruned weights stay 0). If the feedforward activations
+ * of the target layer are sparse (SparseInputMatrix - the input layer) only
+ * the non-zero activations are used for the weight gradient, the weights of
+ * the units without any non-zero activation in the mini batch are not updated
+ * and the error of the target layer is not calculated (it is never needed for
+ * the input layer). If there are gradient buffers (see Gradients) the weight
+ * gradients are added to them instead of the weight updates (not supported for
+ * sparse weights)
+ */
+public class GEMMBackpropagationFullyConnected extends GEMMWeightedSum implements BackPropagationConnectionCalculator {
+
+    private static final long serialVersionUID = 1L;
+
+    protected float learningRate;
+    protected final float momentum;
+    protected final float l1weightDecay;
+    protected final float l2weightDecay;
+
+    /**
+     * activations from the feedforward phase
+     */
+    protected ValuesProvider activations;
+
+    /**
+     * Weight updates for each of the connections (for the momentum). They are
+     * off-heap if the weights are off-heap and contain only the stored values
+     * if the weights are sparse
+     */
+    protected final Matrix[] weightUpdates;
+
+    /**
+     * the weight gradient of the current connection
+     */
+    protected transient float[] gradient;
+
+    /**
+     * gradient buffers of the connections
+     */
+    protected Gradients gradients;
+
+    public GEMMBackpropagationFullyConnected(SortedMap<GraphConnections, Integer> inputConnections, int miniBatchSize, float learningRate, float momentum, float l1weightDecay,
+            float l2weightDecay, Layer targetLayer) {
+        super(inputConnections, miniBatchSize, targetLayer);
+        this.learningRate = learningRate;
+        this.momentum = momentum;
+        this.l1weightDecay = l1weightDecay;
+        this.l2weightDecay = l2weightDecay;
+        this.weightUpdates = new Matrix[inputConnections.size()];
+
+        int i = 0;
+        for (GraphConnections c : inputConnections.keySet()) {
+            Matrix cg = c.getConnectionGraph();
+            if (cg instanceof SparseMatrix) {
+                weightUpdates[i++] = new Matrix(((SparseMatrix) cg).getNonZeroCount(), 1);
+            } else {
+                weightUpdates[i++] = cg instanceof DirectMatrix ? new DirectMatrix(cg.getRows(), cg.getColumns()) : new Matrix(cg.getRows(), cg.getColumns());
+            }
+        }
+    }
+
+    @Override
+    public void calculate(List<Connections> connections, ValuesProvider valuesProvider, Layer targetLayer) {
+        if (connections.size() > 0) {
+            Matrix activation = activations.getValues(targetLayer, connections);
+            miniBatchSize = activation.getColumns();
+            StagingBuffers staging = staging();
+            if (activation instanceof SparseInputMatrix) {
+                int i = 0;
+                for (Connections c : connections) {
+                    Matrix error = staging.stage(valuesProvider.getValues(Util.getOppositeLayer(c, targetLayer), c));
+                    updateSparseInputWeights(((GraphConnections) c).getConnectionGraph(), error, (SparseInputMatrix) activation, weightUpdates[i++], gradients != null ? gradients.get(c) : null);
+                }
+
+                return;
+            }
+
+            Matrix target = valuesProvider.getValues(targetLayer, connections);
+            Matrix output = staging.stage(target);
+            float[] ffActivation = staging.stage(activation).getElements();
+
+            // propagate the error with the weights before the update
+            List<Matrix> errors = new ArrayList<>();
+            for (Connections c : connections) {
+                Matrix cg = ((GraphConnections) c).getConnectionGraph();
+                Matrix input = staging.stage(valuesProvider.getValues(Util.getOppositeLayer(c, targetLayer), c));
+                multiply(true, cg.getColumns(), cg.getRows(), cg, input, output);
+                errors.add(input);
+            }
+
+            int i = 0;
+            for (Connections c : connections) {
+                updateWeights(((GraphConnections) c).getConnectionGraph(), errors.get(i), ffActivation, weightUpdates[i], gradients != null ? gradients.get(c) : null);
+                i++;
+            }
+
+            calcDerivative(output.getElements(), ffActivation);
+
+            DirectMatrix.unstage(output, target);
+        }
+    }
+
+    /**
+     * gradient = error * activation^T, followed by the weight update (or
+     * added to the gradient buffer "buffer" if not null). The weight updates
+     * are dense, the weights can be a view
+     */
+    protected void updateWeights(Matrix cg, Matrix error, float[] ffActivation, Matrix weightUpdates, float[] buffer) {
+        if (cg instanceof SparseMatrix) {
+            if (buffer != null) {
+                throw new UnsupportedOperationException("Gradient buffers are not supported for sparse weights");
+            }
+
+            updateSparseWeights((SparseMatrix) cg, error, ffActivation, weightUpdates.getElements());
+            return;
+        }
+
+        int length = cg.getRows() * cg.getColumns();
+        if (gradient == null || gradient.length < length) {
+            gradient = new float[length];
+        }
+
+        Util.fillArray(gradient, 0);
+        gemm.multiply(false, true, cg.getRows(), cg.getColumns(), miniBatchSize, error.getElements(), error.getOffset(), error.getStride(), ffActivation, 0, miniBatchSize, gradient, 0, cg.getColumns());
+
+        if (buffer != null) {
+            for (int i = 0; i < length; i++) {
+                buffer[i] += gradient[i];
+            }
+
+            return;
+        }
+
+        float weight = 0, weightUpdate = 0;
+        if (cg instanceof DirectMatrix) {
+            FloatBuffer weights = ((DirectMatrix) cg).getBuffer();
+            FloatBuffer updates = ((DirectMatrix) weightUpdates).getBuffer();
+            for (int i = 0; i < length; i++) {
+                weight = weights.get(i);
+                weightUpdate = learningRate * gradient[i] + momentum * updates.get(i) - l1weightDecay * Math.abs(weight) - l2weightDecay * weight * weight / 2;
+                weights.put(i, weight + weightUpdate);
+                updates.put(i, weightUpdate);
+            }
+        } else {
+            float[] weights = cg.getElements();
+            float[] updates = weightUpdates.getElements();
+            for (int row = 0, i = 0; row < cg.getRows(); row++) {
+                for (int column = 0, wi = cg.getOffset() + row * cg.getStride(); column < cg.getColumns(); column++, i++, wi++) {
+                    weight = weights[wi];
+                    weightUpdate = learningRate * gradient[i] + momentum * updates[i] - l1weightDecay * Math.abs(weight) - l2weightDecay * weight * weight / 2;
+                    weights[wi] += weightUpdate;
+                    updates[i] = weightUpdate;
+                }
+            }
+        }
+    }
+
+    /**
+     * The gradient of each stored weight is the dot product of the error of
+     * the output unit and the activation of the input unit
+     */
+    protected void updateSparseWeights(SparseMatrix cg, Matrix error, float[] ffActivation, float[] updates) {
+        int[] rowPointers = cg.getRowPointers();
+        int[] columnIndices = cg.getColumnIndices();
+        float[] weights = cg.getValues();
+        float[] e = error.getElements();
+        float weight = 0, weightUpdate = 0;
+
+        for (int row = 0; row < cg.getRows(); row++) {
+            int errorOffset = error.getOffset() + row * error.getStride();
+            for (int i = rowPointers[row], end = rowPointers[row + 1]; i < end; i++) {
+                weight = weights[i];
+                weightUpdate = learningRate * VectorMath.dot(e, errorOffset, ffActivation, columnIndices[i] * miniBatchSize, miniBatchSize) + momentum * updates[i] - l1weightDecay * Math.abs(weight) - l2weightDecay * weight * weight / 2;
+                weights[i] += weightUpdate;
+                updates[i] = weightUpdate;
+            }
+        }
+    }
+
+    /**
+     * The gradient of the weights of each input unit with non-zero activations
+     * is the sum of the errors of the output units, weighted with the non-zero
+     * activations of the unit (the weights of the other units are not
+     * changed). Only dense on heap weights are supported. If "buffer" is not
+     * null the gradients are added to it instead
+     */
+    protected void updateSparseInputWeights(Matrix cg, Matrix error, SparseInputMatrix activation, Matrix weightUpdates, float[] buffer) {
+        if (cg instanceof SparseMatrix || cg instanceof DirectMatrix) {
+            throw new UnsupportedOperationException("Sparse input values can only be used with dense on heap weights");
+        }
+
+        int[] pointers = activation.getRowPointers();
+        int[] samples = activation.getColumnIndices();
+        float[] values = activation.getRowValues();
+        float[] e = error.getElements();
+        float[] weights = cg.getElements();
+        float[] updates = weightUpdates.getElements();
+        float weight = 0, weightUpdate = 0, gradient = 0;
+
+        for (int column = 0; column < cg.getColumns(); column++) {
+            int start = pointers[column], end = pointers[column + 1];
+            if (start == end) {
+                continue;
+            }
+
+            for (int row = 0; row < cg.getRows(); row++) {
+                gradient = 0;
+                for (int p = start, errorOffset = error.getOffset() + row * error.getStride(); p < end; p++) {
+                    gradient += e[errorOffset + samples[p]] * values[p];
+                }
+
+                int wi = cg.getOffset() + row * cg.getStride() + column, i = row * cg.getColumns() + column;
+                if (buffer != null) {
+                    buffer[i] += gradient;
+                    continue;
+                }
+
+                weight = weights[wi];
+                weightUpdate = learningRate * gradient + momentum * updates[i] - l1weightDecay * Math.abs(weight) - l2weightDecay * weight * weight / 2;
+                weights[wi] += weightUpdate;
+                updates[i] = weightUpdate;
+            }
+        }
+    }
+
+    /**
+     * Releases the off-heap weight updates (if any)
+     */
+    public void release() {
+        for (Matrix m : weightUpdates) {
+            if (m instanceof DirectMatrix) {
+                ((DirectMatrix) m).release();
+            }
+        }
+    }
+
+    /**
+     * calculate derivative after weights update
+     */
+    protected void calcDerivative(float[] output, float[] ffActivation) {
+    }
+
+    @Override
+    public float getLearningRate() {
+        return learningRate;
+    }
+
+    @Override
+    public void setLearningRate(float learningRate) {
+        this.learningRate = learningRate;
+    }
+
+    @Override
+    public float getMomentum() {
+        return momentum;
+    }
+
+    @Override
+    public void setMomentum(float momentum) {
+    }
+
+    @Override
+    public float getL1weightDecay() {
+        return l1weightDecay;
+    }
+
+    @Override
+    public void setL1weightDecay(float weightDecay) {
+    }
+
+    @Override
+    public float getL2weightDecay() {
+        return l2weightDecay;
+    }
+
+    @Override
+    public void setL2weightDecay(float l2weightDecay) {
+    }
+
+    @Override
+    public ValuesProvider getActivations() {
+        return activations;
+    }
+
+    @Override
+    public void setActivations(ValuesProvider activations) {
+        this.activations = activations;
+    }
+
+    @Override
+    public Gradients getGradients() {
+        return gradients;
+    }
+
+    @Override
+    public void setGradients(Gradients gradients) {
+        this.gradients = gradients;
+    }
+}
@@ -0,0 +1,189 @@
+package com.github.neuralnetworks.training.backpropagation;
+
+import java.io.Serializable;
+import java.nio.FloatBuffer;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.Conv2DConnection;
+import com.github.neuralnetworks.architecture.DirectMatrix;
+import com.github.neuralnetworks.architecture.GraphConnections;
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.util.Util;
+
+/**
+ * Weight gradient buffers of the connections of a network - one dense array
+ * for each GraphConnections (in the row major order of the connection graph,
+ * regardless of its layout) and Conv2DConnection (in the order of its
+ * weights). The backpropagation connection calculators with
+ * gradient buffers add the gradients of the mini batch to the buffers instead
+ * of updating the weights (see BackPropagationConnectionCalculator). The
+ * buffers of networks with the same structure (replicas) have the same
+ * indexes and can be added together
+ */
+public class Gradients implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Connections[] connections;
+    private final float[][] gradients;
+    private final Map<Connections, Integer> indexes;
+
+    /**
+     * @param connections
+     *            - the connections of the network (the connections without
+     *            weights have no buffers)
+     */
+    public Gradients(List<Connections> connections) {
+        super();
+        this.connections = connections.toArray(new Connections[connections.size()]);
+        this.gradients = new float[connections.size()][];
+        this.indexes = new IdentityHashMap<>();
+
+        for (int i = 0; i < this.connections.length; i++) {
+            Connections c = this.connections[i];
+            indexes.put(c, i);
+            if (c instanceof GraphConnections) {
+                Matrix cg = ((GraphConnections) c).getConnectionGraph();
+                gradients[i] = new float[cg.getRows() * cg.getColumns()];
+            } else if (c instanceof Conv2DConnection) {
+                gradients[i] = new float[((Conv2DConnection) c).getWeights().length];
+            }
+        }
+    }
+
+    /**
+     * @return the gradient buffer of the connection or null
+     */
+    public float[] get(Connections connection) {
+        Integer index = indexes.get(connection);
+        return index != null ? gradients[index] : null;
+    }
+
+    /**
+     * @return the gradient buffer of the connection with index "index"
+     */
+    public float[] get(int index) {
+        return gradients[index];
+    }
+
+    public Connections getConnection(int index) {
+        return connections[index];
+    }
+
+    /**
+     * @return the index of the connection or -1
+     */
+    public int indexOf(Connections connection) {
+        Integer index = indexes.get(connection);
+        return index != null ? index : -1;
+    }
+
+    public int size() {
+        return connections.length;
+    }
+
+    /**
+     * Sets all the gradients to 0
+     */
+    public void clear() {
+        for (float[] g : gradients) {
+            if (g != null) {
+                Util.fillArray(g, 0);
+            }
+        }
+    }
+
+    /**
+     * Adds the gradients of a network with the same structure
+     */
+    public void add(Gradients other) {
+        if (other.gradients.length != gradients.length) {
+            throw new IllegalArgumentException("The gradients are not of the same network structure");
+        }
+
+        for (int i = 0; i < gradients.length; i++) {
+            float[] g = gradients[i], o = other.gradients[i];
+            if (g != null) {
+                if (o == null || o.length != g.length) {
+                    throw new IllegalArgumentException("The gradients are not of the same network structure");
+                }
+
+                for (int j = 0; j < g.length; j++) {
+                    g[j] += o[j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the weights of the connections with the gradients - the same
+     * update as the backpropagation connection calculators. The weights are
+     * not locked
+     * 
+     * @param weightUpdates
+     *            - the weight updates of the previous call for each
+     *            connection (for the momentum) - they are replaced with the
+     *            new updates
+     * @param sparse
+     *            - if true the weights with 0 gradient are not changed
+     *            (there is no momentum/weight decay step for them)
+     */
+    public void updateWeights(float[][] weightUpdates, float learningRate, float momentum, float l1weightDecay, float l2weightDecay, boolean sparse) {
+        float weight = 0, weightUpdate = 0;
+
+        for (int c = 0; c < gradients.length; c++) {
+            float[] gradient = gradients[c];
+            if (gradient == null) {
+                continue;
+            }
+
+            float[] updates = weightUpdates[c];
+            if (connections[c] instanceof Conv2DConnection) {
+                Conv2DConnection conv = (Conv2DConnection) connections[c];
+                if (conv.getHalfWeights() != null || conv.getQuantizedWeights() != null) {
+                    throw new UnsupportedOperationException("Only float weights can be updated");
+                }
+
+                float[] weights = conv.getWeights();
+                for (int i = 0; i < gradient.length; i++) {
+                    if (!sparse || gradient[i] != 0) {
+                        weight = weights[i];
+                        weightUpdate = learningRate * gradient[i] + momentum * updates[i] - l1weightDecay * Math.abs(weight) - l2weightDecay * weight * weight / 2;
+                        weights[i] += weightUpdate;
+                        updates[i] = weightUpdate;
+                    }
+                }
+
+                continue;
+            }
+
+            Matrix cg = ((GraphConnections) connections[c]).getConnectionGraph();
+            if (cg instanceof DirectMatrix) {
+                FloatBuffer weights = ((DirectMatrix) cg).getBuffer();
+                for (int i = 0; i < gradient.length; i++) {
+                    if (!sparse || gradient[i] != 0) {
+                        weight = weights.get(i);
+                        weightUpdate = learningRate * gradient[i] + momentum * updates[i] - l1weightDecay * Math.abs(weight) - l2weightDecay * weight * weight / 2;
+                        weights.put(i, weight + weightUpdate);
+                        updates[i] = weightUpdate;
+                    }
+                }
+            } else {
+                float[] weights = cg.getElements();
+                for (int row = 0, i = 0; row < cg.getRows(); row++) {
+                    for (int column = 0, wi = cg.getOffset() + row * cg.getStride(); column < cg.getColumns(); column++, i++, wi++) {
+                        if (!sparse || gradient[i] != 0) {
+                            weight = weights[wi];
+                            weightUpdate = learningRate * gradient[i] + momentum * updates[i] - l1weightDecay * Math.abs(weight) - l2weightDecay * weight * weight / 2;
+                            weights[wi] += weightUpdate;
+                            updates[i] = weightUpdate;
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
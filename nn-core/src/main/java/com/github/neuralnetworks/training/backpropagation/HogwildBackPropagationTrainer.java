@@ -0,0 +1,108 @@
+package com.github.neuralnetworks.training.backpropagation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.github.neuralnetworks.architecture.NeuralNetwork;
+import com.github.neuralnetworks.training.TrainingInputData;
+import com.github.neuralnetworks.training.TrainingInputProvider;
+import com.github.neuralnetworks.training.events.MiniBatchFinishedEvent;
+import com.github.neuralnetworks.training.events.TrainingFinishedEvent;
+import com.github.neuralnetworks.training.events.TrainingStartedEvent;
+import com.github.neuralnetworks.util.Properties;
+
+/**
+ * Lock free asynchronous backpropagation (Hogwild!). Each worker (the trained
+ * network and its replicas, see DataParallelBackPropagationTrainer) takes the
+ * next mini batch from the shared training input provider, calculates the
+ * weight gradients with its own calculators and values and updates the shared
+ * weights without any locks - the updates of the workers can overlap and the
+ * gradients can be calculated with partially updated weights. Only the weights
+ * with non-zero gradient are changed, so the workers rarely write to the same
+ * weights if the input is sparse. Each worker has its own momentum. The
+ * mini batch finished events are triggered by the workers (one at a time)
+ */
+public class HogwildBackPropagationTrainer<N extends NeuralNetwork> extends DataParallelBackPropagationTrainer<N> {
+
+    private static final long serialVersionUID = 1L;
+
+    private volatile boolean stopTraining;
+
+    /**
+     * number of mini batches taken from the input provider
+     */
+    private int batches;
+
+    public HogwildBackPropagationTrainer(Properties properties, List<? extends NeuralNetwork> replicas, List<BackPropagationLayerCalculatorImpl> replicaCalculators) {
+        super(properties, replicas, replicaCalculators);
+    }
+
+    @Override
+    public void train() {
+        triggerEvent(new TrainingStartedEvent(this));
+
+        stopTraining = false;
+        batches = 0;
+
+        if (getRandomInitializer() != null) {
+            getRandomInitializer().initialize(getNeuralNetwork());
+        }
+
+        getTrainingInputProvider().reset();
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (final Worker w : getWorkers()) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    int batch = 0;
+                    while ((batch = nextInput(w)) != -1) {
+                        w.calculateGradients();
+                        w.updateWeights(true);
+
+                        synchronized (HogwildBackPropagationTrainer.this) {
+                            triggerEvent(new MiniBatchFinishedEvent(HogwildBackPropagationTrainer.this, w.getInput(), null, batch + 1));
+                        }
+                    }
+
+                    return null;
+                }
+            });
+        }
+
+        invokeAll(tasks);
+
+        triggerEvent(new TrainingFinishedEvent(this));
+    }
+
+    /**
+     * The input provider is shared - the next mini batch is copied to the
+     * worker
+     * 
+     * @return the number of the mini batch or -1 if there is no more input
+     */
+    private synchronized int nextInput(Worker w) {
+        TrainingInputProvider ip = getTrainingInputProvider();
+        TrainingInputData input = stopTraining ? null : ip.getNextInput();
+        if (input == null) {
+            return -1;
+        }
+
+        w.setInput(input.getInput(), input.getTarget(), 0, input.getInput().getColumns());
+        return batches++;
+    }
+
+    @Override
+    public void stopTraining() {
+        stopTraining = true;
+        super.stopTraining();
+    }
+
+    /**
+     * @return the number of mini batches of the last training
+     */
+    public synchronized int getBatches() {
+        return batches;
+    }
+}
@@ -0,0 +1,219 @@
+package com.github.neuralnetworks.training.parameterserver;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.List;
+
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.Conv2DConnection;
+import com.github.neuralnetworks.architecture.DirectMatrix;
+import com.github.neuralnetworks.architecture.GraphConnections;
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.training.backpropagation.Gradients;
+
+/**
+ * Binary encoding of the messages between the parameter server and its
+ * workers. Each message is
+ *
+ * [int length of the rest of the message][byte type][long version][int value][parameters]
+ *
+ * The parameters are the weights (or the gradients) of the connections with
+ * weights, in the order of the connections of the network:
+ *
+ * - fully connected: [byte MATRIX][int rows][int columns][rows * columns floats (row major)]
+ *
+ * - convolutional: [byte CONV][int length][length floats]
+ *
+ * The floats are written with bulk copies in the byte order of the buffer.
+ * The receiver checks that the parameters match the structure of its network
+ */
+public class ParameterEncoding {
+
+    /**
+     * message types
+     */
+    public static final byte PULL = 1;
+    public static final byte PUSH = 2;
+    public static final byte WEIGHTS = 3;
+    public static final byte ACK = 4;
+    public static final byte REJECT = 5;
+
+    /**
+     * parameter types
+     */
+    public static final byte MATRIX = 1;
+    public static final byte CONV = 2;
+
+    /**
+     * size of the message header (including the length)
+     */
+    public static final int HEADER_SIZE = 4 + 1 + 8 + 4;
+
+    /**
+     * @return the size of a message with the parameters of the connections
+     */
+    public static int size(List<Connections> connections) {
+        int result = HEADER_SIZE;
+        for (Connections c : connections) {
+            if (c instanceof GraphConnections) {
+                Matrix cg = ((GraphConnections) c).getConnectionGraph();
+                result += 1 + 8 + 4 * cg.getRows() * cg.getColumns();
+            } else if (c instanceof Conv2DConnection) {
+                result += 1 + 4 + 4 * ((Conv2DConnection) c).getWeights().length;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Starts a message - the buffer is cleared and the header is written (the
+     * length is written by end(...))
+     */
+    public static void begin(ByteBuffer buffer, byte type, long version, int value) {
+        buffer.clear();
+        buffer.putInt(0).put(type).putLong(version).putInt(value);
+    }
+
+    /**
+     * Writes the length of the message and flips the buffer
+     */
+    public static void end(ByteBuffer buffer) {
+        buffer.putInt(0, buffer.position() - 4);
+        buffer.flip();
+    }
+
+    /**
+     * @return the type of the message in the buffer (the buffer must contain
+     *         the whole message starting at position 0)
+     */
+    public static byte getType(ByteBuffer message) {
+        return message.get(4);
+    }
+
+    public static long getVersion(ByteBuffer message) {
+        return message.getLong(5);
+    }
+
+    public static int getValue(ByteBuffer message) {
+        return message.getInt(13);
+    }
+
+    /**
+     * Writes the weights of the connections
+     */
+    public static void writeWeights(List<Connections> connections, ByteBuffer buffer) {
+        for (Connections c : connections) {
+            if (c instanceof GraphConnections) {
+                Matrix cg = ((GraphConnections) c).getConnectionGraph();
+                buffer.put(MATRIX).putInt(cg.getRows()).putInt(cg.getColumns());
+                FloatBuffer fb = buffer.asFloatBuffer();
+                if (cg instanceof DirectMatrix) {
+                    FloatBuffer src = ((DirectMatrix) cg).getBuffer().duplicate();
+                    src.clear();
+                    src.limit(cg.getRows() * cg.getColumns());
+                    fb.put(src);
+                } else if (cg.getClass() == Matrix.class) {
+                    for (int i = 0; i < cg.getRows(); i++) {
+                        fb.put(cg.getElements(), cg.getOffset() + i * cg.getStride(), cg.getColumns());
+                    }
+                } else {
+                    throw new IllegalArgumentException("Only dense float weights can be encoded");
+                }
+
+                buffer.position(buffer.position() + 4 * fb.position());
+            } else if (c instanceof Conv2DConnection) {
+                write(CONV, ((Conv2DConnection) c).getWeights(), buffer);
+            }
+        }
+    }
+
+    /**
+     * Reads the weights of the connections
+     */
+    public static void readWeights(ByteBuffer buffer, List<Connections> connections) {
+        for (Connections c : connections) {
+            if (c instanceof GraphConnections) {
+                Matrix cg = ((GraphConnections) c).getConnectionGraph();
+                if (buffer.get() != MATRIX || buffer.getInt() != cg.getRows() || buffer.getInt() != cg.getColumns()) {
+                    throw new IllegalArgumentException("The weights don't match the network structure");
+                }
+
+                FloatBuffer fb = buffer.asFloatBuffer();
+                if (cg instanceof DirectMatrix) {
+                    FloatBuffer dst = ((DirectMatrix) cg).getBuffer().duplicate();
+                    dst.clear();
+                    fb.limit(cg.getRows() * cg.getColumns());
+                    dst.put(fb);
+                } else if (cg.getClass() == Matrix.class) {
+                    for (int i = 0; i < cg.getRows(); i++) {
+                        fb.get(cg.getElements(), cg.getOffset() + i * cg.getStride(), cg.getColumns());
+                    }
+                } else {
+                    throw new IllegalArgumentException("Only dense float weights can be decoded");
+                }
+
+                buffer.position(buffer.position() + 4 * fb.position());
+            } else if (c instanceof Conv2DConnection) {
+                Conv2DConnection conv = (Conv2DConnection) c;
+                if (conv.getHalfWeights() != null || conv.getQuantizedWeights() != null) {
+                    throw new IllegalArgumentException("Only float weights can be decoded");
+                }
+
+                read(buffer, CONV, conv.getWeights());
+            }
+        }
+    }
+
+    /**
+     * Writes the gradients (in the same format as the weights)
+     */
+    public static void writeGradients(Gradients gradients, ByteBuffer buffer) {
+        for (int i = 0; i < gradients.size(); i++) {
+            Connections c = gradients.getConnection(i);
+            if (c instanceof GraphConnections) {
+                Matrix cg = ((GraphConnections) c).getConnectionGraph();
+                buffer.put(MATRIX).putInt(cg.getRows()).putInt(cg.getColumns());
+                buffer.asFloatBuffer().put(gradients.get(i));
+                buffer.position(buffer.position() + 4 * gradients.get(i).length);
+            } else if (c instanceof Conv2DConnection) {
+                write(CONV, gradients.get(i), buffer);
+            }
+        }
+    }
+
+    /**
+     * Reads the gradients
+     */
+    public static void readGradients(ByteBuffer buffer, Gradients gradients) {
+        for (int i = 0; i < gradients.size(); i++) {
+            Connections c = gradients.getConnection(i);
+            if (c instanceof GraphConnections) {
+                Matrix cg = ((GraphConnections) c).getConnectionGraph();
+                if (buffer.get() != MATRIX || buffer.getInt() != cg.getRows() || buffer.getInt() != cg.getColumns()) {
+                    throw new IllegalArgumentException("The gradients don't match the network structure");
+                }
+
+                buffer.asFloatBuffer().get(gradients.get(i));
+                buffer.position(buffer.position() + 4 * gradients.get(i).length);
+            } else if (c instanceof Conv2DConnection) {
+                read(buffer, CONV, gradients.get(i));
+            }
+        }
+    }
+
+    private static void write(byte type, float[] values, ByteBuffer buffer) {
+        buffer.put(type).putInt(values.length);
+        buffer.asFloatBuffer().put(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+
+    private static void read(ByteBuffer buffer, byte type, float[] values) {
+        if (buffer.get() != type || buffer.getInt() != values.length) {
+            throw new IllegalArgumentException("The parameters don't match the network structure");
+        }
+
+        buffer.asFloatBuffer().get(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+}
@@ -0,0 +1,326 @@
+package com.github.neuralnetworks.training.parameterserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.NeuralNetwork;
+import com.github.neuralnetworks.training.backpropagation.Gradients;
+
+/**
+ * Parameter server for asynchronous data parallel training. The server owns
+ * the weights of the network and the workers (see
+ * ParameterServerWorkerTrainer) train on their own shards of the training
+ * data - they push the gradients of each mini batch and pull the current
+ * weights over TCP (see ParameterEncoding for the messages). All requests
+ * are handled by a single thread with a non blocking selector, so each update
+ * is applied to a consistent version of the weights and each pull returns a
+ * consistent version.
+ *
+ * Each update increments the version of the weights. The staleness of a
+ * pushed gradient is the number of updates since the version it was
+ * calculated with. Gradients with staleness larger than maxStaleness are
+ * rejected (the worker has to pull the weights) - 0 means synchronous
+ * training with a single worker. The update is the same as the update of
+ * BackPropagationTrainer (including momentum and weight decay). The server
+ * listens only on the loopback interface
+ */
+public class ParameterServer implements Closeable {
+
+    private final NeuralNetwork neuralNetwork;
+    private final List<Connections> connections;
+    private final Gradients gradients;
+
+    /**
+     * weight updates of the previous update (for the momentum)
+     */
+    private final float[][] weightUpdates;
+
+    private final float learningRate;
+    private final float momentum;
+    private final float l1weightDecay;
+    private final float l2weightDecay;
+    private final int maxStaleness;
+
+    /**
+     * size of the largest message
+     */
+    private final int messageSize;
+
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private Thread thread;
+
+    private long version;
+    private long updates;
+    private long rejectedUpdates;
+    private long pulls;
+    private long firstUpdate;
+    private long lastUpdate;
+
+    public ParameterServer(NeuralNetwork neuralNetwork, float learningRate, float momentum, float l1weightDecay, float l2weightDecay, int maxStaleness) {
+        super();
+        if (maxStaleness < 0) {
+            throw new IllegalArgumentException("The staleness must not be negative");
+        }
+
+        this.neuralNetwork = neuralNetwork;
+        this.connections = neuralNetwork.getConnections();
+        this.gradients = new Gradients(connections);
+        this.weightUpdates = new float[gradients.size()][];
+        for (int i = 0; i < gradients.size(); i++) {
+            weightUpdates[i] = gradients.get(i) != null ? new float[gradients.get(i).length] : null;
+        }
+
+        this.learningRate = learningRate;
+        this.momentum = momentum;
+        this.l1weightDecay = l1weightDecay;
+        this.l2weightDecay = l2weightDecay;
+        this.maxStaleness = maxStaleness;
+        this.messageSize = ParameterEncoding.size(connections);
+    }
+
+    /**
+     * Starts the server on a free port of the loopback interface
+     *
+     * @return the address of the server
+     */
+    public synchronized InetSocketAddress start() {
+        return start(0);
+    }
+
+    /**
+     * Starts the server on the port of the loopback interface
+     *
+     * @return the address of the server
+     */
+    public synchronized InetSocketAddress start(int port) {
+        if (thread != null) {
+            throw new IllegalStateException("The server is already started");
+        }
+
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't start the parameter server", e);
+        }
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "parameter-server");
+        thread.setDaemon(true);
+        thread.start();
+
+        return getAddress();
+    }
+
+    /**
+     * Stops the server and closes the connections of the workers
+     */
+    @Override
+    public void close() {
+        Thread t = null;
+        synchronized (this) {
+            t = thread;
+            thread = null;
+        }
+
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public synchronized InetSocketAddress getAddress() {
+        try {
+            return serverChannel != null ? (InetSocketAddress) serverChannel.getLocalAddress() : null;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void serve() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                selector.select();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+
+                    try {
+                        if (key.isValid() && key.isAcceptable()) {
+                            SocketChannel channel = serverChannel.accept();
+                            if (channel != null) {
+                                channel.configureBlocking(false);
+                                channel.socket().setTcpNoDelay(true);
+                                channel.register(selector, SelectionKey.OP_READ, new Session());
+                            }
+                        } else if (key.isValid() && key.isReadable()) {
+                            read(key);
+                        } else if (key.isValid() && key.isWritable()) {
+                            write(key);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // the worker has disconnected or sent an invalid message
+                        if (key.channel() != serverChannel) {
+                            key.cancel();
+                            key.channel().close();
+                        }
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // the server is closed
+        } finally {
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+
+                selector.close();
+            } catch (IOException e) {
+                // the channels are closed anyway
+            }
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Session session = (Session) key.attachment();
+        ByteBuffer input = session.input;
+        if (((SocketChannel) key.channel()).read(input) < 0) {
+            throw new IOException("The worker has disconnected");
+        }
+
+        if (input.position() >= 4 && input.getInt(0) > input.capacity() - 4) {
+            throw new IOException("The message is too large");
+        }
+
+        if (input.position() < 4 || input.position() < 4 + input.getInt(0)) {
+            return;
+        }
+
+        input.flip();
+        ByteBuffer output = session.output;
+        switch (ParameterEncoding.getType(input)) {
+        case ParameterEncoding.PULL:
+            ParameterEncoding.begin(output, ParameterEncoding.WEIGHTS, version, maxStaleness);
+            ParameterEncoding.writeWeights(connections, output);
+            ParameterEncoding.end(output);
+            synchronized (this) {
+                pulls++;
+            }
+            break;
+        case ParameterEncoding.PUSH:
+            if (version - ParameterEncoding.getVersion(input) > maxStaleness) {
+                synchronized (this) {
+                    rejectedUpdates++;
+                }
+
+                ParameterEncoding.begin(output, ParameterEncoding.REJECT, version, 0);
+            } else {
+                input.position(ParameterEncoding.HEADER_SIZE);
+                ParameterEncoding.readGradients(input, gradients);
+                gradients.updateWeights(weightUpdates, learningRate, momentum, l1weightDecay, l2weightDecay, false);
+                synchronized (this) {
+                    version++;
+                    updates++;
+                    lastUpdate = System.nanoTime();
+                    if (firstUpdate == 0) {
+                        firstUpdate = lastUpdate;
+                    }
+                }
+
+                ParameterEncoding.begin(output, ParameterEncoding.ACK, version, 0);
+            }
+
+            ParameterEncoding.end(output);
+            break;
+        default:
+            throw new IOException("Unknown message type " + ParameterEncoding.getType(input));
+        }
+
+        input.clear();
+        key.interestOps(SelectionKey.OP_WRITE);
+        write(key);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        ByteBuffer output = ((Session) key.attachment()).output;
+        ((SocketChannel) key.channel()).write(output);
+        if (!output.hasRemaining()) {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    public NeuralNetwork getNeuralNetwork() {
+        return neuralNetwork;
+    }
+
+    public int getMaxStaleness() {
+        return maxStaleness;
+    }
+
+    /**
+     * @return the current version of the weights (the number of updates)
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of applied gradients
+     */
+    public synchronized long getUpdates() {
+        return updates;
+    }
+
+    /**
+     * @return the number of gradients rejected because of their staleness
+     */
+    public synchronized long getRejectedUpdates() {
+        return rejectedUpdates;
+    }
+
+    public synchronized long getPulls() {
+        return pulls;
+    }
+
+    /**
+     * @return updates per second between the first and the last update
+     */
+    public synchronized double getThroughput() {
+        return updates > 1 && lastUpdate > firstUpdate ? (updates - 1) / ((lastUpdate - firstUpdate) / 1000000000d) : 0;
+    }
+
+    /**
+     * Buffers of a worker connection (the workers send one request at a time)
+     */
+    private class Session {
+
+        private final ByteBuffer input = ByteBuffer.allocateDirect(messageSize);
+        private final ByteBuffer output = ByteBuffer.allocateDirect(messageSize);
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.neuralnetworks.training.parameterserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.training.backpropagation.Gradients;
+
+/**
+ * Connection of a worker to the parameter server (blocking, one request at a
+ * time)
+ */
+public class ParameterServerClient implements Closeable {
+
+    private final SocketChannel channel;
+    private final List<Connections> connections;
+
+    /**
+     * buffer for the requests and the responses
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * version of the weights of the server after the last request
+     */
+    private long serverVersion;
+
+    private int maxStaleness;
+
+    /**
+     * @param connections
+     *            - the connections of the network of the worker (the same
+     *            structure as the network of the server)
+     */
+    public ParameterServerClient(InetSocketAddress address, List<Connections> connections) {
+        super();
+        this.connections = connections;
+        this.buffer = ByteBuffer.allocateDirect(ParameterEncoding.size(connections));
+
+        try {
+            this.channel = SocketChannel.open(address);
+            channel.socket().setTcpNoDelay(true);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't connect to the parameter server " + address, e);
+        }
+    }
+
+    /**
+     * Copies the weights of the server to the connections
+     *
+     * @return the version of the weights
+     */
+    public long pull() {
+        ParameterEncoding.begin(buffer, ParameterEncoding.PULL, serverVersion, 0);
+        ParameterEncoding.end(buffer);
+        request(ParameterEncoding.WEIGHTS);
+
+        maxStaleness = ParameterEncoding.getValue(buffer);
+        buffer.position(ParameterEncoding.HEADER_SIZE);
+        ParameterEncoding.readWeights(buffer, connections);
+
+        return serverVersion;
+    }
+
+    /**
+     * Sends the gradients of a mini batch
+     *
+     * @param version
+     *            - the version of the weights used for the gradients
+     * @return false if the gradients were rejected because they are too
+     *         stale
+     */
+    public boolean push(Gradients gradients, long version) {
+        ParameterEncoding.begin(buffer, ParameterEncoding.PUSH, version, 0);
+        ParameterEncoding.writeGradients(gradients, buffer);
+        ParameterEncoding.end(buffer);
+
+        return request(ParameterEncoding.ACK, ParameterEncoding.REJECT) == ParameterEncoding.ACK;
+    }
+
+    /**
+     * Sends the request in the buffer and reads the response in the buffer
+     *
+     * @return the type of the response
+     */
+    private byte request(byte... expected) {
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            buffer.clear();
+            while (buffer.position() < 4 || buffer.position() < 4 + buffer.getInt(0)) {
+                if (buffer.position() >= 4 && buffer.getInt(0) > buffer.capacity() - 4) {
+                    throw new IllegalStateException("The response is too large");
+                }
+
+                if (channel.read(buffer) < 0) {
+                    throw new IllegalStateException("The parameter server has closed the connection");
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't communicate with the parameter server", e);
+        }
+
+        buffer.flip();
+        byte type = ParameterEncoding.getType(buffer);
+        serverVersion = ParameterEncoding.getVersion(buffer);
+        for (byte t : expected) {
+            if (t == type) {
+                return type;
+            }
+        }
+
+        throw new IllegalStateException("Unexpected response " + type);
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the version of the weights of the server after the last
+     *         request
+     */
+    public long getServerVersion() {
+        return serverVersion;
+    }
+
+    /**
+     * @return the maximum staleness of the gradients accepted by the server
+     *         (available after the first pull)
+     */
+    public int getMaxStaleness() {
+        return maxStaleness;
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.neuralnetworks.training.parameterserver;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import com.github.neuralnetworks.architecture.NeuralNetwork;
+import com.github.neuralnetworks.training.TrainingInputData;
+import com.github.neuralnetworks.training.backpropagation.BackPropagationLayerCalculatorImpl;
+import com.github.neuralnetworks.training.backpropagation.DataParallelBackPropagationTrainer;
+import com.github.neuralnetworks.training.backpropagation.Gradients;
+import com.github.neuralnetworks.util.Properties;
+
+/**
+ * Worker of a parameter server (see ParameterServer). The worker trains on its
+ * own shard of the training data (its training input provider) - the
+ * gradients of each mini batch are calculated locally (by the trained network
+ * and its replicas, as in DataParallelBackPropagationTrainer) and pushed to
+ * the server instead of updating the local weights. The local weights are
+ * replaced with the weights of the server before the first mini batch, after
+ * a rejected push and when the server is "maxStaleness" versions ahead (so
+ * that the next gradient is not rejected because of its staleness) - the
+ * local network is a possibly stale copy of the network of the server.
+ *
+ * The learning rate, momentum and weight decay are the parameters of the
+ * server. The random initializer should be null (the weights are pulled from
+ * the server)
+ */
+public class ParameterServerWorkerTrainer<N extends NeuralNetwork> extends DataParallelBackPropagationTrainer<N> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final InetSocketAddress server;
+    private transient ParameterServerClient client;
+
+    /**
+     * version of the local weights (-1 before the first pull)
+     */
+    private long version = -1;
+
+    private long pushes;
+    private long rejectedPushes;
+    private long pulls;
+
+    /**
+     * @param server
+     *            - the address of the parameter server
+     */
+    public ParameterServerWorkerTrainer(Properties properties, List<? extends NeuralNetwork> replicas, List<BackPropagationLayerCalculatorImpl> replicaCalculators,
+            InetSocketAddress server) {
+        super(properties, replicas, replicaCalculators);
+        this.server = server;
+    }
+
+    @Override
+    public void train() {
+        version = -1;
+        pushes = rejectedPushes = pulls = 0;
+        super.train();
+
+        // the local network gets the result of the training so far
+        pull();
+    }
+
+    @Override
+    protected void learnInput(TrainingInputData data, int batch) {
+        if (version < 0) {
+            pull();
+        }
+
+        super.learnInput(data, batch);
+    }
+
+    /**
+     * Pushes the gradients to the server (the local weights are not changed)
+     */
+    @Override
+    protected void updateWeights(Gradients gradients) {
+        ParameterServerClient c = getClient();
+        if (c.push(gradients, version)) {
+            pushes++;
+            if (c.getServerVersion() - version >= Math.max(1, c.getMaxStaleness())) {
+                pull();
+            }
+        } else {
+            rejectedPushes++;
+            pull();
+        }
+    }
+
+    /**
+     * Replaces the local weights with the weights of the server
+     */
+    protected void pull() {
+        version = getClient().pull();
+        pulls++;
+    }
+
+    private ParameterServerClient getClient() {
+        if (client == null) {
+            client = new ParameterServerClient(server, getNeuralNetwork().getConnections());
+        }
+
+        return client;
+    }
+
+    /**
+     * Stops the threads of the workers and closes the connection to the
+     * server
+     */
+    @Override
+    public synchronized void shutdown() {
+        super.shutdown();
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+    }
+
+    public InetSocketAddress getServer() {
+        return server;
+    }
+
+    /**
+     * @return the version of the local weights
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of gradients accepted by the server during the last
+     *         training
+     */
+    public long getPushes() {
+        return pushes;
+    }
+
+    /**
+     * @return the number of gradients rejected by the server during the last
+     *         training
+     */
+    public long getRejectedPushes() {
+        return rejectedPushes;
+    }
+
+    public long getPulls() {
+        return pulls;
+    }
+}
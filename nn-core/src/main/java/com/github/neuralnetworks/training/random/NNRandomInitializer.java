@@ -1,10 +1,13 @@
 package com.github.neuralnetworks.training.random;
 
 import java.io.Serializable;
+import java.nio.FloatBuffer;
 import java.util.List;
 
 import com.github.neuralnetworks.architecture.Conv2DConnection;
+import com.github.neuralnetworks.architecture.DirectMatrix;
 import com.github.neuralnetworks.architecture.GraphConnections;
+import com.github.neuralnetworks.architecture.Matrix;
 import com.github.neuralnetworks.architecture.NeuralNetwork;
 import com.github.neuralnetworks.calculation.BreadthFirstOrderStrategy;
 import com.github.neuralnetworks.calculation.LayerOrderStrategy.ConnectionCandidate;
@@ -60,14 +63,14 @@ public class NNRandomInitializer implements Serializable {
                 GraphConnections fc = (GraphConnections) cc.connection;
                 if (Util.isBias(fc.getInputLayer())) {
                     if (biasDefaultValue != null) {
-                        Util.fillArray(fc.getConnectionGraph().getElements(), biasDefaultValue);
+                        Util.fillArray(fc.getConnectionGraph(), biasDefaultValue);
                     } else if (biasRandomInitializer != null) {
-                        biasRandomInitializer.initialize(fc.getConnectionGraph().getElements());
+                        initialize(biasRandomInitializer, fc.getConnectionGraph());
                     } else {
-                        randomInitializer.initialize(fc.getConnectionGraph().getElements());
+                        initialize(randomInitializer, fc.getConnectionGraph());
                     }
                 } else {
-                    randomInitializer.initialize(fc.getConnectionGraph().getElements());
+                    initialize(randomInitializer, fc.getConnectionGraph());
                 }
             } else if (cc.connection instanceof Conv2DConnection) {
                 Conv2DConnection c = (Conv2DConnection) cc.connection;
@@ -86,6 +89,22 @@ public class NNRandomInitializer implements Serializable {
         }
     }
 
+    /**
+     * Off-heap matrices are initialized in chunks
+     */
+    protected void initialize(RandomInitializer initializer, Matrix m) {
+        if (m instanceof DirectMatrix) {
+            FloatBuffer buffer = ((DirectMatrix) m).getBuffer().duplicate();
+            float[] chunk = new float[Math.min(buffer.capacity(), 1 << 16)];
+            while (buffer.hasRemaining()) {
+                initializer.initialize(chunk);
+                buffer.put(chunk, 0, Math.min(chunk.length, buffer.remaining()));
+            }
+        } else {
+            initializer.initialize(m.getElements());
+        }
+    }
+
     public RandomInitializer getRandomInitializer() {
         return randomInitializer;
     }
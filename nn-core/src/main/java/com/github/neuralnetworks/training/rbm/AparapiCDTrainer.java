@@ -51,18 +51,23 @@ public class AparapiCDTrainer extends CDTrainerBase {
 
         int mbs = posPhaseHidden.getColumns();
 
-        if (weightUpdatesKernel == null || weightUpdatesKernel.getMiniBatchSize() != mbs) {
+        // the kernels are created once - a different mini batch size only changes the phase values
+        if (weightUpdatesKernel == null) {
             weightUpdatesKernel = new CDWeightUpdatesKernel(posPhaseVisible.getElements(), posPhaseHidden.getElements(), negPhaseVisible.getElements(),
                     negPhaseHidden.getElements(), rbm.getMainConnections().getConnectionGraph().getElements(), rbm.getMainConnections().getConnectionGraph().getColumns(),
                     getLearningRate(), getMomentum(), getl1weightDecay(), getl2weightDecay(), mbs);
+        } else {
+            weightUpdatesKernel.setPhases(posPhaseVisible.getElements(), posPhaseHidden.getElements(), negPhaseVisible.getElements(), negPhaseHidden.getElements(), mbs);
         }
         Environment.getInstance().getExecutionStrategy().execute(weightUpdatesKernel, rbm.getMainConnections().getConnectionGraph().getRows());
 
         // update visible bias
         if (rbm.getVisibleBiasConnections() != null) {
-            if (visibleBiasUpdatesKernel == null || visibleBiasUpdatesKernel.getMiniBatchSize() != mbs) {
+            if (visibleBiasUpdatesKernel == null) {
                 visibleBiasUpdatesKernel = new CDBiasUpdatesKernel(rbm.getVisibleBiasConnections().getConnectionGraph().getElements(), posPhaseVisible.getElements(),
                         negPhaseVisible.getElements(), getLearningRate(), getMomentum(), mbs);
+            } else {
+                visibleBiasUpdatesKernel.setPhases(posPhaseVisible.getElements(), negPhaseVisible.getElements(), mbs);
             }
 
             Environment.getInstance().getExecutionStrategy().execute(visibleBiasUpdatesKernel, rbm.getVisibleBiasConnections().getConnectionGraph().getElements().length);
@@ -70,9 +75,11 @@ public class AparapiCDTrainer extends CDTrainerBase {
 
         // update hidden bias
         if (rbm.getHiddenBiasConnections() != null) {
-            if (hiddenBiasUpdatesKernel == null || hiddenBiasUpdatesKernel.getMiniBatchSize() != mbs) {
+            if (hiddenBiasUpdatesKernel == null) {
                 hiddenBiasUpdatesKernel = new CDBiasUpdatesKernel(rbm.getHiddenBiasConnections().getConnectionGraph().getElements(), posPhaseHidden.getElements(),
                         negPhaseHidden.getElements(), getLearningRate(), getMomentum(), mbs);
+            } else {
+                hiddenBiasUpdatesKernel.setPhases(posPhaseHidden.getElements(), negPhaseHidden.getElements(), mbs);
             }
 
             Environment.getInstance().getExecutionStrategy().execute(hiddenBiasUpdatesKernel, rbm.getHiddenBiasConnections().getConnectionGraph().getElements().length);
@@ -24,15 +24,15 @@ public class CDBiasUpdatesKernel extends Kernel implements Serializable {
     /**
      * positive phase
      */
-    private final float[] posPhase;
+    private float[] posPhase;
 
     /**
      * negative phase
      */
-    private final float[] negPhase;
+    private float[] negPhase;
     private float learningRate;
     private final float momentum;
-    private final int miniBatchSize;
+    private int miniBatchSize;
 
     public CDBiasUpdatesKernel(float[] hiddenBiasWeights, float[] posPhase, float[] negPhase, float learningRate, float momentum, int miniBatchSize) {
         super();
@@ -59,6 +59,16 @@ public class CDBiasUpdatesKernel extends Kernel implements Serializable {
         biasUpdates[id] = weightUpdate;
     }
 
+    /**
+     * Changes the phase values (and the mini batch size) without creating a
+     * new kernel - the bias updates (momentum) are preserved
+     */
+    public void setPhases(float[] posPhase, float[] negPhase, int miniBatchSize) {
+        this.posPhase = posPhase;
+        this.negPhase = negPhase;
+        this.miniBatchSize = miniBatchSize;
+    }
+
     public float[] getBiasWeights() {
         return biasWeights;
     }
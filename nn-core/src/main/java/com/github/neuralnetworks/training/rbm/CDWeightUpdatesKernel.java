@@ -12,14 +12,14 @@ public class CDWeightUpdatesKernel extends Kernel implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
-    private final float[] posPhaseHidden;
-    private final float[] posPhaseVisible;
-    private final float[] negPhaseHidden;
-    private final float[] negPhaseVisible;
+    private float[] posPhaseHidden;
+    private float[] posPhaseVisible;
+    private float[] negPhaseHidden;
+    private float[] negPhaseVisible;
     private final float[] weights;
     private final float[] weightUpdates;
     private final int weightColumns;
-    private final int miniBatchSize;
+    private int miniBatchSize;
     private float learningRate;
     private final float momentum;
     private final float l1weightDecay;
@@ -70,6 +70,18 @@ public class CDWeightUpdatesKernel extends Kernel implements Serializable {
         }
     }
 
+    /**
+     * Changes the phase values (and the mini batch size) without creating a
+     * new kernel - the weight updates (momentum) are preserved
+     */
+    public void setPhases(float[] posPhaseVisible, float[] posPhaseHidden, float[] negPhaseVisible, float[] negPhaseHidden, int miniBatchSize) {
+        this.posPhaseVisible = posPhaseVisible;
+        this.posPhaseHidden = posPhaseHidden;
+        this.negPhaseVisible = negPhaseVisible;
+        this.negPhaseHidden = negPhaseHidden;
+        this.miniBatchSize = miniBatchSize;
+    }
+
     public float[] getPosPhaseHidden() {
         return posPhaseHidden;
     }
@@ -0,0 +1,574 @@
+package com.github.neuralnetworks.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import com.amd.aparapi.Kernel;
+import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.NeuralNetwork;
+import com.github.neuralnetworks.events.PropagationEvent;
+import com.github.neuralnetworks.events.PropagationEventListener;
+import com.github.neuralnetworks.util.KernelExecutionStrategy.CPUKernelExecution;
+import com.github.neuralnetworks.util.KernelExecutionStrategy.GPUKernelExecution;
+import com.github.neuralnetworks.util.KernelExecutionStrategy.JTPKernelExecution;
+import com.github.neuralnetworks.util.KernelExecutionStrategy.OpenCLFallback;
+import com.github.neuralnetworks.util.KernelExecutionStrategy.SeqKernelExecution;
+
+/**
+ * Execution strategy that selects the fastest mode for each kernel class,
+ * range and work per item (instead of the fixed range threshold of
+ * DefaultKernelExecution). The work per item is provided by the kernels that
+ * implement KernelWork (for example the weights and the mini batch size of
+ * the weighted sum and the convolution kernels). The first executions of a
+ * kernel class/range/work combination are trials - each
+ * candidate mode (by default SEQ, JTP, CPU and the pure java fork/join
+ * execution) is used "trials" times and the fastest one (by its best time) is
+ * used for all the following executions. Every trial is a regular execution
+ * of the kernel, so the results are not affected by the tuning. OpenCL modes
+ * that are reverted to JTP by Aparapi (OpenCL is not available) are excluded.
+ *
+ * The decisions are persisted to a profile file (java properties - kernel
+ * class@range:work=mode or kernel class@range=mode for kernels without
+ * KernelWork), which is loaded by the constructor, so that later runs start
+ * with tuned decisions. After deserialization the candidates are created
+ * again by their names (only the default candidates and GPU). If the
+ * strategy is
+ * registered as event listener of the layer calculators it also records
+ * which decisions are used for the calculation of each layer (see
+ * report(NeuralNetwork)). The layers are referenced weakly and are not
+ * serialized.
+ *
+ * The decisions are looked up with a reusable key of the executing thread
+ * (kernel class, range and the primitive work of KernelWork), so a tuned
+ * execution doesn't allocate
+ */
+public class AutotuneKernelExecution implements KernelExecutionStrategy, PropagationEventListener {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String SEQ = "SEQ";
+    public static final String JTP = "JTP";
+    public static final String CPU = "CPU";
+    public static final String GPU = "GPU";
+    public static final String FORK_JOIN = "FORK_JOIN";
+
+    /**
+     * candidate modes by name (in the order of the trials)
+     */
+    private transient Map<String, KernelExecutionStrategy> candidates;
+
+    /**
+     * names of the candidates (serialized instead of the candidates)
+     */
+    private final String[] candidateNames;
+
+    /**
+     * used instead of the OpenCL modes for kernels, which were reverted to JTP
+     */
+    private transient KernelExecutionStrategy fallback = new JTPKernelExecution();
+
+    /**
+     * number of executions of each candidate mode
+     */
+    private final int trials;
+
+    /**
+     * profile file (can be null)
+     */
+    private final File profile;
+
+    /**
+     * selected mode by key (kernel class@range:work)
+     */
+    private final Map<Key, String> decisions = new HashMap<>();
+
+    /**
+     * ongoing trials by key
+     */
+    private transient Map<Key, Trials> tuning = new HashMap<>();
+
+    /**
+     * lookup key and the keys executed by the current thread since the last
+     * propagation event
+     */
+    private transient ThreadLocal<Executed> executed;
+
+    /**
+     * keys by calculated layer
+     */
+    private transient Map<Layer, Set<Key>> layers = new WeakHashMap<>();
+
+    /**
+     * Default candidates (SEQ, JTP, CPU and FORK_JOIN) with 3 trials for each
+     */
+    public AutotuneKernelExecution(File profile) {
+        this(profile, defaultCandidates(), 3);
+    }
+
+    public AutotuneKernelExecution(File profile, Map<String, KernelExecutionStrategy> candidates, int trials) {
+        super();
+        if (candidates.isEmpty() || trials < 1) {
+            throw new IllegalArgumentException("At least one candidate mode and one trial are required");
+        }
+
+        this.profile = profile;
+        this.candidates = new LinkedHashMap<>(candidates);
+        this.candidateNames = candidates.keySet().toArray(new String[candidates.size()]);
+        this.trials = trials;
+        this.executed = new ThreadLocal<>();
+
+        if (profile != null && profile.exists()) {
+            load();
+        }
+    }
+
+    /**
+     * @return SEQ, JTP, CPU and FORK_JOIN candidates (the GPU mode is not a
+     *         default candidate - it can be added with the GPU key)
+     */
+    public static Map<String, KernelExecutionStrategy> defaultCandidates() {
+        Map<String, KernelExecutionStrategy> result = new LinkedHashMap<>();
+        result.put(SEQ, new SeqKernelExecution());
+        result.put(JTP, new JTPKernelExecution());
+        result.put(CPU, new CPUKernelExecution());
+        result.put(FORK_JOIN, new ForkJoinKernelExecution());
+        return result;
+    }
+
+    /**
+     * @return the strategy of the candidate name (one of the default candidates
+     *         or GPU) or null
+     */
+    private static KernelExecutionStrategy candidate(String name) {
+        if (GPU.equals(name)) {
+            return new GPUKernelExecution();
+        }
+
+        return defaultCandidates().get(name);
+    }
+
+    /**
+     * The candidates, the trials and the thread local are not serialized
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+
+        candidates = new LinkedHashMap<>();
+        for (String name : candidateNames) {
+            KernelExecutionStrategy s = candidate(name);
+            if (s != null) {
+                candidates.put(name, s);
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            throw new IllegalStateException("None of the candidates " + Arrays.toString(candidateNames) + " can be created");
+        }
+
+        // decisions for modes that are not available are tuned again
+        decisions.values().retainAll(candidates.keySet());
+
+        fallback = new JTPKernelExecution();
+        tuning = new HashMap<>();
+        executed = new ThreadLocal<>();
+        layers = new WeakHashMap<>();
+    }
+
+    @Override
+    public void execute(Kernel kernel, int range) {
+        Executed e = executed.get();
+        if (e == null) {
+            executed.set(e = new Executed());
+        }
+
+        Key key = e.add(kernel, range);
+
+        String mode = null;
+        boolean trial = false;
+        synchronized (this) {
+            mode = decisions.get(key);
+            if (mode == null) {
+                trial = true;
+                Trials t = tuning.get(key);
+                if (t == null) {
+                    tuning.put(key, t = new Trials(candidates.size()));
+                }
+
+                mode = t.next();
+            }
+        }
+
+        KernelExecutionStrategy strategy = candidates.get(mode);
+
+        // the OpenCL mode is not available for this kernel
+        if (isOpenCL(strategy) && OpenCLFallback.isReverted(kernel)) {
+            strategy = fallback;
+        }
+
+        if (!trial) {
+            strategy.execute(kernel, range);
+        } else {
+            long start = System.nanoTime();
+            strategy.execute(kernel, range);
+            long time = System.nanoTime() - start;
+
+            // the kernel was executed in JTP mode instead
+            if (isOpenCL(strategy) && OpenCLFallback.isReverted(kernel) || strategy == fallback) {
+                time = Long.MAX_VALUE;
+            }
+
+            trialFinished(key, mode, time);
+        }
+    }
+
+    private static boolean isOpenCL(KernelExecutionStrategy strategy) {
+        return strategy instanceof CPUKernelExecution || strategy instanceof GPUKernelExecution;
+    }
+
+    private void trialFinished(Key key, String mode, long time) {
+        boolean decided = false;
+        synchronized (this) {
+            Trials t = tuning.get(key);
+            if (t != null && t.record(mode, time)) {
+                decisions.put(key, t.fastest());
+                tuning.remove(key);
+                decided = true;
+            }
+        }
+
+        if (decided && profile != null) {
+            save();
+        }
+    }
+
+    /**
+     * @return the selected mode for the kernel class and range (kernels
+     *         without KernelWork) or null if it's not tuned yet
+     */
+    public synchronized String getDecision(Class<?> kernelClass, int range) {
+        return decisions.get(new Key(kernelClass.getName(), range, false, 0, 0));
+    }
+
+    /**
+     * @return the selected mode for the kernel class, range and work per item
+     *         (see KernelWork) or null if it's not tuned yet
+     */
+    public synchronized String getDecision(Class<?> kernelClass, int range, int itemWork, int itemSamples) {
+        return decisions.get(new Key(kernelClass.getName(), range, true, itemWork, itemSamples));
+    }
+
+    /**
+     * @return the selected modes by key (kernel class@range:work)
+     */
+    public synchronized Map<String, String> getDecisions() {
+        Map<String, String> result = new HashMap<>();
+        for (Map.Entry<Key, String> e : decisions.entrySet()) {
+            result.put(e.getKey().toString(), e.getValue());
+        }
+
+        return result;
+    }
+
+    /**
+     * Discards the decisions (and the ongoing trials). The profile file is not
+     * changed until the next decision
+     */
+    public synchronized void reset() {
+        decisions.clear();
+        tuning.clear();
+        layers.clear();
+    }
+
+    /**
+     * Loads the decisions from the profile file. Modes that are not among the
+     * candidates are ignored (they are tuned again)
+     */
+    public synchronized void load() {
+        java.util.Properties p = new java.util.Properties();
+        try (InputStream in = new FileInputStream(profile)) {
+            p.load(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't read profile " + profile, e);
+        }
+
+        for (String name : p.stringPropertyNames()) {
+            Key key = Key.parse(name);
+            if (key != null && candidates.containsKey(p.getProperty(name))) {
+                decisions.put(key, p.getProperty(name));
+            }
+        }
+    }
+
+    /**
+     * Writes the decisions to the profile file
+     */
+    public void save() {
+        java.util.Properties p = new java.util.Properties();
+        p.putAll(getDecisions());
+
+        try (OutputStream out = new FileOutputStream(profile)) {
+            p.store(out, "kernel class@range:work=execution mode");
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't write profile " + profile, e);
+        }
+    }
+
+    /**
+     * Assigns the kernels executed since the last event to the calculated
+     * layer
+     */
+    @Override
+    public void handleEvent(PropagationEvent event) {
+        Executed e = executed != null ? executed.get() : null;
+        if (e != null && !e.keys.isEmpty()) {
+            synchronized (this) {
+                Set<Key> s = layers.get(event.getLayer());
+                if (s == null) {
+                    layers.put(event.getLayer(), s = new LinkedHashSet<>());
+                }
+
+                s.addAll(e.keys);
+            }
+
+            e.keys.clear();
+        }
+    }
+
+    /**
+     * @return the keys used for the calculation of the layer
+     */
+    public synchronized List<String> getKernels(Layer layer) {
+        Set<Key> s = layers.get(layer);
+        if (s == null) {
+            return Collections.<String> emptyList();
+        }
+
+        List<String> result = new ArrayList<>();
+        for (Key key : s) {
+            result.add(key.toString());
+        }
+
+        return result;
+    }
+
+    /**
+     * @return human readable report of the selected modes - one line per
+     *         layer (in the order of the layers of the network) and kernel
+     *         class/range
+     */
+    public synchronized String report(NeuralNetwork nn) {
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        for (Layer l : nn.getLayers()) {
+            Set<Key> s = layers.get(l);
+            if (s != null) {
+                for (Key key : s) {
+                    String mode = decisions.get(key);
+                    String name = key.toString();
+                    sb.append(String.format("layer %d: %s -> %s", i, name.substring(name.lastIndexOf('.') + 1), mode != null ? mode : "tuning")).append(System.lineSeparator());
+                }
+            }
+
+            i++;
+        }
+
+        return sb.toString();
+    }
+
+    public int getTrials() {
+        return trials;
+    }
+
+    public File getProfile() {
+        return profile;
+    }
+
+    /**
+     * Kernel class, range and work per item (if the kernel implements
+     * KernelWork). The keys in the maps are not changed - the lookups use the
+     * reusable key of the thread (see Executed)
+     */
+    private static final class Key implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private String kernelClass;
+        private int range;
+        private boolean hasWork;
+        private int work;
+        private int samples;
+
+        private Key() {
+            super();
+        }
+
+        private Key(String kernelClass, int range, boolean hasWork, int work, int samples) {
+            super();
+            this.kernelClass = kernelClass;
+            this.range = range;
+            this.hasWork = hasWork;
+            this.work = work;
+            this.samples = samples;
+        }
+
+        /**
+         * @return this key for the kernel and range
+         */
+        private Key set(Kernel kernel, int range) {
+            // the name is cached by the class
+            this.kernelClass = kernel.getClass().getName();
+            this.range = range;
+            this.hasWork = kernel instanceof KernelWork;
+            this.work = hasWork ? ((KernelWork) kernel).getItemWork() : 0;
+            this.samples = hasWork ? ((KernelWork) kernel).getItemSamples() : 0;
+            return this;
+        }
+
+        private Key copy() {
+            return new Key(kernelClass, range, hasWork, work, samples);
+        }
+
+        /**
+         * @return the key of the profile file (kernel class@range:work x
+         *         samples or kernel class@range) or null if the format is
+         *         different
+         */
+        private static Key parse(String s) {
+            int at = s.lastIndexOf('@');
+            if (at < 0) {
+                return null;
+            }
+
+            try {
+                int colon = s.indexOf(':', at);
+                if (colon < 0) {
+                    return new Key(s.substring(0, at), Integer.parseInt(s.substring(at + 1)), false, 0, 0);
+                }
+
+                int x = s.indexOf('x', colon);
+                if (x < 0) {
+                    return null;
+                }
+
+                return new Key(s.substring(0, at), Integer.parseInt(s.substring(at + 1, colon)), true, Integer.parseInt(s.substring(colon + 1, x)), Integer.parseInt(s.substring(x + 1)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key k = (Key) o;
+            return range == k.range && hasWork == k.hasWork && work == k.work && samples == k.samples && kernelClass.equals(k.kernelClass);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((kernelClass.hashCode() * 31 + range) * 31 + work) * 31 + samples;
+        }
+
+        @Override
+        public String toString() {
+            return hasWork ? kernelClass + "@" + range + ":" + work + "x" + samples : kernelClass + "@" + range;
+        }
+    }
+
+    /**
+     * Keys executed by a thread since the last propagation event. The keys
+     * are canonical instances, so that the steady state doesn't allocate
+     */
+    private static class Executed {
+
+        private final Key lookup = new Key();
+        private final Map<Key, Key> canonical = new HashMap<>();
+        private final List<Key> keys = new ArrayList<>();
+
+        /**
+         * @return the canonical key of the kernel and range (added to the
+         *         executed keys)
+         */
+        private Key add(Kernel kernel, int range) {
+            Key result = canonical.get(lookup.set(kernel, range));
+            if (result == null) {
+                result = lookup.copy();
+                canonical.put(result, result);
+            }
+
+            if (!keys.contains(result)) {
+                keys.add(result);
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Trials of a single kernel class/range combination. The candidates are
+     * used in turn, "trials" times each
+     */
+    private class Trials {
+
+        private final String[] modes;
+        private final long[] best;
+        private int started;
+        private int finished;
+
+        private Trials(int size) {
+            super();
+            this.modes = candidates.keySet().toArray(new String[size]);
+            this.best = new long[size];
+            Arrays.fill(best, Long.MAX_VALUE);
+        }
+
+        /**
+         * @return the mode of the next trial
+         */
+        private String next() {
+            return modes[Math.min(started++ / trials, modes.length - 1)];
+        }
+
+        /**
+         * @return whether all trials are finished
+         */
+        private boolean record(String mode, long time) {
+            for (int i = 0; i < modes.length; i++) {
+                if (modes[i].equals(mode)) {
+                    best[i] = Math.min(best[i], time);
+                }
+            }
+
+            return ++finished >= modes.length * trials;
+        }
+
+        private String fastest() {
+            int result = 0;
+            for (int i = 1; i < modes.length; i++) {
+                if (best[i] < best[result]) {
+                    result = i;
+                }
+            }
+
+            return modes[result];
+        }
+    }
+}
@@ -19,6 +19,18 @@ public class Environment {
      */
     private KernelExecutionStrategy executionStrategy;
 
+    /**
+     * Whether fully connected layers are calculated with the pure java GEMM
+     * engine instead of the Aparapi kernels
+     */
+    private boolean useGEMM;
+
+    /**
+     * Kernels of the connection calculators by layer, connections and mini
+     * batch size
+     */
+    private KernelPool kernelPool;
+
     /**
      * is debug
      */
@@ -26,6 +38,7 @@ public class Environment {
 
     private Environment() {
         executionStrategy = new DefaultKernelExecution();
+        kernelPool = new KernelPool(KernelPool.DEFAULT_CAPACITY);
         debug = true;
     }
 
@@ -52,10 +65,34 @@ public class Environment {
         }
     }
 
+    /**
+     * Sets custom execution strategy (for example ForkJoinKernelExecution,
+     * which is not based on the Aparapi execution modes)
+     */
+    public void setExecutionStrategy(KernelExecutionStrategy executionStrategy) {
+        this.executionStrategy = executionStrategy;
+    }
+
     public static Environment getInstance() {
         return singleton;
     }
 
+    public boolean isUseGEMM() {
+        return useGEMM;
+    }
+
+    public void setUseGEMM(boolean useGEMM) {
+        this.useGEMM = useGEMM;
+    }
+
+    public KernelPool getKernelPool() {
+        return kernelPool;
+    }
+
+    public void setKernelPool(KernelPool kernelPool) {
+        this.kernelPool = kernelPool;
+    }
+
     public boolean isDebug() {
         return debug;
     }
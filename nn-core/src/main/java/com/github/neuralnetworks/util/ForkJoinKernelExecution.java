@@ -0,0 +1,149 @@
+package com.github.neuralnetworks.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.amd.aparapi.Kernel;
+
+/**
+ * Executes the logical range of any kernel in pure java on a shared, bounded
+ * work-stealing ForkJoinPool (instead of the Aparapi thread group per kernel).
+ * The range is split into chunks of global ids (grain). The grain size is
+ * adapted to the measured time per work item of each kernel class, so that a
+ * task is large enough to amortize the hand-off cost - kernels with very
+ * little work are executed directly in the calling thread. Each task runs on
+ * a shallow clone of the kernel (as in Aparapi's JTP mode), which has its own
+ * global id.
+ */
+public class ForkJoinKernelExecution implements KernelExecutionStrategy {
+
+    /**
+     * minimum desired duration of a single task
+     */
+    public static final long TARGET_TASK_NANOS = 50000;
+
+    private static ForkJoinPool sharedPool;
+
+    private static final Field globalIdField;
+    private static final Method cloneMethod;
+
+    static {
+        try {
+            globalIdField = Kernel.class.getDeclaredField("globalId");
+            globalIdField.setAccessible(true);
+            cloneMethod = Kernel.class.getDeclaredMethod("clone");
+            cloneMethod.setAccessible(true);
+        } catch (NoSuchFieldException | NoSuchMethodException e) {
+            throw new IllegalStateException("Unsupported Aparapi version", e);
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final KernelExecutionStatistics statistics;
+
+    /**
+     * Uses the shared pool with one thread per processor
+     */
+    public ForkJoinKernelExecution() {
+        this(getSharedPool());
+    }
+
+    public ForkJoinKernelExecution(ForkJoinPool pool) {
+        super();
+        this.pool = pool;
+        this.statistics = new KernelExecutionStatistics();
+    }
+
+    @Override
+    public void execute(Kernel kernel, int range) {
+        long start = System.nanoTime();
+
+        int grain = getGrain(kernel, range);
+        if (grain >= range) {
+            new KernelTask(kernel, 0, range, grain).compute();
+        } else {
+            pool.invoke(new KernelTask(kernel, 0, range, grain));
+        }
+
+        statistics.record(kernel, range, System.nanoTime() - start);
+    }
+
+    /**
+     * @return number of global ids per task
+     */
+    protected int getGrain(Kernel kernel, int range) {
+        int parallelism = pool.getParallelism();
+        int evenSplit = Math.max(1, (range + parallelism - 1) / parallelism);
+        double nanosPerItem = statistics.getNanosPerItem(kernel.getClass());
+
+        // first execution - a few tasks per thread
+        if (nanosPerItem < 0) {
+            return Math.max(1, evenSplit / 4);
+        }
+
+        // too little work to hand off
+        if (nanosPerItem * range <= TARGET_TASK_NANOS) {
+            return range;
+        }
+
+        return (int) Math.max(1, Math.min(evenSplit, TARGET_TASK_NANOS / Math.max(nanosPerItem, 1)));
+    }
+
+    public KernelExecutionStatistics getStatistics() {
+        return statistics;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public static synchronized ForkJoinPool getSharedPool() {
+        if (sharedPool == null) {
+            sharedPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+
+        return sharedPool;
+    }
+
+    /**
+     * Splits the range in halves until the grain size is reached
+     */
+    private static class KernelTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Kernel kernel;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        public KernelTask(Kernel kernel, int from, int to, int grain) {
+            super();
+            this.kernel = kernel;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                try {
+                    Kernel k = (Kernel) cloneMethod.invoke(kernel);
+                    int[] globalId = (int[]) globalIdField.get(k);
+                    for (int i = from; i < to; i++) {
+                        globalId[0] = i;
+                        k.run();
+                    }
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException(e);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new KernelTask(kernel, from, middle, grain), new KernelTask(kernel, middle, to, grain));
+            }
+        }
+    }
+}
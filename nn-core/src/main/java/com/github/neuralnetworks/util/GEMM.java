@@ -0,0 +1,465 @@
+package com.github.neuralnetworks.util;
+
+import java.io.Serializable;
+import java.nio.FloatBuffer;
+
+/**
+ * Cache blocked pure java single precision matrix multiplication (C += op(A) *
+ * op(B)). All the matrices are stored row-major in one-dimensional arrays (as
+ * in the Matrix class). The implementation follows the classic "packed panels"
+ * approach: blocks of B (KC x NC) and A (MC x KC) are copied into contiguous
+ * panels, which are then consumed by a register blocked MR x NR micro kernel.
+ * Partial panels at the edges are padded with zeros and only the valid part of
+ * the result tile is written back (tail handling).
+ *
+ * A can also be an off-heap FloatBuffer (DirectMatrix) or 16 bit values
+ * (HalfMatrix) - it is read (and widened to float) only during packing, so the
+ * rest of the calculation is the same.
+ *
+ * An optional Epilogue is applied to each MC x NC block of C right after the
+ * last panel of the shared dimension is accumulated into it (while the block
+ * is still in the cache), so that element-wise operations on the result (bias,
+ * transfer function) don't need another pass over C.
+ *
+ * The instances contain the packing buffers and are not thread safe.
+ */
+public class GEMM implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * micro kernel rows
+     */
+    public static final int MR = 4;
+
+    /**
+     * micro kernel columns
+     */
+    public static final int NR = 4;
+
+    /**
+     * rows of the A block that is kept in L2 cache
+     */
+    public static final int MC = 64;
+
+    /**
+     * shared dimension block (the depth of the packed panels)
+     */
+    public static final int KC = 256;
+
+    /**
+     * columns of the B block that is kept in L3 cache
+     */
+    public static final int NC = 1024;
+
+    /**
+     * packed panels of A
+     */
+    private transient float[] packedA;
+
+    /**
+     * packed panels of B
+     */
+    private transient float[] packedB;
+
+    /**
+     * result of the micro kernel for the edge tiles
+     */
+    private transient float[] tile;
+
+    /**
+     * off-heap A during the current multiplication
+     */
+    private transient FloatBuffer aBuffer;
+
+    /**
+     * 16 bit A during the current multiplication
+     */
+    private transient short[] aHalf;
+    private transient HalfFloat aFormat;
+
+    /**
+     * Element-wise operation on the final values of a block of C
+     */
+    public interface Epilogue {
+
+        /**
+         * Called once for each block of C [row, row + rows) x [column, column +
+         * columns) when its values are final
+         *
+         * @param c
+         * @param cOffset
+         * @param ldc
+         *            - row length of C
+         */
+        void apply(float[] c, int cOffset, int ldc, int row, int rows, int column, int columns);
+    }
+
+    /**
+     * C[m x n] += op(A)[m x k] * op(B)[k x n]
+     *
+     * @param transA
+     *            - whether A is stored transposed (k x m)
+     * @param transB
+     *            - whether B is stored transposed (n x k)
+     * @param m
+     * @param n
+     * @param k
+     * @param a
+     * @param aOffset
+     * @param lda
+     *            - row length of A as it is stored
+     * @param b
+     * @param bOffset
+     * @param ldb
+     *            - row length of B as it is stored
+     * @param c
+     * @param cOffset
+     * @param ldc
+     *            - row length of C
+     */
+    public void multiply(boolean transA, boolean transB, int m, int n, int k, float[] a, int aOffset, int lda, float[] b, int bOffset, int ldb, float[] c, int cOffset, int ldc) {
+        multiply(transA, transB, m, n, k, a, aOffset, lda, b, bOffset, ldb, c, cOffset, ldc, null);
+    }
+
+    /**
+     * Same as multiply(...) followed by the epilogue (if not null) for each
+     * block of C
+     */
+    public void multiply(boolean transA, boolean transB, int m, int n, int k, float[] a, int aOffset, int lda, float[] b, int bOffset, int ldb, float[] c, int cOffset, int ldc, Epilogue epilogue) {
+        aBuffer = null;
+        doMultiply(transA, transB, m, n, k, a, aOffset, lda, b, bOffset, ldb, c, cOffset, ldc, epilogue);
+    }
+
+    /**
+     * Same as multiply(...) with off-heap A
+     */
+    public void multiply(boolean transA, boolean transB, int m, int n, int k, FloatBuffer a, int aOffset, int lda, float[] b, int bOffset, int ldb, float[] c, int cOffset, int ldc) {
+        multiply(transA, transB, m, n, k, a, aOffset, lda, b, bOffset, ldb, c, cOffset, ldc, null);
+    }
+
+    /**
+     * Same as multiply(...) with off-heap A and epilogue
+     */
+    public void multiply(boolean transA, boolean transB, int m, int n, int k, FloatBuffer a, int aOffset, int lda, float[] b, int bOffset, int ldb, float[] c, int cOffset, int ldc, Epilogue epilogue) {
+        aBuffer = a;
+        try {
+            doMultiply(transA, transB, m, n, k, null, aOffset, lda, b, bOffset, ldb, c, cOffset, ldc, epilogue);
+        } finally {
+            aBuffer = null;
+        }
+    }
+
+    /**
+     * Same as multiply(...) with 16 bit A (the values are widened to float)
+     */
+    public void multiply(boolean transA, boolean transB, int m, int n, int k, short[] a, HalfFloat format, int aOffset, int lda, float[] b, int bOffset, int ldb, float[] c, int cOffset, int ldc) {
+        multiply(transA, transB, m, n, k, a, format, aOffset, lda, b, bOffset, ldb, c, cOffset, ldc, null);
+    }
+
+    /**
+     * Same as multiply(...) with 16 bit A and epilogue
+     */
+    public void multiply(boolean transA, boolean transB, int m, int n, int k, short[] a, HalfFloat format, int aOffset, int lda, float[] b, int bOffset, int ldb, float[] c, int cOffset, int ldc, Epilogue epilogue) {
+        aHalf = a;
+        aFormat = format;
+        try {
+            doMultiply(transA, transB, m, n, k, null, aOffset, lda, b, bOffset, ldb, c, cOffset, ldc, epilogue);
+        } finally {
+            aHalf = null;
+            aFormat = null;
+        }
+    }
+
+    private void doMultiply(boolean transA, boolean transB, int m, int n, int k, float[] a, int aOffset, int lda, float[] b, int bOffset, int ldb, float[] c, int cOffset, int ldc, Epilogue epilogue) {
+        if (m <= 0 || n <= 0) {
+            return;
+        }
+
+        if (k <= 0) {
+            if (epilogue != null) {
+                epilogue.apply(c, cOffset, ldc, 0, m, 0, n);
+            }
+
+            return;
+        }
+
+        // matrix-vector product - the panels would be mostly padding
+        if (n == 1 && !transA) {
+            gemv(m, k, a, aOffset, lda, b, bOffset, transB ? 1 : ldb, c, cOffset, ldc);
+            if (epilogue != null) {
+                epilogue.apply(c, cOffset, ldc, 0, m, 0, 1);
+            }
+
+            return;
+        }
+
+        ensureCapacity();
+
+        for (int jc = 0; jc < n; jc += NC) {
+            int nc = Math.min(NC, n - jc);
+
+            for (int pc = 0; pc < k; pc += KC) {
+                int kc = Math.min(KC, k - pc);
+                packB(transB, kc, nc, b, bOffset, ldb, pc, jc);
+
+                for (int ic = 0; ic < m; ic += MC) {
+                    int mc = Math.min(MC, m - ic);
+                    packA(transA, mc, kc, a, aOffset, lda, ic, pc);
+
+                    for (int jr = 0; jr < nc; jr += NR) {
+                        int nr = Math.min(NR, nc - jr);
+                        for (int ir = 0; ir < mc; ir += MR) {
+                            int mr = Math.min(MR, mc - ir);
+                            microKernel(kc, ir * kc, jr * kc, c, cOffset + (ic + ir) * ldc + jc + jr, ldc, mr, nr);
+                        }
+                    }
+
+                    // the block is final after the last panel
+                    if (epilogue != null && pc + kc >= k) {
+                        epilogue.apply(c, cOffset, ldc, ic, mc, jc, nc);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * y[m] += A[m x k] * x[k] where x is strided
+     */
+    protected void gemv(int m, int k, float[] a, int aOffset, int lda, float[] x, int xOffset, int incX, float[] y, int yOffset, int incY) {
+        if (aBuffer != null) {
+            gemv(m, k, aBuffer, aOffset, lda, x, xOffset, incX, y, yOffset, incY);
+            return;
+        }
+
+        if (aHalf != null) {
+            gemv(m, k, aHalf, aFormat, aOffset, lda, x, xOffset, incX, y, yOffset, incY);
+            return;
+        }
+
+        for (int i = 0; i < m; i++) {
+            int ai = aOffset + i * lda;
+            if (incX == 1) {
+                y[yOffset + i * incY] += VectorMath.dot(a, ai, x, xOffset, k);
+            } else {
+                float s = 0;
+                for (int p = 0; p < k; p++) {
+                    s += a[ai + p] * x[xOffset + p * incX];
+                }
+
+                y[yOffset + i * incY] += s;
+            }
+        }
+    }
+
+    /**
+     * gemv with off-heap A
+     */
+    protected void gemv(int m, int k, FloatBuffer a, int aOffset, int lda, float[] x, int xOffset, int incX, float[] y, int yOffset, int incY) {
+        for (int i = 0; i < m; i++) {
+            int ai = aOffset + i * lda;
+            float s0 = 0, s1 = 0;
+            int p = 0;
+            for (; p + 1 < k; p += 2) {
+                s0 += a.get(ai + p) * x[xOffset + p * incX];
+                s1 += a.get(ai + p + 1) * x[xOffset + (p + 1) * incX];
+            }
+
+            for (; p < k; p++) {
+                s0 += a.get(ai + p) * x[xOffset + p * incX];
+            }
+
+            y[yOffset + i * incY] += s0 + s1;
+        }
+    }
+
+    /**
+     * gemv with 16 bit A
+     */
+    protected void gemv(int m, int k, short[] a, HalfFloat format, int aOffset, int lda, float[] x, int xOffset, int incX, float[] y, int yOffset, int incY) {
+        for (int i = 0; i < m; i++) {
+            int ai = aOffset + i * lda;
+            float s0 = 0, s1 = 0;
+            int p = 0;
+            for (; p + 1 < k; p += 2) {
+                s0 += format.toFloat(a[ai + p]) * x[xOffset + p * incX];
+                s1 += format.toFloat(a[ai + p + 1]) * x[xOffset + (p + 1) * incX];
+            }
+
+            for (; p < k; p++) {
+                s0 += format.toFloat(a[ai + p]) * x[xOffset + p * incX];
+            }
+
+            y[yOffset + i * incY] += s0 + s1;
+        }
+    }
+
+    /**
+     * Packs mc x kc block of op(A) starting at (row, col) into panels of MR
+     * rows. Within a panel the MR values for each k are contiguous
+     */
+    protected void packA(boolean transA, int mc, int kc, float[] a, int aOffset, int lda, int row, int col) {
+        float[] pa = packedA;
+        int index = 0;
+        for (int ir = 0; ir < mc; ir += MR) {
+            int mr = Math.min(MR, mc - ir);
+            for (int p = 0; p < kc; p++) {
+                int i = 0;
+                if (aBuffer != null) {
+                    int start = transA ? aOffset + (col + p) * lda + row + ir : aOffset + (row + ir) * lda + col + p;
+                    int step = transA ? 1 : lda;
+                    for (; i < mr; i++) {
+                        pa[index++] = aBuffer.get(start + i * step);
+                    }
+                } else if (aHalf != null) {
+                    int start = transA ? aOffset + (col + p) * lda + row + ir : aOffset + (row + ir) * lda + col + p;
+                    int step = transA ? 1 : lda;
+                    for (; i < mr; i++) {
+                        pa[index++] = aFormat.toFloat(aHalf[start + i * step]);
+                    }
+                } else if (transA) {
+                    int start = aOffset + (col + p) * lda + row + ir;
+                    for (; i < mr; i++) {
+                        pa[index++] = a[start + i];
+                    }
+                } else {
+                    int start = aOffset + (row + ir) * lda + col + p;
+                    for (; i < mr; i++) {
+                        pa[index++] = a[start + i * lda];
+                    }
+                }
+
+                for (; i < MR; i++) {
+                    pa[index++] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Packs kc x nc block of op(B) starting at (row, col) into panels of NR
+     * columns. Within a panel the NR values for each k are contiguous
+     */
+    protected void packB(boolean transB, int kc, int nc, float[] b, int bOffset, int ldb, int row, int col) {
+        float[] pb = packedB;
+        int index = 0;
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            for (int p = 0; p < kc; p++) {
+                int j = 0;
+                if (transB) {
+                    int start = bOffset + (col + jr) * ldb + row + p;
+                    for (; j < nr; j++) {
+                        pb[index++] = b[start + j * ldb];
+                    }
+                } else {
+                    int start = bOffset + (row + p) * ldb + col + jr;
+                    for (; j < nr; j++) {
+                        pb[index++] = b[start + j];
+                    }
+                }
+
+                for (; j < NR; j++) {
+                    pb[index++] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * 4x4 register blocked kernel. Accumulates a full tile and writes back only
+     * the valid mr x nr part
+     */
+    protected void microKernel(int kc, int aIndex, int bIndex, float[] c, int cIndex, int ldc, int mr, int nr) {
+        float[] pa = packedA;
+        float[] pb = packedB;
+
+        float c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        float c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        float c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        float c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+
+        for (int p = 0, ai = aIndex, bi = bIndex; p < kc; p++, ai += MR, bi += NR) {
+            float a0 = pa[ai], a1 = pa[ai + 1], a2 = pa[ai + 2], a3 = pa[ai + 3];
+            float b0 = pb[bi], b1 = pb[bi + 1], b2 = pb[bi + 2], b3 = pb[bi + 3];
+
+            c00 += a0 * b0;
+            c01 += a0 * b1;
+            c02 += a0 * b2;
+            c03 += a0 * b3;
+            c10 += a1 * b0;
+            c11 += a1 * b1;
+            c12 += a1 * b2;
+            c13 += a1 * b3;
+            c20 += a2 * b0;
+            c21 += a2 * b1;
+            c22 += a2 * b2;
+            c23 += a2 * b3;
+            c30 += a3 * b0;
+            c31 += a3 * b1;
+            c32 += a3 * b2;
+            c33 += a3 * b3;
+        }
+
+        if (mr == MR && nr == NR) {
+            c[cIndex] += c00;
+            c[cIndex + 1] += c01;
+            c[cIndex + 2] += c02;
+            c[cIndex + 3] += c03;
+            cIndex += ldc;
+            c[cIndex] += c10;
+            c[cIndex + 1] += c11;
+            c[cIndex + 2] += c12;
+            c[cIndex + 3] += c13;
+            cIndex += ldc;
+            c[cIndex] += c20;
+            c[cIndex + 1] += c21;
+            c[cIndex + 2] += c22;
+            c[cIndex + 3] += c23;
+            cIndex += ldc;
+            c[cIndex] += c30;
+            c[cIndex + 1] += c31;
+            c[cIndex + 2] += c32;
+            c[cIndex + 3] += c33;
+        } else {
+            float[] tile = this.tile;
+            tile[0] = c00;
+            tile[1] = c01;
+            tile[2] = c02;
+            tile[3] = c03;
+            tile[4] = c10;
+            tile[5] = c11;
+            tile[6] = c12;
+            tile[7] = c13;
+            tile[8] = c20;
+            tile[9] = c21;
+            tile[10] = c22;
+            tile[11] = c23;
+            tile[12] = c30;
+            tile[13] = c31;
+            tile[14] = c32;
+            tile[15] = c33;
+
+            for (int i = 0; i < mr; i++) {
+                for (int j = 0; j < nr; j++) {
+                    c[cIndex + i * ldc + j] += tile[i * NR + j];
+                }
+            }
+        }
+    }
+
+    private void ensureCapacity() {
+        if (packedA == null) {
+            packedA = new float[MC * KC];
+        }
+
+        if (packedB == null) {
+            packedB = new float[KC * NC];
+        }
+
+        if (tile == null) {
+            tile = new float[MR * NR];
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.neuralnetworks.util;
+
+/**
+ * 16 bit floating point formats (stored in short values). They are used to
+ * halve the memory (and the memory bandwidth) of the weights for inference.
+ * The values are widened to float for the calculations. Rounding is to the
+ * nearest (even) value
+ */
+public enum HalfFloat {
+
+    /**
+     * the upper half of a float (8 bit exponent, 7 bit mantissa). Same range as
+     * float, relative precision 2^-8
+     */
+    BFLOAT16 {
+        @Override
+        public float toFloat(short value) {
+            return Float.intBitsToFloat(value << 16);
+        }
+
+        @Override
+        public short fromFloat(float value) {
+            int bits = Float.floatToRawIntBits(value);
+
+            // NaN must stay NaN (the rounding could turn it into infinity)
+            if ((bits & 0x7fffffff) > 0x7f800000) {
+                return (short) ((bits >>> 16) | 0x40);
+            }
+
+            return (short) ((bits + 0x7fff + ((bits >>> 16) & 1)) >>> 16);
+        }
+    },
+
+    /**
+     * IEEE 754 half precision (5 bit exponent, 10 bit mantissa). Range up to
+     * 65504, relative precision 2^-11
+     */
+    FLOAT16 {
+        @Override
+        public float toFloat(short value) {
+            int sign = (value & 0x8000) << 16;
+            int exponent = (value >>> 10) & 0x1f;
+            int mantissa = value & 0x3ff;
+
+            if (exponent == 0x1f) {
+                // infinity and NaN
+                return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+            } else if (exponent == 0) {
+                // zero and subnormal values
+                float result = mantissa * 5.9604645e-8f;
+                return sign == 0 ? result : -result;
+            }
+
+            return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+        }
+
+        @Override
+        public short fromFloat(float value) {
+            int bits = Float.floatToRawIntBits(value);
+            int sign = (bits >>> 16) & 0x8000;
+            int exponent = (bits >>> 23) & 0xff;
+            int mantissa = bits & 0x7fffff;
+
+            if (exponent == 0xff) {
+                return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+            }
+
+            int e = exponent - 112;
+            if (e >= 0x1f) {
+                // overflow
+                return (short) (sign | 0x7c00);
+            }
+
+            if (e <= 0) {
+                // subnormal half
+                if (e < -10) {
+                    return (short) sign;
+                }
+
+                mantissa |= 0x800000;
+                int shift = 14 - e;
+                int result = mantissa >> shift;
+                int remainder = mantissa & ((1 << shift) - 1);
+                int halfway = 1 << (shift - 1);
+                if (remainder > halfway || (remainder == halfway && (result & 1) != 0)) {
+                    result++;
+                }
+
+                return (short) (sign | result);
+            }
+
+            // the carry of the rounding can propagate to the exponent (that's
+            // correct)
+            int result = (e << 10) | (mantissa >> 13);
+            int remainder = mantissa & 0x1fff;
+            if (remainder > 0x1000 || (remainder == 0x1000 && (result & 1) != 0)) {
+                result++;
+            }
+
+            return (short) (sign | result);
+        }
+    };
+
+    public abstract float toFloat(short value);
+
+    public abstract short fromFloat(float value);
+}
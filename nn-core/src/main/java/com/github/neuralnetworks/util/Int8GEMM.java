@@ -0,0 +1,113 @@
+package com.github.neuralnetworks.util;
+
+import java.io.Serializable;
+
+import com.github.neuralnetworks.architecture.QuantizedMatrix;
+
+/**
+ * Matrix multiplication with 8 bit integer weights (QuantizedMatrix). The
+ * float input (B) is quantized symmetrically to [-127, 127] with a single
+ * scale, the products are accumulated in int and the result is scaled back to
+ * float:
+ *
+ * c[r, s] += scale[r] * bScale * (sum(qa[r, j] * qb[j, s]) - zeroPoint[r] * sum(qb[j, s]))
+ *
+ * The scratch arrays are reused between the calls (the instance is not
+ * thread safe)
+ */
+public class Int8GEMM implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient byte[] qb;
+    private transient int[] columnSums;
+    private transient int[] acc;
+
+    /**
+     * c[m x n] += a[m x k] * b[k x n]
+     */
+    public void multiply(int m, int n, int k, QuantizedMatrix a, float[] b, int bOffset, int ldb, float[] c, int cOffset, int ldc) {
+        if (qb == null || qb.length < k * n) {
+            qb = new byte[k * n];
+        }
+
+        if (acc == null || acc.length < n) {
+            acc = new int[n];
+            columnSums = new int[n];
+        }
+
+        float range = a.getInputRange() > 0 ? a.getInputRange() : maxAbs(b, bOffset, ldb, k, n);
+        float bScale = inputScale(range);
+
+        // quantize b (packed, k x n)
+        for (int j = 0; j < k; j++) {
+            quantize(b, bOffset + j * ldb, qb, j * n, n, bScale);
+        }
+
+        for (int s = 0; s < n; s++) {
+            columnSums[s] = 0;
+        }
+
+        for (int j = 0; j < k; j++) {
+            for (int s = 0, bj = j * n; s < n; s++) {
+                columnSums[s] += qb[bj + s];
+            }
+        }
+
+        byte[] qa = a.getValues();
+        float[] scales = a.getScales();
+        int[] zeroPoints = a.getZeroPoints();
+
+        for (int r = 0; r < m; r++) {
+            for (int s = 0; s < n; s++) {
+                acc[s] = 0;
+            }
+
+            for (int j = 0, ar = r * k; j < k; j++) {
+                int w = qa[ar + j];
+                for (int s = 0, bj = j * n; s < n; s++) {
+                    acc[s] += w * qb[bj + s];
+                }
+            }
+
+            float scale = scales[r] * bScale;
+            int zp = zeroPoints[r];
+            for (int s = 0, cr = cOffset + r * ldc; s < n; s++) {
+                c[cr + s] += scale * (acc[s] - zp * columnSums[s]);
+            }
+        }
+    }
+
+    /**
+     * @return the scale of the symmetric 8 bit quantization of values in
+     *         [-range, range]
+     */
+    public static float inputScale(float range) {
+        return range > 0 ? range / 127 : 1;
+    }
+
+    /**
+     * dst[dstOffset + i] = round(src[srcOffset + i] / scale) (clamped to
+     * [-127, 127]) for i in [0, length)
+     */
+    public static void quantize(float[] src, int srcOffset, byte[] dst, int dstOffset, int length, float scale) {
+        float inv = 1 / scale;
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset + i] = (byte) Math.round(Math.min(127, Math.max(-127, src[srcOffset + i] * inv)));
+        }
+    }
+
+    /**
+     * @return maximum absolute value of the rows x columns block
+     */
+    public static float maxAbs(float[] a, int offset, int stride, int rows, int columns) {
+        float max = 0;
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0, start = offset + i * stride; j < columns; j++) {
+                max = Math.max(max, Math.abs(a[start + j]));
+            }
+        }
+
+        return max;
+    }
+}
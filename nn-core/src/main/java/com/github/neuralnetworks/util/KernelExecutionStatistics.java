@@ -0,0 +1,117 @@
+package com.github.neuralnetworks.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amd.aparapi.Kernel;
+
+/**
+ * Per kernel class wall time statistics of kernel executions. Used by the
+ * execution strategies to report (and compare) the time spent in each kernel
+ */
+public class KernelExecutionStatistics {
+
+    private final Map<Class<?>, KernelStatistics> statistics = new HashMap<>();
+
+    public synchronized void record(Kernel kernel, int range, long nanos) {
+        KernelStatistics s = statistics.get(kernel.getClass());
+        if (s == null) {
+            statistics.put(kernel.getClass(), s = new KernelStatistics(kernel.getClass()));
+        }
+
+        s.executions++;
+        s.workItems += range;
+        s.nanos += nanos;
+    }
+
+    /**
+     * @return average wall time per work item or -1 if the kernel was not
+     *         executed yet
+     */
+    public synchronized double getNanosPerItem(Class<?> kernelClass) {
+        KernelStatistics s = statistics.get(kernelClass);
+        return s != null && s.workItems > 0 ? (double) s.nanos / s.workItems : -1;
+    }
+
+    public synchronized KernelStatistics getStatistics(Class<?> kernelClass) {
+        KernelStatistics s = statistics.get(kernelClass);
+        return s != null ? s.copy() : null;
+    }
+
+    /**
+     * @return statistics for all kernels sorted by total time (descending)
+     */
+    public synchronized List<KernelStatistics> getStatistics() {
+        List<KernelStatistics> result = new ArrayList<>();
+        for (KernelStatistics s : statistics.values()) {
+            result.add(s.copy());
+        }
+
+        Collections.sort(result, new Comparator<KernelStatistics>() {
+            @Override
+            public int compare(KernelStatistics o1, KernelStatistics o2) {
+                return Long.compare(o2.nanos, o1.nanos);
+            }
+        });
+
+        return result;
+    }
+
+    public synchronized void reset() {
+        statistics.clear();
+    }
+
+    /**
+     * @return human readable report (one line per kernel)
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (KernelStatistics s : getStatistics()) {
+            sb.append(String.format("%s: %d executions, %d work items, %.3f ms total, %.3f ms/execution", s.getKernelClass().getName(), s.executions, s.workItems,
+                    s.nanos / 1000000d, s.nanos / 1000000d / s.executions)).append(System.lineSeparator());
+        }
+
+        return sb.toString();
+    }
+
+    public static class KernelStatistics {
+
+        private final Class<?> kernelClass;
+        private long executions;
+        private long workItems;
+        private long nanos;
+
+        public KernelStatistics(Class<?> kernelClass) {
+            super();
+            this.kernelClass = kernelClass;
+        }
+
+        private KernelStatistics copy() {
+            KernelStatistics result = new KernelStatistics(kernelClass);
+            result.executions = executions;
+            result.workItems = workItems;
+            result.nanos = nanos;
+            return result;
+        }
+
+        public Class<?> getKernelClass() {
+            return kernelClass;
+        }
+
+        public long getExecutions() {
+            return executions;
+        }
+
+        public long getWorkItems() {
+            return workItems;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+    }
+}
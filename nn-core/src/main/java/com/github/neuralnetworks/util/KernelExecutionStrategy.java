@@ -1,5 +1,9 @@
 package com.github.neuralnetworks.util;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
 import com.amd.aparapi.Kernel;
 import com.amd.aparapi.Kernel.EXECUTION_MODE;
 import com.amd.aparapi.Range;
@@ -16,11 +20,9 @@ public interface KernelExecutionStrategy {
         @Override
         public void execute(Kernel kernel, int range) {
             if (range <= Runtime.getRuntime().availableProcessors() * 600) {
-                kernel.setExecutionMode(EXECUTION_MODE.CPU);
-                kernel.execute(range);
+                OpenCLFallback.execute(kernel, EXECUTION_MODE.CPU, range);
             } else {
-                kernel.setExecutionMode(EXECUTION_MODE.GPU);
-                kernel.execute(range);
+                OpenCLFallback.execute(kernel, EXECUTION_MODE.GPU, range);
             }
         }
     }
@@ -38,8 +40,7 @@ public interface KernelExecutionStrategy {
 
         @Override
         public void execute(Kernel kernel, int range) {
-            kernel.setExecutionMode(EXECUTION_MODE.GPU);
-            kernel.execute(range);
+            OpenCLFallback.execute(kernel, EXECUTION_MODE.GPU, range);
         }
     }
 
@@ -56,8 +57,70 @@ public interface KernelExecutionStrategy {
 
         @Override
         public void execute(Kernel kernel, int range) {
-            kernel.setExecutionMode(EXECUTION_MODE.CPU);
-            kernel.execute(range);
+            OpenCLFallback.execute(kernel, EXECUTION_MODE.CPU, range);
+        }
+    }
+
+    /**
+     * If OpenCL is not available Aparapi reverts the kernel to JTP. Such
+     * kernels are not switched back to an OpenCL mode - the repeated attempt
+     * fails (kernels are executed many times, for example once per
+     * connection)
+     */
+    public static class OpenCLFallback {
+
+        private static final Set<Kernel> reverted = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<Kernel, Boolean>()));
+
+        public static void execute(Kernel kernel, EXECUTION_MODE mode, int range) {
+            if (!reverted.contains(kernel)) {
+                kernel.setExecutionMode(mode);
+                kernel.execute(range);
+
+                if (kernel.getExecutionMode() != mode) {
+                    reverted.add(kernel);
+                }
+            } else {
+                kernel.execute(range);
+            }
+        }
+
+        /**
+         * @return whether the kernel was reverted to JTP (OpenCL is not
+         *         available)
+         */
+        public static boolean isReverted(Kernel kernel) {
+            return reverted.contains(kernel);
+        }
+    }
+
+    /**
+     * Measures the wall time of each kernel execution of another strategy (for
+     * comparison between the strategies)
+     */
+    public static class TimedKernelExecution implements KernelExecutionStrategy {
+
+        private final KernelExecutionStrategy strategy;
+        private final KernelExecutionStatistics statistics;
+
+        public TimedKernelExecution(KernelExecutionStrategy strategy) {
+            super();
+            this.strategy = strategy;
+            this.statistics = new KernelExecutionStatistics();
+        }
+
+        @Override
+        public void execute(Kernel kernel, int range) {
+            long start = System.nanoTime();
+            strategy.execute(kernel, range);
+            statistics.record(kernel, range, System.nanoTime() - start);
+        }
+
+        public KernelExecutionStrategy getStrategy() {
+            return strategy;
+        }
+
+        public KernelExecutionStatistics getStatistics() {
+            return statistics;
         }
     }
 }
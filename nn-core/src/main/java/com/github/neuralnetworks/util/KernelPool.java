@@ -0,0 +1,202 @@
+package com.github.neuralnetworks.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.Layer;
+
+/**
+ * Bounded pool of the kernels (and the other calculation objects) created by
+ * the connection calculators. The instances are keyed by the type of the
+ * calculator that created them, the target layer, the connections and a size,
+ * so all calculators of the same type share them (for example the forward
+ * calculators of the training and of the test pass). The kernels of the layer
+ * calculators take the mini batch size with each calculation, so they use
+ * size 0 and a single instance serves all mini batch sizes (for example a
+ * short last mini batch or alternating training and test mini batches).
+ * Kernels that depend on the size of their values use it as the size (see
+ * BernoulliDistribution). The pooled instances must not have state that
+ * belongs to a single calculator (for example the weight updates of the
+ * momentum) and the calculations of the same layer must not run in parallel.
+ *
+ * The instances are weakly referenced - the calculators keep the instances
+ * they use and an instance is released together with the last calculator
+ * that uses it (for example when the network is discarded). The least
+ * recently used instance is evicted when the capacity is exceeded. A single
+ * pool is shared by all calculators (see Environment.getKernelPool())
+ */
+public class KernelPool {
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final LinkedHashMap<Key, Value> kernels = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReferenceQueue<Object> released = new ReferenceQueue<>();
+    private int capacity;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public KernelPool(int capacity) {
+        super();
+        setCapacity(capacity);
+    }
+
+    /**
+     * @param type
+     *            - the type of the calculator
+     * @return the pooled instance or null (the caller creates it and adds it
+     *         with put())
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T get(Class<?> type, Layer layer, Collection<? extends Connections> connections, int size) {
+        expunge();
+
+        Value value = kernels.get(new Key(type, layer, connections, size));
+        Object result = value != null ? value.get() : null;
+        if (result != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+
+        return (T) result;
+    }
+
+    public synchronized void put(Class<?> type, Layer layer, Collection<? extends Connections> connections, int size, Object kernel) {
+        expunge();
+
+        Key key = new Key(type, layer, connections, size);
+        kernels.put(key, new Value(key, kernel, released));
+        evict();
+    }
+
+    public synchronized void clear() {
+        kernels.clear();
+    }
+
+    public synchronized void resetStatistics() {
+        hits = misses = evictions = 0;
+    }
+
+    /**
+     * @return the number of pooled instances (including the released
+     *         instances, which are not removed yet)
+     */
+    public synchronized int size() {
+        return kernels.size();
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+
+        this.capacity = capacity;
+        evict();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Removes the instances, which are released by the garbage collector
+     */
+    private void expunge() {
+        for (Object ref = released.poll(); ref != null; ref = released.poll()) {
+            Key key = ((Value) ref).key;
+            if (kernels.get(key) == ref) {
+                kernels.remove(key);
+            }
+        }
+    }
+
+    private void evict() {
+        for (Iterator<Key> it = kernels.keySet().iterator(); kernels.size() > capacity;) {
+            it.next();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * The layer and the connections are compared by identity
+     */
+    private static class Key {
+
+        private final Class<?> type;
+        private final Layer layer;
+        private final List<Connections> connections;
+        private final int size;
+
+        private Key(Class<?> type, Layer layer, Collection<? extends Connections> connections, int size) {
+            super();
+            this.type = type;
+            this.layer = layer;
+            this.connections = connections != null ? new ArrayList<Connections>(connections) : new ArrayList<Connections>();
+            this.size = size;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = type != null ? type.hashCode() : 0;
+            result = 31 * result + System.identityHashCode(layer);
+            for (Connections c : connections) {
+                result = 31 * result + System.identityHashCode(c);
+            }
+
+            return 31 * result + size;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key k = (Key) obj;
+            if (type != k.type || layer != k.layer || size != k.size || connections.size() != k.connections.size()) {
+                return false;
+            }
+
+            for (int i = 0; i < connections.size(); i++) {
+                if (connections.get(i) != k.connections.get(i)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Weak reference to a pooled instance
+     */
+    private static class Value extends WeakReference<Object> {
+
+        private final Key key;
+
+        private Value(Key key, Object kernel, ReferenceQueue<Object> queue) {
+            super(kernel, queue);
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.github.neuralnetworks.util;
+
+/**
+ * Kernel with variable work for each item of the range (for example the
+ * number of weights and samples of each output unit). Execution strategies
+ * that tune the execution mode by kernel class and range (see
+ * AutotuneKernelExecution) tune each work separately
+ */
+public interface KernelWork {
+
+    /**
+     * @return the work of each sample of an item (for example the number of
+     *         weights of an output unit)
+     */
+    public int getItemWork();
+
+    /**
+     * @return the number of samples of each item (the mini batch size)
+     */
+    public int getItemSamples();
+}
@@ -2,11 +2,16 @@ package com.github.neuralnetworks.util;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 /**
- * a simple and slow implementation of unique list
+ * a simple implementation of unique list. Lists with more than INDEX_THRESHOLD
+ * elements keep a hash index of the elements for contains(...) - the index is
+ * updated with each add and rebuilt (when needed) after any other structural
+ * modification. Concurrent calls of contains(...) without modifications are
+ * safe (as with ArrayList)
  * 
  * @param <E>
  */
@@ -14,6 +19,13 @@ public class UniqueList<E> extends ArrayList<E> implements Set<E> {
 
     private static final long serialVersionUID = 2378661871806423556L;
 
+    /**
+     * smaller lists are searched linearly
+     */
+    private static final int INDEX_THRESHOLD = 16;
+
+    private transient Index index;
+
     public UniqueList() {
         super();
     }
@@ -26,15 +38,44 @@ public class UniqueList<E> extends ArrayList<E> implements Set<E> {
         super(arg0);
     }
 
+    @Override
+    public boolean contains(Object o) {
+        if (size() <= INDEX_THRESHOLD) {
+            return super.contains(o);
+        }
+
+        Index i = index;
+        if (i == null || i.modCount != modCount) {
+            index = i = new Index(new HashSet<Object>(this), modCount);
+        }
+
+        return i.elements.contains(o);
+    }
+
     @Override
     public boolean add(E e) {
         if (!contains(e)) {
-            return super.add(e);
+            Index i = index;
+            boolean indexed = i != null && i.modCount == modCount;
+            super.add(e);
+            if (indexed) {
+                i.elements.add(e);
+                index = new Index(i.elements, modCount);
+            }
+
+            return true;
         }
 
         return false;
     }
 
+    @Override
+    public E set(int index, E element) {
+        // doesn't change the modCount
+        this.index = null;
+        return super.set(index, element);
+    }
+
     @Override
     public void add(int index, E e) {
         if (!contains(e)) {
@@ -44,25 +85,38 @@ public class UniqueList<E> extends ArrayList<E> implements Set<E> {
 
     @Override
     public boolean addAll(Collection<? extends E> c) {
-        List<? extends E> unique = new ArrayList<>(c);
-        for (int i = 0; i < unique.size(); i++) {
-            if (contains(unique.get(i))) {
-                unique.remove(i);
-            }
+        boolean result = false;
+        for (E e : c) {
+            result |= add(e);
         }
 
-        return super.addAll(unique);
+        return result;
     }
 
     @Override
     public boolean addAll(int index, Collection<? extends E> c) {
-        List<? extends E> unique = new ArrayList<>(c);
-        for (int i = 0; i < unique.size(); i++) {
-            if (contains(unique.get(i))) {
-                unique.remove(i);
+        List<E> unique = new ArrayList<>();
+        for (E e : c) {
+            if (!contains(e) && !unique.contains(e)) {
+                unique.add(e);
             }
         }
 
         return super.addAll(index, unique);
     }
+
+    /**
+     * The elements and the modCount at the time of the last index update. The
+     * fields are final, so that the index can be read by other threads
+     */
+    private static class Index {
+
+        private final Set<Object> elements;
+        private final int modCount;
+
+        private Index(Set<Object> elements, int modCount) {
+            this.elements = elements;
+            this.modCount = modCount;
+        }
+    }
 }
@@ -2,13 +2,35 @@ package com.github.neuralnetworks.util;
 
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.github.neuralnetworks.architecture.Connections;
 import com.github.neuralnetworks.architecture.Conv2DConnection;
+import com.github.neuralnetworks.architecture.DirectMatrix;
+import com.github.neuralnetworks.architecture.FullyConnected;
 import com.github.neuralnetworks.architecture.GraphConnections;
+import com.github.neuralnetworks.architecture.HalfMatrix;
 import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.NeuralNetwork;
+import com.github.neuralnetworks.architecture.QuantizedMatrix;
+import com.github.neuralnetworks.architecture.SampleMajorMatrix;
+import com.github.neuralnetworks.architecture.SparseFullyConnected;
+import com.github.neuralnetworks.architecture.SparseMatrix;
 import com.github.neuralnetworks.architecture.Subsampling2DConnection;
+import com.github.neuralnetworks.calculation.ConnectionCalculator;
+import com.github.neuralnetworks.calculation.LayerCalculatorBase;
+import com.github.neuralnetworks.calculation.ValuesProvider;
+import com.github.neuralnetworks.calculation.ValuesProvider.Layout;
+import com.github.neuralnetworks.calculation.neuronfunctions.ConnectionCalculatorFullyConnected;
+import com.github.neuralnetworks.training.TrainingInputData;
+import com.github.neuralnetworks.training.TrainingInputProvider;
 
 /**
  * Util class
@@ -37,10 +59,271 @@ public class Util {
         }
     }
 
+    /**
+     * Blocked transpose - dst[j, i] = src[i, j] for the rows x columns block
+     * of src. The blocks are small enough for both the source and the
+     * destination rows to stay in the cache
+     */
+    public static void transpose(float[] src, int srcOffset, int srcStride, int rows, int columns, float[] dst, int dstOffset, int dstStride) {
+        final int block = 32;
+        for (int i0 = 0; i0 < rows; i0 += block) {
+            int i1 = Math.min(rows, i0 + block);
+            for (int j0 = 0; j0 < columns; j0 += block) {
+                int j1 = Math.min(columns, j0 + block);
+                for (int i = i0; i < i1; i++) {
+                    for (int j = j0, si = srcOffset + i * srcStride + j0, di = dstOffset + j0 * dstStride + i; j < j1; j++, si++, di += dstStride) {
+                        dst[di] = src[si];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the values of heap, off-heap and sample-major matrices
+     */
+    public static void fillArray(final Matrix matrix, final float value) {
+        if (matrix instanceof DirectMatrix) {
+            ((DirectMatrix) matrix).fill(value);
+        } else if (matrix instanceof SampleMajorMatrix) {
+            fillArray(((SampleMajorMatrix) matrix).getValues(), value);
+        } else if (matrix.isView()) {
+            // only the values of the view
+            float[] elements = matrix.getElements();
+            for (int i = 0, rows = matrix.getRows(); i < rows; i++) {
+                int start = matrix.getOffset() + i * matrix.getStride();
+                Arrays.fill(elements, start, start + matrix.getColumns(), value);
+            }
+        } else {
+            fillArray(matrix.getElements(), value);
+        }
+    }
+
     public static Layer getOppositeLayer(Connections connection, Layer layer) {
         return connection.getInputLayer() != layer ? connection.getInputLayer() : connection.getOutputLayer();
     }
 
+    /**
+     * @return whether any of the connections has off-heap weights (DirectMatrix)
+     */
+    public static boolean hasDirectWeights(Collection<? extends Connections> connections) {
+        for (Connections c : connections) {
+            if (c instanceof GraphConnections && ((GraphConnections) c).getConnectionGraph() instanceof DirectMatrix) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return whether any of the connections has 16 bit weights (HalfMatrix)
+     */
+    public static boolean hasHalfWeights(Collection<? extends Connections> connections) {
+        for (Connections c : connections) {
+            if (c instanceof GraphConnections && ((GraphConnections) c).getConnectionGraph() instanceof HalfMatrix) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return whether any of the connections has 8 bit weights
+     *         (QuantizedMatrix)
+     */
+    public static boolean hasQuantizedWeights(Collection<? extends Connections> connections) {
+        for (Connections c : connections) {
+            if (c instanceof GraphConnections && ((GraphConnections) c).getConnectionGraph() instanceof QuantizedMatrix) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return whether any of the connections has sparse weights (SparseMatrix)
+     */
+    public static boolean hasSparseWeights(Collection<? extends Connections> connections) {
+        for (Connections c : connections) {
+            if (c instanceof GraphConnections && ((GraphConnections) c).getConnectionGraph() instanceof SparseMatrix) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Magnitude pruning - replaces the connection (in its layers) with a
+     * sparse connection, which contains only the weights with magnitude
+     * larger than threshold
+     * 
+     * @return the new connection
+     */
+    public static SparseFullyConnected prune(FullyConnected fc, float threshold) {
+        SparseFullyConnected result = new SparseFullyConnected(fc.getInputLayer(), fc.getOutputLayer(), SparseMatrix.prune(fc.getConnectionGraph(), threshold));
+
+        // the new connection takes the place of the old one
+        for (Layer l : fc.getLayers()) {
+            l.replaceConnection(fc, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Magnitude pruning with target sparsity (the fraction of the weights that
+     * are removed)
+     */
+    public static SparseFullyConnected pruneToSparsity(FullyConnected fc, float sparsity) {
+        return prune(fc, SparseMatrix.threshold(fc.getConnectionGraph(), sparsity));
+    }
+
+    /**
+     * Prunes all the fully connected connections of the network (except the
+     * bias connections) to the target sparsity
+     */
+    public static void pruneToSparsity(NeuralNetwork nn, float sparsity) {
+        for (Connections c : nn.getConnections()) {
+            if (c instanceof FullyConnected && !(c instanceof SparseFullyConnected) && !isBias(c.getInputLayer())) {
+                pruneToSparsity((FullyConnected) c, sparsity);
+            }
+        }
+    }
+
+    /**
+     * Post training quantization - converts the weights of all fully connected
+     * and convolutional connections of the network to 8 bit values with a
+     * scale and zero point for each row (output unit/filter). The bias and
+     * the sparse connections are left in float. If calibration input is
+     * provided the network is calculated for all of it first and the maximum
+     * absolute value of the input of each connection is used as a fixed
+     * quantization range for the values. Otherwise the range is determined for
+     * each calculation. The network can't be trained afterwards
+     * 
+     * @param calibration
+     *            - representative input (can be null)
+     */
+    public static void quantize(NeuralNetwork nn, TrainingInputProvider calibration) {
+        Map<Connections, Float> ranges = new HashMap<>();
+        for (Connections c : nn.getConnections()) {
+            if (!isBias(c.getInputLayer()) && ((c instanceof FullyConnected && !(c instanceof SparseFullyConnected)) || c instanceof Conv2DConnection)) {
+                ranges.put(c, 0f);
+            }
+        }
+
+        if (calibration != null) {
+            calibration.reset();
+            Set<Layer> calculatedLayers = new UniqueList<>();
+            ValuesProvider results = new ValuesProvider();
+            TrainingInputData input = null;
+            while ((input = calibration.getNextInput()) != null) {
+                calculatedLayers.clear();
+                calculatedLayers.add(nn.getInputLayer());
+                results.addValues(nn.getInputLayer(), input.getInput());
+                nn.getLayerCalculator().calculate(nn, nn.getOutputLayer(), calculatedLayers, results);
+
+                for (Map.Entry<Connections, Float> e : ranges.entrySet()) {
+                    Matrix values = results.getValues(e.getKey().getInputLayer(), e.getKey());
+                    float max = e.getValue();
+                    for (int i = 0; i < values.getRows(); i++) {
+                        for (int j = 0; j < values.getColumns(); j++) {
+                            max = Math.max(max, Math.abs(values.get(i, j)));
+                        }
+                    }
+
+                    e.setValue(max);
+                }
+            }
+        }
+
+        for (Map.Entry<Connections, Float> e : ranges.entrySet()) {
+            QuantizedMatrix q = null;
+            if (e.getKey() instanceof FullyConnected) {
+                FullyConnected fc = (FullyConnected) e.getKey();
+                q = QuantizedMatrix.quantize(fc.getConnectionGraph());
+                fc.setConnectionGraph(q);
+            } else {
+                Conv2DConnection cc = (Conv2DConnection) e.getKey();
+                q = QuantizedMatrix.quantize(new Matrix(cc.getWeights(), cc.getWeights().length / cc.getOutputFilters()));
+                cc.setQuantizedWeights(q);
+            }
+
+            q.setInputRange(e.getValue());
+        }
+    }
+
+    /**
+     * Converts the weights of all fully connected and convolutional
+     * connections of the network to 16 bit values (for inference). The bias
+     * and the sparse connections are left in float (they are small). The
+     * network can't be trained afterwards
+     */
+    public static void toHalfPrecision(NeuralNetwork nn, HalfFloat format) {
+        for (Connections c : nn.getConnections()) {
+            if (isBias(c.getInputLayer())) {
+                continue;
+            }
+
+            if (c instanceof FullyConnected && !(c instanceof SparseFullyConnected)) {
+                FullyConnected fc = (FullyConnected) c;
+                if (!(fc.getConnectionGraph() instanceof HalfMatrix)) {
+                    fc.setConnectionGraph(HalfMatrix.copyOf(fc.getConnectionGraph(), format));
+                }
+            } else if (c instanceof Conv2DConnection) {
+                Conv2DConnection cc = (Conv2DConnection) c;
+                if (cc.getHalfWeights() == null) {
+                    cc.setHalfWeights(HalfMatrix.copyOf(new Matrix(cc.getWeights(), cc.getWeights().length / cc.getOutputFilters()), format));
+                }
+            }
+        }
+    }
+
+    /**
+     * Selects the sample-major layout for the values of the layers, which are
+     * only calculated and read by fully connected calculators that support it
+     * (the hidden and the output fully connected layers). The other layers
+     * (input, bias, convolutional, subsampling) stay unit-major. The fully
+     * connected calculators read and write both layouts in place, so the
+     * values are only converted (transposed) as part of the weighted sum at
+     * the boundaries between the layouts. The layout must be selected before
+     * the values are created (the forward phase only - the training
+     * calculators only support unit-major values)
+     * 
+     * @return the sample-major layers
+     */
+    public static List<Layer> sampleMajorLayout(NeuralNetwork nn, ValuesProvider vp) {
+        List<Layer> result = new ArrayList<>();
+        if (nn.getLayerCalculator() instanceof LayerCalculatorBase) {
+            LayerCalculatorBase lc = (LayerCalculatorBase) nn.getLayerCalculator();
+            for (Layer l : nn.getLayers()) {
+                if (l != nn.getInputLayer() && !isBias(l) && supportsSampleMajor(lc.getConnectionCalculator(l))) {
+                    boolean supported = true;
+                    for (Connections c : l.getConnections()) {
+                        if (!(c instanceof FullyConnected) || (c.getInputLayer() == l && !supportsSampleMajor(lc.getConnectionCalculator(c.getOutputLayer())))) {
+                            supported = false;
+                            break;
+                        }
+                    }
+
+                    if (supported) {
+                        vp.setLayout(l, Layout.SAMPLE_MAJOR);
+                        result.add(l);
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean supportsSampleMajor(ConnectionCalculator cc) {
+        return cc instanceof ConnectionCalculatorFullyConnected && ((ConnectionCalculatorFullyConnected) cc).supportsSampleMajor();
+    }
+
     /**
      * @param layer
      * @return whether layer is in fact bias layer
@@ -123,6 +406,21 @@ public class Util {
         return false;
     }
 
+    /**
+     * @return the bias connection of the feedforward calculation of the
+     *         target layer (or null if there is none)
+     */
+    public static Connections getBias(List<Connections> connections, Layer targetLayer) {
+        for (int i = 0; i < connections.size(); i++) {
+            Connections c = connections.get(i);
+            if (c.getOutputLayer() == targetLayer && isBias(c.getInputLayer())) {
+                return c;
+            }
+        }
+
+        return null;
+    }
+
     public static void printMatrix(float[] array, int rows, int columns) {
         StringBuilder sb = new StringBuilder();
         NumberFormat formatter = new DecimalFormat("#0.00");
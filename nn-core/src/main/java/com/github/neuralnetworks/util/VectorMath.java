@@ -0,0 +1,125 @@
+package com.github.neuralnetworks.util;
+
+/**
+ * Array versions of the activation functions (and their derivatives) for the
+ * pure java calculators. The loops are contiguous and don't contain branches
+ * or calls that prevent the JIT compiler from vectorizing them (SuperWord).
+ * Because of this the exponent is avoided - Math.exp is scalar and the range
+ * reduction of a polynomial exp needs int/float bit conversions, which are
+ * not vectorized. Instead sigmoid is calculated with a rational approximation
+ * of tanh (sigmoid(x) = 0.5 + 0.5 * tanh(x / 2)). The absolute error is below
+ * 1e-6
+ */
+public class VectorMath {
+
+    /**
+     * tanh(x) == +-1 (in float precision) outside of this range
+     */
+    private static final float TANH_MAX = 7.90531110763549805f;
+
+    /**
+     * tanh(x) = x * P(x^2) / Q(x^2)
+     */
+    public static float tanh(float x) {
+        // Math.min/max (unlike the conditional operator) are vectorized
+        x = Math.min(Math.max(x, -TANH_MAX), TANH_MAX);
+        float x2 = x * x;
+
+        float p = -2.76076847742355e-16f;
+        p = p * x2 + 2.00018790482477e-13f;
+        p = p * x2 - 8.60467152213735e-11f;
+        p = p * x2 + 5.12229709037114e-08f;
+        p = p * x2 + 1.48572235717979e-05f;
+        p = p * x2 + 6.37261928875436e-04f;
+        p = p * x2 + 4.89352455891786e-03f;
+
+        float q = 1.19825839466702e-06f;
+        q = q * x2 + 1.18534705686654e-04f;
+        q = q * x2 + 2.26843463243900e-03f;
+        q = q * x2 + 4.89352518554385e-03f;
+
+        return x * p / q;
+    }
+
+    public static float sigmoid(float x) {
+        return 0.5f + 0.5f * tanh(0.5f * x);
+    }
+
+    /**
+     * a[i] = 1 / (1 + exp(-a[i])) for i in [from, to)
+     */
+    public static void sigmoid(float[] a, int from, int to) {
+        for (int i = from; i < to; i++) {
+            a[i] = sigmoid(a[i]);
+        }
+    }
+
+    /**
+     * a[i] = max(0, a[i]) for i in [from, to)
+     */
+    public static void relu(float[] a, int from, int to) {
+        for (int i = from; i < to; i++) {
+            a[i] = Math.max(0, a[i]);
+        }
+    }
+
+    /**
+     * a[i] = log(1 + exp(a[i])) for i in [from, to). This one is scalar (there
+     * is no cheap approximation of the logarithm)
+     */
+    public static void softRelu(float[] a, int from, int to) {
+        for (int i = from; i < to; i++) {
+            a[i] = (float) Math.log(1 + Math.exp(a[i]));
+        }
+    }
+
+    /**
+     * error[i] = error[i] * activation[i] * (1 - activation[i])
+     */
+    public static void sigmoidDerivative(float[] error, float[] activation, int from, int to) {
+        float a = 0;
+        for (int i = from; i < to; i++) {
+            a = activation[i];
+            error[i] = error[i] * a * (1 - a);
+        }
+    }
+
+    /**
+     * error[i] = 0 where activation[i] <= 0
+     */
+    public static void reluDerivative(float[] error, float[] activation, int from, int to) {
+        for (int i = from; i < to; i++) {
+            error[i] = activation[i] > 0 ? error[i] : 0;
+        }
+    }
+
+    /**
+     * error[i] = error[i] * sigmoid(activation[i])
+     */
+    public static void softReluDerivative(float[] error, float[] activation, int from, int to) {
+        for (int i = from; i < to; i++) {
+            error[i] = error[i] * sigmoid(activation[i]);
+        }
+    }
+
+    /**
+     * @return sum of a[aOffset + i] * b[bOffset + i] for i in [0, length) with
+     *         four independent accumulators
+     */
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+
+        for (; i < length; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+
+        return (s0 + s1) + (s2 + s3);
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.neuralnetworks.architecture.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+
+import com.github.neuralnetworks.architecture.DirectMatrix;
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.StagingBuffers;
+
+public class DirectMatrixTest {
+
+    @Test
+    public void storesValuesOffHeap() {
+        DirectMatrix m = new DirectMatrix(2, 3);
+        m.set(1, 2, 5);
+
+        assertEquals(2, m.getRows());
+        assertEquals(3, m.getColumns());
+        assertEquals(5, m.get(1, 2), 0);
+        assertEquals(5, m.getBuffer().get(5), 0);
+        assertTrue(m.getBuffer().isDirect());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void hasNoHeapArray() {
+        new DirectMatrix(2, 3).getElements();
+    }
+
+    @Test
+    public void copiesAndStagesValues() {
+        Matrix heap = new Matrix(new float[] { 1, 2, 3, 4 }, 2);
+        DirectMatrix m = DirectMatrix.copyOf(heap);
+        assertEquals(3, m.get(1, 0), 0);
+
+        Matrix staged = DirectMatrix.stage(m);
+        staged.set(1, 1, 10);
+        DirectMatrix.unstage(staged, m);
+        assertEquals(10, m.get(1, 1), 0);
+
+        assertTrue(DirectMatrix.stage(heap) == heap);
+    }
+
+    @Test
+    public void reusesStagingBuffers() {
+        DirectMatrix a = DirectMatrix.copyOf(new Matrix(new float[] { 1, 2, 3, 4 }, 2));
+        DirectMatrix b = DirectMatrix.copyOf(new Matrix(new float[] { 5, 6 }, 1));
+        Matrix heap = new Matrix(2, 2);
+
+        StagingBuffers staging = new StagingBuffers();
+        Matrix stagedA = staging.stage(a);
+        assertTrue(staging.stage(heap) == heap);
+        Matrix stagedB = staging.stage(b);
+        assertEquals(4, stagedA.get(1, 1), 0);
+        assertEquals(6, stagedB.get(1, 0), 0);
+
+        // the next calculation uses the same buffers with the current values
+        a.set(1, 1, 10);
+        staging.reset();
+        assertTrue(staging.stage(a) == stagedA);
+        assertTrue(staging.stage(b) == stagedB);
+        assertEquals(10, stagedA.get(1, 1), 0);
+
+        // different dimensions
+        staging.reset();
+        assertTrue(staging.stage(b) != stagedA);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotBeUsedAfterRelease() {
+        DirectMatrix m = new DirectMatrix(2, 3);
+        m.release();
+        assertTrue(m.isReleased());
+        m.get(0, 0);
+    }
+
+    @Test
+    public void serializesValues() throws Exception {
+        DirectMatrix m = new DirectMatrix(2, 2);
+        m.set(0, 1, 7);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(m);
+        }
+
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            DirectMatrix copy = (DirectMatrix) in.readObject();
+            assertEquals(2, copy.getRows());
+            assertEquals(7, copy.get(0, 1), 0);
+        }
+    }
+}
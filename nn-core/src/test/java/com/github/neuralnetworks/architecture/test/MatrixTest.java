@@ -1,5 +1,9 @@
 package com.github.neuralnetworks.architecture.test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 
 import com.github.neuralnetworks.architecture.Matrix;
@@ -13,4 +17,51 @@ public class MatrixTest {
         Matrix matrix = new Matrix();
         matrix.getRows();
     }
+
+    @Test
+    public void viewSharesTheElements() {
+        Matrix matrix = new Matrix(new float[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 }, 4);
+        Matrix view = matrix.view(1, 1, 2, 2);
+
+        assertTrue(view.isView());
+        assertFalse(view.isDense());
+        assertTrue(matrix.getElements() == view.getElements());
+        assertEquals(2, view.getRows());
+        assertEquals(2, view.getColumns());
+        assertEquals(5, view.getOffset());
+        assertEquals(4, view.getStride());
+        assertEquals(6, view.get(0, 0), 0);
+        assertEquals(11, view.get(1, 1), 0);
+
+        view.set(1, 0, 100);
+        assertEquals(100, matrix.get(2, 1), 0);
+    }
+
+    @Test
+    public void viewOfView() {
+        Matrix matrix = new Matrix(4, 5);
+        Matrix view = matrix.view(1, 1, 3, 4).view(1, 2, 2, 2);
+
+        assertEquals(2 * 5 + 3, view.getOffset());
+        assertEquals(5, view.getStride());
+
+        view.set(1, 1, 1);
+        assertEquals(1, matrix.get(3, 4), 0);
+    }
+
+    @Test
+    public void denseMatrix() {
+        Matrix matrix = new Matrix(2, 3);
+
+        assertFalse(matrix.isView());
+        assertTrue(matrix.isDense());
+        assertEquals(0, matrix.getOffset());
+        assertEquals(3, matrix.getStride());
+        assertTrue(matrix.view(0, 0, 2, 3).isDense());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void viewCantExceedTheMatrix() {
+        new Matrix(2, 3).view(1, 1, 2, 2);
+    }
 }
@@ -0,0 +1,111 @@
+package com.github.neuralnetworks.architecture.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.FullyConnected;
+import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.NetworkTopology;
+import com.github.neuralnetworks.architecture.NeuralNetworkImpl;
+import com.github.neuralnetworks.architecture.types.NNFactory;
+import com.github.neuralnetworks.util.UniqueList;
+import com.github.neuralnetworks.util.Util;
+
+public class NetworkTopologyTest {
+
+    @Test
+    public void indexes() {
+        NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 3, 4, 2 }, true);
+        NetworkTopology t = mlp.getTopology();
+
+        assertEquals(mlp.getLayers().size(), t.getLayerCount());
+        assertEquals(mlp.getConnections().size(), t.getConnectionCount());
+        assertSame(mlp.getInputLayer(), t.getInputLayer());
+        assertSame(mlp.getOutputLayer(), t.getOutputLayer());
+        assertEquals(-1, t.getId(new Layer()));
+
+        for (int i = 0; i < t.getLayerCount(); i++) {
+            Layer l = t.getLayer(i);
+            assertEquals(i, t.getId(l));
+            assertEquals(Util.isBias(l), t.isBias(i));
+            assertEquals(Util.isConvolutional(l), t.isConvolutional(i));
+            assertEquals(Util.isSubsampling(l), t.isSubsampling(i));
+            assertEquals(l.getConnections(mlp), t.getConnections(l));
+
+            for (int c : t.getInboundConnectionIds(i)) {
+                assertEquals(i, t.getOutputLayerId(c));
+            }
+
+            for (int c : t.getOutboundConnectionIds(i)) {
+                assertEquals(i, t.getInputLayerId(c));
+            }
+        }
+
+        Connections c = mlp.getConnections().get(0);
+        assertSame(c, mlp.getConnection(c.getInputLayer(), c.getOutputLayer()));
+        assertSame(c, mlp.getConnection(c.getOutputLayer(), c.getInputLayer()));
+    }
+
+    @Test
+    public void snapshotIsRebuiltAfterChange() {
+        NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 3, 4 }, false);
+        NetworkTopology t = mlp.getTopology();
+        assertSame(t, mlp.getTopology());
+
+        Layer output = new Layer();
+        new FullyConnected(mlp.getOutputLayer(), output, 4, 2);
+        assertNotSame(t, mlp.getTopology());
+        assertFalse(output == mlp.getOutputLayer());
+
+        mlp.addLayer(output);
+        assertSame(output, mlp.getOutputLayer());
+        assertEquals(2, mlp.getTopology().getConnectionCount());
+    }
+
+    @Test
+    public void largeNetwork() {
+        int[] layers = new int[1000];
+        Arrays.fill(layers, 2);
+        NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(layers, true);
+
+        assertEquals(2 * layers.length - 1, mlp.getLayers().size());
+        assertEquals(2 * layers.length - 2, mlp.getConnections().size());
+        assertNull(mlp.getConnection(mlp.getInputLayer(), mlp.getOutputLayer()));
+    }
+
+    @Test
+    public void uniqueList() {
+        List<Integer> list = new UniqueList<>();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(list.add(i));
+            assertFalse(list.add(i));
+        }
+
+        assertFalse(list.addAll(Arrays.asList(1, 2, 3)));
+        assertTrue(list.addAll(Arrays.asList(1, 100, 100, 101)));
+        assertEquals(102, list.size());
+
+        list.remove(Integer.valueOf(50));
+        assertFalse(list.contains(50));
+        assertTrue(list.add(50));
+
+        list.set(0, 200);
+        assertFalse(list.contains(0));
+        assertTrue(list.contains(200));
+
+        list.subList(0, 10).clear();
+        assertFalse(list.contains(5));
+        assertArrayEquals(new Object[] { 10, 11 }, list.subList(0, 2).toArray());
+    }
+}
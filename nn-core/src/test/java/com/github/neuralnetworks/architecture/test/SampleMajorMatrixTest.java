@@ -0,0 +1,61 @@
+package com.github.neuralnetworks.architecture.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.SampleMajorMatrix;
+
+public class SampleMajorMatrixTest {
+
+    // 2 units x 3 samples
+    private final Matrix unitMajor = new Matrix(new float[] { 1, 2, 3, 4, 5, 6 }, 3);
+
+    @Test
+    public void copyOf() {
+        SampleMajorMatrix m = SampleMajorMatrix.copyOf(unitMajor);
+
+        assertEquals(2, m.getRows());
+        assertEquals(3, m.getColumns());
+        assertArrayEquals(new float[] { 1, 4, 2, 5, 3, 6 }, m.getValues(), 0);
+
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 3; j++) {
+                assertEquals(unitMajor.get(i, j), m.get(i, j), 0);
+            }
+        }
+    }
+
+    @Test
+    public void view() {
+        Matrix shared = new Matrix(new float[] { 0, 0, 0, 0, 1, 2, 3, 0, 4, 5, 6, 0 }, 4);
+        SampleMajorMatrix m = SampleMajorMatrix.copyOf(shared.view(1, 0, 2, 3));
+        assertArrayEquals(new float[] { 1, 4, 2, 5, 3, 6 }, m.getValues(), 0);
+
+        m.set(1, 2, 7);
+        m.copyTo(shared.view(1, 0, 2, 3));
+        assertEquals(7, shared.get(2, 2), 0);
+        assertEquals(0, shared.get(2, 3), 0);
+    }
+
+    @Test
+    public void stage() {
+        assertSame(unitMajor, SampleMajorMatrix.stage(unitMajor));
+
+        SampleMajorMatrix m = SampleMajorMatrix.copyOf(unitMajor);
+        Matrix staged = SampleMajorMatrix.stage(m);
+        assertArrayEquals(unitMajor.getElements(), staged.getElements(), 0);
+
+        staged.set(0, 1, 8);
+        SampleMajorMatrix.unstage(staged, m);
+        assertEquals(8, m.get(0, 1), 0);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void elements() {
+        new SampleMajorMatrix(2, 3).getElements();
+    }
+}
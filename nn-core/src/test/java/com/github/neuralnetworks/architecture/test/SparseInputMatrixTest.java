@@ -0,0 +1,76 @@
+package com.github.neuralnetworks.architecture.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import org.junit.Test;
+
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.SparseInputMatrix;
+
+public class SparseInputMatrixTest {
+
+    // 3 units x 3 samples
+    private final Matrix dense = new Matrix(new float[] { 0, 1, 0, 2, 0, 0, 0, 3, 4 }, 3);
+
+    @Test
+    public void copyOf() {
+        SparseInputMatrix m = SparseInputMatrix.copyOf(dense);
+
+        assertEquals(3, m.getRows());
+        assertEquals(3, m.getColumns());
+        assertEquals(4, m.getNonZeroCount());
+        assertArrayEquals(new int[] { 1 }, m.getIndices(0));
+        assertArrayEquals(new int[] { 0, 2 }, m.getIndices(1));
+        assertArrayEquals(new int[] { 2 }, m.getIndices(2));
+
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                assertEquals(dense.get(i, j), m.get(i, j), 0);
+            }
+        }
+    }
+
+    @Test
+    public void compressed() {
+        SparseInputMatrix m = SparseInputMatrix.copyOf(dense);
+
+        assertArrayEquals(new int[] { 0, 1, 3, 4 }, m.getColumnPointers());
+        assertArrayEquals(new int[] { 1, 0, 2, 2 }, m.getRowIndices());
+        assertArrayEquals(new float[] { 2, 1, 3, 4 }, m.getColumnValues(), 0);
+
+        assertArrayEquals(new int[] { 0, 1, 2, 4 }, m.getRowPointers());
+        assertArrayEquals(new int[] { 1, 0, 1, 2 }, m.getColumnIndices());
+        assertArrayEquals(new float[] { 1, 2, 3, 4 }, m.getRowValues(), 0);
+    }
+
+    @Test
+    public void set() {
+        SparseInputMatrix m = SparseInputMatrix.copyOf(dense);
+        int[] pointers = m.getColumnPointers();
+
+        m.set(0, 2, 5);
+        m.set(2, 1, 0);
+        m.set(1, 1, 0);
+        m.set(0, 0, 6);
+
+        assertEquals(5, m.getNonZeroCount());
+        assertEquals(5, m.get(0, 2), 0);
+        assertEquals(0, m.get(2, 1), 0);
+        assertEquals(6, m.get(0, 0), 0);
+        assertArrayEquals(new int[] { 0, 1 }, m.getIndices(0));
+        assertArrayEquals(new int[] { 0 }, m.getIndices(1));
+        assertArrayEquals(new int[] { 0, 2 }, m.getIndices(2));
+
+        // the compressed arrays are recreated
+        assertNotSame(pointers, m.getColumnPointers());
+        assertArrayEquals(new int[] { 0, 2, 3, 5 }, m.getColumnPointers());
+        assertArrayEquals(new int[] { 0, 3, 4, 5 }, m.getRowPointers());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void elements() {
+        new SparseInputMatrix(3, 2).getElements();
+    }
+}
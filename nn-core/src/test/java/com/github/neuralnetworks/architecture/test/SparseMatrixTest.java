@@ -0,0 +1,78 @@
+package com.github.neuralnetworks.architecture.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.github.neuralnetworks.architecture.FullyConnected;
+import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.SparseFullyConnected;
+import com.github.neuralnetworks.architecture.SparseMatrix;
+import com.github.neuralnetworks.util.Util;
+
+public class SparseMatrixTest {
+
+    private final Matrix dense = new Matrix(new float[] { 0.1f, 0, -3, 0, 0, 0, 0.5f, 2, 0.01f }, 3);
+
+    @Test
+    public void prune() {
+        SparseMatrix m = SparseMatrix.prune(dense, 0.05f);
+
+        assertEquals(3, m.getRows());
+        assertEquals(3, m.getColumns());
+        assertEquals(4, m.getNonZeroCount());
+        assertArrayEquals(new int[] { 0, 2, 2, 4 }, m.getRowPointers());
+        assertArrayEquals(new int[] { 0, 2, 0, 1 }, m.getColumnIndices());
+
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                assertEquals(Math.abs(dense.get(i, j)) > 0.05f ? dense.get(i, j) : 0, m.get(i, j), 0);
+            }
+        }
+    }
+
+    @Test
+    public void threshold() {
+        assertEquals(-1, SparseMatrix.threshold(dense, 0), 0);
+        assertEquals(0.01f, SparseMatrix.threshold(dense, 0.5f), 0);
+        assertEquals(0.1f, SparseMatrix.threshold(dense, 0.7f), 0);
+        assertEquals(5, SparseMatrix.prune(dense, SparseMatrix.threshold(dense, 0.1f)).getNonZeroCount());
+        assertEquals(2, SparseMatrix.prune(dense, SparseMatrix.threshold(dense, 0.75f)).getNonZeroCount());
+    }
+
+    @Test
+    public void set() {
+        SparseMatrix m = SparseMatrix.prune(dense, 0);
+        m.set(0, 2, 7);
+        m.set(1, 1, 0);
+        assertEquals(7, m.get(0, 2), 0);
+        assertEquals(7, m.getValues()[1], 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setPruned() {
+        SparseMatrix.prune(dense, 0).set(1, 1, 1);
+    }
+
+    @Test
+    public void pruneConnection() {
+        Layer input = new Layer();
+        Layer output = new Layer();
+        FullyConnected fc = new FullyConnected(input, output, dense);
+        FullyConnected other = new FullyConnected(new Layer(), output, 2, 3);
+
+        SparseFullyConnected sfc = Util.pruneToSparsity(fc, 0.5f);
+
+        assertEquals(4, sfc.getConnectionGraph().getNonZeroCount());
+        assertSame(sfc, input.getConnections().get(0));
+        assertSame(sfc, output.getConnections().get(0));
+        assertSame(other, output.getConnections().get(1));
+        assertEquals(1, input.getConnections().size());
+        assertEquals(2, output.getConnections().size());
+        assertTrue(sfc.getInputLayer() == input && sfc.getOutputLayer() == output);
+    }
+}
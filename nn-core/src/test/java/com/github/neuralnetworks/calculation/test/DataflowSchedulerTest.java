@@ -0,0 +1,235 @@
+package com.github.neuralnetworks.calculation.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.FullyConnected;
+import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.NeuralNetworkImpl;
+import com.github.neuralnetworks.architecture.types.NNFactory;
+import com.github.neuralnetworks.calculation.CalculationPlan;
+import com.github.neuralnetworks.calculation.DataflowScheduler;
+import com.github.neuralnetworks.calculation.LayerCalculatorImpl;
+import com.github.neuralnetworks.calculation.ValuesProvider;
+import com.github.neuralnetworks.events.PropagationEvent;
+import com.github.neuralnetworks.events.PropagationEventListener;
+import com.github.neuralnetworks.test.SimpleInputProvider;
+import com.github.neuralnetworks.training.TrainerFactory;
+import com.github.neuralnetworks.training.backpropagation.BackPropagationLayerCalculatorImpl;
+import com.github.neuralnetworks.training.backpropagation.BackPropagationTrainer;
+import com.github.neuralnetworks.training.random.MersenneTwisterRandomInitializer;
+import com.github.neuralnetworks.training.random.NNRandomInitializer;
+
+public class DataflowSchedulerTest {
+
+    private final DataflowScheduler scheduler = new DataflowScheduler(4);
+
+    @After
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void dependencies() {
+        NeuralNetworkImpl nn = NNFactory.multiColumnMlp(new int[] { 4, 3, 2 }, 2, 2, false);
+        LayerCalculatorImpl lc = NNFactory.lcSigmoid(nn, null);
+        Set<Layer> calculated = new HashSet<>();
+        calculated.add(nn.getInputLayer());
+        CalculationPlan plan = lc.getPlan(nn, nn.getOutputLayer(), calculated);
+
+        // 2 layers in each column and the output layer
+        assertEquals(5, plan.getStepCount());
+        assertFalse(plan.isSequential());
+        assertEquals(0, plan.getDependencies(0).length);
+        assertEquals(nn.getOutputLayer(), plan.getTarget(4));
+        assertEquals(2, plan.getDependencies(4).length);
+
+        // the first layers of the columns are independent
+        int independent = 0;
+        for (int i = 0; i < plan.getStepCount(); i++) {
+            independent += plan.getDependencies(i).length == 0 ? 1 : 0;
+        }
+
+        assertEquals(2, independent);
+
+        NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 4, 3, 2 }, true);
+        calculated.clear();
+        calculated.add(mlp.getInputLayer());
+        assertTrue(((LayerCalculatorImpl) mlp.getLayerCalculator()).getPlan(mlp, mlp.getOutputLayer(), calculated).isSequential());
+    }
+
+    /**
+     * Steps with the same connection calculator instance depend on each other
+     */
+    @Test
+    public void sharedCalculator() {
+        NeuralNetworkImpl nn = NNFactory.multiColumnMlp(new int[] { 6, 5, 4 }, 2, 3, true);
+        LayerCalculatorImpl lc = NNFactory.lcSigmoid(nn, null);
+        nn.setLayerCalculator(lc);
+        new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(nn);
+
+        Matrix input = new Matrix(6, 3);
+        for (int i = 0; i < input.getElements().length; i++) {
+            input.getElements()[i] = (i % 7) / 7f - 0.4f;
+        }
+
+        float[] expected = calculate(nn, input).getElements().clone();
+
+        // the first layers of the columns share the calculator
+        Set<Layer> calculated = new HashSet<>();
+        calculated.add(nn.getInputLayer());
+        CalculationPlan plan = lc.getPlan(nn, nn.getOutputLayer(), calculated);
+        List<Layer> first = new ArrayList<>();
+        for (int i = 0; i < plan.getStepCount(); i++) {
+            if (plan.getDependencies(i).length == 0) {
+                first.add(plan.getTarget(i));
+            }
+        }
+
+        assertEquals(2, first.size());
+        lc.addConnectionCalculator(first.get(1), lc.getConnectionCalculator(first.get(0)));
+
+        plan = lc.getPlan(nn, nn.getOutputLayer(), calculated);
+        int independent = 0;
+        for (int i = 0; i < plan.getStepCount(); i++) {
+            independent += plan.getDependencies(i).length == 0 ? 1 : 0;
+            if (plan.getTarget(i) == first.get(1)) {
+                assertEquals(1, plan.getDependencies(i).length);
+                assertEquals(first.get(0), plan.getTarget(plan.getDependencies(i)[0]));
+            }
+        }
+
+        assertEquals(1, independent);
+
+        lc.setScheduler(scheduler);
+        for (int n = 0; n < 10; n++) {
+            Matrix output = calculate(nn, input);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], output.getElements()[i], 0.00001);
+            }
+        }
+    }
+
+    @Test
+    public void sameForwardResults() {
+        NeuralNetworkImpl nn = NNFactory.multiColumnMlp(new int[] { 6, 5, 4 }, 4, 3, true);
+        nn.setLayerCalculator(NNFactory.lcSigmoid(nn, null));
+        new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(nn);
+
+        Matrix input = new Matrix(6, 3);
+        for (int i = 0; i < input.getElements().length; i++) {
+            input.getElements()[i] = (i % 7) / 7f - 0.4f;
+        }
+
+        float[] expected = calculate(nn, input).getElements().clone();
+
+        LayerCalculatorImpl lc = (LayerCalculatorImpl) nn.getLayerCalculator();
+        final List<Layer> events = Collections.synchronizedList(new ArrayList<Layer>());
+        lc.addEventListener(new PropagationEventListener() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void handleEvent(PropagationEvent event) {
+                events.add(event.getLayer());
+            }
+        });
+
+        lc.setScheduler(scheduler);
+        for (int n = 0; n < 10; n++) {
+            events.clear();
+            Matrix output = calculate(nn, input);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], output.getElements()[i], 0.00001);
+            }
+
+            // each layer is calculated after the layers it depends on
+            assertEquals(9, events.size());
+            assertEquals(nn.getOutputLayer(), events.get(events.size() - 1));
+            for (Layer l : events) {
+                for (Connections c : l.getConnections()) {
+                    if (c.getOutputLayer() == l && events.contains(c.getInputLayer())) {
+                        assertTrue(events.indexOf(c.getInputLayer()) < events.indexOf(l));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sameBackpropagationResults() {
+        NeuralNetworkImpl nn = NNFactory.multiColumnMlp(new int[] { 6, 5, 4 }, 3, 2, true);
+        nn.setLayerCalculator(NNFactory.lcSigmoid(nn, null));
+        new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(nn);
+
+        float[][] input = new float[8][6];
+        float[][] target = new float[8][2];
+        for (int i = 0; i < input.length; i++) {
+            for (int j = 0; j < input[i].length; j++) {
+                input[i][j] = ((i + j) % 5) / 5f;
+            }
+
+            target[i][i % 2] = 1;
+        }
+
+        List<float[]> initial = weights(nn);
+
+        BackPropagationTrainer<?> bpt = TrainerFactory.backPropagation(nn, new SimpleInputProvider(input, target, input.length, 4), null, null, null, 0.1f, 0f, 0f, 0f);
+        bpt.train();
+        List<float[]> expected = weights(nn);
+
+        // the same training with the scheduler
+        restore(nn, initial);
+        ((LayerCalculatorImpl) nn.getLayerCalculator()).setScheduler(scheduler);
+        ((BackPropagationLayerCalculatorImpl) bpt.getBPLayerCalculator()).setScheduler(scheduler);
+        bpt.getTrainingInputProvider().reset();
+        bpt.train();
+
+        List<float[]> actual = weights(nn);
+        for (int i = 0; i < expected.size(); i++) {
+            for (int j = 0; j < expected.get(i).length; j++) {
+                assertEquals(expected.get(i)[j], actual.get(i)[j], 0.00001);
+            }
+        }
+    }
+
+    private static Matrix calculate(NeuralNetworkImpl nn, Matrix input) {
+        ValuesProvider vp = new ValuesProvider();
+        vp.addValues(nn.getInputLayer(), input);
+        Set<Layer> calculated = new HashSet<>();
+        calculated.add(nn.getInputLayer());
+        nn.getLayerCalculator().calculate(nn, nn.getOutputLayer(), calculated, vp);
+        return vp.getValues(nn.getOutputLayer());
+    }
+
+    /**
+     * @return copies of the weights of all the connections
+     */
+    private static List<float[]> weights(NeuralNetworkImpl nn) {
+        List<float[]> result = new ArrayList<>();
+        for (Connections c : nn.getConnections()) {
+            result.add(((FullyConnected) c).getConnectionGraph().getElements().clone());
+        }
+
+        return result;
+    }
+
+    private static void restore(NeuralNetworkImpl nn, List<float[]> weights) {
+        List<Connections> connections = nn.getConnections();
+        for (int i = 0; i < connections.size(); i++) {
+            float[] w = ((FullyConnected) connections.get(i)).getConnectionGraph().getElements();
+            System.arraycopy(weights.get(i), 0, w, 0, w.length);
+        }
+    }
+}
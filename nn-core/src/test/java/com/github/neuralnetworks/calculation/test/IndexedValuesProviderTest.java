@@ -0,0 +1,178 @@
+package com.github.neuralnetworks.calculation.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.NeuralNetworkImpl;
+import com.github.neuralnetworks.architecture.types.NNFactory;
+import com.github.neuralnetworks.calculation.IndexedValuesProvider;
+import com.github.neuralnetworks.calculation.LayerCalculatorImpl;
+import com.github.neuralnetworks.calculation.ValuesProvider;
+import com.github.neuralnetworks.training.random.MersenneTwisterRandomInitializer;
+import com.github.neuralnetworks.training.random.NNRandomInitializer;
+import com.github.neuralnetworks.util.Environment;
+import com.github.neuralnetworks.util.UniqueList;
+
+public class IndexedValuesProviderTest {
+
+    @Test
+    public void preallocatedValues() {
+        NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 3, 4, 2 }, true);
+        IndexedValuesProvider vp = new IndexedValuesProvider(mlp, 4);
+        assertEquals(mlp.getLayers().size(), vp.getLayerCount());
+
+        Layer hidden = mlp.getConnections().get(0).getOutputLayer();
+        int index = vp.getIndex(hidden);
+        assertSame(hidden, vp.getLayer(index));
+        assertEquals(-1, vp.getIndex(new Layer()));
+
+        Matrix full = vp.getValues(hidden);
+        assertEquals(4, full.getRows());
+        assertEquals(4, full.getColumns());
+        assertSame(full, vp.getValues(index, 4));
+
+        // smaller mini batch - view of the same array
+        vp.setColumns(2);
+        Matrix partial = vp.getValues(hidden);
+        assertEquals(2, partial.getColumns());
+        assertTrue(partial.isContiguous());
+        assertSame(full.getElements(), partial.getElements());
+        assertSame(partial, vp.getValues(hidden, 4));
+
+        // added values replace the view
+        Matrix input = new Matrix(3, 2);
+        vp.addValues(mlp.getInputLayer(), input);
+        assertSame(input, vp.getValues(mlp.getInputLayer()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxColumns() {
+        new IndexedValuesProvider(NNFactory.mlpSigmoid(new int[] { 3, 2 }, true), 2).setColumns(3);
+    }
+
+    @Test
+    public void sameResults() {
+        NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 3, 4, 2 }, true);
+        new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(mlp);
+        IndexedValuesProvider indexed = new IndexedValuesProvider(mlp, 4);
+
+        for (int size : new int[] { 4, 2, 4 }) {
+            Matrix input = new Matrix(3, size);
+            for (int i = 0; i < input.getElements().length; i++) {
+                input.getElements()[i] = (i % 5) / 5f - 0.3f;
+            }
+
+            Matrix expected = calculate(mlp, input, new ValuesProvider());
+            Matrix output = calculate(mlp, input, indexed);
+            for (int i = 0; i < expected.getRows(); i++) {
+                for (int j = 0; j < size; j++) {
+                    assertEquals(expected.get(i, j), output.get(i, j), 0.00001);
+                }
+            }
+        }
+    }
+
+    /**
+     * A steady-state forward pass through LayerCalculatorImpl doesn't
+     * allocate. The guarantee covers only the GEMM path (the fully connected
+     * layers are calculated with GEMM): the default Aparapi path allocates on
+     * each kernel execution in the Aparapi kernel runner. The execution
+     * strategy itself doesn't allocate (see
+     * AutotuneKernelExecutionTest.tunedExecutionDoesNotAllocate)
+     */
+    @Test
+    public void noAllocation() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported());
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        boolean useGEMM = Environment.getInstance().isUseGEMM();
+        Environment.getInstance().setUseGEMM(true);
+        try {
+            NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 3, 4, 2 }, true);
+            new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(mlp);
+            LayerCalculatorImpl lc = (LayerCalculatorImpl) mlp.getLayerCalculator();
+            Set<Layer> calculated = new UniqueList<>();
+            calculated.add(mlp.getInputLayer());
+            IndexedValuesProvider vp = lc.createValuesProvider(mlp, mlp.getOutputLayer(), calculated, 4);
+            Matrix input = new Matrix(3, 4);
+            for (int i = 0; i < input.getElements().length; i++) {
+                input.getElements()[i] = (i % 5) / 5f - 0.3f;
+            }
+
+            // warm up - the first mini batch creates the plan, the kernels and the views, the rest lets the JIT compile the calculation
+            forward(lc, mlp, vp, input, calculated, 20000);
+
+            long start = threads.getThreadAllocatedBytes(thread);
+            forward(lc, mlp, vp, input, calculated, 1000);
+            long allocated = threads.getThreadAllocatedBytes(thread) - start;
+
+            assertEquals("allocated " + allocated + " bytes", 0, allocated);
+
+            Matrix expected = calculate(mlp, input, new ValuesProvider());
+            for (int i = 0; i < expected.getElements().length; i++) {
+                assertEquals(expected.getElements()[i], vp.getValues(mlp.getOutputLayer()).getElements()[i], 0.00001);
+            }
+        } finally {
+            Environment.getInstance().setUseGEMM(useGEMM);
+        }
+    }
+
+    /**
+     * Values of the layers of a plan
+     */
+    @Test
+    public void planValues() {
+        NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 3, 4, 2 }, true);
+        Set<Layer> calculated = new HashSet<>();
+        calculated.add(mlp.getInputLayer());
+        Layer hidden = mlp.getConnections().get(0).getOutputLayer();
+
+        // only the input and the hidden layer (with its bias) are used by the calculation of the hidden layer
+        LayerCalculatorImpl lc = (LayerCalculatorImpl) mlp.getLayerCalculator();
+        IndexedValuesProvider vp = lc.createValuesProvider(mlp, hidden, calculated, 4);
+        assertEquals(3, vp.getLayerCount());
+        assertTrue(vp.getIndex(hidden) != -1);
+        assertTrue(vp.getIndex(mlp.getInputLayer()) != -1);
+        assertEquals(-1, vp.getIndex(mlp.getOutputLayer()));
+
+        // the maximum number of columns is fixed
+        vp.setMaxColumns(4);
+        assertEquals(4, vp.getMaxColumns());
+        try {
+            vp.setMaxColumns(8);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    private static void forward(LayerCalculatorImpl lc, NeuralNetworkImpl mlp, ValuesProvider vp, Matrix input, Set<Layer> calculated, int count) {
+        for (int n = 0; n < count; n++) {
+            calculated.clear();
+            calculated.add(mlp.getInputLayer());
+            vp.addValues(mlp.getInputLayer(), input);
+            lc.calculate(mlp, mlp.getOutputLayer(), calculated, vp);
+        }
+    }
+
+    private static Matrix calculate(NeuralNetworkImpl mlp, Matrix input, ValuesProvider vp) {
+        vp.addValues(mlp.getInputLayer(), input);
+        Set<Layer> calculated = new HashSet<>();
+        calculated.add(mlp.getInputLayer());
+        mlp.getLayerCalculator().calculate(mlp, mlp.getOutputLayer(), calculated, vp);
+        return vp.getValues(mlp.getOutputLayer());
+    }
+}
@@ -2,7 +2,9 @@ package com.github.neuralnetworks.calculation.test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -18,12 +20,16 @@ import com.github.neuralnetworks.architecture.FullyConnected;
 import com.github.neuralnetworks.architecture.Layer;
 import com.github.neuralnetworks.architecture.Matrix;
 import com.github.neuralnetworks.architecture.NeuralNetworkImpl;
+import com.github.neuralnetworks.architecture.SparseFullyConnected;
+import com.github.neuralnetworks.calculation.CalculationPlan;
 import com.github.neuralnetworks.calculation.LayerCalculatorImpl;
 import com.github.neuralnetworks.calculation.LayerOrderStrategy.ConnectionCandidate;
 import com.github.neuralnetworks.calculation.ValuesProvider;
 import com.github.neuralnetworks.calculation.neuronfunctions.ConstantConnectionCalculator;
 import com.github.neuralnetworks.events.PropagationEvent;
 import com.github.neuralnetworks.events.PropagationEventListener;
+import com.github.neuralnetworks.util.UniqueList;
+import com.github.neuralnetworks.util.Util;
 
 public class LayerCalculatorImplTest {
 
@@ -177,4 +183,92 @@ public class LayerCalculatorImplTest {
 
         assertTrue(listener.wasEventHandled());
     }
+
+    @Test
+    public void planIsCached() {
+        CalculationPlan plan = layerCalc.getPlan(network, topLayer, calculatedLayers);
+        assertEquals(2, plan.getStepCount());
+        assertSame(middleLayer, plan.getTarget(0));
+        assertSame(topLayer, plan.getTarget(1));
+
+        // equal set of calculated layers
+        assertSame(plan, layerCalc.getPlan(network, topLayer, new HashSet<Layer>(calculatedLayers)));
+
+        // the trainers use UniqueList (list equals and hashCode)
+        Set<Layer> unique = new UniqueList<>();
+        unique.add(bottomLayer);
+        assertSame(plan, layerCalc.getPlan(network, topLayer, unique));
+        assertSame(plan, layerCalc.getPlan(network, topLayer, unique));
+        assertNotSame(plan, layerCalc.getPlan(network, middleLayer, calculatedLayers));
+    }
+
+    @Test
+    public void calculateAddsCalculatedLayers() {
+        layerCalc.calculate(network, topLayer, calculatedLayers, results);
+        assertTrue(calculatedLayers.contains(middleLayer));
+        assertTrue(calculatedLayers.contains(topLayer));
+
+        // the cached plan has the same side effect
+        calculatedLayers.remove(middleLayer);
+        calculatedLayers.remove(topLayer);
+        layerCalc.calculate(network, topLayer, calculatedLayers, results);
+        assertTrue(calculatedLayers.contains(middleLayer));
+        assertTrue(calculatedLayers.contains(topLayer));
+    }
+
+    @Test
+    public void planIsInvalidatedByTopologyChange() {
+        CalculationPlan plan = layerCalc.getPlan(network, topLayer, calculatedLayers);
+
+        // skip connection from the bottom layer
+        Connections c = new FullyConnected(bottomLayer, topLayer, 0, 0);
+        bottomLayer.addConnection(c);
+        topLayer.addConnection(c);
+
+        assertFalse(plan.isValid());
+        CalculationPlan newPlan = layerCalc.getPlan(network, topLayer, calculatedLayers);
+        assertNotSame(plan, newPlan);
+        assertEquals(2, newPlan.getConnections(1).size());
+    }
+
+    @Test
+    public void planIsNotInvalidatedByOtherNetworks() {
+        CalculationPlan plan = layerCalc.getPlan(network, topLayer, calculatedLayers);
+
+        NeuralNetworkImpl other = new NeuralNetworkImpl();
+        other.addConnection(new FullyConnected(new Layer(), new Layer(), 0, 0));
+        other.addLayer(new Layer());
+
+        assertTrue(plan.isValid());
+        assertSame(plan, layerCalc.getPlan(network, topLayer, calculatedLayers));
+    }
+
+    @Test
+    public void planIsInvalidatedByPruning() {
+        Layer input = new Layer();
+        Layer output = new Layer();
+        FullyConnected fc = new FullyConnected(input, output, 3, 2);
+        NeuralNetworkImpl nn = new NeuralNetworkImpl();
+        nn.addConnection(fc);
+
+        Set<Layer> calculated = new HashSet<>();
+        calculated.add(input);
+        CalculationPlan plan = layerCalc.getPlan(nn, output, calculated);
+        assertSame(fc, plan.getConnections(0).get(0));
+
+        SparseFullyConnected sparse = Util.prune(fc, 0);
+
+        assertFalse(plan.isValid());
+        assertSame(sparse, layerCalc.getPlan(nn, output, calculated).getConnections(0).get(0));
+    }
+
+    @Test
+    public void planIsInvalidatedByCalculatorChange() {
+        CalculationPlan plan = layerCalc.getPlan(network, topLayer, calculatedLayers);
+        assertNull(plan.getCalculator(1));
+
+        ConstantConnectionCalculator calc = new ConstantConnectionCalculator();
+        layerCalc.addConnectionCalculator(topLayer, calc);
+        assertSame(calc, layerCalc.getPlan(network, topLayer, calculatedLayers).getCalculator(1));
+    }
 }
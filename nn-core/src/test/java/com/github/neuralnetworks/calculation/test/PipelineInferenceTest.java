@@ -0,0 +1,168 @@
+package com.github.neuralnetworks.calculation.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.NeuralNetworkImpl;
+import com.github.neuralnetworks.architecture.types.NNFactory;
+import com.github.neuralnetworks.calculation.PipelineInference;
+import com.github.neuralnetworks.calculation.LayerCalculatorBase;
+import com.github.neuralnetworks.calculation.ValuesProvider;
+import com.github.neuralnetworks.events.PropagationEvent;
+import com.github.neuralnetworks.events.PropagationEventListener;
+import com.github.neuralnetworks.training.random.MersenneTwisterRandomInitializer;
+import com.github.neuralnetworks.training.random.NNRandomInitializer;
+
+public class PipelineInferenceTest {
+
+    @Test
+    public void stages() {
+        NeuralNetworkImpl nn = NNFactory.mlpSigmoid(new int[] { 8, 7, 6, 5, 4 }, true);
+        PipelineInference pipeline = new PipelineInference(nn, 2, 2);
+        try {
+            assertEquals(2, pipeline.getStageCount());
+
+            // contiguous groups of layers in the order of the calculation
+            List<Layer> layers = new ArrayList<>();
+            for (int i = 0; i < pipeline.getStageCount(); i++) {
+                assertTrue(pipeline.getLayers(i).size() > 0);
+                assertEquals(pipeline.getLayers(i).size(), pipeline.getStatistics(i).getStepCount());
+                layers.addAll(pipeline.getLayers(i));
+            }
+
+            assertEquals(4, layers.size());
+            assertTrue(nn.getConnection(nn.getInputLayer(), layers.get(0)) != null);
+            assertEquals(nn.getOutputLayer(), layers.get(3));
+        } finally {
+            pipeline.shutdown();
+        }
+
+        // at most one stage per layer
+        pipeline = new PipelineInference(nn, 10, 1);
+        try {
+            assertEquals(4, pipeline.getStageCount());
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    public void sameResults() throws Exception {
+        NeuralNetworkImpl nn = NNFactory.mlpSigmoid(new int[] { 6, 5, 4, 3 }, true);
+        new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(nn);
+
+        List<Matrix> inputs = new ArrayList<>();
+        List<float[]> expected = new ArrayList<>();
+        for (int n = 0; n < 20; n++) {
+            Matrix input = new Matrix(6, 2 + n % 3);
+            for (int i = 0; i < input.getElements().length; i++) {
+                input.getElements()[i] = ((i + n) % 7) / 7f - 0.4f;
+            }
+
+            inputs.add(input);
+            expected.add(calculate(nn, input).getElements().clone());
+        }
+
+        PipelineInference pipeline = new PipelineInference(nn, 3, 2);
+        try {
+            List<Future<Matrix>> results = new ArrayList<>();
+            for (Matrix input : inputs) {
+                results.add(pipeline.submit(input));
+            }
+
+            for (int n = 0; n < results.size(); n++) {
+                Matrix output = results.get(n).get();
+                assertEquals(expected.get(n).length, output.getElements().length);
+                for (int i = 0; i < expected.get(n).length; i++) {
+                    assertEquals(expected.get(n)[i], output.getElements()[i], 0.00001);
+                }
+            }
+
+            assertEquals(3, pipeline.getStageCount());
+            for (int i = 0; i < pipeline.getStageCount(); i++) {
+                assertEquals(inputs.size(), pipeline.getStatistics(i).getBatches());
+            }
+
+            assertTrue(pipeline.getAverageLatency() > 0);
+            assertTrue(pipeline.getThroughput() > 0);
+            assertTrue(pipeline.report().contains("stage 2"));
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejectsAfterShutdown() throws Exception {
+        PipelineInference pipeline = new PipelineInference(NNFactory.mlpSigmoid(new int[] { 6, 5, 4 }, true), 2, 1);
+        pipeline.shutdown();
+        pipeline.submit(new Matrix(6, 2));
+    }
+
+    /**
+     * The mini batches in the pipeline are cancelled on shutdown
+     */
+    @Test
+    public void shutdownCancelsPendingBatches() throws Exception {
+        NeuralNetworkImpl nn = NNFactory.mlpSigmoid(new int[] { 6, 5, 4 }, true);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // the first stage blocks until the end of the test
+        PropagationEventListener listener = new PropagationEventListener() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void handleEvent(PropagationEvent event) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        LayerCalculatorBase lc = (LayerCalculatorBase) nn.getLayerCalculator();
+        lc.addEventListener(listener);
+        PipelineInference pipeline = new PipelineInference(nn, 2, 2);
+        try {
+            List<Future<Matrix>> results = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                results.add(pipeline.submit(new Matrix(6, 2)));
+            }
+
+            blocked.await();
+            pipeline.shutdown();
+            assertTrue(pipeline.isShutdown());
+
+            for (Future<Matrix> f : results) {
+                assertTrue(f.isCancelled());
+            }
+        } finally {
+            release.countDown();
+            lc.removeEventListener(listener);
+            pipeline.shutdown();
+        }
+    }
+
+    private static Matrix calculate(NeuralNetworkImpl nn, Matrix input) {
+        ValuesProvider vp = new ValuesProvider();
+        vp.addValues(nn.getInputLayer(), input);
+        Set<Layer> calculated = new HashSet<>();
+        calculated.add(nn.getInputLayer());
+        nn.getLayerCalculator().calculate(nn, nn.getOutputLayer(), calculated, vp);
+        return vp.getValues(nn.getOutputLayer());
+    }
+}
@@ -1,6 +1,10 @@
 package com.github.neuralnetworks.calculation.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -227,4 +231,26 @@ public class ValuesProviderTest {
 
         assertEquals(matrix, provider.getValues(layer));
     }
+
+    @Test
+    public void maxColumnsSharesTheArray() {
+        Layer layer = new Layer();
+        provider.setMaxColumns(4);
+
+        provider.setColumns(4);
+        Matrix full = provider.getValues(layer, 3);
+        provider.setColumns(2);
+        Matrix partial = provider.getValues(layer, 3);
+
+        assertEquals(12, full.getElements().length);
+        assertSame(full.getElements(), partial.getElements());
+        assertEquals(2, partial.getColumns());
+        assertEquals(3, partial.getRows());
+        assertTrue(partial.isContiguous());
+        assertFalse(partial.isDense());
+        assertSame(partial, provider.getValues(layer, 3));
+
+        // different rows - different array
+        assertNotSame(full.getElements(), provider.getValues(layer, 2).getElements());
+    }
 }
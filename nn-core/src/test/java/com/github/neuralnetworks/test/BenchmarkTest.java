@@ -0,0 +1,836 @@
+package com.github.neuralnetworks.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.amd.aparapi.Kernel.EXECUTION_MODE;
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.FullyConnected;
+import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.NeuralNetworkImpl;
+import com.github.neuralnetworks.architecture.SparseFullyConnected;
+import com.github.neuralnetworks.architecture.SparseInputMatrix;
+import com.github.neuralnetworks.architecture.SparseMatrix;
+import com.github.neuralnetworks.architecture.types.NNFactory;
+import com.github.neuralnetworks.calculation.DataflowScheduler;
+import com.github.neuralnetworks.calculation.LayerCalculatorImpl;
+import com.github.neuralnetworks.calculation.OutputError;
+import com.github.neuralnetworks.calculation.PipelineInference;
+import com.github.neuralnetworks.calculation.ValuesProvider;
+import com.github.neuralnetworks.calculation.neuronfunctions.AparapiSigmoid;
+import com.github.neuralnetworks.calculation.neuronfunctions.AparapiWeightedSumConnectionCalculator;
+import com.github.neuralnetworks.calculation.neuronfunctions.ConnectionCalculatorFullyConnected;
+import com.github.neuralnetworks.input.MultipleNeuronsOutputError;
+import com.github.neuralnetworks.training.TrainerFactory;
+import com.github.neuralnetworks.training.TrainingInputData;
+import com.github.neuralnetworks.training.TrainingInputProvider;
+import com.github.neuralnetworks.training.allreduce.test.AllReduceWorker;
+import com.github.neuralnetworks.training.backpropagation.BackPropagationLayerCalculatorImpl;
+import com.github.neuralnetworks.training.backpropagation.BackPropagationTrainer;
+import com.github.neuralnetworks.training.backpropagation.DataParallelBackPropagationTrainer;
+import com.github.neuralnetworks.training.backpropagation.HogwildBackPropagationTrainer;
+import com.github.neuralnetworks.training.parameterserver.ParameterServer;
+import com.github.neuralnetworks.training.parameterserver.test.ParameterServerWorker;
+import com.github.neuralnetworks.training.random.MersenneTwisterRandomInitializer;
+import com.github.neuralnetworks.training.random.NNRandomInitializer;
+import com.github.neuralnetworks.util.AutotuneKernelExecution;
+import com.github.neuralnetworks.util.Environment;
+import com.github.neuralnetworks.util.ForkJoinKernelExecution;
+import com.github.neuralnetworks.util.KernelExecutionStrategy;
+import com.github.neuralnetworks.util.KernelExecutionStrategy.JTPKernelExecution;
+import com.github.neuralnetworks.util.KernelExecutionStrategy.TimedKernelExecution;
+import com.github.neuralnetworks.util.Util;
+import com.github.neuralnetworks.util.VectorMath;
+
+/**
+ * Throughput benchmarks. They are not part of the default build - run them
+ * with the benchmark profile (mvn test -Pbenchmark -Dmaven.test.skip=false).
+ * The sizes are kept small - increase the iterations for real measurements.
+ * The results are printed to the standard output
+ */
+public class BenchmarkTest {
+
+    /**
+     * layer sizes of the MNIST multi layer perceptron (NNFactory.mlp)
+     */
+    private static final int[] MLP_LAYERS = new int[] { 784, 300, 100, 10 };
+
+    private static final int ITERATIONS = 5;
+
+    /**
+     * layer sizes and mini batch size of the parameter server benchmark
+     */
+    private static final int[] PS_LAYERS = new int[] { 2000, 100, 10 };
+    private static final int PS_MINI_BATCH = 16;
+
+    private final Random random = new Random(123);
+
+    @After
+    public void restoreEnvironment() {
+	Environment.getInstance().setUseGEMM(false);
+	Environment.getInstance().setExecutionMode(EXECUTION_MODE.NONE);
+    }
+
+    /**
+     * GEMM engine vs the Aparapi JTP weighted sum kernel for the fully
+     * connected layers of the MNIST MLP (forward and backward direction)
+     */
+    @Test
+    public void testGEMMWeightedSum() {
+	Environment.getInstance().setExecutionMode(EXECUTION_MODE.JTP);
+
+	for (int miniBatchSize : new int[] { 1, 16, 128 }) {
+	    for (int i = 1; i < MLP_LAYERS.length; i++) {
+		Layer input = new Layer();
+		Layer output = new Layer();
+		FullyConnected fc = new FullyConnected(input, output, MLP_LAYERS[i - 1], MLP_LAYERS[i]);
+		randomize(fc.getConnectionGraph().getElements());
+
+		ValuesProvider vp = new ValuesProvider();
+		vp.addValues(input, randomize(new Matrix(MLP_LAYERS[i - 1], miniBatchSize)));
+		vp.addValues(output, randomize(new Matrix(MLP_LAYERS[i], miniBatchSize)));
+
+		long flop = 2l * MLP_LAYERS[i - 1] * MLP_LAYERS[i] * miniBatchSize;
+
+		for (boolean backward : new boolean[] { false, true }) {
+		    Layer target = backward ? input : output;
+
+		    Environment.getInstance().setUseGEMM(false);
+		    long aparapi = time(fc, vp, target);
+		    Environment.getInstance().setUseGEMM(true);
+		    long gemm = time(fc, vp, target);
+
+		    System.out.println(String.format("%s %dx%d mb=%d: aparapi %.3f GFLOPS, gemm %.3f GFLOPS", backward ? "bw" : "fw", MLP_LAYERS[i - 1], MLP_LAYERS[i], miniBatchSize, ((double) flop) / aparapi, ((double) flop) / gemm));
+		}
+	    }
+	}
+    }
+
+    /**
+     * Aparapi backpropagation of wide fully connected layers (the backward
+     * direction weighted sum reads the transposed weights)
+     */
+    @Test
+    public void testWideBackpropagation() {
+	Environment.getInstance().setExecutionMode(EXECUTION_MODE.JTP);
+
+	for (int miniBatchSize : new int[] { 1, 16 }) {
+	    NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 2048, 2048, 10 }, true);
+
+	    float[][] input = new float[miniBatchSize * ITERATIONS][2048];
+	    float[][] target = new float[input.length][10];
+	    for (int i = 0; i < input.length; i++) {
+		randomize(input[i]);
+		target[i][random.nextInt(10)] = 1;
+	    }
+
+	    BackPropagationTrainer<?> bpt = TrainerFactory.backPropagation(mlp, new SimpleInputProvider(input, target, input.length, miniBatchSize), null, null, new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.01f, 0.01f)), 0.01f, 0.5f, 0f, 0f);
+
+	    // warmup
+	    bpt.train();
+
+	    long start = System.nanoTime();
+	    bpt.train();
+	    long time = (System.nanoTime() - start) / ITERATIONS;
+
+	    System.out.println(String.format("mlp 2048x2048x10 mb=%d: %.3f ms per mini batch", miniBatchSize, time / 1000000d));
+	}
+    }
+
+    /**
+     * Aparapi JTP vs the fork/join execution strategy for training of the
+     * MNIST MLP and a LeNet-like CNN (per kernel wall time)
+     */
+    @Test
+    public void testForkJoinExecution() {
+	for (boolean cnn : new boolean[] { false, true }) {
+	    for (KernelExecutionStrategy strategy : new KernelExecutionStrategy[] { new JTPKernelExecution(), new ForkJoinKernelExecution() }) {
+		TimedKernelExecution timed = new TimedKernelExecution(strategy);
+		Environment.getInstance().setExecutionStrategy(timed);
+
+		NeuralNetworkImpl nn = null;
+		int inputSize = 0;
+		if (cnn) {
+		    nn = NNFactory.convNN(new int[][] { { 28, 28, 1 }, { 5, 5, 20, 1 }, { 2, 2 }, { 5, 5, 50, 1 }, { 2, 2 }, { 500 }, { 10 } }, true);
+		    nn.setLayerCalculator(NNFactory.lcSigmoid(nn, null));
+		    NNFactory.lcMaxPooling(nn);
+		    inputSize = 28 * 28;
+		} else {
+		    nn = NNFactory.mlpSigmoid(MLP_LAYERS, true);
+		    inputSize = MLP_LAYERS[0];
+		}
+
+		int miniBatchSize = 16;
+		float[][] input = new float[miniBatchSize * ITERATIONS][inputSize];
+		float[][] target = new float[input.length][10];
+		for (int i = 0; i < input.length; i++) {
+		    randomize(input[i]);
+		    target[i][random.nextInt(10)] = 1;
+		}
+
+		SimpleInputProvider trainingSet = new SimpleInputProvider(input, target, input.length, miniBatchSize);
+		BackPropagationTrainer<?> bpt = TrainerFactory.backPropagation(nn, trainingSet, null, null, new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.01f, 0.01f)), 0.01f, 0.5f, 0f, 0f);
+
+		long start = System.nanoTime();
+		bpt.train();
+
+		System.out.println(String.format("%s %s: %.3f ms", cnn ? "cnn" : "mlp", strategy.getClass().getSimpleName(), (System.nanoTime() - start) / 1000000d));
+		System.out.print(timed.getStatistics().report());
+	    }
+	}
+    }
+
+    /**
+     * Sigmoid layers of the MNIST MLP - Aparapi JTP kernel vs the pure java
+     * path (GEMM and the vectorizable activation functions). The activation
+     * function alone is also compared with a scalar Math.exp loop
+     */
+    @Test
+    public void testVectorActivations() {
+	Environment.getInstance().setExecutionMode(EXECUTION_MODE.JTP);
+
+	int miniBatchSize = 128;
+	for (int i = 1; i < MLP_LAYERS.length; i++) {
+	    Layer input = new Layer();
+	    Layer output = new Layer();
+	    FullyConnected fc = new FullyConnected(input, output, MLP_LAYERS[i - 1], MLP_LAYERS[i]);
+	    randomize(fc.getConnectionGraph().getElements());
+
+	    ValuesProvider vp = new ValuesProvider();
+	    vp.addValues(input, randomize(new Matrix(MLP_LAYERS[i - 1], miniBatchSize)));
+	    vp.addValues(output, new Matrix(MLP_LAYERS[i], miniBatchSize));
+
+	    Environment.getInstance().setUseGEMM(false);
+	    long aparapi = time(new AparapiSigmoid(), fc, vp, output);
+	    Environment.getInstance().setUseGEMM(true);
+	    long vector = time(new AparapiSigmoid(), fc, vp, output);
+
+	    System.out.println(String.format("sigmoid %dx%d mb=%d: aparapi %.3f ms, vector %.3f ms", MLP_LAYERS[i - 1], MLP_LAYERS[i], miniBatchSize, aparapi / 1000000d, vector / 1000000d));
+	}
+
+	float[] values = new float[1 << 20];
+	randomize(values);
+	float[] a = values.clone();
+	long scalar = 0, vector = 0;
+	for (int i = 0; i < ITERATIONS; i++) {
+	    System.arraycopy(values, 0, a, 0, a.length);
+	    long start = System.nanoTime();
+	    for (int j = 0; j < a.length; j++) {
+		a[j] = 1 / (1 + (float) Math.exp(-a[j]));
+	    }
+	    scalar += System.nanoTime() - start;
+
+	    System.arraycopy(values, 0, a, 0, a.length);
+	    start = System.nanoTime();
+	    VectorMath.sigmoid(a, 0, a.length);
+	    vector += System.nanoTime() - start;
+	}
+
+	System.out.println(String.format("sigmoid %d values: scalar %.3f ms, vector %.3f ms", values.length, scalar / 1000000d / ITERATIONS, vector / 1000000d / ITERATIONS));
+    }
+
+    /**
+     * Inference of the MNIST MLP with float and with 8 bit weights (post
+     * training quantization with calibration) - latency per mini batch and
+     * accuracy. The classes predicted by the float network are used as
+     * targets, so the error of the quantized network is the fraction of
+     * changed predictions
+     */
+    @Test
+    public void testQuantizedInference() {
+	NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(MLP_LAYERS, true);
+	new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.1f, 0.1f)).initialize(mlp);
+
+	int miniBatchSize = 64;
+	float[][] input = new float[miniBatchSize * ITERATIONS][MLP_LAYERS[0]];
+	for (int i = 0; i < input.length; i++) {
+	    for (int j = 0; j < input[i].length; j++) {
+		input[i][j] = random.nextFloat();
+	    }
+	}
+
+	float[][] target = new float[input.length][MLP_LAYERS[MLP_LAYERS.length - 1]];
+	MultipleNeuronsOutputError floatError = new MultipleNeuronsOutputError();
+	long floatTime = infer(mlp, new SimpleInputProvider(input, target, input.length, miniBatchSize), floatError, target);
+
+	Util.quantize(mlp, new SimpleInputProvider(input, null, miniBatchSize, miniBatchSize));
+	MultipleNeuronsOutputError int8Error = new MultipleNeuronsOutputError();
+	long int8Time = infer(mlp, new SimpleInputProvider(input, target, input.length, miniBatchSize), int8Error, null);
+
+	System.out.println(String.format("mlp mb=%d: float %.3f ms (error %.4f), int8 %.3f ms (error %.4f)", miniBatchSize, floatTime / 1000000d, floatError.getTotalNetworkError(), int8Time / 1000000d, int8Error.getTotalNetworkError()));
+    }
+
+    /**
+     * MNIST MLP inference with the default execution strategy (range
+     * threshold) vs the autotuned execution modes. Prints the selected mode
+     * of each layer
+     */
+    @Test
+    public void testAutotuneExecution() throws IOException {
+	for (int miniBatchSize : new int[] { 1, 64 }) {
+	    NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(MLP_LAYERS, true);
+	    new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.1f, 0.1f)).initialize(mlp);
+
+	    // the mini batch size is not part of the kernel range - a profile per mini batch size
+	    File profile = File.createTempFile("autotune-mb" + miniBatchSize, ".properties");
+	    profile.delete();
+	    profile.deleteOnExit();
+
+	    AutotuneKernelExecution autotune = new AutotuneKernelExecution(profile, AutotuneKernelExecution.defaultCandidates(), 2);
+	    ((LayerCalculatorImpl) mlp.getLayerCalculator()).addEventListener(autotune);
+
+	    float[][] input = new float[miniBatchSize * ITERATIONS][MLP_LAYERS[0]];
+	    for (int i = 0; i < input.length; i++) {
+		randomize(input[i]);
+	    }
+
+	    float[][] target = new float[input.length][MLP_LAYERS[MLP_LAYERS.length - 1]];
+	    SimpleInputProvider ip = new SimpleInputProvider(input, target, input.length, miniBatchSize);
+
+	    Environment.getInstance().setExecutionMode(EXECUTION_MODE.NONE);
+	    long defaultTime = infer(mlp, ip, new MultipleNeuronsOutputError(), null);
+
+	    // the first calculation is used for the trials
+	    Environment.getInstance().setExecutionStrategy(autotune);
+	    infer(mlp, ip, new MultipleNeuronsOutputError(), null);
+	    long autotuneTime = infer(mlp, ip, new MultipleNeuronsOutputError(), null);
+
+	    System.out.println(String.format("mlp mb=%d: default %.3f ms, autotune %.3f ms", miniBatchSize, defaultTime / 1000000d, autotuneTime / 1000000d));
+	    System.out.print(autotune.report(mlp));
+	}
+    }
+
+    /**
+     * MNIST MLP inference with unit-major and sample-major values of the
+     * hidden/output layers for small and large mini batches (Aparapi and GEMM
+     * calculators)
+     */
+    @Test
+    public void testSampleMajorLayout() {
+	NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(MLP_LAYERS, true);
+	new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.1f, 0.1f)).initialize(mlp);
+
+	try {
+	    for (int miniBatchSize : new int[] { 4, 128 }) {
+		float[][] input = new float[miniBatchSize * ITERATIONS][MLP_LAYERS[0]];
+		for (int i = 0; i < input.length; i++) {
+		    for (int j = 0; j < input[i].length; j++) {
+			input[i][j] = random.nextFloat();
+		    }
+		}
+
+		float[][] target = new float[input.length][MLP_LAYERS[MLP_LAYERS.length - 1]];
+
+		for (boolean gemm : new boolean[] { false, true }) {
+		    Environment.getInstance().setUseGEMM(gemm);
+
+		    long unitMajor = infer(mlp, new SimpleInputProvider(input, target, input.length, miniBatchSize), new MultipleNeuronsOutputError(), null);
+
+		    ValuesProvider vp = new ValuesProvider();
+		    Util.sampleMajorLayout(mlp, vp);
+		    long sampleMajor = infer(mlp, new SimpleInputProvider(input, target, input.length, miniBatchSize), new MultipleNeuronsOutputError(), null, vp);
+
+		    System.out.println(String.format("mlp %s mb=%d: unit-major %.3f ms, sample-major %.3f ms", gemm ? "gemm" : "aparapi", miniBatchSize, unitMajor / 1000000d, sampleMajor / 1000000d));
+		}
+	    }
+	} finally {
+	    Environment.getInstance().setUseGEMM(false);
+	}
+    }
+
+    /**
+     * Fully connected layers of the MNIST MLP - dense GEMM vs 90% sparse (CSR)
+     * weights. Also prints the weight memory of both
+     */
+    @Test
+    public void testSparseInference() {
+	Environment.getInstance().setUseGEMM(true);
+
+	for (int miniBatchSize : new int[] { 1, 64 }) {
+	    for (int i = 1; i < MLP_LAYERS.length; i++) {
+		Layer input = new Layer();
+		Layer output = new Layer();
+		FullyConnected fc = new FullyConnected(input, output, MLP_LAYERS[i - 1], MLP_LAYERS[i]);
+		randomize(fc.getConnectionGraph().getElements());
+
+		ValuesProvider vp = new ValuesProvider();
+		vp.addValues(input, randomize(new Matrix(MLP_LAYERS[i - 1], miniBatchSize)));
+		vp.addValues(output, new Matrix(MLP_LAYERS[i], miniBatchSize));
+
+		long dense = time(fc, vp, output);
+		SparseFullyConnected sfc = Util.pruneToSparsity(fc, 0.9f);
+		long sparse = time(sfc, vp, output);
+
+		SparseMatrix cg = sfc.getConnectionGraph();
+		long denseBytes = 4l * cg.getRows() * cg.getColumns();
+		long sparseBytes = 8l * cg.getNonZeroCount() + 4l * cg.getRowPointers().length;
+
+		System.out.println(String.format("%dx%d mb=%d: dense %.3f ms (%d KB), sparse %.3f ms (%d KB)", MLP_LAYERS[i - 1], MLP_LAYERS[i], miniBatchSize, dense / 1000000d, denseBytes / 1024, sparse / 1000000d, sparseBytes / 1024));
+	    }
+	}
+    }
+
+    /**
+     * First fully connected layer with 20000 inputs (bag-of-words like, 1%
+     * non-zero values) - dense vs sparse input values, Aparapi and GEMM
+     */
+    @Test
+    public void testSparseInputInference() {
+	int inputSize = 20000, outputSize = 128, miniBatchSize = 64;
+
+	Matrix dense = new Matrix(inputSize, miniBatchSize);
+	for (int i = 0; i < inputSize * miniBatchSize / 100; i++) {
+	    dense.set(random.nextInt(inputSize), random.nextInt(miniBatchSize), 1);
+	}
+
+	SparseInputMatrix sparse = SparseInputMatrix.copyOf(dense);
+
+	try {
+	    for (boolean gemm : new boolean[] { false, true }) {
+		Environment.getInstance().setUseGEMM(gemm);
+
+		Layer input = new Layer();
+		Layer output = new Layer();
+		FullyConnected fc = new FullyConnected(input, output, inputSize, outputSize);
+		randomize(fc.getConnectionGraph().getElements());
+
+		ValuesProvider vp = new ValuesProvider();
+		vp.addValues(output, new Matrix(outputSize, miniBatchSize));
+		vp.addValues(input, dense);
+		long denseTime = time(fc, vp, output);
+		vp.addValues(input, sparse);
+		long sparseTime = time(fc, vp, output);
+
+		System.out.println(String.format("%s %dx%d mb=%d, %d non-zero inputs: dense %.3f ms, sparse %.3f ms", gemm ? "gemm" : "aparapi", inputSize, outputSize, miniBatchSize, sparse.getNonZeroCount(), denseTime / 1000000d, sparseTime / 1000000d));
+	    }
+	} finally {
+	    Environment.getInstance().setUseGEMM(false);
+	}
+    }
+
+    /**
+     * Multi column network (4 columns of 2 fully connected layers between the
+     * MNIST input and the output) - sequential calculation vs the dataflow
+     * scheduler, which calculates the independent columns in parallel. Forward
+     * (inference) and training (forward and backpropagation) time per mini
+     * batch
+     */
+    @Test
+    public void testDataflowScheduler() {
+	for (boolean gemm : new boolean[] { false, true }) {
+	    Environment.getInstance().setUseGEMM(gemm);
+	    NeuralNetworkImpl nn = NNFactory.multiColumnMlp(new int[] { 784, 300, 100 }, 4, 10, true);
+	    nn.setLayerCalculator(NNFactory.lcSigmoid(nn, null));
+
+	    int miniBatchSize = 32;
+	    float[][] input = new float[miniBatchSize * ITERATIONS][784];
+	    float[][] target = new float[input.length][10];
+	    for (int i = 0; i < input.length; i++) {
+		randomize(input[i]);
+		target[i][random.nextInt(10)] = 1;
+	    }
+
+	    SimpleInputProvider trainingSet = new SimpleInputProvider(input, target, input.length, miniBatchSize);
+	    BackPropagationTrainer<?> bpt = TrainerFactory.backPropagation(nn, trainingSet, null, null, new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.01f, 0.01f)), 0.01f, 0.5f, 0f, 0f);
+	    LayerCalculatorImpl lc = (LayerCalculatorImpl) nn.getLayerCalculator();
+	    BackPropagationLayerCalculatorImpl bplc = (BackPropagationLayerCalculatorImpl) bpt.getBPLayerCalculator();
+
+	    DataflowScheduler scheduler = new DataflowScheduler(Runtime.getRuntime().availableProcessors());
+	    try {
+		long[] forward = new long[2];
+		long[] training = new long[2];
+		for (int parallel = 0; parallel < 2; parallel++) {
+		    lc.setScheduler(parallel == 1 ? scheduler : null);
+		    bplc.setScheduler(parallel == 1 ? scheduler : null);
+
+		    forward[parallel] = infer(nn, trainingSet, new MultipleNeuronsOutputError(), null);
+
+		    // warmup
+		    bpt.train();
+
+		    long start = System.nanoTime();
+		    bpt.train();
+		    training[parallel] = (System.nanoTime() - start) / ITERATIONS;
+		}
+
+		System.out.println(String.format("multi column %s mb=%d: forward sequential %.3f ms, dataflow %.3f ms; training sequential %.3f ms, dataflow %.3f ms", gemm ? "gemm" : "aparapi", miniBatchSize, forward[0] / 1000000d,
+			forward[1] / 1000000d, training[0] / 1000000d, training[1] / 1000000d));
+	    } finally {
+		scheduler.shutdown();
+		lc.setScheduler(null);
+	    }
+	}
+    }
+
+    /**
+     * Data parallel training of the MNIST MLP with 1 to N workers (N - the
+     * number of cores, at least 2). Time per mini batch (gradients, reduction
+     * and update), speedup and scaling efficiency (speedup / workers)
+     */
+    @Test
+    public void testDataParallelTraining() {
+	int miniBatchSize = 64;
+	float[][] input = new float[miniBatchSize * ITERATIONS][MLP_LAYERS[0]];
+	float[][] target = new float[input.length][MLP_LAYERS[MLP_LAYERS.length - 1]];
+	for (int i = 0; i < input.length; i++) {
+	    randomize(input[i]);
+	    target[i][random.nextInt(target[i].length)] = 1;
+	}
+
+	long single = 0;
+	for (int workers = 1; workers <= Math.max(2, Runtime.getRuntime().availableProcessors()); workers++) {
+	    NeuralNetworkImpl nn = NNFactory.mlpSigmoid(MLP_LAYERS, true);
+	    List<NeuralNetworkImpl> replicas = new ArrayList<>();
+	    for (int i = 1; i < workers; i++) {
+		replicas.add(NNFactory.mlpSigmoid(MLP_LAYERS, true));
+	    }
+
+	    DataParallelBackPropagationTrainer<?> dpt = TrainerFactory.dataParallelBackPropagation(nn, replicas, new SimpleInputProvider(input, target, input.length, miniBatchSize), null, null,
+		    new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.01f, 0.01f)), 0.01f, 0.5f, 0f, 0f);
+	    try {
+		// warmup
+		dpt.train();
+
+		long start = System.nanoTime();
+		dpt.train();
+		long time = (System.nanoTime() - start) / ITERATIONS;
+		single = workers == 1 ? time : single;
+
+		double speedup = single / (double) time;
+		System.out.println(String.format("data parallel mb=%d workers=%d: %.3f ms (gradients %.3f ms, reduction %.3f ms, update %.3f ms), speedup %.2f, efficiency %.0f%%", miniBatchSize, workers,
+			time / 1000000d, dpt.getGradientTime() / ITERATIONS / 1000000d, dpt.getReductionTime() / ITERATIONS / 1000000d, dpt.getUpdateTime() / ITERATIONS / 1000000d, speedup,
+			100 * speedup / workers));
+	    } finally {
+		dpt.shutdown();
+	    }
+	}
+    }
+
+    /**
+     * Sparse wide MLP (2000 inputs, 25 non-zero per sample) - the single
+     * threaded backpropagation trainer vs Hogwild with 1 to N workers (N - the
+     * number of cores, at least 2). Samples per second and the classification
+     * error on the training set after the same number of epochs
+     */
+    @Test
+    public void testHogwildTraining() {
+	Environment.getInstance().setUseGEMM(true);
+
+	int[] layers = new int[] { 2000, 100, 10 };
+	int miniBatchSize = 16, epochs = 5;
+	float[][] input = new float[miniBatchSize * ITERATIONS * 8][layers[0]];
+	float[][] target = new float[input.length][layers[2]];
+	SimpleInputProvider.blockClasses(random, input, target);
+
+	for (int workers = 0; workers <= Math.max(2, Runtime.getRuntime().availableProcessors()); workers++) {
+	    NeuralNetworkImpl nn = NNFactory.mlpSigmoid(layers, true);
+	    new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.1f, 0.1f)).initialize(nn);
+	    SimpleInputProvider trainingSet = new SimpleInputProvider(input, target, input.length, miniBatchSize);
+	    MultipleNeuronsOutputError error = new MultipleNeuronsOutputError();
+
+	    // 0 workers - the single threaded trainer
+	    BackPropagationTrainer<?> bpt = null;
+	    if (workers == 0) {
+		bpt = TrainerFactory.backPropagation(nn, trainingSet, trainingSet, error, null, 0.05f, 0f, 0f, 0f);
+	    } else {
+		List<NeuralNetworkImpl> replicas = new ArrayList<>();
+		for (int i = 1; i < workers; i++) {
+		    replicas.add(NNFactory.mlpSigmoid(layers, true));
+		}
+
+		bpt = TrainerFactory.hogwildBackPropagation(nn, replicas, trainingSet, trainingSet, error, null, 0.05f, 0f, 0f, 0f);
+	    }
+
+	    try {
+		long start = System.nanoTime();
+		for (int i = 0; i < epochs; i++) {
+		    bpt.train();
+		}
+
+		double samples = epochs * input.length / ((System.nanoTime() - start) / 1000000000d);
+		bpt.test();
+		System.out.println(String.format("%s mb=%d: %.0f samples/s, error %.3f after %d epochs", workers == 0 ? "single threaded" : "hogwild workers=" + workers, miniBatchSize, samples,
+			error.getTotalNetworkError(), epochs));
+	    } finally {
+		if (bpt instanceof HogwildBackPropagationTrainer) {
+		    ((HogwildBackPropagationTrainer<?>) bpt).shutdown();
+		}
+	    }
+	}
+    }
+
+    /**
+     * Parameter server with 1 - max(2, cores) worker processes (separate JVMs
+     * connected over loopback sockets). Each worker trains on its own shard
+     * with GEMM and the staleness bound is the number of workers. Updates per
+     * second of the server (in samples/s) and test error
+     */
+    @Test
+    public void testParameterServer() throws IOException, InterruptedException {
+	Environment.getInstance().setUseGEMM(true);
+
+	float[][] testInput = new float[200][PS_LAYERS[0]];
+	float[][] testTarget = new float[testInput.length][PS_LAYERS[2]];
+	SimpleInputProvider.blockClasses(new Random(-1), testInput, testTarget);
+	SimpleInputProvider testingSet = new SimpleInputProvider(testInput, testTarget, testInput.length, testInput.length);
+
+	String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+	int samples = PS_MINI_BATCH * ITERATIONS * 4, epochs = 10;
+	for (int workers = 1; workers <= Math.max(2, Runtime.getRuntime().availableProcessors()); workers++) {
+	    NeuralNetworkImpl nn = NNFactory.mlpSigmoid(PS_LAYERS, true);
+	    new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.1f, 0.1f)).initialize(nn);
+
+	    ParameterServer ps = new ParameterServer(nn, 0.05f, 0f, 0f, 0f, workers);
+	    List<String> output = new ArrayList<>();
+	    try {
+		InetSocketAddress address = ps.start();
+		List<Process> processes = new ArrayList<>();
+		for (int i = 0; i < workers; i++) {
+		    ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), ParameterServerWorker.class.getName(), String.valueOf(address.getPort()),
+			    String.valueOf(i), String.valueOf(samples), String.valueOf(epochs), String.valueOf(PS_MINI_BATCH), layers(PS_LAYERS));
+		    processes.add(pb.redirectErrorStream(true).start());
+		}
+
+		for (Process p : processes) {
+		    try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+			    output.add(line);
+			}
+		    }
+
+		    assertEquals(0, p.waitFor());
+		}
+	    } finally {
+		ps.close();
+	    }
+
+	    MultipleNeuronsOutputError error = new MultipleNeuronsOutputError();
+	    TrainerFactory.backPropagation(nn, testingSet, testingSet, error, null, 0f, 0f, 0f, 0f).test();
+	    System.out.println(String.format("parameter server workers=%d mb=%d: %.0f samples/s, %d updates, %d rejected, error %.3f", workers, PS_MINI_BATCH, ps.getThroughput()
+		    * PS_MINI_BATCH, ps.getUpdates(), ps.getRejectedUpdates(), error.getTotalNetworkError()));
+	    for (String line : output) {
+		System.out.println(line);
+	    }
+	}
+    }
+
+    /**
+     * Ring all-reduce between 1 - max(2, cores) processes (separate JVMs
+     * connected over loopback sockets), each training on its own shard with
+     * GEMM. Samples/s of each rank, step time and all-reduce time and bytes of
+     * each connection (printed by the ranks)
+     */
+    @Test
+    public void testRingAllReduce() throws IOException, InterruptedException {
+	String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+	int samples = PS_MINI_BATCH * ITERATIONS * 4, epochs = 3;
+	for (int ranks = 1; ranks <= Math.max(2, Runtime.getRuntime().availableProcessors()); ranks++) {
+	    StringBuilder ports = new StringBuilder();
+	    for (int i = 0; i < ranks; i++) {
+		try (ServerSocket s = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+		    ports.append(i > 0 ? "," : "").append(s.getLocalPort());
+		}
+	    }
+
+	    List<Process> processes = new ArrayList<>();
+	    for (int i = 0; i < ranks; i++) {
+		ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), AllReduceWorker.class.getName(), String.valueOf(i), ports.toString(),
+			String.valueOf(samples), String.valueOf(epochs), String.valueOf(PS_MINI_BATCH), layers(PS_LAYERS));
+		processes.add(pb.redirectErrorStream(true).start());
+	    }
+
+	    System.out.println(String.format("ring all-reduce ranks=%d mb=%d:", ranks, PS_MINI_BATCH));
+	    for (Process p : processes) {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+		    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+			System.out.println(line);
+		    }
+		}
+
+		assertEquals(0, p.waitFor());
+	    }
+	}
+    }
+
+    /**
+     * Stream of mini batches through a deep MLP - sequential inference vs
+     * pipelines with 2 and 5 stages (one stage per layer). Throughput, latency
+     * and the statistics of each stage
+     */
+    @Test
+    public void testPipelineInference() throws InterruptedException, ExecutionException {
+	NeuralNetworkImpl nn = NNFactory.mlpSigmoid(new int[] { 784, 500, 300, 200, 100, 10 }, true);
+	new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.01f, 0.01f)).initialize(nn);
+
+	// the input of the pipeline must not change until the result is available
+	int miniBatchSize = 32;
+	List<Matrix> inputs = new ArrayList<>();
+	for (int i = 0; i < ITERATIONS * 4; i++) {
+	    Matrix input = new Matrix(784, miniBatchSize);
+	    randomize(input.getElements());
+	    inputs.add(input);
+	}
+
+	ValuesProvider vp = new ValuesProvider();
+	Set<Layer> calculatedLayers = new HashSet<>();
+	long start = 0;
+	for (int pass = 0; pass < 2; pass++) {
+	    start = System.nanoTime();
+	    for (Matrix input : inputs) {
+		calculatedLayers.clear();
+		calculatedLayers.add(nn.getInputLayer());
+		vp.addValues(nn.getInputLayer(), input);
+		nn.getLayerCalculator().calculate(nn, nn.getOutputLayer(), calculatedLayers, vp);
+	    }
+	}
+
+	System.out.println(String.format("pipeline mb=%d: sequential %.1f mini batches/s", miniBatchSize, inputs.size() / ((System.nanoTime() - start) / 1000000000d)));
+
+	for (int stages : new int[] { 2, 5 }) {
+	    // warmup
+	    PipelineInference pipeline = new PipelineInference(nn, stages, 2);
+	    try {
+		List<Future<Matrix>> results = new ArrayList<>();
+		for (Matrix input : inputs) {
+		    results.add(pipeline.submit(input));
+		}
+
+		for (Future<Matrix> f : results) {
+		    f.get();
+		}
+	    } finally {
+		pipeline.shutdown();
+	    }
+
+	    pipeline = new PipelineInference(nn, stages, 2);
+	    try {
+		List<Future<Matrix>> results = new ArrayList<>();
+		for (Matrix input : inputs) {
+		    results.add(pipeline.submit(input));
+		}
+
+		for (Future<Matrix> f : results) {
+		    f.get();
+		}
+
+		System.out.print(pipeline.report());
+	    } finally {
+		pipeline.shutdown();
+	    }
+	}
+    }
+
+    /**
+     * Calculates the network for all the input twice (warmup and measurement)
+     * 
+     * @param classes
+     *            - if not null the predicted classes are stored here (one
+     *            hot) during the warmup
+     * @return average nanoseconds per mini batch
+     */
+    private long infer(NeuralNetworkImpl nn, TrainingInputProvider ip, OutputError error, float[][] classes) {
+	return infer(nn, ip, error, classes, new ValuesProvider());
+    }
+
+    private long infer(NeuralNetworkImpl nn, TrainingInputProvider ip, OutputError error, float[][] classes, ValuesProvider vp) {
+	Set<Layer> calculatedLayers = new HashSet<>();
+	long time = 0;
+	int miniBatches = 0;
+
+	for (int pass = 0; pass < 2; pass++) {
+	    ip.reset();
+	    TrainingInputData input = null;
+	    for (int sample = 0; (input = ip.getNextInput()) != null;) {
+		long start = System.nanoTime();
+		calculatedLayers.clear();
+		calculatedLayers.add(nn.getInputLayer());
+		vp.addValues(nn.getInputLayer(), input.getInput());
+		nn.getLayerCalculator().calculate(nn, nn.getOutputLayer(), calculatedLayers, vp);
+		Matrix output = vp.getValues(nn.getOutputLayer());
+
+		if (pass == 0 && classes != null) {
+		    for (int i = 0; i < output.getColumns(); i++, sample++) {
+			int max = 0;
+			for (int j = 1; j < output.getRows(); j++) {
+			    max = output.get(j, i) > output.get(max, i) ? j : max;
+			}
+
+			classes[sample][max] = 1;
+		    }
+		} else if (pass == 1) {
+		    time += System.nanoTime() - start;
+		    miniBatches++;
+		    error.addItem(output, input.getTarget());
+		}
+	    }
+	}
+
+	return time / Math.max(1, miniBatches);
+    }
+
+    /**
+     * @return average nanoseconds per calculation
+     */
+    private long time(FullyConnected fc, ValuesProvider vp, Layer target) {
+	return time(new AparapiWeightedSumConnectionCalculator(), fc, vp, target);
+    }
+
+    /**
+     * @return average nanoseconds per calculation
+     */
+    private long time(ConnectionCalculatorFullyConnected cc, FullyConnected fc, ValuesProvider vp, Layer target) {
+	List<Connections> connections = new ArrayList<>();
+	connections.add(fc);
+
+	// warmup
+	cc.calculate(connections, vp, target);
+
+	long start = System.nanoTime();
+	for (int i = 0; i < ITERATIONS; i++) {
+	    cc.calculate(connections, vp, target);
+	}
+
+	return Math.max(1, (System.nanoTime() - start) / ITERATIONS);
+    }
+
+    /**
+     * @return comma separated layer sizes (argument of the worker processes)
+     */
+    private static String layers(int[] layers) {
+	StringBuilder sb = new StringBuilder();
+	for (int i = 0; i < layers.length; i++) {
+	    sb.append(i > 0 ? "," : "").append(layers[i]);
+	}
+
+	return sb.toString();
+    }
+
+    private Matrix randomize(Matrix m) {
+	randomize(m.getElements());
+	return m;
+    }
+
+    private void randomize(float[] array) {
+	for (int i = 0; i < array.length; i++) {
+	    array[i] = random.nextFloat() - 0.5f;
+	}
+    }
+}
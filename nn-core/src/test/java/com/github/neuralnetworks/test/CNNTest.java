@@ -13,13 +13,16 @@ import org.junit.Test;
 import com.amd.aparapi.Kernel.EXECUTION_MODE;
 import com.github.neuralnetworks.architecture.Connections;
 import com.github.neuralnetworks.architecture.Conv2DConnection;
+import com.github.neuralnetworks.architecture.DirectMatrix;
 import com.github.neuralnetworks.architecture.FullyConnected;
 import com.github.neuralnetworks.architecture.GraphConnections;
 import com.github.neuralnetworks.architecture.Layer;
 import com.github.neuralnetworks.architecture.Matrix;
 import com.github.neuralnetworks.architecture.NeuralNetworkImpl;
+import com.github.neuralnetworks.architecture.QuantizedMatrix;
 import com.github.neuralnetworks.architecture.Subsampling2DConnection;
 import com.github.neuralnetworks.architecture.types.NNFactory;
+import com.github.neuralnetworks.calculation.ActivationMemoryPlan;
 import com.github.neuralnetworks.calculation.ConnectionCalculator;
 import com.github.neuralnetworks.calculation.LayerCalculatorImpl;
 import com.github.neuralnetworks.calculation.ValuesProvider;
@@ -41,7 +44,10 @@ import com.github.neuralnetworks.training.backpropagation.BackPropagationSigmoid
 import com.github.neuralnetworks.training.backpropagation.BackPropagationTrainer;
 import com.github.neuralnetworks.training.backpropagation.BackpropagationAveragePooling2D;
 import com.github.neuralnetworks.training.backpropagation.BackpropagationMaxPooling2D;
+import com.github.neuralnetworks.training.random.MersenneTwisterRandomInitializer;
+import com.github.neuralnetworks.training.random.NNRandomInitializer;
 import com.github.neuralnetworks.util.Environment;
+import com.github.neuralnetworks.util.HalfFloat;
 import com.github.neuralnetworks.util.Util;
 
 /**
@@ -355,6 +361,72 @@ public class CNNTest {
 	assertEquals(244, o.get(1, 0), 0);
     }
 
+    @Test
+    public void testDirectConvolutionAndPooling() {
+	Conv2DConnection c = new Conv2DConnection(new Layer(), new Layer(), 3, 3, 2, 2, 2, 1, 1);
+	c.getWeights()[0] = 1;
+	c.getWeights()[1] = 2;
+	c.getWeights()[2] = 3;
+	c.getWeights()[3] = 4;
+	c.getWeights()[4] = 1;
+	c.getWeights()[5] = 2;
+	c.getWeights()[6] = 3;
+	c.getWeights()[7] = 4;
+
+	DirectMatrix i1 = DirectMatrix.copyOf(new Matrix(new float[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18 }, 1));
+	DirectMatrix o = new DirectMatrix(4, 1);
+
+	new AparapiConv2DFF(c, 1).calculate(c, i1, o);
+
+	assertEquals(164, o.get(0, 0), 0);
+	assertEquals(184, o.get(1, 0), 0);
+	assertEquals(224, o.get(2, 0), 0);
+	assertEquals(244, o.get(3, 0), 0);
+
+	// pooling of the convolution output
+	Subsampling2DConnection sc = new Subsampling2DConnection(new Layer(), new Layer(), 2, 2, 2, 2, 1);
+	List<Connections> connections = new ArrayList<Connections>();
+	connections.add(sc);
+
+	DirectMatrix po = new DirectMatrix(1, 1);
+	ValuesProvider vp = new ValuesProvider();
+	vp.addValues(sc.getInputLayer(), o);
+	vp.addValues(sc.getOutputLayer(), po);
+
+	new AparapiMaxPooling2D().calculate(connections, vp, sc.getOutputLayer());
+
+	assertEquals(244, po.get(0, 0), 0);
+
+	i1.release();
+	o.release();
+	po.release();
+    }
+
+    /**
+     * 8 bit weights and input (same as the convolution in
+     * testDirectConvolutionAndPooling)
+     */
+    @Test
+    public void testQuantizedConvolution() {
+	Conv2DConnection c = new Conv2DConnection(new Layer(), new Layer(), 3, 3, 2, 2, 2, 1, 1);
+	float[] weights = new float[] { 1, 2, 3, 4, 1, 2, 3, 4 };
+	c.setQuantizedWeights(QuantizedMatrix.quantize(new Matrix(weights, weights.length)));
+	assertEquals(1, c.getQuantizedWeights().getRows());
+
+	Matrix i1 = new Matrix(new float[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18 }, 1);
+
+	for (float range : new float[] { 0, 18 }) {
+	    c.getQuantizedWeights().setInputRange(range);
+	    Matrix o = new Matrix(4, 1);
+	    new AparapiConv2DFF(c, 1).calculate(c, i1, o);
+
+	    assertEquals(164, o.get(0, 0), 1.5);
+	    assertEquals(184, o.get(1, 0), 1.5);
+	    assertEquals(224, o.get(2, 0), 1.5);
+	    assertEquals(244, o.get(3, 0), 1.5);
+	}
+    }
+
     @Test
     public void testMaxPooling() {
 	Subsampling2DConnection c = new Subsampling2DConnection(new Layer(), new Layer(), 4, 4, 2, 2, 2);
@@ -615,4 +687,137 @@ public class CNNTest {
 	assertEquals(56, o.get(2, 0), 0.00001);
 	assertEquals(64, o.get(3, 0), 0.00001);
     }
+
+    /**
+     * A new layer calculator reuses the pooled convolution kernel, which must
+     * use the current weights of the connection
+     */
+    @Test
+    public void testPooledKernelWeights() {
+	Environment.getInstance().setExecutionMode(EXECUTION_MODE.SEQ);
+
+	NeuralNetworkImpl nn = NNFactory.convNN(new int[][] { { 3, 3, 1 }, { 2, 2, 1, 1 } }, false);
+	Conv2DConnection cc = (Conv2DConnection) nn.getInputLayer().getConnections().get(0);
+	Matrix input = new Matrix(new float[] { 1, 1, 1, 1, 1, 1, 1, 1, 1 }, 1);
+
+	Util.fillArray(cc.getWeights(), 1);
+	assertEquals(4, calculateWithNewCalculator(nn, input).get(0, 0), 0.00001);
+
+	float[] weights = new float[cc.getWeights().length];
+	Util.fillArray(weights, 2);
+	cc.setWeights(weights);
+	assertEquals(8, calculateWithNewCalculator(nn, input).get(0, 0), 0.00001);
+
+	Util.fillArray(weights, 3);
+	Util.toHalfPrecision(nn, HalfFloat.FLOAT16);
+	assertEquals(12, calculateWithNewCalculator(nn, input).get(0, 0), 0.00001);
+
+	Environment.getInstance().setExecutionMode(EXECUTION_MODE.NONE);
+    }
+
+    private static Matrix calculateWithNewCalculator(NeuralNetworkImpl nn, Matrix input) {
+	nn.setLayerCalculator(NNFactory.lcWeightedSum(nn, null));
+
+	ValuesProvider vp = new ValuesProvider();
+	vp.addValues(nn.getInputLayer(), input);
+	Set<Layer> calculatedLayers = new HashSet<>();
+	calculatedLayers.add(nn.getInputLayer());
+	nn.getLayerCalculator().calculate(nn, nn.getOutputLayer(), calculatedLayers, vp);
+
+	return vp.getValues(nn.getOutputLayer());
+    }
+
+    /**
+     * The forward pass with the activation memory plan gives the same results
+     * with less memory - with a plan applied to the values provider and with
+     * the recycled activations of LayerCalculatorImpl
+     */
+    @Test
+    public void testActivationMemoryPlan() {
+	Environment.getInstance().setExecutionMode(EXECUTION_MODE.SEQ);
+
+	NeuralNetworkImpl nn = NNFactory.convNN(new int[][] { { 12, 12, 1 }, { 3, 3, 4, 1 }, { 2, 2 }, { 3, 3, 6, 1 }, { 2, 2 }, { 10 }, { 3 } }, true);
+	nn.setLayerCalculator(NNFactory.lcSigmoid(nn, null));
+	NNFactory.lcMaxPooling(nn);
+	new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(nn);
+
+	Matrix input = new Matrix(144, 3);
+	for (int i = 0; i < input.getElements().length; i++) {
+	    input.getElements()[i] = (i % 7) / 7f;
+	}
+
+	ValuesProvider vp = new ValuesProvider();
+	vp.addValues(nn.getInputLayer(), input);
+	Set<Layer> calculatedLayers = new HashSet<>();
+	calculatedLayers.add(nn.getInputLayer());
+	nn.getLayerCalculator().calculate(nn, nn.getOutputLayer(), calculatedLayers, vp);
+	Matrix expected = vp.getValues(nn.getOutputLayer());
+
+	calculatedLayers = new HashSet<>();
+	calculatedLayers.add(nn.getInputLayer());
+	ActivationMemoryPlan plan = new ActivationMemoryPlan(nn, nn.getOutputLayer(), calculatedLayers);
+	assertEquals(1, calculatedLayers.size());
+
+	// conv, pooling, conv, pooling, fully connected and output layers
+	assertEquals(6, plan.getPlannedLayerCount());
+	assertTrue(plan.getBufferCount() < plan.getPlannedLayerCount());
+	assertEquals(-1, plan.getBuffer(nn.getInputLayer()));
+	assertTrue(plan.getPeakBytes(3) < plan.getPeakBytesWithoutPlan(3));
+	String report = plan.report(3);
+	assertTrue(report.contains(plan.getPeakBytesWithoutPlan(3) + " bytes without plan, " + plan.getPeakBytes(3) + " bytes with plan"));
+	assertTrue(report.contains("(6 layers in " + plan.getBufferCount() + " buffers"));
+
+	vp = new ValuesProvider();
+	plan.apply(vp, 3);
+	vp.addValues(nn.getInputLayer(), input);
+	nn.getLayerCalculator().calculate(nn, nn.getOutputLayer(), calculatedLayers, vp);
+	Matrix output = vp.getValues(nn.getOutputLayer());
+
+	for (int i = 0; i < expected.getRows(); i++) {
+	    for (int j = 0; j < expected.getColumns(); j++) {
+		assertEquals(expected.get(i, j), output.get(i, j), 0.00001);
+	    }
+	}
+
+	// the layer calculator applies the plan of its calculation once for the values provider
+	LayerCalculatorImpl lc = (LayerCalculatorImpl) nn.getLayerCalculator();
+	lc.setRecycleActivations(true);
+	vp = new ValuesProvider();
+	vp.addValues(nn.getInputLayer(), input);
+	float[] elements = null;
+	for (int k = 0; k < 2; k++) {
+	    calculatedLayers = new HashSet<>();
+	    calculatedLayers.add(nn.getInputLayer());
+	    lc.calculate(nn, nn.getOutputLayer(), calculatedLayers, vp);
+	    output = vp.getValues(nn.getOutputLayer());
+	    assertTrue(elements == null || elements == output.getElements());
+	    elements = output.getElements();
+
+	    for (int i = 0; i < expected.getRows(); i++) {
+		for (int j = 0; j < expected.getColumns(); j++) {
+		    assertEquals(expected.get(i, j), output.get(i, j), 0.00001);
+		}
+	    }
+	}
+
+	// the layers with the same buffer share the array
+	calculatedLayers = new HashSet<>();
+	calculatedLayers.add(nn.getInputLayer());
+	ActivationMemoryPlan recycled = lc.getPlan(nn, nn.getOutputLayer(), calculatedLayers).getActivationMemoryPlan();
+	assertEquals(plan.getBufferCount(), recycled.getBufferCount());
+	int shared = 0;
+	for (Layer l : nn.getLayers()) {
+	    for (Layer o : nn.getLayers()) {
+		if (l != o && recycled.getBuffer(l) >= 0 && recycled.getBuffer(l) == recycled.getBuffer(o)) {
+		    assertTrue(vp.getValues(l).getElements() == vp.getValues(o).getElements());
+		    shared++;
+		}
+	    }
+	}
+
+	assertTrue(shared > 0);
+	lc.setRecycleActivations(false);
+
+	Environment.getInstance().setExecutionMode(EXECUTION_MODE.NONE);
+    }
 }
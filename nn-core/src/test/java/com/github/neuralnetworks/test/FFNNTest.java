@@ -1,8 +1,15 @@
 package com.github.neuralnetworks.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -12,20 +19,42 @@ import org.junit.Test;
 
 import com.amd.aparapi.Kernel.EXECUTION_MODE;
 import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.DirectMatrix;
 import com.github.neuralnetworks.architecture.FullyConnected;
+import com.github.neuralnetworks.architecture.HalfMatrix;
 import com.github.neuralnetworks.architecture.Layer;
 import com.github.neuralnetworks.architecture.Matrix;
 import com.github.neuralnetworks.architecture.NeuralNetworkImpl;
+import com.github.neuralnetworks.architecture.QuantizedMatrix;
+import com.github.neuralnetworks.architecture.SampleMajorMatrix;
+import com.github.neuralnetworks.architecture.SparseFullyConnected;
+import com.github.neuralnetworks.architecture.SparseInputMatrix;
+import com.github.neuralnetworks.architecture.SparseMatrix;
 import com.github.neuralnetworks.architecture.types.NNFactory;
 import com.github.neuralnetworks.calculation.BreadthFirstOrderStrategy;
+import com.github.neuralnetworks.calculation.LayerCalculatorImpl;
 import com.github.neuralnetworks.calculation.LayerOrderStrategy.ConnectionCandidate;
 import com.github.neuralnetworks.calculation.TargetLayerOrderStrategy;
 import com.github.neuralnetworks.calculation.ValuesProvider;
+import com.github.neuralnetworks.calculation.neuronfunctions.AparapiSigmoid;
+import com.github.neuralnetworks.calculation.neuronfunctions.AparapiSigmoid.AparapiSigmoidFunction;
 import com.github.neuralnetworks.calculation.neuronfunctions.AparapiWeightedSumConnectionCalculator;
 import com.github.neuralnetworks.calculation.neuronfunctions.ConnectionCalculatorFullyConnected;
+import com.github.neuralnetworks.calculation.neuronfunctions.GEMMWeightedSum;
+import com.github.neuralnetworks.events.TrainingEvent;
+import com.github.neuralnetworks.events.TrainingEventListener;
 import com.github.neuralnetworks.training.TrainerFactory;
 import com.github.neuralnetworks.training.backpropagation.BackPropagationTrainer;
+import com.github.neuralnetworks.training.backpropagation.DataParallelBackPropagationTrainer;
+import com.github.neuralnetworks.training.backpropagation.HogwildBackPropagationTrainer;
+import com.github.neuralnetworks.training.events.MiniBatchFinishedEvent;
+import com.github.neuralnetworks.training.random.MersenneTwisterRandomInitializer;
+import com.github.neuralnetworks.training.random.NNRandomInitializer;
+import com.github.neuralnetworks.util.AutotuneKernelExecution;
 import com.github.neuralnetworks.util.Environment;
+import com.github.neuralnetworks.util.ForkJoinKernelExecution;
+import com.github.neuralnetworks.util.HalfFloat;
+import com.github.neuralnetworks.util.KernelPool;
 import com.github.neuralnetworks.util.Util;
 
 /**
@@ -280,6 +309,14 @@ public class FFNNTest {
      */
     @Test
     public void testSigmoidBP2() {
+	assertSigmoidBP2();
+    }
+
+    /**
+     * Trains the network of testSigmoidBP2 with the current environment and
+     * checks the weights
+     */
+    private static void assertSigmoidBP2() {
 	NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 3, 2, 1 }, true);
 
 	List<Connections> c = mlp.getConnections();
@@ -436,4 +473,912 @@ public class FFNNTest {
 	assertTrue(ccc.get(0).connection == l.getConnections().get(0));
 	assertTrue(ccc.get(1).connection == l.getConnections().get(1));
     }
+
+    /**
+     * The pure java GEMM engine must produce the same results as the Aparapi
+     * kernel in both directions and with combined connections
+     */
+    @Test
+    public void testGEMMWeightedSum() {
+	Environment.getInstance().setUseGEMM(true);
+
+	try {
+	    Layer il1 = new Layer();
+	    Layer ol = new Layer();
+	    Layer il2 = new Layer();
+	    FullyConnected c1 = new FullyConnected(il1, ol, 3, 2);
+	    FullyConnected c2 = new FullyConnected(ol, il2, 2, 3);
+	    FullyConnected bc = new FullyConnected(new Layer(), ol, 1, 2);
+
+	    Matrix cg = c1.getConnectionGraph();
+	    cg.set(0, 0, 1);
+	    cg.set(0, 1, 2);
+	    cg.set(0, 2, 3);
+	    cg.set(1, 0, 4);
+	    cg.set(1, 1, 5);
+	    cg.set(1, 2, 6);
+
+	    cg = c2.getConnectionGraph();
+	    cg.set(0, 0, 1);
+	    cg.set(1, 0, 2);
+	    cg.set(2, 0, 3);
+	    cg.set(0, 1, 4);
+	    cg.set(1, 1, 5);
+	    cg.set(2, 1, 6);
+
+	    Matrix i1 = new Matrix(3, 2);
+	    i1.set(0, 0, 1);
+	    i1.set(1, 0, 2);
+	    i1.set(2, 0, 3);
+	    i1.set(0, 1, 4);
+	    i1.set(1, 1, 5);
+	    i1.set(2, 1, 6);
+
+	    Matrix i2 = new Matrix(3, 2);
+	    System.arraycopy(i1.getElements(), 0, i2.getElements(), 0, i1.getElements().length);
+
+	    Matrix bcg = bc.getConnectionGraph();
+	    bcg.set(0, 0, 0.1f);
+	    bcg.set(1, 0, 0.2f);
+
+	    // forward and backward connection combined with bias
+	    List<Connections> connections = new ArrayList<>();
+	    connections.add(c1);
+	    connections.add(c2);
+	    connections.add(bc);
+
+	    Matrix o = new Matrix(2, 2);
+	    ValuesProvider vp = new ValuesProvider();
+	    vp.addValues(il1, i1);
+	    vp.addValues(il2, i2);
+	    vp.addValues(ol, o);
+
+	    ConnectionCalculatorFullyConnected aws = new AparapiWeightedSumConnectionCalculator();
+	    aws.calculate(connections, vp, ol);
+
+	    assertTrue(aws.getInputFunction() instanceof GEMMWeightedSum);
+	    assertEquals(28.1, o.get(0, 0), 0.01);
+	    assertEquals(64.1, o.get(0, 1), 0.01);
+	    assertEquals(64.2, o.get(1, 0), 0.01);
+	    assertEquals(154.2, o.get(1, 1), 0.01);
+
+	    // switching the engine off rebuilds the input function
+	    Environment.getInstance().setUseGEMM(false);
+	    Util.fillArray(o.getElements(), 0);
+	    aws.calculate(connections, vp, ol);
+	    assertTrue(!(aws.getInputFunction() instanceof GEMMWeightedSum));
+	    assertEquals(28.1, o.get(0, 0), 0.01);
+	    assertEquals(154.2, o.get(1, 1), 0.01);
+	} finally {
+	    Environment.getInstance().setUseGEMM(false);
+	}
+    }
+
+    /**
+     * Off-heap weights and values - the GEMM engine is selected automatically
+     */
+    @Test
+    public void testDirectWeightedSum() {
+	Layer il1 = new Layer();
+	Layer ol = new Layer();
+	Layer il2 = new Layer();
+	FullyConnected c1 = new FullyConnected(il1, ol, DirectMatrix.copyOf(new Matrix(new float[] { 1, 2, 3, 4, 5, 6 }, 3)));
+	FullyConnected c2 = new FullyConnected(ol, il2, DirectMatrix.copyOf(new Matrix(new float[] { 1, 4, 2, 5, 3, 6 }, 2)));
+	FullyConnected bc = new FullyConnected(new Layer(), ol, 1, 2);
+	bc.getConnectionGraph().set(0, 0, 0.1f);
+	bc.getConnectionGraph().set(1, 0, 0.2f);
+
+	assertEquals(3, c1.getInputUnitCount());
+	assertEquals(2, c1.getOutputUnitCount());
+
+	Matrix i1 = new Matrix(new float[] { 1, 4, 2, 5, 3, 6 }, 2);
+	DirectMatrix i2 = DirectMatrix.copyOf(i1);
+
+	List<Connections> connections = new ArrayList<>();
+	connections.add(c1);
+	connections.add(c2);
+	connections.add(bc);
+
+	DirectMatrix o = new DirectMatrix(2, 2);
+	ValuesProvider vp = new ValuesProvider();
+	vp.addValues(il1, i1);
+	vp.addValues(il2, i2);
+	vp.addValues(ol, o);
+
+	ConnectionCalculatorFullyConnected aws = new AparapiWeightedSumConnectionCalculator();
+	aws.calculate(connections, vp, ol);
+
+	assertTrue(aws.getInputFunction() instanceof GEMMWeightedSum);
+	assertEquals(28.1, o.get(0, 0), 0.01);
+	assertEquals(64.1, o.get(0, 1), 0.01);
+	assertEquals(64.2, o.get(1, 0), 0.01);
+	assertEquals(154.2, o.get(1, 1), 0.01);
+
+	((DirectMatrix) c1.getConnectionGraph()).release();
+	((DirectMatrix) c2.getConnectionGraph()).release();
+	i2.release();
+	o.release();
+    }
+
+    /**
+     * Weights and values are views over shared arrays - they must be read in
+     * place by both the Aparapi kernel and the GEMM engine
+     */
+    @Test
+    public void testViewWeightedSum() {
+	Matrix weights = new Matrix(5, 4);
+	Matrix values = new Matrix(7, 3);
+
+	Layer il1 = new Layer();
+	Layer ol = new Layer();
+	Layer il2 = new Layer();
+	FullyConnected c1 = new FullyConnected(il1, ol, weights.view(0, 0, 2, 3));
+	FullyConnected c2 = new FullyConnected(ol, il2, weights.view(2, 1, 3, 2));
+	FullyConnected bc = new FullyConnected(new Layer(), ol, 1, 2);
+	bc.getConnectionGraph().set(0, 0, 0.1f);
+	bc.getConnectionGraph().set(1, 0, 0.2f);
+
+	float[] w1 = new float[] { 1, 2, 3, 4, 5, 6 };
+	float[] w2 = new float[] { 1, 4, 2, 5, 3, 6 };
+	for (int i = 0; i < w1.length; i++) {
+	    c1.getConnectionGraph().set(i / 3, i % 3, w1[i]);
+	    c2.getConnectionGraph().set(i / 2, i % 2, w2[i]);
+	}
+
+	Matrix i1 = values.view(0, 1, 3, 2);
+	Matrix i2 = values.view(4, 0, 3, 2);
+	for (int i = 0; i < w2.length; i++) {
+	    i1.set(i / 2, i % 2, w2[i]);
+	    i2.set(i / 2, i % 2, w2[i]);
+	}
+
+	assertEquals(3, c1.getInputUnitCount());
+	assertEquals(2, c1.getOutputUnitCount());
+
+	List<Connections> connections = new ArrayList<>();
+	connections.add(c1);
+	connections.add(c2);
+	connections.add(bc);
+
+	try {
+	    for (boolean gemm : new boolean[] { false, true }) {
+		Environment.getInstance().setUseGEMM(gemm);
+
+		Matrix o = new Matrix(2, 2);
+		ValuesProvider vp = new ValuesProvider();
+		vp.addValues(il1, i1);
+		vp.addValues(il2, i2);
+		vp.addValues(ol, o);
+
+		ConnectionCalculatorFullyConnected aws = new AparapiWeightedSumConnectionCalculator();
+		aws.calculate(connections, vp, ol);
+
+		assertEquals(gemm, aws.getInputFunction() instanceof GEMMWeightedSum);
+		assertEquals(28.1, o.get(0, 0), 0.01);
+		assertEquals(64.1, o.get(0, 1), 0.01);
+		assertEquals(64.2, o.get(1, 0), 0.01);
+		assertEquals(154.2, o.get(1, 1), 0.01);
+	    }
+	} finally {
+	    Environment.getInstance().setUseGEMM(false);
+	}
+
+	// the shared arrays are not modified outside of the views
+	assertEquals(0, weights.get(0, 3), 0);
+	assertEquals(0, weights.get(2, 0), 0);
+	assertEquals(0, values.get(0, 0), 0);
+	assertEquals(0, values.get(3, 0), 0);
+    }
+
+    /**
+     * The bias and the transfer function are applied in the same pass as the
+     * weighted sum (both the Aparapi kernel and the GEMM engine)
+     */
+    @Test
+    public void testFusedBiasSigmoid() {
+	Layer il = new Layer();
+	Layer ol = new Layer();
+	FullyConnected c = new FullyConnected(il, ol, new Matrix(new float[] { 0.1f, 0.2f, 0.3f, -0.4f, -0.5f, -0.6f }, 3));
+	FullyConnected bc = new FullyConnected(new Layer(), ol, new Matrix(new float[] { 0.5f, -0.5f }, 1));
+
+	List<Connections> connections = new ArrayList<>();
+	connections.add(bc);
+	connections.add(c);
+
+	try {
+	    for (boolean gemm : new boolean[] { false, true }) {
+		Environment.getInstance().setUseGEMM(gemm);
+
+		Matrix o = new Matrix(2, 2);
+		ValuesProvider vp = new ValuesProvider();
+		vp.addValues(il, new Matrix(new float[] { 1, 4, 2, 5, 3, 6 }, 2));
+		vp.addValues(ol, o);
+		vp.addValues(bc.getInputLayer(), new Matrix(1, 2));
+
+		AparapiSigmoid sigmoid = new AparapiSigmoid();
+		sigmoid.calculate(connections, vp, ol);
+
+		assertEquals(gemm, sigmoid.getInputFunction() instanceof GEMMWeightedSum);
+		assertEquals(1 / (1 + Math.exp(-1.9)), o.get(0, 0), 0.0001);
+		assertEquals(1 / (1 + Math.exp(-3.7)), o.get(0, 1), 0.0001);
+		assertEquals(1 / (1 + Math.exp(3.7)), o.get(1, 0), 0.0001);
+		assertEquals(1 / (1 + Math.exp(8.2)), o.get(1, 1), 0.0001);
+
+		// bias layer values
+		assertEquals(1, vp.getValues(bc.getInputLayer()).get(0, 1), 0);
+	    }
+	} finally {
+	    Environment.getInstance().setUseGEMM(false);
+	}
+    }
+
+    /**
+     * 16 bit weights give (almost) the same results as the float weights
+     */
+    @Test
+    public void testHalfPrecisionWeights() {
+	for (HalfFloat format : HalfFloat.values()) {
+	    NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 40, 30, 10 }, true);
+	    new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(mlp);
+
+	    Matrix input = new Matrix(40, 5);
+	    new MersenneTwisterRandomInitializer(-1, 1).initialize(input.getElements());
+
+	    Matrix expected = calculateOutput(mlp, input);
+
+	    Util.toHalfPrecision(mlp, format);
+	    for (Connections c : mlp.getConnections()) {
+		Matrix cg = ((FullyConnected) c).getConnectionGraph();
+		assertEquals(!Util.isBias(c.getInputLayer()), cg instanceof HalfMatrix);
+	    }
+
+	    Matrix actual = calculateOutput(mlp, input);
+	    for (int i = 0; i < expected.getElements().length; i++) {
+		assertEquals(expected.getElements()[i], actual.getElements()[i], format == HalfFloat.BFLOAT16 ? 0.02 : 0.002);
+	    }
+
+	    // the same calculator is routed again to GEMM, because the weights have changed
+	    ConnectionCalculatorFullyConnected cc = (ConnectionCalculatorFullyConnected) ((LayerCalculatorImpl) mlp.getLayerCalculator()).getConnectionCalculator(mlp.getOutputLayer());
+	    assertTrue(cc.getInputFunction() instanceof GEMMWeightedSum);
+	}
+    }
+
+    /**
+     * 8 bit weights (with and without calibration) give results close to the
+     * float weights
+     */
+    @Test
+    public void testQuantizedWeights() {
+	for (boolean calibrate : new boolean[] { false, true }) {
+	    NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 40, 30, 10 }, true);
+	    new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(mlp);
+
+	    Matrix input = new Matrix(40, 5);
+	    new MersenneTwisterRandomInitializer(-1, 1).initialize(input.getElements());
+
+	    Matrix expected = calculateOutput(mlp, input);
+
+	    float[][] calibration = new float[5][40];
+	    for (int i = 0; i < calibration.length; i++) {
+		for (int j = 0; j < calibration[i].length; j++) {
+		    calibration[i][j] = input.get(j, i);
+		}
+	    }
+
+	    Util.quantize(mlp, calibrate ? new SimpleInputProvider(calibration, null, 5, 5) : null);
+	    for (Connections c : mlp.getConnections()) {
+		Matrix cg = ((FullyConnected) c).getConnectionGraph();
+		assertEquals(!Util.isBias(c.getInputLayer()), cg instanceof QuantizedMatrix);
+		if (cg instanceof QuantizedMatrix) {
+		    assertEquals(calibrate, ((QuantizedMatrix) cg).getInputRange() > 0);
+		}
+	    }
+
+	    Matrix actual = calculateOutput(mlp, input);
+	    for (int i = 0; i < expected.getElements().length; i++) {
+		assertEquals(expected.getElements()[i], actual.getElements()[i], 0.02);
+	    }
+	}
+    }
+
+    /**
+     * Pruned network (sparse connections) gives the same results as the dense
+     * network with the same weights set to 0
+     */
+    @Test
+    public void testSparseFullyConnected() {
+	NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 40, 30, 10 }, true);
+	new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(mlp);
+
+	Matrix input = new Matrix(40, 5);
+	new MersenneTwisterRandomInitializer(-1, 1).initialize(input.getElements());
+
+	for (Connections c : mlp.getConnections()) {
+	    if (!Util.isBias(c.getInputLayer())) {
+		Matrix cg = ((FullyConnected) c).getConnectionGraph();
+		float threshold = SparseMatrix.threshold(cg, 0.9f);
+		for (int i = 0; i < cg.getElements().length; i++) {
+		    cg.getElements()[i] = Math.abs(cg.getElements()[i]) > threshold ? cg.getElements()[i] : 0;
+		}
+	    }
+	}
+
+	Matrix expected = calculateOutput(mlp, input);
+
+	Util.pruneToSparsity(mlp, 0.9f);
+	for (Connections c : mlp.getConnections()) {
+	    assertEquals(!Util.isBias(c.getInputLayer()), c instanceof SparseFullyConnected);
+	    if (c instanceof SparseFullyConnected) {
+		SparseMatrix cg = ((SparseFullyConnected) c).getConnectionGraph();
+		assertEquals(Math.round(cg.getRows() * cg.getColumns() * 0.1f), cg.getNonZeroCount());
+	    }
+	}
+
+	Matrix actual = calculateOutput(mlp, input);
+	for (int i = 0; i < expected.getElements().length; i++) {
+	    assertEquals(expected.getElements()[i], actual.getElements()[i], 0.00001);
+	}
+    }
+
+    /**
+     * Backpropagation of a pruned network updates the remaining weights in
+     * the same way as the dense backpropagation (single mini batch - later the
+     * dense network would use the updated pruned weights too)
+     */
+    @Test
+    public void testSparseBackpropagation() {
+	NeuralNetworkImpl dense = NNFactory.mlpSigmoid(new int[] { 6, 4, 2 }, true);
+	NeuralNetworkImpl sparse = NNFactory.mlpSigmoid(new int[] { 6, 4, 2 }, true);
+	new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(dense);
+
+	List<Connections> denseConnections = dense.getConnections();
+	List<Connections> sparseConnections = sparse.getConnections();
+	for (int i = 0; i < denseConnections.size(); i++) {
+	    float[] weights = ((FullyConnected) denseConnections.get(i)).getConnectionGraph().getElements();
+	    if (!Util.isBias(denseConnections.get(i).getInputLayer())) {
+		for (int j = 0; j < weights.length; j += 3) {
+		    weights[j] = 0;
+		}
+	    }
+
+	    System.arraycopy(weights, 0, ((FullyConnected) sparseConnections.get(i)).getConnectionGraph().getElements(), 0, weights.length);
+	}
+
+	Util.pruneToSparsity(sparse, 0.3f);
+
+	float[][] input = new float[4][6];
+	float[][] target = new float[4][2];
+	for (int i = 0; i < input.length; i++) {
+	    for (int j = 0; j < input[i].length; j++) {
+		input[i][j] = (i + j) % 3 / 2f;
+	    }
+
+	    target[i][i % 2] = 1;
+	}
+
+	Environment.getInstance().setUseGEMM(true);
+	try {
+	    for (NeuralNetworkImpl nn : new NeuralNetworkImpl[] { dense, sparse }) {
+		BackPropagationTrainer<?> bpt = TrainerFactory.backPropagation(nn, new SimpleInputProvider(input, target, 4, 4), null, null, null, 0.1f, 0.5f, 0f, 0f);
+		bpt.train();
+	    }
+	} finally {
+	    Environment.getInstance().setUseGEMM(false);
+	}
+
+	sparseConnections = sparse.getConnections();
+	for (int i = 0; i < denseConnections.size(); i++) {
+	    Matrix d = ((FullyConnected) denseConnections.get(i)).getConnectionGraph();
+	    Matrix s = ((FullyConnected) sparseConnections.get(i)).getConnectionGraph();
+	    for (int r = 0; r < d.getRows(); r++) {
+		for (int c = 0; c < d.getColumns(); c++) {
+		    if (s instanceof SparseMatrix && (r * d.getColumns() + c) % 3 == 0) {
+			assertEquals(0, s.get(r, c), 0);
+		    } else {
+			assertEquals(d.get(r, c), s.get(r, c), 0.00001);
+		    }
+		}
+	    }
+	}
+    }
+
+    /**
+     * Sparse input values produce the same output as the dense ones (both with
+     * the Aparapi and the GEMM weighted sum)
+     */
+    @Test
+    public void testSparseInput() {
+	NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 8, 4, 2 }, true);
+	new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(mlp);
+
+	Matrix input = new Matrix(8, 3);
+	input.set(1, 0, 0.5f);
+	input.set(6, 0, -1);
+	input.set(3, 2, 2);
+	SparseInputMatrix sparse = SparseInputMatrix.copyOf(input);
+	assertEquals(3, sparse.getNonZeroCount());
+
+	try {
+	    for (boolean gemm : new boolean[] { false, true }) {
+		Environment.getInstance().setUseGEMM(gemm);
+		Matrix expected = new Matrix(calculateOutput(mlp, input).getElements().clone(), 3);
+		Matrix actual = calculateOutput(mlp, sparse);
+		for (int i = 0; i < expected.getRows(); i++) {
+		    for (int j = 0; j < expected.getColumns(); j++) {
+			assertEquals(expected.get(i, j), actual.get(i, j), 0.00001);
+		    }
+		}
+	    }
+	} finally {
+	    Environment.getInstance().setUseGEMM(false);
+	}
+    }
+
+    /**
+     * One backpropagation step with sparse input values produces the same
+     * weights as with the dense input values (both with the Aparapi and the
+     * GEMM calculators)
+     */
+    @Test
+    public void testSparseInputBackpropagation() {
+	float[][] input = new float[4][8];
+	float[][] target = new float[4][2];
+	for (int i = 0; i < input.length; i++) {
+	    input[i][i] = 1;
+	    input[i][(i * 3 + 2) % 7] = 0.5f;
+	    target[i][i % 2] = 1;
+	}
+
+	try {
+	    for (boolean gemm : new boolean[] { false, true }) {
+		Environment.getInstance().setUseGEMM(gemm);
+
+		NeuralNetworkImpl dense = NNFactory.mlpSigmoid(new int[] { 8, 4, 2 }, true);
+		NeuralNetworkImpl sparse = NNFactory.mlpSigmoid(new int[] { 8, 4, 2 }, true);
+		new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(dense);
+
+		List<Connections> denseConnections = dense.getConnections();
+		List<Connections> sparseConnections = sparse.getConnections();
+		for (int i = 0; i < denseConnections.size(); i++) {
+		    float[] weights = ((FullyConnected) denseConnections.get(i)).getConnectionGraph().getElements();
+		    System.arraycopy(weights, 0, ((FullyConnected) sparseConnections.get(i)).getConnectionGraph().getElements(), 0, weights.length);
+		}
+
+		TrainerFactory.backPropagation(dense, new SimpleInputProvider(input, target, 4, 4), null, null, null, 0.1f, 0.5f, 0f, 0f).train();
+		TrainerFactory.backPropagation(sparse, new SimpleInputProvider(input, target, 4, 4, true), null, null, null, 0.1f, 0.5f, 0f, 0f).train();
+
+		for (int i = 0; i < denseConnections.size(); i++) {
+		    float[] d = ((FullyConnected) denseConnections.get(i)).getConnectionGraph().getElements();
+		    float[] s = ((FullyConnected) sparseConnections.get(i)).getConnectionGraph().getElements();
+		    for (int j = 0; j < d.length; j++) {
+			assertEquals(d[j], s[j], 0.00001);
+		    }
+		}
+	    }
+	} finally {
+	    Environment.getInstance().setUseGEMM(false);
+	}
+    }
+
+    /**
+     * The network produces the same output with sample-major values of the
+     * hidden and the output layers (with the Aparapi and the GEMM calculators
+     * and with 16 bit weights)
+     */
+    @Test
+    public void testSampleMajorLayout() {
+	NeuralNetworkImpl mlp = NNFactory.mlpRelu(new int[] { 6, 5, 4, 3 }, true, null);
+	new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(mlp);
+
+	Matrix input = new Matrix(6, 3);
+	for (int i = 0; i < input.getElements().length; i++) {
+	    input.getElements()[i] = (i % 5) / 4f - 0.3f;
+	}
+
+	try {
+	    // the last pass with 16 bit weights (staged to unit-major)
+	    for (int pass = 0; pass < 3; pass++) {
+		Environment.getInstance().setUseGEMM(pass == 1);
+		if (pass == 2) {
+		    Util.toHalfPrecision(mlp, HalfFloat.FLOAT16);
+		}
+
+		Matrix expected = new Matrix(calculateOutput(mlp, input).getElements().clone(), 3);
+
+		Set<Layer> calculated = new HashSet<>();
+		calculated.add(mlp.getInputLayer());
+		ValuesProvider vp = new ValuesProvider();
+		List<Layer> sampleMajor = Util.sampleMajorLayout(mlp, vp);
+		assertEquals(3, sampleMajor.size());
+		assertTrue(!sampleMajor.contains(mlp.getInputLayer()));
+
+		vp.addValues(mlp.getInputLayer(), input);
+		mlp.getLayerCalculator().calculate(mlp, mlp.getOutputLayer(), calculated, vp);
+		Matrix actual = vp.getValues(mlp.getOutputLayer());
+		assertTrue(actual instanceof SampleMajorMatrix);
+
+		for (int i = 0; i < expected.getRows(); i++) {
+		    for (int j = 0; j < expected.getColumns(); j++) {
+			assertEquals(expected.get(i, j), actual.get(i, j), 0.00001);
+		    }
+		}
+	    }
+	} finally {
+	    Environment.getInstance().setUseGEMM(false);
+	}
+    }
+
+    private Matrix calculateOutput(NeuralNetworkImpl mlp, Matrix input) {
+	Set<Layer> calculated = new HashSet<>();
+	calculated.add(mlp.getInputLayer());
+	ValuesProvider vp = new ValuesProvider();
+	vp.addValues(mlp.getInputLayer(), input);
+	mlp.getLayerCalculator().calculate(mlp, mlp.getOutputLayer(), calculated, vp);
+
+	return vp.getValues(mlp.getOutputLayer());
+    }
+
+    /**
+     * Same as testSigmoidBP2, but with the GEMM engine
+     */
+    @Test
+    public void testGEMMSigmoidBP() {
+	Environment.getInstance().setUseGEMM(true);
+
+	try {
+	    assertSigmoidBP2();
+	} finally {
+	    Environment.getInstance().setUseGEMM(false);
+	}
+    }
+
+    /**
+     * Same as testSigmoidBP2, but with the fork/join execution strategy
+     */
+    @Test
+    public void testForkJoinSigmoidBP() {
+	ForkJoinKernelExecution fjke = new ForkJoinKernelExecution();
+	Environment.getInstance().setExecutionStrategy(fjke);
+
+	try {
+	    assertSigmoidBP2();
+	    assertTrue(fjke.getStatistics().getStatistics().size() > 0);
+	} finally {
+	    Environment.getInstance().setExecutionMode(EXECUTION_MODE.NONE);
+	}
+    }
+
+    /**
+     * Mini batches of different size are calculated by the same kernels and
+     * the values provider with capacity reuses the same arrays
+     */
+    @Test
+    public void testVariableMiniBatch() {
+	NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 3, 4, 2 }, true);
+	new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(mlp);
+	Layer hidden = mlp.getConnections().get(0).getOutputLayer();
+	ConnectionCalculatorFullyConnected cc = (ConnectionCalculatorFullyConnected) ((LayerCalculatorImpl) mlp.getLayerCalculator()).getConnectionCalculator(hidden);
+
+	float[][] samples = new float[][] { { 1, 0, 1 }, { 0.5f, 0.2f, -1 }, { 0, 1, 0.3f }, { -0.7f, 0.4f, 0.9f } };
+
+	try {
+	    for (boolean gemm : new boolean[] { false, true }) {
+		Environment.getInstance().setUseGEMM(gemm);
+
+		// reference - the whole mini batch
+		Matrix expected = calculate(mlp, samples, samples.length, new ValuesProvider());
+		Object kernel = cc.getInputFunction();
+
+		ValuesProvider vp = new ValuesProvider();
+		vp.setMaxColumns(samples.length);
+		float[] outputArray = null;
+		for (int size : new int[] { 4, 1, 3, 2, 4, 1 }) {
+		    Matrix output = calculate(mlp, samples, size, vp);
+		    assertEquals(size, output.getColumns());
+		    assertTrue(output.isContiguous());
+		    for (int i = 0; i < output.getRows(); i++) {
+			for (int j = 0; j < size; j++) {
+			    assertEquals(expected.get(i, j), output.get(i, j), 0.00001);
+			}
+		    }
+
+		    // the same kernel and the same array for all the sizes
+		    assertTrue(kernel == cc.getInputFunction());
+		    if (outputArray == null) {
+			outputArray = output.getElements();
+		    }
+
+		    assertTrue(outputArray == output.getElements());
+		}
+	    }
+	} finally {
+	    Environment.getInstance().setUseGEMM(false);
+	}
+    }
+
+    private static Matrix calculate(NeuralNetworkImpl mlp, float[][] samples, int size, ValuesProvider vp) {
+	Matrix input = new Matrix(samples[0].length, size);
+	for (int i = 0; i < input.getRows(); i++) {
+	    for (int j = 0; j < size; j++) {
+		input.set(i, j, samples[j][i]);
+	    }
+	}
+
+	vp.addValues(mlp.getInputLayer(), input);
+	Set<Layer> calculated = new HashSet<>();
+	calculated.add(mlp.getInputLayer());
+	mlp.getLayerCalculator().calculate(mlp, mlp.getOutputLayer(), calculated, vp);
+
+	return vp.getValues(mlp.getOutputLayer());
+    }
+
+    /**
+     * Alternating training and test mini batch sizes reuse the pooled kernels.
+     * The kernels are shared by the calculators of the same type
+     */
+    @Test
+    public void testKernelPool() {
+	KernelPool pool = new KernelPool(KernelPool.DEFAULT_CAPACITY);
+	Environment.getInstance().setKernelPool(pool);
+
+	try {
+	    NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 3, 2, 1 }, true);
+	    float[][] input = new float[][] { { 1, 0, 1 }, { 0, 1, 0 }, { 1, 1, 0 }, { 0, 0, 1 } };
+	    float[][] target = new float[][] { { 1 }, { 0 }, { 1 }, { 0 } };
+	    BackPropagationTrainer<?> bpt = TrainerFactory.backPropagation(mlp, new SimpleInputProvider(input, target, 4, 2), new SimpleInputProvider(input, target, 4, 1), null,
+		    new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.1f, 0.1f)), 0.1f, 0.5f, 0f, 0f);
+
+	    bpt.train();
+	    long misses = pool.getMisses();
+	    assertTrue(misses > 0);
+
+	    // the kernels don't depend on the mini batch size - the test mini batch of 1 reuses them
+	    bpt.test();
+	    assertEquals(misses, pool.getMisses());
+
+	    bpt.train();
+	    bpt.test();
+	    assertEquals(misses, pool.getMisses());
+	    assertEquals(0, pool.getHits());
+	    assertEquals(0, pool.getEvictions());
+
+	    // new calculators of the network reuse the kernels of the previous ones
+	    mlp.setLayerCalculator(NNFactory.lcSigmoid(mlp, null));
+	    bpt.test();
+	    assertEquals(misses, pool.getMisses());
+	    assertTrue(pool.getHits() > 0);
+	} finally {
+	    Environment.getInstance().setKernelPool(new KernelPool(KernelPool.DEFAULT_CAPACITY));
+	}
+    }
+
+    /**
+     * The autotuning execution strategy gives the same results during and
+     * after the trials and persists the decisions
+     */
+    @Test
+    public void testAutotuneExecution() throws IOException, ClassNotFoundException {
+	NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 3, 2, 1 }, true);
+	new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(mlp);
+
+	Matrix input = new Matrix(new float[] { 1, 0, 1, 0.5f, 0.2f, -1 }, 2);
+	Environment.getInstance().setExecutionMode(EXECUTION_MODE.SEQ);
+	ValuesProvider vp = new ValuesProvider();
+	vp.addValues(mlp.getInputLayer(), input);
+	Set<Layer> calculated = new HashSet<>();
+	calculated.add(mlp.getInputLayer());
+	mlp.getLayerCalculator().calculate(mlp, mlp.getOutputLayer(), calculated, vp);
+	Matrix expected = new Matrix(vp.getValues(mlp.getOutputLayer()).getElements().clone(), 2);
+
+	File profile = File.createTempFile("autotune", ".properties");
+	profile.delete();
+	profile.deleteOnExit();
+
+	AutotuneKernelExecution autotune = new AutotuneKernelExecution(profile, AutotuneKernelExecution.defaultCandidates(), 1);
+	((LayerCalculatorImpl) mlp.getLayerCalculator()).addEventListener(autotune);
+	Environment.getInstance().setExecutionStrategy(autotune);
+
+	try {
+	    // 4 candidates, 1 trial each and 1 tuned execution
+	    for (int i = 0; i < 5; i++) {
+		vp = new ValuesProvider();
+		vp.addValues(mlp.getInputLayer(), input);
+		calculated = new HashSet<>();
+		calculated.add(mlp.getInputLayer());
+		mlp.getLayerCalculator().calculate(mlp, mlp.getOutputLayer(), calculated, vp);
+
+		Matrix output = vp.getValues(mlp.getOutputLayer());
+		assertEquals(expected.get(0, 0), output.get(0, 0), 0.00001);
+		assertEquals(expected.get(0, 1), output.get(0, 1), 0.00001);
+	    }
+
+	    // the work per item (weights x mini batch size) is part of the key
+	    assertEquals(2, autotune.getDecisions().size());
+	    assertTrue(AutotuneKernelExecution.defaultCandidates().containsKey(autotune.getDecision(AparapiSigmoidFunction.class, 2, 3, 2)));
+	    assertTrue(AutotuneKernelExecution.defaultCandidates().containsKey(autotune.getDecision(AparapiSigmoidFunction.class, 1, 2, 2)));
+	    assertNull(autotune.getDecision(AparapiSigmoidFunction.class, 1));
+	    assertEquals(1, autotune.getKernels(mlp.getOutputLayer()).size());
+	    assertTrue(autotune.report(mlp).contains("AparapiSigmoid$AparapiSigmoidFunction@1:2x2 -> " + autotune.getDecision(AparapiSigmoidFunction.class, 1, 2, 2)));
+
+	    assertTrue(profile.exists());
+	    assertEquals(autotune.getDecisions(), new AutotuneKernelExecution(profile).getDecisions());
+
+	    // a deserialized instance keeps the decisions and can execute kernels
+	    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+		out.writeObject(autotune);
+	    }
+
+	    AutotuneKernelExecution copy = null;
+	    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+		copy = (AutotuneKernelExecution) in.readObject();
+	    }
+
+	    assertEquals(autotune.getDecisions(), copy.getDecisions());
+
+	    // the layers are not serialized
+	    assertEquals(0, copy.getKernels(mlp.getOutputLayer()).size());
+	    Environment.getInstance().setExecutionStrategy(copy);
+	    vp = new ValuesProvider();
+	    vp.addValues(mlp.getInputLayer(), input);
+	    calculated = new HashSet<>();
+	    calculated.add(mlp.getInputLayer());
+	    mlp.getLayerCalculator().calculate(mlp, mlp.getOutputLayer(), calculated, vp);
+	    assertEquals(expected.get(0, 0), vp.getValues(mlp.getOutputLayer()).get(0, 0), 0.00001);
+	} finally {
+	    Environment.getInstance().setExecutionMode(EXECUTION_MODE.NONE);
+	}
+    }
+
+    /**
+     * The data parallel trainer (3 workers) must update the weights in the
+     * same way as the backpropagation trainer (Aparapi and GEMM)
+     */
+    @Test
+    public void testDataParallelBackpropagation() {
+	float[][][] data = trainingData();
+	float[][] input = data[0];
+	float[][] target = data[1];
+
+	try {
+	    for (boolean gemm : new boolean[] { false, true }) {
+		Environment.getInstance().setUseGEMM(gemm);
+
+		NeuralNetworkImpl expected = randomMlp();
+		NeuralNetworkImpl mlp = copyOf(expected);
+
+		BackPropagationTrainer<?> bpt = TrainerFactory.backPropagation(expected, new SimpleInputProvider(input, target, input.length, 8), null, null, null, 0.1f, 0.5f, 0f, 0f);
+		bpt.train();
+
+		List<NeuralNetworkImpl> replicas = new ArrayList<>();
+		replicas.add(NNFactory.mlpSigmoid(new int[] { 6, 5, 3 }, true));
+		replicas.add(NNFactory.mlpSigmoid(new int[] { 6, 5, 3 }, true));
+		DataParallelBackPropagationTrainer<?> dpt = TrainerFactory.dataParallelBackPropagation(mlp, replicas, new SimpleInputProvider(input, target, input.length, 8), null, null, null, 0.1f, 0.5f, 0f, 0f);
+		try {
+		    dpt.train();
+		} finally {
+		    dpt.shutdown();
+		}
+
+		assertEquals(3, dpt.getWorkerCount());
+		assertTrue(dpt.getGradientTime() > 0);
+
+		// the replicas use the weights of the network
+		assertTrue(((FullyConnected) replicas.get(0).getConnections().get(0)).getConnectionGraph() == ((FullyConnected) mlp.getConnections().get(0)).getConnectionGraph());
+
+		assertSameWeights(expected, mlp);
+	    }
+	} finally {
+	    Environment.getInstance().setUseGEMM(false);
+	}
+    }
+
+    /**
+     * Hogwild with a single worker is the same as the backpropagation trainer
+     * (without momentum and weight decay). With 3 workers all the mini
+     * batches are trained once
+     */
+    @Test
+    public void testHogwildBackpropagation() {
+	float[][][] data = trainingData();
+	float[][] input = data[0];
+	float[][] target = data[1];
+
+	NeuralNetworkImpl expected = randomMlp();
+	NeuralNetworkImpl mlp = copyOf(expected);
+	float initial = ((FullyConnected) mlp.getConnections().get(0)).getConnectionGraph().getElements()[0];
+
+	TrainerFactory.backPropagation(expected, new SimpleInputProvider(input, target, input.length, 4), null, null, null, 0.1f, 0f, 0f, 0f).train();
+
+	HogwildBackPropagationTrainer<?> hogwild = TrainerFactory.hogwildBackPropagation(mlp, new ArrayList<NeuralNetworkImpl>(), new SimpleInputProvider(input, target, input.length, 4), null, null, null, 0.1f, 0f, 0f, 0f);
+	hogwild.train();
+	hogwild.shutdown();
+	assertEquals(4, hogwild.getBatches());
+
+	assertSameWeights(expected, mlp);
+
+	List<NeuralNetworkImpl> replicas = new ArrayList<>();
+	replicas.add(NNFactory.mlpSigmoid(new int[] { 6, 5, 3 }, true));
+	replicas.add(NNFactory.mlpSigmoid(new int[] { 6, 5, 3 }, true));
+	hogwild = TrainerFactory.hogwildBackPropagation(mlp, replicas, new SimpleInputProvider(input, target, input.length, 2), null, null, null, 0.1f, 0.5f, 0f, 0f);
+
+	final List<Integer> batches = new ArrayList<>();
+	hogwild.addEventListener(new TrainingEventListener() {
+	    private static final long serialVersionUID = 1L;
+
+	    @Override
+	    public void handleEvent(TrainingEvent event) {
+		if (event instanceof MiniBatchFinishedEvent) {
+		    batches.add(((MiniBatchFinishedEvent) event).getBatchCount());
+		}
+	    }
+	});
+
+	try {
+	    hogwild.train();
+	} finally {
+	    hogwild.shutdown();
+	}
+
+	assertEquals(3, hogwild.getWorkerCount());
+	assertEquals(8, hogwild.getBatches());
+	assertEquals(8, batches.size());
+	for (int i = 1; i <= 8; i++) {
+	    assertTrue(batches.contains(i));
+	}
+
+	float[] w = ((FullyConnected) mlp.getConnections().get(0)).getConnectionGraph().getElements();
+	assertTrue(((FullyConnected) replicas.get(1).getConnections().get(0)).getConnectionGraph().getElements() == w);
+	assertTrue(w[0] != initial);
+    }
+
+    /**
+     * @return the input and the target values of the data parallel tests (16
+     *         samples)
+     */
+    private static float[][][] trainingData() {
+	float[][] input = new float[16][6];
+	float[][] target = new float[16][3];
+	for (int i = 0; i < input.length; i++) {
+	    for (int j = 0; j < input[i].length; j++) {
+		input[i][j] = ((i * 3 + j) % 7) / 7f;
+	    }
+
+	    target[i][i % 3] = 1;
+	}
+
+	return new float[][][] { input, target };
+    }
+
+    /**
+     * @return 6-5-3 sigmoid network with random weights
+     */
+    private static NeuralNetworkImpl randomMlp() {
+	NeuralNetworkImpl result = NNFactory.mlpSigmoid(new int[] { 6, 5, 3 }, true);
+	new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(result);
+	return result;
+    }
+
+    /**
+     * @return 6-5-3 sigmoid network with the weights of mlp
+     */
+    private static NeuralNetworkImpl copyOf(NeuralNetworkImpl mlp) {
+	NeuralNetworkImpl result = NNFactory.mlpSigmoid(new int[] { 6, 5, 3 }, true);
+	for (int i = 0; i < result.getConnections().size(); i++) {
+	    float[] w = ((FullyConnected) mlp.getConnections().get(i)).getConnectionGraph().getElements();
+	    System.arraycopy(w, 0, ((FullyConnected) result.getConnections().get(i)).getConnectionGraph().getElements(), 0, w.length);
+	}
+
+	return result;
+    }
+
+    private static void assertSameWeights(NeuralNetworkImpl expected, NeuralNetworkImpl actual) {
+	for (int i = 0; i < expected.getConnections().size(); i++) {
+	    float[] e = ((FullyConnected) expected.getConnections().get(i)).getConnectionGraph().getElements();
+	    float[] a = ((FullyConnected) actual.getConnections().get(i)).getConnectionGraph().getElements();
+	    for (int j = 0; j < e.length; j++) {
+		assertEquals(e[j], a[j], 0.00001);
+	    }
+	}
+    }
 }
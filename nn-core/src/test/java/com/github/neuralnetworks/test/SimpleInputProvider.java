@@ -1,6 +1,9 @@
 package com.github.neuralnetworks.test;
 
+import java.util.Random;
+
 import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.SparseInputMatrix;
 import com.github.neuralnetworks.training.TrainingInputData;
 import com.github.neuralnetworks.training.TrainingInputProvider;
 
@@ -20,6 +23,13 @@ public class SimpleInputProvider implements TrainingInputProvider {
     private int current;
 
     public SimpleInputProvider(float[][] input, float[][] target, int count, int miniBatchSize) {
+	this(input, target, count, miniBatchSize, false);
+    }
+
+    /**
+     * @param sparse - the input is provided as SparseInputMatrix
+     */
+    public SimpleInputProvider(float[][] input, float[][] target, int count, int miniBatchSize, boolean sparse) {
 	super();
 
 	this.count = count;
@@ -29,7 +39,7 @@ public class SimpleInputProvider implements TrainingInputProvider {
 
 	if (input != null) {
 	    this.input  = input;
-	    data.setInput(new Matrix(input[0].length, miniBatchSize));
+	    data.setInput(sparse ? new SparseInputMatrix(input[0].length, miniBatchSize) : new Matrix(input[0].length, miniBatchSize));
 	}
 
 	if (target != null) {
@@ -71,6 +81,25 @@ public class SimpleInputProvider implements TrainingInputProvider {
 	return null;
     }
 
+    /**
+     * Sparse inputs with 20 active features from the block of the class
+     * (inputs / classes features per class) and 5 random features
+     */
+    public static void blockClasses(Random random, float[][] input, float[][] target) {
+	int classes = target[0].length, block = input[0].length / classes;
+	for (int i = 0; i < input.length; i++) {
+	    int c = random.nextInt(classes);
+	    target[i][c] = 1;
+	    for (int j = 0; j < 20; j++) {
+		input[i][c * block + random.nextInt(block)] = 1;
+	    }
+
+	    for (int j = 0; j < 5; j++) {
+		input[i][random.nextInt(input[i].length)] = 1;
+	    }
+	}
+    }
+
     private static class SimpleTrainingInputData implements TrainingInputData {
 
 	private static final long serialVersionUID = 1L;
@@ -0,0 +1,64 @@
+package com.github.neuralnetworks.training.allreduce.test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.github.neuralnetworks.architecture.NeuralNetworkImpl;
+import com.github.neuralnetworks.architecture.types.NNFactory;
+import com.github.neuralnetworks.test.SimpleInputProvider;
+import com.github.neuralnetworks.training.TrainerFactory;
+import com.github.neuralnetworks.training.allreduce.AllReduceBackPropagationTrainer;
+import com.github.neuralnetworks.training.allreduce.RingAllReduce;
+import com.github.neuralnetworks.training.random.MersenneTwisterRandomInitializer;
+import com.github.neuralnetworks.training.random.NNRandomInitializer;
+import com.github.neuralnetworks.util.Environment;
+
+/**
+ * Rank process of the ring all-reduce benchmark (BenchmarkTest). Trains a
+ * multi layer perceptron with GEMM on SimpleInputProvider.blockClasses data
+ * and prints the throughput and the report of the trainer. Arguments: rank
+ * (the seed of the training data), comma separated ports of all the ranks,
+ * number of samples, epochs, mini batch size and comma separated layer sizes
+ */
+public class AllReduceWorker {
+
+    public static void main(String[] args) {
+        int rank = Integer.parseInt(args[0]), samples = Integer.parseInt(args[2]), epochs = Integer.parseInt(args[3]), miniBatchSize = Integer.parseInt(args[4]);
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String port : args[1].split(",")) {
+            addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(port)));
+        }
+
+        String[] sizes = args[5].split(",");
+        int[] layers = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            layers[i] = Integer.parseInt(sizes[i]);
+        }
+
+        Environment.getInstance().setUseGEMM(true);
+
+        float[][] input = new float[samples][layers[0]];
+        float[][] target = new float[samples][layers[layers.length - 1]];
+        SimpleInputProvider.blockClasses(new Random(rank), input, target);
+
+        NeuralNetworkImpl nn = NNFactory.mlpSigmoid(layers, true);
+        new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.1f, 0.1f)).initialize(nn);
+        try (RingAllReduce ring = new RingAllReduce(rank, addresses)) {
+            AllReduceBackPropagationTrainer<?> t = TrainerFactory.allReduceBackPropagation(nn, ring, new SimpleInputProvider(input, target, samples, miniBatchSize), null, null, null, 0.05f,
+                    0f, 0f, 0f);
+            long start = System.nanoTime();
+            try {
+                for (int i = 0; i < epochs; i++) {
+                    t.train();
+                }
+            } finally {
+                t.shutdown();
+            }
+
+            System.out.print(String.format("  rank %d: %.0f samples/s%n%s", rank, epochs * samples / ((System.nanoTime() - start) / 1000000000d), t.report()));
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.github.neuralnetworks.training.allreduce.test;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+@RunWith(Suite.class)
+@SuiteClasses({ RingAllReduceTest.class })
+public class AllTests {
+
+}
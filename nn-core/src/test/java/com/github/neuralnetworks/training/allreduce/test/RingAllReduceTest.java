@@ -0,0 +1,210 @@
+package com.github.neuralnetworks.training.allreduce.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.github.neuralnetworks.architecture.FullyConnected;
+import com.github.neuralnetworks.architecture.NeuralNetworkImpl;
+import com.github.neuralnetworks.architecture.types.NNFactory;
+import com.github.neuralnetworks.test.SimpleInputProvider;
+import com.github.neuralnetworks.training.TrainerFactory;
+import com.github.neuralnetworks.training.allreduce.AllReduceBackPropagationTrainer;
+import com.github.neuralnetworks.training.allreduce.RingAllReduce;
+import com.github.neuralnetworks.training.random.MersenneTwisterRandomInitializer;
+import com.github.neuralnetworks.training.random.NNRandomInitializer;
+
+public class RingAllReduceTest {
+
+    /**
+     * A single rank doesn't communicate
+     */
+    @Test
+    public void testSingleRank() throws Exception {
+        try (RingAllReduce ring = new RingAllReduce(0, addresses(1))) {
+            float[] data = new float[] { 1, 2, 3 };
+            assertEquals(0, ring.allReduce(data));
+            assertEquals(1, data[0], 0);
+            assertEquals(3, data[2], 0);
+            assertEquals(1, ring.getSize());
+        }
+    }
+
+    /**
+     * All-reduce of an array that is not divisible in equal chunks and
+     * broadcast from rank 0 between 3 ranks (threads connected over loopback
+     * sockets)
+     */
+    @Test
+    public void testAllReduce() throws Exception {
+        final List<InetSocketAddress> addresses = addresses(3);
+        List<Callable<Long>> ranks = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            final int rank = r;
+            ranks.add(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    try (RingAllReduce ring = new RingAllReduce(rank, addresses)) {
+                        float[] data = new float[10];
+                        for (int i = 0; i < data.length; i++) {
+                            data[i] = rank * 100 + i;
+                        }
+
+                        long bytes = ring.allReduce(data);
+                        for (int i = 0; i < data.length; i++) {
+                            assertEquals(300 + 3 * i, data[i], 0);
+                        }
+
+                        ByteBuffer buffer = ByteBuffer.allocate(8);
+                        buffer.putInt(rank).putInt(rank * 10).flip();
+                        ring.broadcast(buffer);
+                        assertEquals(0, buffer.position());
+                        assertEquals(0, buffer.getInt(0));
+                        assertEquals(0, buffer.getInt(4));
+
+                        return bytes;
+                    }
+                }
+            });
+        }
+
+        // 2 chunks of 3 or 4 floats in each phase
+        for (long bytes : run(ranks)) {
+            assertTrue(bytes >= 4 * 2 * 6 && bytes <= 4 * 2 * 8);
+        }
+    }
+
+    /**
+     * Data parallel training with ring all-reduce between 3 ranks gives the
+     * same results as the backpropagation trainer with the combined mini
+     * batches
+     */
+    @Test
+    public void testTrainer() throws Exception {
+        final List<InetSocketAddress> addresses = addresses(3);
+
+        // each rank has its own shard with 4 mini batches of 2 samples
+        final float[][][] input = new float[3][8][6];
+        final float[][][] target = new float[3][8][3];
+        float[][] allInput = new float[24][];
+        float[][] allTarget = new float[24][];
+        for (int r = 0; r < 3; r++) {
+            for (int i = 0; i < 8; i++) {
+                for (int j = 0; j < 6; j++) {
+                    input[r][i][j] = ((r * 8 + i) * 3 + j) % 7 / 7f;
+                }
+
+                target[r][i][(r + i) % 3] = 1;
+
+                // the combined mini batch b has the samples of mini batch b of each rank
+                allInput[(i / 2) * 6 + r * 2 + i % 2] = input[r][i];
+                allTarget[(i / 2) * 6 + r * 2 + i % 2] = target[r][i];
+            }
+        }
+
+        NeuralNetworkImpl expected = NNFactory.mlpSigmoid(new int[] { 6, 5, 3 }, true);
+        new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(expected);
+        final List<NeuralNetworkImpl> networks = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            NeuralNetworkImpl nn = NNFactory.mlpSigmoid(new int[] { 6, 5, 3 }, true);
+            new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(nn);
+            networks.add(nn);
+        }
+
+        // rank 0 has the initial weights
+        for (int i = 0; i < expected.getConnections().size(); i++) {
+            float[] w = ((FullyConnected) expected.getConnections().get(i)).getConnectionGraph().getElements();
+            System.arraycopy(w, 0, ((FullyConnected) networks.get(0).getConnections().get(i)).getConnectionGraph().getElements(), 0, w.length);
+        }
+
+        TrainerFactory.backPropagation(expected, new SimpleInputProvider(allInput, allTarget, allInput.length, 6), null, null, null, 0.1f, 0.5f, 0f, 0f).train();
+
+        List<Callable<AllReduceBackPropagationTrainer<?>>> ranks = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            final int rank = r;
+            ranks.add(new Callable<AllReduceBackPropagationTrainer<?>>() {
+                @Override
+                public AllReduceBackPropagationTrainer<?> call() {
+                    try (RingAllReduce ring = new RingAllReduce(rank, addresses)) {
+                        AllReduceBackPropagationTrainer<?> t = TrainerFactory.allReduceBackPropagation(networks.get(rank), ring, new SimpleInputProvider(input[rank], target[rank], 8, 2), null,
+                                null, null, 0.1f, 0.5f, 0f, 0f);
+                        try {
+                            t.train();
+                        } finally {
+                            t.shutdown();
+                        }
+
+                        return t;
+                    }
+                }
+            });
+        }
+
+        List<AllReduceBackPropagationTrainer<?>> trainers = run(ranks);
+        for (AllReduceBackPropagationTrainer<?> t : trainers) {
+            assertEquals(4, t.getSteps());
+            assertTrue(t.getBytes(0) > 0);
+        }
+
+        // one line for the step and one for each of the 4 connections with weights
+        String report = trainers.get(0).report();
+        assertTrue(report.startsWith("all-reduce rank 0/3: 4 mini batches"));
+        assertEquals(5, report.split(String.format("%n")).length);
+
+        for (NeuralNetworkImpl nn : networks) {
+            for (int i = 0; i < expected.getConnections().size(); i++) {
+                float[] e = ((FullyConnected) expected.getConnections().get(i)).getConnectionGraph().getElements();
+                float[] a = ((FullyConnected) nn.getConnections().get(i)).getConnectionGraph().getElements();
+                for (int j = 0; j < e.length; j++) {
+                    assertEquals(e[j], a[j], 0.00001);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return free loopback addresses for the ranks
+     */
+    private static List<InetSocketAddress> addresses(int size) throws Exception {
+        List<InetSocketAddress> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            try (ServerSocket s = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                result.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), s.getLocalPort()));
+            }
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Runs each rank in its own thread
+     *
+     * @return the results of the ranks
+     */
+    private static <T> List<T> run(List<Callable<T>> ranks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(ranks.size());
+        List<T> result = new ArrayList<>();
+        try {
+            for (Future<T> f : executor.invokeAll(ranks)) {
+                result.add(f.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        return result;
+    }
+}
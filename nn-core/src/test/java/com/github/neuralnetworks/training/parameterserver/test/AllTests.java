@@ -0,0 +1,11 @@
+package com.github.neuralnetworks.training.parameterserver.test;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+@RunWith(Suite.class)
+@SuiteClasses({ ParameterServerTest.class })
+public class AllTests {
+
+}
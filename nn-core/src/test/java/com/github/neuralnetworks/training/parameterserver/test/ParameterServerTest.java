@@ -0,0 +1,215 @@
+package com.github.neuralnetworks.training.parameterserver.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.amd.aparapi.Kernel.EXECUTION_MODE;
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.Conv2DConnection;
+import com.github.neuralnetworks.architecture.FullyConnected;
+import com.github.neuralnetworks.architecture.NeuralNetworkImpl;
+import com.github.neuralnetworks.architecture.types.NNFactory;
+import com.github.neuralnetworks.test.SimpleInputProvider;
+import com.github.neuralnetworks.training.TrainerFactory;
+import com.github.neuralnetworks.training.parameterserver.ParameterEncoding;
+import com.github.neuralnetworks.training.parameterserver.ParameterServer;
+import com.github.neuralnetworks.training.parameterserver.ParameterServerWorkerTrainer;
+import com.github.neuralnetworks.training.random.MersenneTwisterRandomInitializer;
+import com.github.neuralnetworks.training.random.NNRandomInitializer;
+import com.github.neuralnetworks.util.Environment;
+
+public class ParameterServerTest {
+
+    @After
+    public void restoreEnvironment() {
+        Environment.getInstance().setExecutionMode(EXECUTION_MODE.NONE);
+    }
+
+    /**
+     * Fully connected network trained with a parameter server and workers over
+     * loopback connections
+     */
+    @Test
+    public void testFullyConnected() throws InterruptedException {
+        float[][] input = new float[16][6];
+        float[][] target = new float[16][3];
+        for (int i = 0; i < input.length; i++) {
+            for (int j = 0; j < input[i].length; j++) {
+                input[i][j] = ((i * 3 + j) % 7) / 7f;
+            }
+
+            target[i][i % 3] = 1;
+        }
+
+        NeuralNetworkImpl expected = NNFactory.mlpSigmoid(new int[] { 6, 5, 3 }, true);
+        new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(expected);
+        NeuralNetworkImpl server = NNFactory.mlpSigmoid(new int[] { 6, 5, 3 }, true);
+        NeuralNetworkImpl worker = NNFactory.mlpSigmoid(new int[] { 6, 5, 3 }, true);
+
+        // the server gets the initial weights through the encoding
+        ByteBuffer buffer = ByteBuffer.allocate(ParameterEncoding.size(expected.getConnections()));
+        ParameterEncoding.writeWeights(expected.getConnections(), buffer);
+        buffer.flip();
+        ParameterEncoding.readWeights(buffer, server.getConnections());
+        assertEquals(0, buffer.remaining());
+        assertEquals(ParameterEncoding.size(expected.getConnections()), buffer.limit() + ParameterEncoding.HEADER_SIZE);
+
+        TrainerFactory.backPropagation(expected, new SimpleInputProvider(input, target, input.length, 4), null, null, null, 0.1f, 0.5f, 0f, 0f).train();
+
+        // with a single worker and no staleness the training is synchronous
+        ParameterServer ps = new ParameterServer(server, 0.1f, 0.5f, 0f, 0f, 0);
+        try {
+            ParameterServerWorkerTrainer<?> t = TrainerFactory.parameterServerWorker(worker, new ArrayList<NeuralNetworkImpl>(), new SimpleInputProvider(input, target, input.length, 4), null, null, ps.start());
+            try {
+                t.train();
+            } finally {
+                t.shutdown();
+            }
+
+            assertEquals(4, t.getPushes());
+            assertEquals(0, t.getRejectedPushes());
+            assertEquals(4, ps.getVersion());
+            assertEquals(4, t.getVersion());
+        } finally {
+            ps.close();
+        }
+
+        for (int i = 0; i < expected.getConnections().size(); i++) {
+            float[] e = ((FullyConnected) expected.getConnections().get(i)).getConnectionGraph().getElements();
+            float[] s = ((FullyConnected) server.getConnections().get(i)).getConnectionGraph().getElements();
+            float[] w = ((FullyConnected) worker.getConnections().get(i)).getConnectionGraph().getElements();
+            for (int j = 0; j < e.length; j++) {
+                assertEquals(e[j], s[j], 0.00001);
+                assertEquals(e[j], w[j], 0f);
+            }
+        }
+
+        // two workers with their own shards of the training data
+        ps = new ParameterServer(server, 0.1f, 0f, 0f, 0f, 1);
+        InetSocketAddress address = ps.start();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<ParameterServerWorkerTrainer<?>> workers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        try {
+            for (int i = 0; i < 2; i++) {
+                SimpleInputProvider shard = new SimpleInputProvider(Arrays.copyOfRange(input, i * 8, i * 8 + 8), Arrays.copyOfRange(target, i * 8, i * 8 + 8), 8, 2);
+                final ParameterServerWorkerTrainer<?> t = TrainerFactory.parameterServerWorker(NNFactory.mlpSigmoid(new int[] { 6, 5, 3 }, true), new ArrayList<NeuralNetworkImpl>(), shard, null, null, address);
+                workers.add(t);
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            t.train();
+                        } catch (Throwable e) {
+                            errors.add(e);
+                        } finally {
+                            t.shutdown();
+                        }
+                    }
+                }));
+            }
+
+            for (Thread t : threads) {
+                t.start();
+            }
+
+            for (Thread t : threads) {
+                t.join();
+            }
+        } finally {
+            ps.close();
+        }
+
+        assertTrue(errors.isEmpty());
+
+        long pushes = 0, rejected = 0, version = 0;
+        for (ParameterServerWorkerTrainer<?> t : workers) {
+            assertEquals(4, t.getPushes() + t.getRejectedPushes());
+            pushes += t.getPushes();
+            rejected += t.getRejectedPushes();
+            version = Math.max(version, t.getVersion());
+        }
+
+        assertTrue(pushes >= 4);
+        assertEquals(pushes, ps.getUpdates());
+        assertEquals(rejected, ps.getRejectedUpdates());
+        assertEquals(ps.getUpdates(), ps.getVersion());
+        assertEquals(ps.getVersion(), version);
+    }
+
+    /**
+     * Convolutional network trained with a parameter server gives the same
+     * results as the backpropagation trainer
+     */
+    @Test
+    public void testConv2D() {
+        Environment.getInstance().setExecutionMode(EXECUTION_MODE.SEQ);
+
+        float[][] input = new float[8][36];
+        float[][] target = new float[8][3];
+        for (int i = 0; i < input.length; i++) {
+            for (int j = 0; j < input[i].length; j++) {
+                input[i][j] = ((i * 5 + j) % 11) / 11f;
+            }
+
+            target[i][i % 3] = 1;
+        }
+
+        NeuralNetworkImpl expected = NNFactory.convNN(new int[][] { { 6, 6, 1 }, { 3, 3, 2, 1 }, { 2, 2 }, { 3 } }, true);
+        expected.setLayerCalculator(NNFactory.lcSigmoid(expected, null));
+        NNFactory.lcMaxPooling(expected);
+        new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.5f, 0.5f)).initialize(expected);
+
+        NeuralNetworkImpl server = NNFactory.convNN(new int[][] { { 6, 6, 1 }, { 3, 3, 2, 1 }, { 2, 2 }, { 3 } }, true);
+        NeuralNetworkImpl worker = NNFactory.convNN(new int[][] { { 6, 6, 1 }, { 3, 3, 2, 1 }, { 2, 2 }, { 3 } }, true);
+        worker.setLayerCalculator(NNFactory.lcSigmoid(worker, null));
+        NNFactory.lcMaxPooling(worker);
+
+        ByteBuffer buffer = ByteBuffer.allocate(ParameterEncoding.size(expected.getConnections()));
+        ParameterEncoding.writeWeights(expected.getConnections(), buffer);
+        buffer.flip();
+        ParameterEncoding.readWeights(buffer, server.getConnections());
+
+        TrainerFactory.backPropagation(expected, new SimpleInputProvider(input, target, input.length, 4), null, null, null, 0.1f, 0f, 0f, 0f).train();
+
+        ParameterServer ps = new ParameterServer(server, 0.1f, 0f, 0f, 0f, 0);
+        try {
+            ParameterServerWorkerTrainer<?> t = TrainerFactory.parameterServerWorker(worker, new ArrayList<NeuralNetworkImpl>(), new SimpleInputProvider(input, target, input.length, 4), null, null, ps.start());
+            try {
+                t.train();
+            } finally {
+                t.shutdown();
+            }
+
+            assertEquals(2, ps.getUpdates());
+        } finally {
+            ps.close();
+        }
+
+        List<Connections> e = expected.getConnections(), s = server.getConnections();
+        for (int i = 0; i < e.size(); i++) {
+            float[] ew = null, sw = null;
+            if (e.get(i) instanceof Conv2DConnection) {
+                ew = ((Conv2DConnection) e.get(i)).getWeights();
+                sw = ((Conv2DConnection) s.get(i)).getWeights();
+            } else if (e.get(i) instanceof FullyConnected) {
+                ew = ((FullyConnected) e.get(i)).getConnectionGraph().getElements();
+                sw = ((FullyConnected) s.get(i)).getConnectionGraph().getElements();
+            }
+
+            for (int j = 0; ew != null && j < ew.length; j++) {
+                assertEquals(ew[j], sw[j], 0.00001);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.neuralnetworks.training.parameterserver.test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.github.neuralnetworks.architecture.NeuralNetworkImpl;
+import com.github.neuralnetworks.architecture.types.NNFactory;
+import com.github.neuralnetworks.test.SimpleInputProvider;
+import com.github.neuralnetworks.training.TrainerFactory;
+import com.github.neuralnetworks.training.parameterserver.ParameterServerWorkerTrainer;
+import com.github.neuralnetworks.util.Environment;
+
+/**
+ * Worker process of the parameter server benchmark (BenchmarkTest). Trains a
+ * multi layer perceptron with GEMM on SimpleInputProvider.blockClasses data
+ * and prints the throughput and the number of pushes and pulls. Arguments:
+ * port of the server, shard (the seed of the training data), number of
+ * samples, epochs, mini batch size and comma separated layer sizes
+ */
+public class ParameterServerWorker {
+
+    public static void main(String[] args) {
+        int port = Integer.parseInt(args[0]), shard = Integer.parseInt(args[1]), samples = Integer.parseInt(args[2]), epochs = Integer.parseInt(args[3]), miniBatchSize = Integer
+                .parseInt(args[4]);
+        String[] sizes = args[5].split(",");
+        int[] layers = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            layers[i] = Integer.parseInt(sizes[i]);
+        }
+
+        Environment.getInstance().setUseGEMM(true);
+
+        float[][] input = new float[samples][layers[0]];
+        float[][] target = new float[samples][layers[layers.length - 1]];
+        SimpleInputProvider.blockClasses(new Random(shard), input, target);
+
+        NeuralNetworkImpl nn = NNFactory.mlpSigmoid(layers, true);
+        ParameterServerWorkerTrainer<?> t = TrainerFactory.parameterServerWorker(nn, new ArrayList<NeuralNetworkImpl>(), new SimpleInputProvider(input, target, samples, miniBatchSize), null,
+                null, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        long start = System.nanoTime(), pushes = 0, rejected = 0, pulls = 0;
+        try {
+            for (int i = 0; i < epochs; i++) {
+                t.train();
+                pushes += t.getPushes();
+                rejected += t.getRejectedPushes();
+                pulls += t.getPulls();
+            }
+        } finally {
+            t.shutdown();
+        }
+
+        System.out.println(String.format("  worker %d: %.0f samples/s, %d pushes, %d rejected, %d pulls", shard, epochs * samples / ((System.nanoTime() - start) / 1000000000d), pushes,
+                rejected, pulls));
+    }
+}
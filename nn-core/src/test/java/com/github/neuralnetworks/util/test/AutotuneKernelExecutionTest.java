@@ -0,0 +1,76 @@
+package com.github.neuralnetworks.util.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.amd.aparapi.Kernel;
+import com.github.neuralnetworks.util.AutotuneKernelExecution;
+import com.github.neuralnetworks.util.KernelExecutionStrategy;
+import com.github.neuralnetworks.util.KernelWork;
+
+public class AutotuneKernelExecutionTest {
+
+    /**
+     * After the trials the execution of a kernel with KernelWork doesn't
+     * allocate in the strategy (the kernel itself is not executed)
+     */
+    @Test
+    public void tunedExecutionDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported());
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        Map<String, KernelExecutionStrategy> candidates = new LinkedHashMap<>();
+        candidates.put("NONE", new NoExecution());
+        AutotuneKernelExecution autotune = new AutotuneKernelExecution(null, candidates, 1);
+        WorkKernel kernel = new WorkKernel();
+
+        // the first execution is the trial, the rest lets the JIT compile the lookup
+        execute(autotune, kernel, 20000);
+        assertEquals("NONE", autotune.getDecision(WorkKernel.class, 8, 3, 2));
+
+        long start = threads.getThreadAllocatedBytes(thread);
+        execute(autotune, kernel, 1000);
+        long allocated = threads.getThreadAllocatedBytes(thread) - start;
+
+        assertEquals("allocated " + allocated + " bytes", 0, allocated);
+    }
+
+    private static void execute(AutotuneKernelExecution autotune, Kernel kernel, int times) {
+        for (int i = 0; i < times; i++) {
+            autotune.execute(kernel, 8);
+        }
+    }
+
+    private static class WorkKernel extends Kernel implements KernelWork {
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public int getItemWork() {
+            return 3;
+        }
+
+        @Override
+        public int getItemSamples() {
+            return 2;
+        }
+    }
+
+    private static class NoExecution implements KernelExecutionStrategy {
+
+        @Override
+        public void execute(Kernel kernel, int range) {
+        }
+    }
+}
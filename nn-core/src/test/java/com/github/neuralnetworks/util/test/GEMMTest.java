@@ -0,0 +1,158 @@
+package com.github.neuralnetworks.util.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.neuralnetworks.util.GEMM;
+
+public class GEMMTest {
+
+    private final Random random = new Random(123);
+
+    @Test
+    public void multipliesSmallMatrices() {
+        // 2x3 * 3x2
+        float[] a = new float[] { 1, 2, 3, 4, 5, 6 };
+        float[] b = new float[] { 1, 4, 2, 5, 3, 6 };
+        float[] c = new float[4];
+
+        new GEMM().multiply(false, false, 2, 2, 3, a, 0, 3, b, 0, 2, c, 0, 2);
+
+        assertEquals(14, c[0], 0);
+        assertEquals(32, c[1], 0);
+        assertEquals(32, c[2], 0);
+        assertEquals(77, c[3], 0);
+    }
+
+    @Test
+    public void accumulatesInTheResult() {
+        float[] a = new float[] { 1, 2, 3, 4, 5, 6 };
+        float[] b = new float[] { 1, 4, 2, 5, 3, 6 };
+        float[] c = new float[] { 0.1f, 0.1f, 0.2f, 0.2f };
+
+        new GEMM().multiply(false, false, 2, 2, 3, a, 0, 3, b, 0, 2, c, 0, 2);
+
+        assertEquals(14.1, c[0], 0.0001);
+        assertEquals(77.2, c[3], 0.0001);
+    }
+
+    @Test
+    public void handlesTailsAndBlockBoundaries() {
+        // dimensions are not multiples of the micro kernel and exceed the
+        // cache blocks
+        compareWithNaive(false, false, 70, 9, 300);
+        compareWithNaive(false, false, 5, 1030, 7);
+        compareWithNaive(false, false, 1, 1, 1);
+    }
+
+    @Test
+    public void handlesTransposedMatrices() {
+        compareWithNaive(true, false, 67, 13, 259);
+        compareWithNaive(false, true, 67, 13, 259);
+        compareWithNaive(true, true, 3, 5, 2);
+    }
+
+    @Test
+    public void handlesMatrixVectorProduct() {
+        compareWithNaive(false, false, 33, 1, 17);
+        compareWithNaive(false, true, 33, 1, 17);
+        compareWithNaive(true, false, 33, 1, 17);
+    }
+
+    @Test
+    public void readsOffHeapMatrix() {
+        for (boolean transA : new boolean[] { false, true }) {
+            for (int n : new int[] { 1, 13 }) {
+                int m = 67, k = 259;
+                float[] a = random(m * k);
+                float[] b = random(k * n);
+                float[] expected = new float[m * n];
+                float[] c = new float[m * n];
+
+                FloatBuffer direct = ByteBuffer.allocateDirect(a.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+                direct.put(a);
+
+                int lda = transA ? m : k;
+                new GEMM().multiply(transA, false, m, n, k, a, 0, lda, b, 0, n, expected, 0, n);
+                new GEMM().multiply(transA, false, m, n, k, direct, 0, lda, b, 0, n, c, 0, n);
+
+                for (int i = 0; i < expected.length; i++) {
+                    assertEquals(expected[i], c[i], 0.0001);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void appliesEpilogueToFinalBlocks() {
+        // several panels of the shared dimension, blocks of C and the
+        // matrix-vector product
+        for (int[] d : new int[][] { { 70, 1030, 300 }, { 33, 1, 17 } }) {
+            final int m = d[0], n = d[1], k = d[2];
+            float[] a = random(m * k);
+            float[] b = random(k * n);
+            final float[] expected = new float[m * n];
+            float[] c = new float[m * n];
+            final int[] visits = new int[m * n];
+
+            new GEMM().multiply(false, false, m, n, k, a, 0, k, b, 0, n, expected, 0, n);
+            new GEMM().multiply(false, false, m, n, k, a, 0, k, b, 0, n, c, 0, n, new GEMM.Epilogue() {
+                @Override
+                public void apply(float[] c, int cOffset, int ldc, int row, int rows, int column, int columns) {
+                    for (int i = row; i < row + rows; i++) {
+                        for (int j = column; j < column + columns; j++) {
+                            assertEquals(expected[i * n + j], c[cOffset + i * ldc + j], 0.0001);
+                            visits[i * n + j]++;
+                        }
+                    }
+                }
+            });
+
+            for (int i = 0; i < visits.length; i++) {
+                assertEquals(1, visits[i]);
+            }
+        }
+    }
+
+    private void compareWithNaive(boolean transA, boolean transB, int m, int n, int k) {
+        float[] a = random(m * k);
+        float[] b = random(k * n);
+        float[] c = random(m * n);
+        float[] expected = c.clone();
+
+        int lda = transA ? m : k;
+        int ldb = transB ? k : n;
+
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < n; j++) {
+                float sum = 0;
+                for (int p = 0; p < k; p++) {
+                    sum += (transA ? a[p * lda + i] : a[i * lda + p]) * (transB ? b[j * ldb + p] : b[p * ldb + j]);
+                }
+
+                expected[i * n + j] += sum;
+            }
+        }
+
+        new GEMM().multiply(transA, transB, m, n, k, a, 0, lda, b, 0, ldb, c, 0, n);
+
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], c[i], 0.001);
+        }
+    }
+
+    private float[] random(int length) {
+        float[] result = new float[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = random.nextFloat() - 0.5f;
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.neuralnetworks.util.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.github.neuralnetworks.architecture.HalfMatrix;
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.util.GEMM;
+import com.github.neuralnetworks.util.HalfFloat;
+
+public class HalfFloatTest {
+
+    @Test
+    public void exactValues() {
+        for (HalfFloat f : HalfFloat.values()) {
+            for (float v : new float[] { 0, 1, -1, 0.5f, -2, 0.375f, 1024 }) {
+                assertEquals(v, f.toFloat(f.fromFloat(v)), 0);
+            }
+
+            assertEquals(Float.POSITIVE_INFINITY, f.toFloat(f.fromFloat(Float.POSITIVE_INFINITY)), 0);
+            assertEquals(Float.NEGATIVE_INFINITY, f.toFloat(f.fromFloat(Float.NEGATIVE_INFINITY)), 0);
+            assertTrue(Float.isNaN(f.toFloat(f.fromFloat(Float.NaN))));
+        }
+    }
+
+    @Test
+    public void float16() {
+        HalfFloat f = HalfFloat.FLOAT16;
+        assertEquals(0x3C00, f.fromFloat(1) & 0xFFFF);
+        assertEquals(65504, f.toFloat(f.fromFloat(65504)), 0);
+        assertEquals(Float.POSITIVE_INFINITY, f.toFloat(f.fromFloat(70000)), 0);
+
+        // smallest subnormal
+        assertEquals((float) Math.pow(2, -24), f.toFloat((short) 1), 0);
+
+        // round to nearest even
+        assertEquals(2048, f.toFloat(f.fromFloat(2049)), 0);
+        assertEquals(2052, f.toFloat(f.fromFloat(2051)), 0);
+    }
+
+    @Test
+    public void relativeError() {
+        for (float v = -100; v < 100; v += 0.0137f) {
+            assertEquals(v, HalfFloat.BFLOAT16.toFloat(HalfFloat.BFLOAT16.fromFloat(v)), Math.abs(v) / 256 + 1e-30);
+            assertEquals(v, HalfFloat.FLOAT16.toFloat(HalfFloat.FLOAT16.fromFloat(v)), Math.abs(v) / 2048 + 1e-7);
+        }
+    }
+
+    @Test
+    public void halfMatrix() {
+        Matrix m = new Matrix(new float[] { 1, 2, 3, 4, 5, 6 }, 3);
+        HalfMatrix h = HalfMatrix.copyOf(m, HalfFloat.FLOAT16);
+        assertEquals(2, h.getRows());
+        assertEquals(3, h.getColumns());
+        assertEquals(6, h.get(1, 2), 0);
+
+        h.set(0, 1, -7);
+        float[] values = new float[6];
+        h.copyTo(values);
+        assertEquals(-7, values[1], 0);
+    }
+
+    @Test
+    public void gemmWithHalfA() {
+        Matrix a = new Matrix(new float[] { 0.1f, 0.2f, 0.3f, -0.4f, -0.5f, -0.6f }, 3);
+        float[] b = new float[] { 1, 4, 2, 5, 3, 6 };
+
+        for (HalfFloat f : HalfFloat.values()) {
+            HalfMatrix h = HalfMatrix.copyOf(a, f);
+            for (int n : new int[] { 1, 2 }) {
+                float[] c = new float[2 * n];
+                new GEMM().multiply(false, false, 2, n, 3, h.getValues(), f, 0, 3, b, 0, 2, c, 0, n);
+                assertEquals(1.4, c[0], 0.01);
+                assertEquals(-3.2, c[n], 0.01);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.neuralnetworks.util.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.neuralnetworks.architecture.Matrix;
+import com.github.neuralnetworks.architecture.QuantizedMatrix;
+import com.github.neuralnetworks.util.Int8GEMM;
+
+public class Int8GEMMTest {
+
+    private final Random random = new Random(123);
+
+    @Test
+    public void quantizedMatrix() {
+        Matrix m = random(7, 13);
+        m.set(3, 4, 0);
+        QuantizedMatrix q = QuantizedMatrix.quantize(m);
+
+        assertEquals(7, q.getRows());
+        assertEquals(13, q.getColumns());
+
+        float[] values = new float[7 * 13];
+        q.copyTo(values);
+        for (int i = 0; i < m.getRows(); i++) {
+            for (int j = 0; j < m.getColumns(); j++) {
+                assertEquals(m.get(i, j), q.get(i, j), q.getScales()[i] / 2 + 1e-6);
+                assertEquals(q.get(i, j), values[i * 13 + j], 0);
+            }
+        }
+
+        // 0 is exact
+        assertEquals(0, q.get(3, 4), 0);
+    }
+
+    @Test
+    public void constantRow() {
+        QuantizedMatrix q = QuantizedMatrix.quantize(new Matrix(new float[] { 0, 0, 0, 2, 2, 2 }, 3));
+        assertEquals(0, q.get(0, 1), 0);
+        assertEquals(2, q.get(1, 1), 0.01);
+    }
+
+    @Test
+    public void multiply() {
+        int m = 9, n = 5, k = 33;
+        Matrix a = random(m, k);
+        Matrix b = random(k, n);
+        QuantizedMatrix qa = QuantizedMatrix.quantize(a);
+
+        for (float range : new float[] { 0, 0.5f }) {
+            qa.setInputRange(range);
+            float[] c = new float[m * n];
+            new Int8GEMM().multiply(m, n, k, qa, b.getElements(), 0, n, c, 0, n);
+
+            for (int i = 0; i < m; i++) {
+                for (int s = 0; s < n; s++) {
+                    float expected = 0;
+                    for (int j = 0; j < k; j++) {
+                        expected += a.get(i, j) * b.get(j, s);
+                    }
+
+                    assertEquals(expected, c[i * n + s], 0.05);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void inputOutsideOfTheRangeIsClamped() {
+        QuantizedMatrix qa = QuantizedMatrix.quantize(new Matrix(new float[] { 1 }, 1));
+        qa.setInputRange(1);
+        float[] c = new float[1];
+        new Int8GEMM().multiply(1, 1, 1, qa, new float[] { 5 }, 0, 1, c, 0, 1);
+        assertEquals(1, c[0], 0.01);
+    }
+
+    private Matrix random(int rows, int columns) {
+        Matrix m = new Matrix(rows, columns);
+        for (int i = 0; i < m.getElements().length; i++) {
+            m.getElements()[i] = random.nextFloat() - 0.5f;
+        }
+
+        return m;
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.neuralnetworks.util.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.FullyConnected;
+import com.github.neuralnetworks.architecture.Layer;
+import com.github.neuralnetworks.util.KernelPool;
+
+public class KernelPoolTest {
+
+    @Test
+    public void getPut() {
+        KernelPool pool = new KernelPool(4);
+        Class<?> type = Object.class;
+        Layer input = new Layer();
+        Layer output = new Layer();
+        List<Connections> connections = Collections.<Connections> singletonList(new FullyConnected(input, output, 3, 2));
+
+        assertNull(pool.get(type, output, connections, 2));
+        Object kernel = new Object();
+        pool.put(type, output, connections, 2, kernel);
+
+        assertSame(kernel, pool.get(type, output, connections, 2));
+        assertNull(pool.get(type, output, connections, 3));
+        assertNull(pool.get(type, input, connections, 2));
+        assertNull(pool.get(String.class, output, connections, 2));
+        assertNull(pool.get(type, output, Collections.<Connections> emptyList(), 2));
+
+        assertEquals(1, pool.getHits());
+        assertEquals(5, pool.getMisses());
+        assertEquals(1, pool.size());
+
+        pool.resetStatistics();
+        assertEquals(0, pool.getHits());
+        assertEquals(0, pool.getMisses());
+    }
+
+    @Test
+    public void lruEviction() {
+        KernelPool pool = new KernelPool(2);
+        Class<?> type = Object.class;
+        Layer layer = new Layer();
+
+        pool.put(type, layer, null, 1, "1");
+        pool.put(type, layer, null, 2, "2");
+
+        // 1 is used more recently than 2
+        assertEquals("1", pool.get(type, layer, null, 1));
+        pool.put(type, layer, null, 3, "3");
+
+        assertEquals(2, pool.size());
+        assertEquals(1, pool.getEvictions());
+        assertNull(pool.get(type, layer, null, 2));
+        assertEquals("1", pool.get(type, layer, null, 1));
+        assertEquals("3", pool.get(type, layer, null, 3));
+
+        pool.setCapacity(1);
+        assertEquals(1, pool.size());
+        assertEquals(2, pool.getEvictions());
+        assertEquals("3", pool.get(type, layer, null, 3));
+    }
+
+    @Test
+    public void release() throws InterruptedException {
+        KernelPool pool = new KernelPool(4);
+        Layer layer = new Layer();
+        Object kernel = new Object();
+
+        pool.put(Object.class, layer, null, 1, kernel);
+        pool.put(Object.class, layer, null, 2, new Object());
+        pool.put(String.class, layer, null, 1, "1");
+        assertSame(kernel, pool.get(Object.class, layer, null, 1));
+
+        // the instance without references is released
+        for (int i = 0; i < 100 && pool.get(Object.class, layer, null, 2) != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull(pool.get(Object.class, layer, null, 2));
+        assertEquals(2, pool.size());
+        assertSame(kernel, pool.get(Object.class, layer, null, 1));
+        assertEquals("1", pool.get(String.class, layer, null, 1));
+
+        pool.clear();
+        assertEquals(0, pool.size());
+    }
+}
@@ -58,6 +58,26 @@ public class UtilTest {
         assertEquals(0, array.length);
     }
 
+    @Test
+    public void transpose() {
+        // 40 x 70 block of a 45 x 75 array - larger than the transpose blocks
+        float[] src = new float[45 * 75];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = i;
+        }
+
+        float[] dst = new float[2 + 70 * 41];
+        Util.transpose(src, 3 * 75 + 2, 75, 40, 70, dst, 2, 41);
+
+        for (int i = 0; i < 40; i++) {
+            for (int j = 0; j < 70; j++) {
+                assertEquals(src[(i + 3) * 75 + j + 2], dst[2 + j * 41 + i], 0);
+            }
+        }
+
+        assertEquals(0, dst[2 + 40], 0);
+    }
+
     private Conv2DConnection getConv2DConnection() {
         int inputFeatureMapColumns = 20;
         int inputFeatureMapRows = 10;
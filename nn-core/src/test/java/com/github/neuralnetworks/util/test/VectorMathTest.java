@@ -0,0 +1,104 @@
+package com.github.neuralnetworks.util.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.neuralnetworks.util.VectorMath;
+
+public class VectorMathTest {
+
+    private final Random random = new Random(123);
+
+    @Test
+    public void tanhMatchesMath() {
+        for (float x = -20; x < 20; x += 0.013f) {
+            assertEquals(Math.tanh(x), VectorMath.tanh(x), 1e-6);
+        }
+
+        assertEquals(0, VectorMath.tanh(0), 0);
+        assertEquals(1, VectorMath.tanh(1000), 0);
+        assertEquals(-1, VectorMath.tanh(-1000), 0);
+    }
+
+    @Test
+    public void sigmoidMatchesMath() {
+        for (float x = -100; x < 100; x += 0.037f) {
+            assertEquals(1 / (1 + Math.exp(-x)), VectorMath.sigmoid(x), 1e-6);
+        }
+    }
+
+    @Test
+    public void activationFunctions() {
+        float[] values = random(37);
+
+        float[] sigmoid = values.clone();
+        VectorMath.sigmoid(sigmoid, 0, sigmoid.length);
+        float[] relu = values.clone();
+        VectorMath.relu(relu, 0, relu.length);
+        float[] softRelu = values.clone();
+        VectorMath.softRelu(softRelu, 0, softRelu.length);
+
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(1 / (1 + Math.exp(-values[i])), sigmoid[i], 1e-6);
+            assertEquals(Math.max(0, values[i]), relu[i], 0);
+            assertEquals(Math.log(1 + Math.exp(values[i])), softRelu[i], 1e-5);
+        }
+    }
+
+    @Test
+    public void rangeIsRespected() {
+        float[] values = new float[] { -1, -1, -1, -1 };
+        VectorMath.relu(values, 1, 3);
+
+        assertEquals(-1, values[0], 0);
+        assertEquals(0, values[1], 0);
+        assertEquals(0, values[2], 0);
+        assertEquals(-1, values[3], 0);
+    }
+
+    @Test
+    public void derivatives() {
+        float[] error = random(21);
+        float[] activation = random(21);
+
+        float[] sigmoid = error.clone();
+        VectorMath.sigmoidDerivative(sigmoid, activation, 0, sigmoid.length);
+        float[] relu = error.clone();
+        VectorMath.reluDerivative(relu, activation, 0, relu.length);
+        float[] softRelu = error.clone();
+        VectorMath.softReluDerivative(softRelu, activation, 0, softRelu.length);
+
+        for (int i = 0; i < error.length; i++) {
+            assertEquals(error[i] * activation[i] * (1 - activation[i]), sigmoid[i], 1e-6);
+            assertEquals(activation[i] > 0 ? error[i] : 0, relu[i], 0);
+            assertEquals(error[i] / (1 + Math.exp(-activation[i])), softRelu[i], 1e-5);
+        }
+    }
+
+    @Test
+    public void dotProduct() {
+        for (int length : new int[] { 0, 1, 3, 4, 17 }) {
+            float[] a = random(length + 2);
+            float[] b = random(length + 1);
+
+            float expected = 0;
+            for (int i = 0; i < length; i++) {
+                expected += a[i + 2] * b[i + 1];
+            }
+
+            assertEquals(expected, VectorMath.dot(a, 2, b, 1, length), 1e-5);
+        }
+    }
+
+    private float[] random(int length) {
+        float[] result = new float[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = (random.nextFloat() - 0.5f) * 10;
+        }
+
+        return result;
+    }
+}
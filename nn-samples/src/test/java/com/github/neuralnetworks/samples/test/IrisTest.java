@@ -1,6 +1,9 @@
 package com.github.neuralnetworks.samples.test;
 
 import com.amd.aparapi.Kernel.EXECUTION_MODE;
+import com.github.neuralnetworks.architecture.Connections;
+import com.github.neuralnetworks.architecture.FullyConnected;
+import com.github.neuralnetworks.architecture.Matrix;
 import com.github.neuralnetworks.architecture.NeuralNetwork;
 import com.github.neuralnetworks.architecture.NeuralNetworkImpl;
 import com.github.neuralnetworks.architecture.types.*;
@@ -24,6 +27,8 @@ import com.github.neuralnetworks.training.random.NNRandomInitializer;
 import com.github.neuralnetworks.training.rbm.AparapiCDTrainer;
 import com.github.neuralnetworks.training.rbm.DBNTrainer;
 import com.github.neuralnetworks.util.Environment;
+import com.github.neuralnetworks.util.HalfFloat;
+import com.github.neuralnetworks.util.Util;
 import org.junit.Test;
 
 import java.util.HashMap;
@@ -72,6 +77,74 @@ public class IrisTest {
 	assertEquals(0, bpt.getOutputError().getTotalNetworkError(), 0.1);
     }
 
+    /**
+     * The trained network is converted to 16 bit weights (bfloat16 and IEEE
+     * half precision) - the classification error should change by less than
+     * 0.02
+     */
+    @Test
+    public void testMLPHalfPrecision() {
+	NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 4, 2, 3 }, true);
+
+	IrisInputProvider trainInputProvider = new IrisInputProvider(150, 300000, new IrisTargetMultiNeuronOutputConverter(), false, true, false);
+	IrisInputProvider testInputProvider = new IrisInputProvider(1, 150, new IrisTargetMultiNeuronOutputConverter(), false, true, false);
+
+	BackPropagationTrainer<?> bpt = TrainerFactory.backPropagation(mlp, trainInputProvider, testInputProvider, new MultipleNeuronsOutputError(), new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.01f, 0.01f), 0.5f), 0.02f, 0.7f, 0f, 0f);
+	bpt.addEventListener(new LogTrainingListener(Thread.currentThread().getStackTrace()[1].getMethodName()));
+	bpt.addEventListener(new EarlyStoppingListener(testInputProvider, 100, 0.015f));
+
+	Environment.getInstance().setExecutionMode(EXECUTION_MODE.SEQ);
+
+	bpt.train();
+
+	bpt.test();
+	float floatError = bpt.getOutputError().getTotalNetworkError();
+
+	Map<FullyConnected, Matrix> weights = new HashMap<>();
+	for (Connections c : mlp.getConnections()) {
+	    weights.put((FullyConnected) c, ((FullyConnected) c).getConnectionGraph());
+	}
+
+	for (HalfFloat format : HalfFloat.values()) {
+	    for (Map.Entry<FullyConnected, Matrix> e : weights.entrySet()) {
+		e.getKey().setConnectionGraph(e.getValue());
+	    }
+
+	    Util.toHalfPrecision(mlp, format);
+	    bpt.test();
+	    assertEquals(floatError, bpt.getOutputError().getTotalNetworkError(), 0.02);
+	}
+    }
+
+    /**
+     * Post training quantization of the trained network to 8 bit weights
+     * (calibrated with the training set) - the classification error should
+     * change by less than 0.05
+     */
+    @Test
+    public void testMLPQuantized() {
+	NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 4, 2, 3 }, true);
+
+	IrisInputProvider trainInputProvider = new IrisInputProvider(150, 300000, new IrisTargetMultiNeuronOutputConverter(), false, true, false);
+	IrisInputProvider testInputProvider = new IrisInputProvider(1, 150, new IrisTargetMultiNeuronOutputConverter(), false, true, false);
+
+	BackPropagationTrainer<?> bpt = TrainerFactory.backPropagation(mlp, trainInputProvider, testInputProvider, new MultipleNeuronsOutputError(), new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.01f, 0.01f), 0.5f), 0.02f, 0.7f, 0f, 0f);
+	bpt.addEventListener(new LogTrainingListener(Thread.currentThread().getStackTrace()[1].getMethodName()));
+	bpt.addEventListener(new EarlyStoppingListener(testInputProvider, 100, 0.015f));
+
+	Environment.getInstance().setExecutionMode(EXECUTION_MODE.SEQ);
+
+	bpt.train();
+
+	bpt.test();
+	float floatError = bpt.getOutputError().getTotalNetworkError();
+
+	Util.quantize(mlp, new IrisInputProvider(150, 150, new IrisTargetMultiNeuronOutputConverter(), false, true, false));
+	bpt.test();
+
+	assertEquals(floatError, bpt.getOutputError().getTotalNetworkError(), 0.05);
+    }
+
     /**
      * Contrastive Divergence testing
      */
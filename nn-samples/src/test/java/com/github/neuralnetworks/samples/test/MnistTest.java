@@ -22,6 +22,8 @@ import com.github.neuralnetworks.training.random.MersenneTwisterRandomInitialize
 import com.github.neuralnetworks.training.random.NNRandomInitializer;
 import com.github.neuralnetworks.training.rbm.AparapiCDTrainer;
 import com.github.neuralnetworks.util.Environment;
+import com.github.neuralnetworks.util.HalfFloat;
+import com.github.neuralnetworks.util.Util;
 
 /**
  * MNIST test
@@ -56,6 +58,35 @@ public class MnistTest {
 	assertEquals(0, bpt.getOutputError().getTotalNetworkError(), 0.1);
     }
 
+    /**
+     * The trained network is converted to 16 bit weights - the classification
+     * error should change by less than 0.01
+     */
+    @Test
+    public void testSigmoidBPHalfPrecision() {
+	NeuralNetworkImpl mlp = NNFactory.mlpSigmoid(new int[] { 784, 10 }, true);
+
+	MnistInputProvider trainInputProvider = new MnistInputProvider(TRAIN_IMAGES_IDX3_UBYTE, TRAIN_LABELS_IDX1_UBYTE, 1, 1, new MnistTargetMultiNeuronOutputConverter());
+	trainInputProvider.addInputModifier(new ScalingInputFunction(255));
+	MnistInputProvider testInputProvider = new MnistInputProvider(T10K_IMAGES_IDX3_UBYTE, T10K_LABELS_IDX1_UBYTE, 1000, 1, new MnistTargetMultiNeuronOutputConverter());
+	testInputProvider.addInputModifier(new ScalingInputFunction(255));
+
+	BackPropagationTrainer<?> bpt = TrainerFactory.backPropagation(mlp, trainInputProvider, testInputProvider, new MultipleNeuronsOutputError(), new NNRandomInitializer(new MersenneTwisterRandomInitializer(-0.01f, 0.01f)), 0.02f, 0.5f, 0f, 0f);
+
+	bpt.addEventListener(new LogTrainingListener(Thread.currentThread().getStackTrace()[1].getMethodName(), false, true));
+
+	Environment.getInstance().setExecutionMode(EXECUTION_MODE.CPU);
+
+	bpt.train();
+	bpt.test();
+	float floatError = bpt.getOutputError().getTotalNetworkError();
+
+	Util.toHalfPrecision(mlp, HalfFloat.BFLOAT16);
+	bpt.test();
+
+	assertEquals(floatError, bpt.getOutputError().getTotalNetworkError(), 0.01);
+    }
+
     @Ignore
     @Test
     public void testSigmoidHiddenBP() {